@@ -0,0 +1,183 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.drawable.GradientDrawable;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * Shows what USGS knows about one earthquake: felt reports, intensities, alerts and how it
+ * was located, with a button to its page on the USGS website.
+ * <p>
+ * The screen opens with what the list already knows about the earthquake, then fills in
+ * the rest from the {@link QuakeDetailLoader}. The details of the rows on screen are
+ * usually prefetched, the rest then shows up at once.
+ */
+public class DetailActivity extends AppCompatActivity implements QuakeDetailLoader.Callback {
+
+    private static final String EXTRA_ID = "id";
+    private static final String EXTRA_MAGNITUDE = "magnitude";
+    private static final String EXTRA_PLACE = "place";
+    private static final String EXTRA_TIME = "time";
+    private static final String EXTRA_URL = "url";
+
+    private String id;
+    private String url;
+    private QuakeFormatter formatter;
+    private int[] magnitudeColors;
+
+    private TextView magnitudeView;
+    private TextView placeView;
+    private TextView timeView;
+    private TextView magnitudeTypeView;
+    private TextView locationView;
+    private TextView feltView;
+    private TextView communityIntensityView;
+    private TextView estimatedIntensityView;
+    private TextView alertView;
+    private View tsunamiView;
+    private TextView statusView;
+    private View loadingView;
+    private View failedView;
+
+    /**
+     * Open the detail of the given row.
+     */
+    public static void start(Context context, QuakeTable quakes, int index) {
+        Intent intent = new Intent(context, DetailActivity.class);
+        intent.putExtra(EXTRA_ID, quakes.getId(index));
+        intent.putExtra(EXTRA_MAGNITUDE, quakes.getMagnitude(index));
+        intent.putExtra(EXTRA_PLACE, quakes.getPlace(index));
+        intent.putExtra(EXTRA_TIME, quakes.getTime(index));
+        intent.putExtra(EXTRA_URL, quakes.getUrl(index));
+        context.startActivity(intent);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_detail);
+
+        magnitudeView = (TextView) findViewById(R.id.detail_magnitude);
+        placeView = (TextView) findViewById(R.id.detail_place);
+        timeView = (TextView) findViewById(R.id.detail_time);
+        magnitudeTypeView = (TextView) findViewById(R.id.detail_magnitude_type);
+        locationView = (TextView) findViewById(R.id.detail_location);
+        feltView = (TextView) findViewById(R.id.detail_felt);
+        communityIntensityView = (TextView) findViewById(R.id.detail_community_intensity);
+        estimatedIntensityView = (TextView) findViewById(R.id.detail_estimated_intensity);
+        alertView = (TextView) findViewById(R.id.detail_alert);
+        tsunamiView = findViewById(R.id.detail_tsunami);
+        statusView = (TextView) findViewById(R.id.detail_status);
+        loadingView = findViewById(R.id.detail_loading);
+        failedView = findViewById(R.id.detail_failed);
+
+        formatter = new QuakeFormatter(getString(R.string.no_offset_found));
+        magnitudeColors = QuakeAdapter.resolveMagnitudeColors(this);
+
+        Intent intent = getIntent();
+        id = intent.getStringExtra(EXTRA_ID);
+        url = intent.getStringExtra(EXTRA_URL);
+        showSummary(intent.getDoubleExtra(EXTRA_MAGNITUDE, 0), intent.getStringExtra(EXTRA_PLACE),
+                intent.getLongExtra(EXTRA_TIME, 0));
+        for (TextView view : new TextView[]{magnitudeTypeView, locationView, feltView,
+                communityIntensityView, estimatedIntensityView, alertView, statusView}) {
+            view.setVisibility(View.GONE);
+        }
+        tsunamiView.setVisibility(View.GONE);
+
+        findViewById(R.id.detail_website).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent websiteIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(url));
+                if (websiteIntent.resolveActivity(getPackageManager()) != null) {
+                    startActivity(websiteIntent);
+                }
+            }
+        });
+
+        // Called right away when the detail was prefetched
+        QuakeDetailLoader.getInstance(this).load(id, this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        QuakeDetailLoader.getInstance(this).cancel(id, this);
+    }
+
+    @Override
+    public void onDetailLoaded(String id, QuakeDetail detail) {
+        loadingView.setVisibility(View.GONE);
+        failedView.setVisibility(View.GONE);
+        showSummary(detail.getMagnitude(), detail.getPlace(), detail.getTime());
+        if (!detail.getUrl().isEmpty()) {
+            url = detail.getUrl();
+        }
+
+        String magnitudeText = formatter.formatMagnitude(detail.getMagnitude());
+        showRow(magnitudeTypeView, detail.getMagnitudeType().isEmpty() ? null
+                : getString(R.string.detail_magnitude_type, magnitudeText, detail.getMagnitudeType()));
+        showRow(locationView, Double.isNaN(detail.getLatitude()) ? null
+                : getString(R.string.detail_location, detail.getLatitude(), detail.getLongitude(),
+                Double.isNaN(detail.getDepth()) ? 0 : detail.getDepth()));
+        showRow(feltView, detail.getFeltReports() <= 0 ? null : getResources().getQuantityString(
+                R.plurals.detail_felt, detail.getFeltReports(), detail.getFeltReports()));
+        showRow(communityIntensityView, Double.isNaN(detail.getCommunityIntensity()) ? null
+                : getString(R.string.detail_community_intensity, detail.getCommunityIntensity()));
+        showRow(estimatedIntensityView, Double.isNaN(detail.getEstimatedIntensity()) ? null
+                : getString(R.string.detail_estimated_intensity, detail.getEstimatedIntensity()));
+        showRow(alertView, detail.getAlert().isEmpty() ? null
+                : getString(R.string.detail_alert, detail.getAlert()));
+        tsunamiView.setVisibility(detail.isTsunami() ? View.VISIBLE : View.GONE);
+
+        String status = capitalize(detail.getStatus());
+        if (status.isEmpty() || detail.getNetwork().isEmpty()) {
+            showRow(statusView, null);
+        } else if (detail.getStations() > 0) {
+            showRow(statusView, getString(R.string.detail_status_stations, status, detail.getNetwork(),
+                    detail.getStations()));
+        } else {
+            showRow(statusView, getString(R.string.detail_status, status, detail.getNetwork()));
+        }
+    }
+
+    @Override
+    public void onDetailFailed(String id) {
+        loadingView.setVisibility(View.GONE);
+        failedView.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Show what the list knows about the earthquake too.
+     */
+    private void showSummary(double magnitude, String place, long time) {
+        magnitudeView.setText(formatter.formatMagnitude(magnitude));
+        // Mutated, so the circles of the list keep their colours
+        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeView.getBackground().mutate();
+        magnitudeCircle.setColor(magnitudeColors[QuakeFormatter.magnitudeBucket(magnitude)]);
+        placeView.setText(place);
+        timeView.setText(getString(R.string.detail_time, formatter.formatDate(time), formatter.formatTime(time)));
+    }
+
+    /**
+     * Show the given text in the view, or hide the view if the text is null.
+     */
+    private static void showRow(TextView view, String text) {
+        view.setVisibility(text == null ? View.GONE : View.VISIBLE);
+        view.setText(text);
+    }
+
+    private static String capitalize(String text) {
+        if (text.isEmpty()) {
+            return text;
+        }
+        return text.substring(0, 1).toUpperCase(Locale.getDefault()) + text.substring(1);
+    }
+}
@@ -15,99 +15,345 @@
  */
 package com.example.android.quakereport;
 
-import android.app.LoaderManager;
-import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.content.Intent;
-import android.content.Loader;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.List;
 
 
-public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Quake>> {
+public class EarthquakeActivity extends AppCompatActivity {
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
-    private static final int EARTHQUAKE_LOADER_ID = 0;
     /**
-     * URL for earthquake data from the USGS dataset
+     * Start loading the next page when the user gets this close to the end of the list
      */
-    private static final String USGS_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query";
-    ArrayList<Quake> earthquakes = new ArrayList<>();
+    private static final int PAGE_PREFETCH_DISTANCE = 5;
+    /**
+     * Where the earthquakes on screen are saved when the activity stops, see {@link QuakeSnapshot}
+     */
+    private static final String SNAPSHOT_FILE_NAME = "quakes.snapshot";
+    /**
+     * Maximum number of search results shown
+     */
+    private static final int SEARCH_LIMIT = 100;
+
+    /**
+     * Most rows whose details are prefetched when the list stops, about two screens of them
+     */
+    private static final int DETAIL_PREFETCH_ROWS = 20;
+    /**
+     * Request code of picking a catalog file to import
+     */
+    private static final int REQUEST_IMPORT_FILE = 1;
+    QuakeTable earthquakes = new QuakeTable();
     TextView emptyView;
     ProgressBar loadingBar;
     private QuakeAdapter adapter;
+    private RecyclerView earthquakeListView;
+    private LinearLayoutManager layoutManager;
+    private QuakeRepository repository;
+    /**
+     * The earthquakes of the query on screen, kept by the repository across activity instances
+     */
+    private QuakeRepository.Feed feed;
+    private QuakeSyncer syncer;
+    /**
+     * When the feed was asked for ({@link System#nanoTime()}), to measure how long it took
+     * to deliver
+     */
+    private long loadStartedAt;
+    /**
+     * What is typed in the search box, empty when the list shows every loaded earthquake
+     */
+    private String searchQuery = "";
+    /**
+     * Set when the settings change while the activity is in the background
+     */
+    private boolean preferencesChanged;
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    preferencesChanged = true;
+                }
+            };
+    /**
+     * Downloads the details of the rows on screen ahead of a tap, see QuakeDetailLoader
+     */
+    private final Runnable prefetchDetails = new Runnable() {
+        @Override
+        public void run() {
+            int first = layoutManager.findFirstVisibleItemPosition();
+            int last = layoutManager.findLastVisibleItemPosition();
+            if (first == RecyclerView.NO_POSITION) {
+                return;
+            }
+            QuakeTable quakes = adapter.getTable();
+            ArrayList<String> ids = new ArrayList<>();
+            for (int i = first; i <= last && i < quakes.size() && ids.size() < DETAIL_PREFETCH_ROWS; i++) {
+                ids.add(quakes.getId(i));
+            }
+            QuakeDetailLoader.getInstance(EarthquakeActivity.this).prefetch(ids);
+        }
+    };
+
+    /**
+     * Hands what the feed loads over to the adapter
+     */
+    private final QuakeRepository.Listener feedListener = new QuakeRepository.Listener() {
+        @Override
+        public void onQuakesLoaded(QuakeTable quakes) {
+            showQuakes(quakes);
+            // Once the rows are laid out
+            earthquakeListView.post(prefetchDetails);
+        }
+
+        @Override
+        public void onPageLoaded(QuakeTable page) {
+            if (isSearching()) {
+                // The page may have new matches
+                showSearchResults();
+            } else {
+                adapter.addPage(page);
+            }
+        }
+
+        @Override
+        public void onQuakesMerged(QuakeTable delta, boolean complete) {
+            if (isSearching()) {
+                showSearchResults();
+            } else {
+                adapter.mergeQuakes(delta, feed.getOrderBy(), complete);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
-        Log.v(LOG_TAG, "We are in onCreate method");
-
-        // Find a reference to the {@link ListView} in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        layoutManager = new LinearLayoutManager(this);
+        earthquakeListView.setLayoutManager(layoutManager);
 
         // Find a reference to the ProgressBar
         loadingBar = (ProgressBar) findViewById(R.id.loading_spinner);
 
-        // Create a new {@link custom ArrayAdapter} of earthquakes
+        // Start from the earthquakes of the last session, if they answer the same query
+        repository = QuakeRepository.getInstance(this);
+        if (repository.getCurrentFeed() == null) {
+            showSnapshot();
+        }
+
+        // Create a new {@link QuakeAdapter} of earthquakes
         adapter = new QuakeAdapter(getBaseContext(), earthquakes);
 
-        // Set the adapter on the {@link ListView}
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
         earthquakeListView.setAdapter(adapter);
 
-        // Have the ListView show the EmptyView, in case of no data in the CustomAdapter
+        // Show the EmptyView whenever there is no data in the adapter
         // Text is set in onLoadingFinished method
         emptyView = (TextView) findViewById(R.id.emty_view);
-        earthquakeListView.setEmptyView(emptyView);
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
 
-        if (isNetworkAvailable()) {
-            // Having the LoaderManager to initialize the loader
-            getLoaderManager().initLoader(EARTHQUAKE_LOADER_ID, null, this);
-        } else {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
+        PreferenceManager.getDefaultSharedPreferences(this).registerOnSharedPreferenceChangeListener(preferenceListener);
+
+        if (!isNetworkAvailable()) {
+            // The cache and the earthquakes loaded before can still be shown
             loadingBar.setVisibility(View.GONE);
             emptyView.setText(R.string.no_network_text);
         }
+        // After a rotation this is the feed of the previous instance, with everything it loaded
+        attachFeed();
+
+        // OnQuakeClickListener is an interface, here we declare an anonymous class to implement it
+        adapter.setOnQuakeClickListener(new QuakeAdapter.OnQuakeClickListener() {
+            @Override
+            public void onQuakeClick(int position) {
+                DetailActivity.start(EarthquakeActivity.this, adapter.getTable(), position);
+            }
+        });
+
+        // Endless scroll, ask for the next page when the end of the list comes into view
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                // Prefetch what the user stopped on, not every row flung past
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    prefetchDetails.run();
+                }
+            }
 
-        // OnItemClickListener is an interface, here we declare an anonymous class to implement it
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-
-                Quake currentQuakeItem = adapter.getItem(position);
-                String currentQuakeUrl = currentQuakeItem.getQuakeWebSite();
-                Uri webPage = Uri.parse(currentQuakeUrl);
-                Intent websiteIntent = new Intent(Intent.ACTION_VIEW, webPage);
-                if (websiteIntent.resolveActivity(getPackageManager()) != null) {
-                    startActivity(websiteIntent);
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = adapter.getItemCount();
+                // Search results are only the loaded earthquakes, scrolling them loads nothing
+                if (totalItemCount > 0 && !isSearching()
+                        && layoutManager.findLastVisibleItemPosition() >= totalItemCount - 1 - PAGE_PREFETCH_DISTANCE) {
+                    feed.loadNextPage();
                 }
             }
         });
 
     }
 
+    /**
+     * Put the first page of the saved snapshot on screen, before the feed starts loading.
+     * The snapshot is also handed to the repository, which answers from it when it is recent
+     * enough for the syncer to bring it up to date.
+     */
+    private void showSnapshot() {
+        QuakeSnapshot snapshot = QueryUtils.readSnapshot(new File(getCacheDir(), SNAPSHOT_FILE_NAME));
+        if (snapshot == null || !snapshot.getQueryUrl().equals(buildQueryUrl())) {
+            return;
+        }
+        QuakeIndex index = snapshot.toIndex();
+        earthquakes = index.query(snapshot.getMinMagnitude(), snapshot.getOrderBy(), QuakeRepository.PAGE_SIZE);
+        earthquakes.prepareDisplay(new QuakeFormatter(getString(R.string.no_offset_found)));
+        loadingBar.setVisibility(View.GONE);
+
+        if (System.currentTimeMillis() - snapshot.getSyncedAt() < QuakeCache.WINDOW_MILLIS) {
+            repository.setLoadedIndex(index);
+        }
+    }
+
+    /**
+     * Save the given earthquakes to the snapshot file, on a background thread.
+     */
+    private void saveSnapshot(final QuakeTable quakes, final boolean complete) {
+        final Context appContext = getApplicationContext();
+        final File file = new File(getCacheDir(), SNAPSHOT_FILE_NAME);
+        final String queryUrl = feed.getQueryUrl();
+        final double minMagnitude = feed.getMinMagnitude();
+        final String orderBy = feed.getOrderBy();
+        // Serial, so two snapshots are never written at the same time
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                long syncedAt = new QuakeCache(appContext).getLastSync(queryUrl);
+                QueryUtils.writeSnapshot(file, new QuakeSnapshot(quakes, queryUrl, minMagnitude,
+                        orderBy, complete, syncedAt));
+            }
+        });
+    }
+
+    private void updateEmptyView() {
+        emptyView.setVisibility(adapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        if (preferencesChanged) {
+            // Back from the settings, load the new query, from what was on screen if possible
+            preferencesChanged = false;
+            attachFeed();
+        }
+
+        // Keep the list up to date with the earthquakes happening while it is on screen
+        syncer = QuakeSyncer.forFeed(this, feed);
+        syncer.start();
+    }
+
     @Override
-    // onCreateLoader instantiates and returns a new Loader for the given ID
-    public Loader<List<Quake>> onCreateLoader(int i, Bundle bundle) {
-        Log.v(LOG_TAG, "We are in onCreateLoader method");
+    protected void onStop() {
+        super.onStop();
+        syncer.stop();
+        syncer = null;
+
+        // Remember what is on screen for the next launch
+        QuakeTable loaded = feed.getQuakes();
+        if (loaded != null && !loaded.isEmpty()) {
+            saveSnapshot(loaded.copy(), feed.isExhausted());
+        }
+
+        if (QuakeMetrics.ENABLED) {
+            QuakeMetrics.dumpToLog();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(preferenceListener);
+        // The feed goes on loading for the next instance
+        feed.setListener(null);
+    }
 
+    /**
+     * Listen to the feed of the query in the user preferences, the one already loaded if
+     * the query didn't change.
+     */
+    private void attachFeed() {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+
+        String orderBy = sharedPrefs.getString(getString(R.string.settings_order_by_key), getString(R.string.settings_order_by_default));
+
+        double minMagnitude;
+        try {
+            minMagnitude = Double.parseDouble(sharedPrefs.getString(getString(R.string.settings_min_magnitude_key), getString(R.string.settings_min_magnitude_default)));
+        } catch (NumberFormatException e) {
+            minMagnitude = 0;
+        }
+
+        // How long cached results are shown without asking USGS for updates
+        long cacheTtl;
+        try {
+            cacheTtl = Long.parseLong(sharedPrefs.getString(getString(R.string.settings_cache_ttl_key), getString(R.string.settings_cache_ttl_default)));
+        } catch (NumberFormatException e) {
+            cacheTtl = Long.parseLong(getString(R.string.settings_cache_ttl_default));
+        }
+
+        if (feed != null) {
+            feed.setListener(null);
+        }
+        feed = repository.getFeed(buildQueryUrl(), minMagnitude, orderBy, cacheTtl);
+        loadStartedAt = feed.getQuakes() == null ? System.nanoTime() : 0;
+        // Delivers the earthquakes right away if the feed already has them
+        feed.setListener(feedListener);
+    }
+
+    /**
+     * Build the USGS query from the user preferences, without the paging parameters.
+     */
+    private String buildQueryUrl() {
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
 
         // getString retrieves a String value from the preferences. The second parameter is the default value for this preference.
@@ -116,49 +362,42 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         String orderBy = sharedPrefs.getString(getString(R.string.settings_order_by_key), getString(R.string.settings_order_by_default));
 
         // parse breaks apart the URI string that's passed into its parameter
-        Uri baseUri = Uri.parse(USGS_URL);
+        Uri baseUri = Uri.parse(QueryUtils.getBaseUrl(this) + QueryUtils.QUERY_PATH);
 
         // buildUpon prepares the baseUri that we just parsed so we can add query parameters to it
         Uri.Builder uriBuilder = baseUri.buildUpon();
 
         // Append query parameter and its value. For example, the `format=geojson`
         uriBuilder.appendQueryParameter("format", "geojson");
-        uriBuilder.appendQueryParameter("limit", "10");
         uriBuilder.appendQueryParameter("minmag", minMagnitude);
         uriBuilder.appendQueryParameter("orderby", orderBy);
 
-        // Return the completed uri `http://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&limit=10&minmag=minMagnitude&orderby=time
-        return new EarthquakeLoader(this, uriBuilder.toString());
-
+        return uriBuilder.toString();
     }
 
     /**
-     * This method runs on the main UI thread after the background work has been
-     * completed. This method receives as input, the return value from the doInBackground()
-     * method. First we clear out the adapter, to get rid of earthquake data from a previous
-     * query to USGS. Then we update the adapter with the new list of earthquakes,
-     * which will trigger the ListView to re-populate its list items.
+     * This method runs on the main UI thread when the feed has loaded earthquakes. We hand
+     * the new table of earthquakes to the adapter, which diffs it against the earthquake
+     * data from a previous query to USGS and only updates the rows that changed.
      */
-    @Override
-    public void onLoadFinished(Loader<List<Quake>> loader, List<Quake> o) {
-
-        Log.v(LOG_TAG, "We are in onLoadFinished method");
+    private void showQuakes(QuakeTable quakes) {
 
         loadingBar.setVisibility(View.GONE);
 
-        if (o == null) {
-            return;
+        if (QuakeMetrics.ENABLED && loadStartedAt != 0) {
+            QuakeMetrics.LOAD.recordSince(loadStartedAt);
+            // Only the first result, the revalidated one comes after a network round trip
+            loadStartedAt = 0;
         }
 
-        earthquakes = (ArrayList<Quake>) o;
-
-        // Clear the adapter of previous earthquake data
-        adapter.clear();
+        earthquakes = quakes;
 
-        // If there is a valid list of {@link Earthquake}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (earthquakes != null && !earthquakes.isEmpty()) {
-            adapter.addAll(earthquakes);
+        if (isSearching()) {
+            showSearchResults();
+        } else {
+            // Replace the earthquake data from a previous query with the new table.
+            // This will trigger the RecyclerView to update the rows that changed.
+            adapter.swapTable(earthquakes);
         }
 
         if (isNetworkAvailable()) {
@@ -168,12 +407,21 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader loader) {
-
-        Log.v(LOG_TAG, "We are in onLoaderReset method");
+    private boolean isSearching() {
+        return !searchQuery.isEmpty();
+    }
 
-        adapter.clear();
+    /**
+     * Show the loaded earthquakes matching the search box, or all of them when it is empty.
+     * The feed keeps a search index of its earthquakes, so this is fast enough to run on
+     * every keystroke.
+     */
+    private void showSearchResults() {
+        if (isSearching()) {
+            adapter.swapTable(feed.search(searchQuery, SEARCH_LIMIT));
+        } else if (feed.getQuakes() != null) {
+            adapter.swapTable(feed.getQuakes().copy());
+        }
     }
 
     private boolean isNetworkAvailable() {
@@ -188,6 +436,26 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the Options Menu we specified in XML
         getMenuInflater().inflate(R.menu.main, menu);
+
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // The results are already shown, only hide the keyboard
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String query = newText.trim();
+                if (!query.equals(searchQuery)) {
+                    searchQuery = query;
+                    showSearchResults();
+                }
+                return true;
+            }
+        });
         return true;
     }
 
@@ -198,58 +466,32 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
             Intent settingsIntent = new Intent(this, SettingsActivity.class);
             startActivity(settingsIntent);
             return true;
+        } else if (id == R.id.action_map) {
+            startActivity(new Intent(this, MapActivity.class));
+            return true;
+        } else if (id == R.id.action_summary) {
+            startActivity(new Intent(this, SummaryActivity.class));
+            return true;
+        } else if (id == R.id.action_import) {
+            // Let the user pick a GeoJSON or CSV export saved from the USGS search page
+            Intent pickIntent = new Intent(Intent.ACTION_GET_CONTENT);
+            pickIntent.setType("*/*");
+            pickIntent.addCategory(Intent.CATEGORY_OPENABLE);
+            startActivityForResult(Intent.createChooser(pickIntent, getString(R.string.import_menu_item)),
+                    REQUEST_IMPORT_FILE);
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
-    /**
-     * {@link AsyncTaskLoader} to perform the network request on a background thread, and then
-     * update the UI with the list of earthquakes in the response.
-     * <p>
-     * AsyncTask has three generic parameters: the input type, a type used for progress updates, and
-     * an output type. Our task will take a String URL, and return an Earthquake. We won't do
-     * progress updates, so the second generic is just Void.
-     * <p>
-     * We'll only override one of the methods of AsyncTaskLoader: loadInBackground().
-     * The doInBackground() method runs on a background thread, so it can run long-running code
-     * (like network activity), without interfering with the responsiveness of the app.
-     * Then onPostExecute() is passed the result of doInBackground() method, but runs on the
-     * UI thread, so it can use the produced data to update the UI.
-     * <p>
-     * Note that it is better to declare this class in a separate file
-     */
-    private static class EarthquakeLoader extends AsyncTaskLoader<List<Quake>> {
-
-        private String mData;
-
-        public EarthquakeLoader(Context context, String string) {
-            super(context);
-            mData = string;
-        }
-
-        /**
-         * This method runs on a background thread and performs the network request.
-         * We should not update the UI from a background thread, so we return a list of
-         * {@link Quake}s as the result.
-         */
-        @Override
-        public ArrayList<Quake> loadInBackground() {
-
-            Log.v(LOG_TAG, "We are in loadInBackground method");
-
-            if (mData == null) {
-                return null;
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_FILE) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                QuakeImportService.start(this, data.getData());
             }
-
-            // Return the {@link Event}
-            return QueryUtils.fetchQuakeData(mData);
-        }
-
-        @Override
-        protected void onStartLoading() {
-            Log.v(LOG_TAG, "We are in onStartLoading method");
-
-            forceLoad();
+            return;
         }
+        super.onActivityResult(requestCode, resultCode, data);
     }
 }
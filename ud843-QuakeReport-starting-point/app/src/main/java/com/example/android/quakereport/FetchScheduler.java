@@ -0,0 +1,326 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Runs the earthquake requests of the app on top of {@link QuakeHttpClient}.
+ * <ul>
+ * <li>Failed requests are retried a bounded number of times, on I/O errors and on 5xx/429
+ * answers, waiting an exponentially growing, jittered delay between attempts. Responses
+ * that cannot be parsed are not retried, the same bytes would come back.</li>
+ * <li>Requests for a URL that is already being fetched do not go to the network again, they
+ * wait for the running fetch and share its result.</li>
+ * <li>A {@link Call} can be cancelled from any thread. When every caller waiting for a fetch
+ * has cancelled, the connection is aborted instead of being read to the end.</li>
+ * </ul>
+ */
+public final class FetchScheduler {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 8000;
+
+    private static FetchScheduler sInstance;
+
+    /**
+     * Makes one attempt of a request: {@link QuakeHttpClient} in the app, a fake in tests.
+     */
+    public interface Transport {
+        /**
+         * Fetch and parse the earthquakes at the given URL, telling the callback about the
+         * connection as soon as it is opened.
+         */
+        QuakeTable fetchQuakes(URL url, QuakeHttpClient.ConnectionCallback callback) throws IOException;
+    }
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Transport mTransport;
+    private final Random mRandom = new Random();
+
+    /**
+     * Fetches currently running, by URL
+     */
+    private final HashMap<String, Fetch> mInFlight = new HashMap<>();
+
+    /**
+     * Return the scheduler shared by the whole app, with the default retry policy.
+     */
+    public static synchronized FetchScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new FetchScheduler(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS,
+                    DEFAULT_MAX_DELAY_MILLIS, QuakeHttpClient.getInstance());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxAttempts     how many times a request is tried before giving up, at least 1
+     * @param baseDelayMillis the delay before the first retry, doubled for every following one
+     * @param maxDelayMillis  the upper bound of the delay between two attempts
+     */
+    public FetchScheduler(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Transport transport) {
+        mMaxAttempts = Math.max(1, maxAttempts);
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mTransport = transport;
+    }
+
+    /**
+     * Prepare a request for the given URL. Nothing happens until {@link Call#execute()}.
+     */
+    public Call newCall(String url) {
+        return new Call(url);
+    }
+
+    /**
+     * A single request, made by one caller. Several calls for the same URL running at the
+     * same time share one fetch.
+     */
+    public final class Call {
+
+        private final String mUrl;
+        // Guarded by mInFlight
+        private Fetch mFetch;
+        private volatile boolean mCancelled;
+
+        private Call(String url) {
+            mUrl = url;
+        }
+
+        /**
+         * Run the request on the calling thread, or wait for the identical one already running,
+         * and return its earthquakes.
+         *
+         * @throws InterruptedIOException if the call was cancelled
+         * @throws IOException            if the last attempt failed
+         */
+        public QuakeTable execute() throws IOException {
+            Fetch fetch;
+            boolean owner = false;
+            synchronized (mInFlight) {
+                if (mCancelled) {
+                    throw new InterruptedIOException("Request cancelled");
+                }
+                fetch = mInFlight.get(mUrl);
+                if (fetch == null) {
+                    fetch = new Fetch(mUrl);
+                    mInFlight.put(mUrl, fetch);
+                    owner = true;
+                }
+                fetch.mCallers++;
+                mFetch = fetch;
+            }
+
+            if (owner) {
+                fetch.run();
+                removeInFlight(fetch);
+            }
+
+            boolean interrupted = false;
+            synchronized (fetch) {
+                while (!fetch.mDone && !mCancelled) {
+                    try {
+                        fetch.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                cancel();
+            }
+
+            if (isCancelled()) {
+                throw new InterruptedIOException("Request cancelled");
+            }
+            if (fetch.mError != null) {
+                throw fetch.mError;
+            }
+            // Every caller gets its own table, callers are free to append to it. The shared
+            // result itself is never changed, so the callers can copy it at the same time.
+            return fetch.mResult.copy();
+        }
+
+        /**
+         * Stop waiting for the request. If nobody else is waiting for the same URL, the
+         * connection is aborted.
+         */
+        public void cancel() {
+            synchronized (mInFlight) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                Fetch fetch = mFetch;
+                if (fetch == null) {
+                    return;
+                }
+                fetch.mCallers--;
+                if (fetch.mCallers == 0) {
+                    fetch.abort();
+                    removeInFlight(fetch);
+                }
+                // Wake this caller up if it is waiting for the fetch
+                synchronized (fetch) {
+                    fetch.notifyAll();
+                }
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * The actual network work behind one or more calls.
+     */
+    private final class Fetch implements QuakeHttpClient.ConnectionCallback {
+
+        private final String mUrl;
+        // Guarded by mInFlight
+        private int mCallers;
+        private volatile boolean mAborted;
+        private volatile HttpURLConnection mConnection;
+
+        // Guarded by this
+        private boolean mDone;
+        private QuakeTable mResult;
+        private IOException mError;
+
+        Fetch(String url) {
+            mUrl = url;
+        }
+
+        void run() {
+            QuakeTable result = null;
+            IOException error = null;
+            try {
+                result = fetchWithRetries();
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                mResult = result;
+                mError = error;
+                mDone = true;
+                notifyAll();
+            }
+        }
+
+        private QuakeTable fetchWithRetries() throws IOException {
+            URL url;
+            try {
+                url = new URL(mUrl);
+            } catch (MalformedURLException e) {
+                throw new IOException("Invalid earthquake query URL: " + mUrl, e);
+            }
+
+            for (int attempt = 1; ; attempt++) {
+                if (mAborted) {
+                    throw new InterruptedIOException("Request cancelled");
+                }
+                try {
+                    return mTransport.fetchQuakes(url, this);
+                } catch (IOException e) {
+                    if (mAborted) {
+                        throw new InterruptedIOException("Request cancelled");
+                    }
+                    if (attempt >= mMaxAttempts || !isRetryable(e)) {
+                        throw e;
+                    }
+                }
+                waitBeforeRetry(attempt);
+            }
+        }
+
+        /**
+         * Wait before the next attempt, unless the fetch gets aborted in the meantime.
+         */
+        private synchronized void waitBeforeRetry(int attempt) {
+            long delay = retryDelayMillis(attempt);
+            long deadline = System.currentTimeMillis() + delay;
+            while (!mAborted && delay > 0) {
+                try {
+                    wait(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                delay = deadline - System.currentTimeMillis();
+            }
+        }
+
+        void abort() {
+            mAborted = true;
+            HttpURLConnection connection = mConnection;
+            if (connection != null) {
+                // Makes a blocked connect or read on the fetching thread fail right away
+                connection.disconnect();
+            }
+            // Cut the wait before a retry short
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void onConnectionOpened(HttpURLConnection connection) {
+            mConnection = connection;
+            if (mAborted) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Forget the given fetch, unless another one for the same URL has replaced it already.
+     */
+    private void removeInFlight(Fetch fetch) {
+        synchronized (mInFlight) {
+            if (mInFlight.get(fetch.mUrl) == fetch) {
+                mInFlight.remove(fetch.mUrl);
+            }
+        }
+    }
+
+    /**
+     * Return the delay before the given retry: the base delay doubled for every previous
+     * attempt, capped, with the upper half randomized so clients don't retry in lockstep.
+     */
+    long retryDelayMillis(int attempt) {
+        long delay = mMaxDelayMillis;
+        if (attempt - 1 < 31) {
+            delay = Math.min(mMaxDelayMillis, mBaseDelayMillis << (attempt - 1));
+        }
+        long jitter;
+        synchronized (mRandom) {
+            jitter = (long) (mRandom.nextDouble() * (delay / 2));
+        }
+        return delay / 2 + jitter;
+    }
+
+    /**
+     * Server errors and throttling may go away on their own, other HTTP errors and malformed
+     * responses won't. Any other I/O error (timeouts, dropped connections) is worth another
+     * attempt.
+     */
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof QuakeJsonParser.MalformedJsonException) {
+            return false;
+        }
+        if (e instanceof QuakeHttpClient.HttpStatusException) {
+            int responseCode = ((QuakeHttpClient.HttpStatusException) e).getResponseCode();
+            return responseCode >= 500 || responseCode == 429;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.android.quakereport;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+
+/**
+ * Shows the loaded earthquakes on a map, clustered by {@link QuakeClusterIndex}.
+ * <p>
+ * The clusters are kept by the feed of the current query, like its {@link QuakeStats}, so
+ * opening the map doesn't compute anything. While it is open, the feed goes on syncing and
+ * the map follows.
+ */
+public class MapActivity extends AppCompatActivity implements QuakeClusterIndex.Listener {
+
+    private QuakeRepository.Feed feed;
+    private QuakeSyncer syncer;
+    private QuakeMapView mapView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_map);
+
+        mapView = (QuakeMapView) findViewById(R.id.map);
+
+        feed = QuakeRepository.getInstance(this).getCurrentFeed();
+        if (feed == null) {
+            // Opened from the list, which always has a feed, unless the process was restarted here
+            finish();
+            return;
+        }
+        mapView.setClusterIndex(feed.getClusterIndex());
+        mapView.setOnQuakeClickListener(new QuakeMapView.OnQuakeClickListener() {
+            @Override
+            public void onQuakeClick(String id) {
+                QuakeTable quakes = feed.getQuakes();
+                int index = quakes == null ? -1 : quakes.indexOfId(id);
+                if (index < 0) {
+                    return;
+                }
+                DetailActivity.start(MapActivity.this, quakes, index);
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (feed == null) {
+            return;
+        }
+        feed.getClusterIndex().setListener(this);
+        mapView.invalidate();
+
+        // The list is stopped, keep the feed up to date from here
+        syncer = QuakeSyncer.forFeed(this, feed);
+        syncer.start();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (feed == null) {
+            return;
+        }
+        syncer.stop();
+        syncer = null;
+        feed.getClusterIndex().setListener(null);
+    }
+
+    @Override
+    public void onClustersChanged(QuakeClusterIndex index) {
+        mapView.invalidate();
+    }
+}
@@ -2,16 +2,41 @@ package com.example.android.quakereport;
 
 public class Quake {
 
+    private String mId;
     private double mMagnitude;
     private String mLocation;
     private long mDateTimeMilliseconds;
     private String mQuakeWebSite;
+    private double mLatitude;
+    private double mLongitude;
+    private double mDepth;
 
-    public Quake(double magnitude, String location, long date, String website) {
+    public Quake(String id, double magnitude, String location, long date, String website) {
+        this(id, magnitude, location, date, website, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * @param latitude  degrees north, NaN if unknown
+     * @param longitude degrees east, NaN if unknown
+     * @param depth     kilometers below the surface, NaN if unknown
+     */
+    public Quake(String id, double magnitude, String location, long date, String website,
+                 double latitude, double longitude, double depth) {
+        this.mId = id;
         this.mMagnitude = magnitude;
         this.mLocation = location;
         this.mDateTimeMilliseconds = date;
         this.mQuakeWebSite = website;
+        this.mLatitude = latitude;
+        this.mLongitude = longitude;
+        this.mDepth = depth;
+    }
+
+    /**
+     * Return the USGS event id, e.g. "us1000abcd".
+     */
+    public String getId() {
+        return mId;
     }
 
     public double getMagnitude() {
@@ -29,4 +54,16 @@ public class Quake {
     public String getQuakeWebSite() {
         return mQuakeWebSite;
     }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public double getDepth() {
+        return mDepth;
+    }
 }
@@ -2,151 +2,326 @@ package com.example.android.quakereport;
 
 import android.content.Context;
 import android.graphics.drawable.GradientDrawable;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-public class QuakeAdapter extends ArrayAdapter<Quake> {
+/**
+ * {@link RecyclerView} adapter that displays the rows of a {@link QuakeTable}. Rows are read
+ * column by column, no {@link Quake} object is created to display them.
+ * <p>
+ * A refreshed table is diffed against the displayed one by event id on a background thread,
+ * and only the rows that were inserted, changed or removed are dispatched, so the rest of the
+ * list is neither rebound nor scrolled.
+ */
+public class QuakeAdapter extends RecyclerView.Adapter<QuakeAdapter.ViewHolder> {
+
+    /**
+     * Circle colour of each magnitude bucket, see {@link QuakeFormatter#magnitudeBucket(double)}
+     */
+    private static final int[] MAGNITUDE_COLOR_RESOURCE_IDS = {
+            R.color.magnitude1,
+            R.color.magnitude2,
+            R.color.magnitude3,
+            R.color.magnitude4,
+            R.color.magnitude5,
+            R.color.magnitude6,
+            R.color.magnitude7,
+            R.color.magnitude8,
+            R.color.magnitude9,
+            R.color.magnitude10plus
+    };
+
+    /**
+     * Diffs run one at a time, in the order the tables were submitted
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Receives clicks on the list items.
+     */
+    public interface OnQuakeClickListener {
+        void onQuakeClick(int position);
+    }
 
-    private static final String LOCATION_SEPARATOR = "of";
     private Context mContext;
+    private QuakeTable mQuakes;
+    private final int[] mMagnitudeColors;
+    private final QuakeFormatter mFormatter;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private OnQuakeClickListener mClickListener;
+
+    // Incremented by every submitted table, so only the latest diff gets applied
+    private int mDiffGeneration;
+    private boolean mDiffRunning;
+    // Pages and synced events that arrived while a diff was running, applied once it is done
+    private final ArrayList<Runnable> mPendingUpdates = new ArrayList<>();
+    // Dispatches the rows changed by a merge to the RecyclerView
+    private final QuakeTable.MergeListener mMergeListener = new QuakeTable.MergeListener() {
+        @Override
+        public void onRowInserted(int position) {
+            notifyItemInserted(position);
+        }
+
+        @Override
+        public void onRowMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onRowChanged(int position) {
+            notifyItemChanged(position);
+        }
 
+        @Override
+        public void onRowRemoved(int position) {
+            notifyItemRemoved(position);
+        }
+    };
 
-    public QuakeAdapter(Context context, ArrayList<Quake> dataArrayList) {
-        super(context, 0, dataArrayList);
+
+    public QuakeAdapter(Context context, QuakeTable quakes) {
         this.mContext = context;
+        this.mQuakes = quakes;
+        this.mMagnitudeColors = resolveMagnitudeColors(context);
+        this.mFormatter = new QuakeFormatter(context.getString(R.string.no_offset_found));
     }
 
-    @NonNull
-    @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+    public void setOnQuakeClickListener(OnQuakeClickListener listener) {
+        mClickListener = listener;
+    }
 
-        Quake currentItem = getItem(position);
+    /**
+     * Display the given table instead of the current one. The two tables are diffed by event
+     * id on a background thread and only the differences are dispatched to the RecyclerView.
+     * The adapter keeps using the new table (pages are appended to it), it must only be
+     * touched on the main thread from now on.
+     */
+    public void swapTable(final QuakeTable quakes) {
+        final int generation = ++mDiffGeneration;
+        mPendingUpdates.clear();
 
-        if (convertView == null) {
-            convertView = LayoutInflater.from(mContext).inflate(R.layout.quake_item, parent, false);
+        final QuakeTable oldQuakes = mQuakes;
+        if (oldQuakes.isEmpty() || quakes.isEmpty()) {
+            // Nothing worth diffing
+            mDiffRunning = false;
+            mQuakes = quakes;
+            notifyDataSetChanged();
+            return;
         }
 
-        // Displaying the magnitude on the screen as a string, formatting it to only show one decimal place
-        // Also changing the background color of magnitude circle depending on magnitude value
-        double originalNumberMagnitude = currentItem.getMagnitude();
-        String stringMagnitude = formatMagnitude(originalNumberMagnitude);
+        mDiffRunning = true;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new TableDiffCallback(oldQuakes, quakes), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mDiffGeneration) {
+                            // A newer table was submitted in the meantime
+                            return;
+                        }
+                        mDiffRunning = false;
+                        mQuakes = quakes;
+                        diff.dispatchUpdatesTo(QuakeAdapter.this);
+                        applyPendingUpdates();
+                    }
+                });
+            }
+        });
+    }
 
-        TextView magTextView = (TextView) convertView.findViewById(R.id.mag_txt); // Referring the the magnitude TextView in the Layout
-        GradientDrawable magnitudeCircle = (GradientDrawable) magTextView.getBackground(); // Referring to the drawable circle used in the TextView
+    /**
+     * Append the rows of the given page to the displayed table.
+     */
+    public void addPage(final QuakeTable page) {
+        if (mDiffRunning) {
+            // The table must not change while it is being diffed
+            mPendingUpdates.add(new Runnable() {
+                @Override
+                public void run() {
+                    addPage(page);
+                }
+            });
+            return;
+        }
+        int start = mQuakes.size();
+        // Synced events may have pushed the rest of the results down, those rows are already shown
+        int appended = mQuakes.appendNew(page);
+        notifyItemRangeInserted(start, appended);
+    }
 
-        magnitudeCircle.setColor(getMagCircleColor(originalNumberMagnitude)); // Changing the color of the circle
-        magTextView.setText(stringMagnitude); // Setting the text in TextView
+    /**
+     * Merge events that were added or updated since the table was loaded. Known events are
+     * updated in place (and moved if their sort key changed), new ones are inserted where
+     * they belong in the given order.
+     *
+     * @param orderBy  the order of the displayed table, see {@link QuakeTable#insertionIndex}
+     * @param complete whether the table holds every result of the query. If it doesn't, new
+     *                 events sorting after the last row are left for the next page to bring.
+     */
+    public void mergeQuakes(final QuakeTable delta, final String orderBy, final boolean complete) {
+        if (mDiffRunning) {
+            mPendingUpdates.add(new Runnable() {
+                @Override
+                public void run() {
+                    mergeQuakes(delta, orderBy, complete);
+                }
+            });
+            return;
+        }
+        mQuakes.merge(delta, orderBy, complete, mMergeListener);
+    }
 
-        // Splitting the location/place string into two parts/strings to be displayed in two TextViews
-        // We could have used String.split(String string) method
+    public void clear() {
+        mDiffGeneration++;
+        mDiffRunning = false;
+        mPendingUpdates.clear();
+        mQuakes = new QuakeTable();
+        notifyDataSetChanged();
+    }
 
-       /* if (originalLocation.contains(LOCATION_SEPARATOR)) {
-            String[] parts = originalLocation.split(LOCATION_SEPARATOR);
-            locationOffset = parts[0] + LOCATION_SEPARATOR;
-            primaryLocation = parts[1];
-        } else {
-            locationOffset = getContext().getString(R.string.near_the);
-            primaryLocation = originalLocation;
-        }*/
+    public QuakeTable getTable() {
+        return mQuakes;
+    }
 
-        // Instead, we used the following
-        String originalLocation = currentItem.getLocation();
-        TextView cityTextView = (TextView) convertView.findViewById(R.id.city_txt);
-        TextView offsetTextView = (TextView) convertView.findViewById(R.id.orient_txt);
-        if (originalLocation.contains(LOCATION_SEPARATOR)) {
-            String locationOffset = originalLocation.substring(0, originalLocation.indexOf(LOCATION_SEPARATOR) + 2);
-            String primaryLocation = originalLocation.substring(originalLocation.indexOf(LOCATION_SEPARATOR) + 2);
+    @Override
+    public int getItemCount() {
+        return mQuakes.size();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(mContext).inflate(R.layout.quake_item, parent, false);
+        return new ViewHolder(itemView);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long bindStart = QuakeMetrics.ENABLED ? System.nanoTime() : 0;
 
-            cityTextView.setText(primaryLocation);
-            offsetTextView.setText(locationOffset);
-        } else {
-            offsetTextView.setText(R.string.no_offset_found);
-            cityTextView.setText(originalLocation);
+        // The display strings are normally prepared by the repository, off the UI thread.
+        // Otherwise only go as far as this row, so a bind never formats the whole table
+        if (!mQuakes.isDisplayPrepared(position)) {
+            mQuakes.prepareDisplay(mFormatter, position + 1);
         }
 
+        // Displaying the magnitude with one decimal place, and changing the background color
+        // of the magnitude circle depending on the magnitude value
+        holder.magnitudeCircle.setColor(getMagCircleColor(mQuakes.getMagnitude(position)));
+        holder.magnitudeView.setText(mQuakes.getMagnitudeText(position));
+
+        // The location/place string split into two parts, displayed in two TextViews
+        holder.offsetView.setText(mQuakes.getLocationOffsetText(position));
+        holder.cityView.setText(mQuakes.getPrimaryLocationText(position));
 
-        // Converting the date and time formats and populating the respective TextViews
-        long currentDateTime = currentItem.getDateTime();
-        Date dateTimeObject = new Date(currentDateTime);
+        holder.dateView.setText(mQuakes.getDateText(position));
+        holder.timeView.setText(mQuakes.getTimeText(position));
 
-        TextView dateTextView = (TextView) convertView.findViewById(R.id.date_txt);
-        dateTextView.setText(formatDate(dateTimeObject));
+        if (QuakeMetrics.ENABLED) {
+            QuakeMetrics.BIND.recordSince(bindStart);
+        }
+    }
 
-        TextView timeTextView = (TextView) convertView.findViewById(R.id.time_txt);
-        timeTextView.setText(formatTime(dateTimeObject));
+    private void applyPendingUpdates() {
+        for (Runnable update : mPendingUpdates) {
+            update.run();
+        }
+        mPendingUpdates.clear();
+    }
 
-        // Returning the populated view to the ListView which is the parent view.
-        return convertView;
+    private int getMagCircleColor(double magnitude) {
+        return mMagnitudeColors[QuakeFormatter.magnitudeBucket(magnitude)];
     }
 
     /**
-     * Return the formatted date string (i.e. "Mar 3, 1984") from a Date object.
+     * Resolve the magnitude circle colours once, indexed by {@link QuakeFormatter#magnitudeBucket(double)}.
      */
-    private String formatDate(Date dateObject) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM DD, YYYY");
-        return dateFormat.format(dateObject);
+    static int[] resolveMagnitudeColors(Context context) {
+        int[] colors = new int[MAGNITUDE_COLOR_RESOURCE_IDS.length];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = ContextCompat.getColor(context, MAGNITUDE_COLOR_RESOURCE_IDS[i]);
+        }
+        return colors;
     }
 
     /**
-     * Return the formatted date string (i.e. "4:30 PM") from a Date object.
+     * Tells DiffUtil how two tables relate: rows are the same event when their ids match,
+     * and unchanged when every displayed field is equal.
      */
-    private String formatTime(Date dateObject) {
-        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
-        return timeFormat.format(dateObject);
-    }
+    private static class TableDiffCallback extends DiffUtil.Callback {
+
+        private final QuakeTable mOld;
+        private final QuakeTable mNew;
 
-    private String formatMagnitude(double decimal) {
-        DecimalFormat formatter = new DecimalFormat("#.#");
-        return formatter.format(decimal);
+        TableDiffCallback(QuakeTable oldQuakes, QuakeTable newQuakes) {
+            mOld = oldQuakes;
+            mNew = newQuakes;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.getId(oldPosition).equals(mNew.getId(newPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return mOld.getMagnitude(oldPosition) == mNew.getMagnitude(newPosition)
+                    && mOld.getTime(oldPosition) == mNew.getTime(newPosition)
+                    && mOld.hasSamePlaceAndUrl(oldPosition, mNew, newPosition);
+        }
     }
 
-    private int getMagCircleColor(double magnitude) {
-        int magColorResourceId;
-        int intMagnitude = (int) magnitude;
-        switch (intMagnitude) {
-            case 0:
-            case 1:
-                magColorResourceId = R.color.magnitude1;
-                break;
-            case 2:
-                magColorResourceId = R.color.magnitude2;
-                break;
-            case 3:
-                magColorResourceId = R.color.magnitude3;
-                break;
-            case 4:
-                magColorResourceId = R.color.magnitude4;
-                break;
-            case 5:
-                magColorResourceId = R.color.magnitude5;
-                break;
-            case 6:
-                magColorResourceId = R.color.magnitude6;
-                break;
-            case 7:
-                magColorResourceId = R.color.magnitude7;
-                break;
-            case 8:
-                magColorResourceId = R.color.magnitude8;
-                break;
-            case 9:
-                magColorResourceId = R.color.magnitude9;
-                break;
-            default:
-                magColorResourceId = R.color.magnitude10plus;
-                break;
-        }
-        return ContextCompat.getColor(getContext(), magColorResourceId);
+    /**
+     * References to the child views of a list item.
+     */
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView magnitudeView;
+        final GradientDrawable magnitudeCircle;
+        final TextView offsetView;
+        final TextView cityView;
+        final TextView dateView;
+        final TextView timeView;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            magnitudeView = (TextView) itemView.findViewById(R.id.mag_txt);
+            // Referring to the drawable circle used in the TextView
+            magnitudeCircle = (GradientDrawable) magnitudeView.getBackground();
+            offsetView = (TextView) itemView.findViewById(R.id.orient_txt);
+            cityView = (TextView) itemView.findViewById(R.id.city_txt);
+            dateView = (TextView) itemView.findViewById(R.id.date_txt);
+            timeView = (TextView) itemView.findViewById(R.id.time_txt);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (mClickListener != null && position != RecyclerView.NO_POSITION) {
+                mClickListener.onQuakeClick(position);
+            }
+        }
     }
 }
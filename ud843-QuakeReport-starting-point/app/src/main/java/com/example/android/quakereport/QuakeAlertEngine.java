@@ -0,0 +1,233 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Matches incoming earthquakes against a set of {@link QuakeAlertRule}s, and remembers which
+ * earthquakes already raised an alert so each one raises at most one.
+ * <p>
+ * The rules are compiled once, so an earthquake is only checked against the rules it can
+ * meet instead of all of them:
+ * <ul>
+ * <li>rules without a site are sorted by magnitude, the walk stops at the first rule asking
+ * for more than the earthquake has;</li>
+ * <li>rules with a site are put in the cells of a grid that their circle overlaps. An
+ * earthquake is only checked against the rules of its own cell, and the distance is only
+ * computed for those that pass the cheaper magnitude and time checks.</li>
+ * </ul>
+ * Not thread-safe.
+ */
+public final class QuakeAlertEngine {
+
+    /**
+     * An earthquake that met a rule.
+     */
+    public static final class Alert {
+        public final QuakeAlertRule rule;
+        public final Quake quake;
+
+        Alert(QuakeAlertRule rule, Quake quake) {
+            this.rule = rule;
+            this.quake = quake;
+        }
+    }
+
+    /**
+     * Size of the grid cells, in degrees. A circle of a few hundred km overlaps a few cells.
+     */
+    private static final double CELL_DEGREES = 5;
+    private static final int ROWS = (int) (180 / CELL_DEGREES);
+    private static final int COLUMNS = (int) (360 / CELL_DEGREES);
+
+    /**
+     * How many alerted earthquakes are remembered, the oldest ones are forgotten first
+     */
+    private static final int MAX_FIRED = 10000;
+
+    private static final int[] NO_RULES = new int[0];
+
+    private final QuakeAlertRule[] mRules;
+    // Rules without a site, by increasing minimum magnitude
+    private final int[] mGlobalRules;
+    // Rules with a site overlapping each cell, by increasing minimum magnitude
+    private final int[][] mCells = new int[ROWS * COLUMNS][];
+
+    private final HashSet<String> mFired = new HashSet<>();
+    private final ArrayDeque<String> mFiredOrder = new ArrayDeque<>();
+
+    /**
+     * @param rules    the rules to match earthquakes against
+     * @param firedIds the ids of earthquakes that already raised an alert, oldest first
+     */
+    public QuakeAlertEngine(List<QuakeAlertRule> rules, Collection<String> firedIds) {
+        mRules = rules.toArray(new QuakeAlertRule[rules.size()]);
+        Integer[] order = new Integer[mRules.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(mRules[a].getMinMagnitude(), mRules[b].getMinMagnitude());
+            }
+        });
+
+        ArrayList<Integer> globalRules = new ArrayList<>();
+        ArrayList<ArrayList<Integer>> cells = new ArrayList<>();
+        for (int i = 0; i < ROWS * COLUMNS; i++) {
+            cells.add(null);
+        }
+        for (Integer rule : order) {
+            if (mRules[rule].hasSite()) {
+                addToCells(cells, rule);
+            } else {
+                globalRules.add(rule);
+            }
+        }
+        mGlobalRules = toArray(globalRules);
+        for (int i = 0; i < mCells.length; i++) {
+            mCells[i] = cells.get(i) == null ? NO_RULES : toArray(cells.get(i));
+        }
+
+        for (String id : firedIds) {
+            markFired(id);
+        }
+    }
+
+    /**
+     * Return an alert for every earthquake of the batch that meets a rule and didn't raise
+     * one before, at most one per earthquake.
+     *
+     * @param now the current time, to check how recent the earthquakes are
+     */
+    public List<Alert> evaluate(QuakeTable batch, long now) {
+        ArrayList<Alert> alerts = new ArrayList<>();
+        int size = batch.size();
+        for (int i = 0; i < size; i++) {
+            QuakeAlertRule rule = match(batch, i, now);
+            if (rule != null && markFired(batch.getId(i))) {
+                alerts.add(new Alert(rule, batch.getQuake(i)));
+            }
+        }
+        return alerts;
+    }
+
+    /**
+     * Return a rule the given row meets, or null if it meets none. Earthquakes that already
+     * raised an alert are not filtered out.
+     */
+    public QuakeAlertRule match(QuakeTable batch, int row, long now) {
+        double magnitude = batch.getMagnitude(row);
+        long age = now - batch.getTime(row);
+
+        for (int rule : mGlobalRules) {
+            QuakeAlertRule globalRule = mRules[rule];
+            if (globalRule.getMinMagnitude() > magnitude) {
+                break;
+            }
+            if (age <= globalRule.getMaxAgeMillis()) {
+                return globalRule;
+            }
+        }
+
+        double latitude = batch.getLatitude(row);
+        double longitude = batch.getLongitude(row);
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return null;
+        }
+        for (int rule : mCells[cellOf(latitude, longitude)]) {
+            QuakeAlertRule siteRule = mRules[rule];
+            if (siteRule.getMinMagnitude() > magnitude) {
+                break;
+            }
+            if (age <= siteRule.getMaxAgeMillis()
+                    && QuakeSpatialIndex.distanceKm(siteRule.getLatitude(), siteRule.getLongitude(),
+                    latitude, longitude) <= siteRule.getRadiusKm()) {
+                return siteRule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the ids of the earthquakes that raised an alert, oldest first.
+     */
+    public List<String> getFiredIds() {
+        return new ArrayList<>(mFiredOrder);
+    }
+
+    /**
+     * Remember that the given earthquake raised an alert, return false if it already had.
+     */
+    private boolean markFired(String id) {
+        if (!mFired.add(id)) {
+            return false;
+        }
+        mFiredOrder.add(id);
+        if (mFiredOrder.size() > MAX_FIRED) {
+            mFired.remove(mFiredOrder.poll());
+        }
+        return true;
+    }
+
+    /**
+     * Add a rule to every cell its circle may overlap, i.e. the cells of its bounding box.
+     */
+    private void addToCells(ArrayList<ArrayList<Integer>> cells, int rule) {
+        QuakeAlertRule siteRule = mRules[rule];
+        double latitudeSpan = Math.toDegrees(siteRule.getRadiusKm() / QuakeSpatialIndex.EARTH_RADIUS_KM);
+        double south = siteRule.getLatitude() - latitudeSpan;
+        double north = siteRule.getLatitude() + latitudeSpan;
+        int firstColumn;
+        int lastColumn;
+        if (south <= -90 || north >= 90) {
+            // The circle contains a pole, it reaches every longitude
+            firstColumn = 0;
+            lastColumn = COLUMNS - 1;
+        } else {
+            double longitudeSpan = QuakeSpatialIndex.longitudeSpan(siteRule.getLatitude(), siteRule.getRadiusKm());
+            if (longitudeSpan >= 180) {
+                firstColumn = 0;
+                lastColumn = COLUMNS - 1;
+            } else {
+                firstColumn = (int) Math.floor((siteRule.getLongitude() - longitudeSpan + 180) / CELL_DEGREES);
+                lastColumn = (int) Math.floor((siteRule.getLongitude() + longitudeSpan + 180) / CELL_DEGREES);
+            }
+        }
+        int firstRow = rowOf(Math.max(south, -90));
+        int lastRow = rowOf(Math.min(north, 90));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn && column < firstColumn + COLUMNS; column++) {
+                // Columns past the antimeridian wrap around
+                int cell = row * COLUMNS + (column % COLUMNS + COLUMNS) % COLUMNS;
+                if (cells.get(cell) == null) {
+                    cells.set(cell, new ArrayList<Integer>());
+                }
+                cells.get(cell).add(rule);
+            }
+        }
+    }
+
+    private static int cellOf(double latitude, double longitude) {
+        int column = (int) Math.floor((longitude + 180) / CELL_DEGREES);
+        return rowOf(latitude) * COLUMNS + (column % COLUMNS + COLUMNS) % COLUMNS;
+    }
+
+    private static int rowOf(double latitude) {
+        return Math.min(ROWS - 1, Math.max(0, (int) Math.floor((latitude + 90) / CELL_DEGREES)));
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A condition an earthquake has to meet to raise an alert: a minimum magnitude, optionally
+ * a site it has to be close to, and how recent it has to be.
+ * <p>
+ * Rules are written one per line, e.g.
+ * <pre>
+ * M&gt;=7
+ * M&gt;=5 within 300km of 35.68,139.69
+ * M&gt;=4.5 within 50km of 37.77,-122.42 past 6h
+ * </pre>
+ * Without {@code past}, only earthquakes of the past {@link #DEFAULT_MAX_AGE_HOURS} hours
+ * raise an alert, so the month of results loaded on a first launch doesn't.
+ */
+public final class QuakeAlertRule {
+
+    public static final int DEFAULT_MAX_AGE_HOURS = 24;
+
+    private static final Pattern RULE = Pattern.compile(
+            "m\\s*(?:>=|\\u2265)\\s*(-?\\d+(?:\\.\\d+)?)"
+                    + "(?:\\s+within\\s+(\\d+(?:\\.\\d+)?)\\s*km\\s+of\\s+(-?\\d+(?:\\.\\d+)?)\\s*,\\s*(-?\\d+(?:\\.\\d+)?))?"
+                    + "(?:\\s+past\\s+(\\d+)\\s*h)?");
+
+    private final String mText;
+    private final double mMinMagnitude;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mRadiusKm;
+    private final long mMaxAgeMillis;
+
+    /**
+     * @param text         the rule as the user wrote it, shown in the alerts
+     * @param minMagnitude the smallest magnitude that matches
+     * @param latitude     latitude of the site, ignored when radiusKm is NaN
+     * @param longitude    longitude of the site, ignored when radiusKm is NaN
+     * @param radiusKm     how close to the site the epicenter has to be, NaN for anywhere
+     * @param maxAgeMillis how long ago the earthquake may have happened
+     */
+    public QuakeAlertRule(String text, double minMagnitude, double latitude, double longitude,
+                          double radiusKm, long maxAgeMillis) {
+        mText = text;
+        mMinMagnitude = minMagnitude;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mRadiusKm = radiusKm;
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Return the rule written on the given line.
+     *
+     * @throws IllegalArgumentException if the line is not a rule
+     */
+    public static QuakeAlertRule parse(String line) {
+        String text = line.trim();
+        Matcher matcher = RULE.matcher(text.toLowerCase(Locale.US));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not an alert rule: " + text);
+        }
+        double minMagnitude = Double.parseDouble(matcher.group(1));
+        double radiusKm = Double.NaN;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        if (matcher.group(2) != null) {
+            radiusKm = Double.parseDouble(matcher.group(2));
+            latitude = Double.parseDouble(matcher.group(3));
+            longitude = Double.parseDouble(matcher.group(4));
+            if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+                throw new IllegalArgumentException("Not a location: " + text);
+            }
+        }
+        int maxAgeHours = matcher.group(5) != null ? Integer.parseInt(matcher.group(5)) : DEFAULT_MAX_AGE_HOURS;
+        return new QuakeAlertRule(text, minMagnitude, latitude, longitude, radiusKm,
+                maxAgeHours * 60L * 60 * 1000);
+    }
+
+    /**
+     * Return the rules written one per line in the given text, blank lines are skipped.
+     *
+     * @throws IllegalArgumentException if a line is not a rule
+     */
+    public static List<QuakeAlertRule> parseAll(String text) {
+        ArrayList<QuakeAlertRule> rules = new ArrayList<>();
+        if (text == null) {
+            return rules;
+        }
+        for (String line : text.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                rules.add(parse(line));
+            }
+        }
+        return rules;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * Return how close to the site the epicenter has to be, NaN if the rule has no site.
+     */
+    public double getRadiusKm() {
+        return mRadiusKm;
+    }
+
+    public boolean hasSite() {
+        return !Double.isNaN(mRadiusKm);
+    }
+
+    public long getMaxAgeMillis() {
+        return mMaxAgeMillis;
+    }
+
+    /**
+     * Return whether the given earthquake meets the rule, checking every condition. The
+     * {@link QuakeAlertEngine} gets the same answer without checking every rule.
+     */
+    public boolean matches(double magnitude, long time, double latitude, double longitude, long now) {
+        if (magnitude < mMinMagnitude || now - time > mMaxAgeMillis) {
+            return false;
+        }
+        if (!hasSite()) {
+            return true;
+        }
+        return !Double.isNaN(latitude)
+                && QuakeSpatialIndex.distanceKm(mLatitude, mLongitude, latitude, longitude) <= mRadiusKm;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.quakereport;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Posts a notification for every incoming earthquake that meets one of the alert rules the
+ * user wrote in the settings ({@link QuakeAlertRule}).
+ * <p>
+ * Every batch of events the app receives goes through here: the revalidations of the
+ * {@link QuakeRepository}, and the syncs and live polls of the {@link QuakeSyncer}. The rules
+ * are compiled into a {@link QuakeAlertEngine} once, and again only when the user changes
+ * them. The ids of the earthquakes that raised an alert are saved, so an earthquake that
+ * comes back in a later batch (e.g. because USGS updated it) doesn't raise a second one,
+ * even after the app restarts.
+ * <p>
+ * Can be called from any thread.
+ */
+public final class QuakeAlerts {
+
+    private static final String LOG_TAG = QuakeAlerts.class.getSimpleName();
+
+    private static final String PREFS_NAME = "quake_alerts";
+    private static final String KEY_FIRED_IDS = "fired_ids";
+
+    /**
+     * How many ids of alerted earthquakes are saved, a few days of alerts at most
+     */
+    private static final int MAX_SAVED_IDS = 1000;
+
+    private static QuakeAlerts sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mState;
+    private final QuakeFormatter mFormatter;
+
+    // The rules the engine was compiled from, to notice when the user changes them
+    private String mRulesText;
+    private QuakeAlertEngine mEngine;
+
+    private QuakeAlerts(Context context) {
+        mContext = context.getApplicationContext();
+        mState = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mFormatter = new QuakeFormatter(mContext.getString(R.string.no_offset_found));
+    }
+
+    /**
+     * Return the alerts shared by the whole app.
+     */
+    public static synchronized QuakeAlerts getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QuakeAlerts(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Post an alert for every earthquake of the batch that meets a rule and didn't raise
+     * one before.
+     */
+    public synchronized void onQuakesArrived(QuakeTable batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        QuakeAlertEngine engine = getEngine();
+        List<QuakeAlertEngine.Alert> alerts = engine.evaluate(batch, System.currentTimeMillis());
+        if (alerts.isEmpty()) {
+            return;
+        }
+        for (QuakeAlertEngine.Alert alert : alerts) {
+            notify(alert);
+        }
+        List<String> firedIds = engine.getFiredIds();
+        firedIds = firedIds.subList(Math.max(0, firedIds.size() - MAX_SAVED_IDS), firedIds.size());
+        mState.edit().putString(KEY_FIRED_IDS, TextUtils.join(",", firedIds)).apply();
+    }
+
+    /**
+     * Return the engine of the current rules, compiled again if the user changed them.
+     */
+    private QuakeAlertEngine getEngine() {
+        String rulesText = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(mContext.getString(R.string.settings_alert_rules_key), "");
+        if (rulesText.equals(mRulesText)) {
+            return mEngine;
+        }
+
+        List<QuakeAlertRule> rules;
+        try {
+            rules = QuakeAlertRule.parseAll(rulesText);
+        } catch (IllegalArgumentException e) {
+            // The settings screen doesn't save invalid rules, keep the previous ones if any
+            Log.e(LOG_TAG, "Problem parsing the alert rules", e);
+            if (mEngine != null) {
+                return mEngine;
+            }
+            rules = Collections.emptyList();
+        }
+
+        List<String> firedIds;
+        if (mEngine != null) {
+            firedIds = mEngine.getFiredIds();
+        } else {
+            String saved = mState.getString(KEY_FIRED_IDS, "");
+            firedIds = saved.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(saved.split(","));
+        }
+        mRulesText = rulesText;
+        // Without rules the engine still carries the ids over, for when rules come back
+        mEngine = new QuakeAlertEngine(rules, firedIds);
+        return mEngine;
+    }
+
+    private void notify(QuakeAlertEngine.Alert alert) {
+        Quake quake = alert.quake;
+        String title = mContext.getString(R.string.alert_title,
+                mFormatter.formatMagnitude(quake.getMagnitude()), quake.getLocation());
+
+        // Tapping the notification opens the USGS page of the earthquake, like tapping it in the list
+        Intent websiteIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(quake.getQuakeWebSite()));
+        PendingIntent contentIntent = PendingIntent.getActivity(mContext, 0, websiteIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(title)
+                .setContentText(alert.rule.getText())
+                .setWhen(quake.getDateTime())
+                .setShowWhen(true)
+                .setCategory(NotificationCompat.CATEGORY_EVENT)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setDefaults(NotificationCompat.DEFAULT_ALL)
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true);
+
+        // One notification per earthquake, an update of the same earthquake would replace it
+        NotificationManagerCompat.from(mContext).notify(quake.getId(), 0, builder.build());
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.quakereport.QuakeContract.ArchiveEntry;
+
+/**
+ * SQLite-backed archive of the earthquakes imported from USGS catalog exports, years of
+ * them, for looking at trends. Unlike the {@link QuakeCache}, nothing is ever evicted.
+ * <p>
+ * Each batch of the {@link QuakeCatalogImporter} is written in one transaction, with one
+ * compiled statement: SQLite then syncs the disk once per batch rather than once per event.
+ */
+public class QuakeArchive implements QuakeCatalogImporter.Sink {
+
+    private static final String[] ARCHIVE_COLUMNS = {
+            ArchiveEntry.COLUMN_EVENT_ID,
+            ArchiveEntry.COLUMN_MAGNITUDE,
+            ArchiveEntry.COLUMN_PLACE,
+            ArchiveEntry.COLUMN_TIME,
+            ArchiveEntry.COLUMN_URL,
+            ArchiveEntry.COLUMN_LATITUDE,
+            ArchiveEntry.COLUMN_LONGITUDE,
+            ArchiveEntry.COLUMN_DEPTH
+    };
+
+    private final QuakeDbHelper mDbHelper;
+
+    public QuakeArchive(Context context) {
+        mDbHelper = QuakeDbHelper.getInstance(context);
+    }
+
+    /**
+     * Insert or replace the events of the batch, all or none of them.
+     */
+    @Override
+    public void write(QuakeCatalogImporter.Batch batch) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + ArchiveEntry.TABLE_NAME
+                + " (" + ArchiveEntry.COLUMN_EVENT_ID + ", " + ArchiveEntry.COLUMN_MAGNITUDE + ", "
+                + ArchiveEntry.COLUMN_PLACE + ", " + ArchiveEntry.COLUMN_TIME + ", "
+                + ArchiveEntry.COLUMN_URL + ", " + ArchiveEntry.COLUMN_LATITUDE + ", "
+                + ArchiveEntry.COLUMN_LONGITUDE + ", " + ArchiveEntry.COLUMN_DEPTH
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                insert.bindString(1, batch.getId(i));
+                insert.bindDouble(2, batch.getMagnitude(i));
+                insert.bindString(3, batch.getPlace(i));
+                insert.bindLong(4, batch.getTime(i));
+                insert.bindString(5, batch.getUrl(i));
+                bindDoubleOrNull(insert, 6, batch.getLatitude(i));
+                bindDoubleOrNull(insert, 7, batch.getLongitude(i));
+                bindDoubleOrNull(insert, 8, batch.getDepth(i));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Return the number of archived earthquakes.
+     */
+    public long getCount() {
+        return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), ArchiveEntry.TABLE_NAME);
+    }
+
+    /**
+     * Return the archived earthquakes of at least the given magnitude between two times,
+     * both included, the most recent first.
+     *
+     * @param limit the maximum number of rows to return
+     */
+    public QuakeTable query(long startTime, long endTime, double minMagnitude, int limit) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String selection = ArchiveEntry.COLUMN_TIME + " BETWEEN ? AND ? AND "
+                + ArchiveEntry.COLUMN_MAGNITUDE + " >= ?";
+        String[] selectionArgs = {
+                String.valueOf(startTime),
+                String.valueOf(endTime),
+                String.valueOf(minMagnitude)
+        };
+
+        Cursor cursor = db.query(ArchiveEntry.TABLE_NAME, ARCHIVE_COLUMNS, selection, selectionArgs,
+                null, null, ArchiveEntry.COLUMN_TIME + " DESC", String.valueOf(limit));
+        QuakeTable earthquakes = new QuakeTable(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                earthquakes.add(cursor.getString(0), cursor.getDouble(1),
+                        cursor.getString(2), cursor.getLong(3), cursor.getString(4),
+                        getDoubleOrNaN(cursor, 5), getDoubleOrNaN(cursor, 6), getDoubleOrNaN(cursor, 7));
+            }
+        } finally {
+            cursor.close();
+        }
+        return earthquakes;
+    }
+
+    private static double getDoubleOrNaN(Cursor cursor, int column) {
+        return cursor.isNull(column) ? Double.NaN : cursor.getDouble(column);
+    }
+
+    private static void bindDoubleOrNull(SQLiteStatement statement, int index, double value) {
+        if (Double.isNaN(value)) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.quakereport;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.quakereport.QuakeContract.QuakeEntry;
+import com.example.android.quakereport.QuakeContract.SyncEntry;
+
+
+/**
+ * SQLite-backed store of the earthquakes the app has already downloaded, so the list can be
+ * shown right away on startup and then revalidated against USGS in the background.
+ * <p>
+ * The store is bounded: events older than the query window and events beyond
+ * {@link #getMaxRows()} (oldest first) are evicted every time new events are stored.
+ */
+public class QuakeCache {
+
+    /**
+     * USGS only returns the last 30 days when no start time is given, the cache keeps the same window.
+     */
+    public static final long WINDOW_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    public static final int DEFAULT_MAX_ROWS = 5000;
+
+    private static final String[] QUAKE_COLUMNS = {
+            QuakeEntry.COLUMN_EVENT_ID,
+            QuakeEntry.COLUMN_MAGNITUDE,
+            QuakeEntry.COLUMN_PLACE,
+            QuakeEntry.COLUMN_TIME,
+            QuakeEntry.COLUMN_URL,
+            QuakeEntry.COLUMN_LATITUDE,
+            QuakeEntry.COLUMN_LONGITUDE,
+            QuakeEntry.COLUMN_DEPTH
+    };
+
+    private final QuakeDbHelper mDbHelper;
+    private final int mMaxRows;
+
+    public QuakeCache(Context context) {
+        this(context, DEFAULT_MAX_ROWS);
+    }
+
+    public QuakeCache(Context context, int maxRows) {
+        mDbHelper = QuakeDbHelper.getInstance(context);
+        mMaxRows = maxRows;
+    }
+
+    public int getMaxRows() {
+        return mMaxRows;
+    }
+
+    /**
+     * Return the cached earthquakes the given USGS query would return, newest window only.
+     *
+     * @param minMagnitude the {@code minmag} query parameter
+     * @param orderBy      the {@code orderby} query parameter, e.g. "time" or "magnitude-asc"
+     * @param limit        the maximum number of rows to return
+     */
+    public QuakeTable query(double minMagnitude, String orderBy, int limit) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String selection = QuakeEntry.COLUMN_MAGNITUDE + " >= ? AND " + QuakeEntry.COLUMN_TIME + " >= ?";
+        String[] selectionArgs = {
+                String.valueOf(minMagnitude),
+                String.valueOf(System.currentTimeMillis() - WINDOW_MILLIS)
+        };
+
+        Cursor cursor = db.query(QuakeEntry.TABLE_NAME, QUAKE_COLUMNS, selection, selectionArgs,
+                null, null, sortOrder(orderBy), String.valueOf(limit));
+        QuakeTable earthquakes = new QuakeTable(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                earthquakes.add(cursor.getString(0), cursor.getDouble(1),
+                        cursor.getString(2), cursor.getLong(3), cursor.getString(4),
+                        getDoubleOrNaN(cursor, 5), getDoubleOrNaN(cursor, 6), getDoubleOrNaN(cursor, 7));
+            }
+        } finally {
+            cursor.close();
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Insert or replace the given earthquakes, then evict what no longer fits.
+     */
+    public void store(QuakeTable earthquakes) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + QuakeEntry.TABLE_NAME
+                + " (" + QuakeEntry.COLUMN_EVENT_ID + ", " + QuakeEntry.COLUMN_MAGNITUDE + ", "
+                + QuakeEntry.COLUMN_PLACE + ", " + QuakeEntry.COLUMN_TIME + ", "
+                + QuakeEntry.COLUMN_URL + ", " + QuakeEntry.COLUMN_LATITUDE + ", "
+                + QuakeEntry.COLUMN_LONGITUDE + ", " + QuakeEntry.COLUMN_DEPTH + ", "
+                + QuakeEntry.COLUMN_FETCHED_AT
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < earthquakes.size(); i++) {
+                String id = earthquakes.getId(i);
+                if (id == null || id.isEmpty()) {
+                    // Nothing to key the row on
+                    continue;
+                }
+                insert.bindString(1, id);
+                insert.bindDouble(2, earthquakes.getMagnitude(i));
+                insert.bindString(3, earthquakes.getPlace(i));
+                insert.bindLong(4, earthquakes.getTime(i));
+                insert.bindString(5, earthquakes.getUrl(i));
+                bindDoubleOrNull(insert, 6, earthquakes.getLatitude(i));
+                bindDoubleOrNull(insert, 7, earthquakes.getLongitude(i));
+                bindDoubleOrNull(insert, 8, earthquakes.getDepth(i));
+                insert.bindLong(9, now);
+                insert.executeInsert();
+            }
+            evict(db, now);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Return when the results of the given query were last revalidated, or 0 if never.
+     */
+    public long getLastSync(String query) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(SyncEntry.TABLE_NAME, new String[]{SyncEntry.COLUMN_LAST_SYNC},
+                SyncEntry.COLUMN_QUERY + " = ?", new String[]{query}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void setLastSync(String query, long time) {
+        ContentValues values = new ContentValues();
+        values.put(SyncEntry.COLUMN_QUERY, query);
+        values.put(SyncEntry.COLUMN_LAST_SYNC, time);
+        mDbHelper.getWritableDatabase().insertWithOnConflict(SyncEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static double getDoubleOrNaN(Cursor cursor, int column) {
+        return cursor.isNull(column) ? Double.NaN : cursor.getDouble(column);
+    }
+
+    private static void bindDoubleOrNull(SQLiteStatement statement, int index, double value) {
+        if (Double.isNaN(value)) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    private void evict(SQLiteDatabase db, long now) {
+        // Events that fell out of the query window
+        db.delete(QuakeEntry.TABLE_NAME, QuakeEntry.COLUMN_TIME + " < ?",
+                new String[]{String.valueOf(now - WINDOW_MILLIS)});
+
+        // Oldest events beyond the size bound
+        db.execSQL("DELETE FROM " + QuakeEntry.TABLE_NAME + " WHERE " + QuakeEntry.COLUMN_EVENT_ID
+                + " IN (SELECT " + QuakeEntry.COLUMN_EVENT_ID + " FROM " + QuakeEntry.TABLE_NAME
+                + " ORDER BY " + QuakeEntry.COLUMN_TIME + " DESC LIMIT -1 OFFSET " + mMaxRows + ")");
+    }
+
+    /**
+     * Translate the USGS {@code orderby} values into an SQL sort order.
+     */
+    private static String sortOrder(String orderBy) {
+        if ("magnitude".equals(orderBy)) {
+            return QuakeEntry.COLUMN_MAGNITUDE + " DESC";
+        } else if ("magnitude-asc".equals(orderBy)) {
+            return QuakeEntry.COLUMN_MAGNITUDE + " ASC";
+        } else if ("time-asc".equals(orderBy)) {
+            return QuakeEntry.COLUMN_TIME + " ASC";
+        }
+        return QuakeEntry.COLUMN_TIME + " DESC";
+    }
+}
@@ -0,0 +1,730 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports a USGS catalog export, as saved from the USGS search page in GeoJSON or CSV, with
+ * as many events as it takes, e.g. years of history.
+ * <p>
+ * The file is read once, front to back, and cut into chunks of about {@code chunkBytes}
+ * that end between two events: finding where an event ends only takes looking at each byte
+ * once, it is the parsing that is slow. The chunks are parsed in parallel on a pool of
+ * threads, each into a {@link Batch} of columns rather than an object per event. The
+ * batches are handed to the {@link Sink}, e.g. the {@link QuakeArchive}, one at a time and
+ * in the order of the file, on the calling thread. Only a few chunks are ahead of the sink
+ * at any time, so the memory used doesn't depend on the size of the file.
+ * <p>
+ * This class has no Android dependencies so it can be exercised on a plain JVM.
+ */
+public final class QuakeCatalogImporter {
+
+    /**
+     * Stores the imported events.
+     */
+    public interface Sink {
+        /**
+         * Called with the events of each chunk, in the order of the file.
+         */
+        void write(Batch batch) throws IOException;
+    }
+
+    /**
+     * Told how far the import went, after each batch was written, on the importing thread.
+     */
+    public interface Listener {
+        /**
+         * @param bytesRead      how much of the file was read
+         * @param totalBytes     the size of the file, -1 if unknown
+         * @param eventsImported how many events were written so far
+         */
+        void onProgress(long bytesRead, long totalBytes, int eventsImported);
+    }
+
+    /**
+     * The events of one chunk of the file, column by column.
+     */
+    public static final class Batch {
+        private int mSize;
+        private String[] mIds;
+        private double[] mMagnitudes;
+        private String[] mPlaces;
+        private long[] mTimes;
+        private String[] mUrls;
+        private double[] mLatitudes;
+        private double[] mLongitudes;
+        private double[] mDepths;
+
+        Batch(int capacity) {
+            capacity = Math.max(capacity, 16);
+            mIds = new String[capacity];
+            mMagnitudes = new double[capacity];
+            mPlaces = new String[capacity];
+            mTimes = new long[capacity];
+            mUrls = new String[capacity];
+            mLatitudes = new double[capacity];
+            mLongitudes = new double[capacity];
+            mDepths = new double[capacity];
+        }
+
+        void add(String id, double magnitude, String place, long time, String url,
+                 double latitude, double longitude, double depth) {
+            if (mSize == mIds.length) {
+                int capacity = mSize * 2;
+                mIds = Arrays.copyOf(mIds, capacity);
+                mMagnitudes = Arrays.copyOf(mMagnitudes, capacity);
+                mPlaces = Arrays.copyOf(mPlaces, capacity);
+                mTimes = Arrays.copyOf(mTimes, capacity);
+                mUrls = Arrays.copyOf(mUrls, capacity);
+                mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+                mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+                mDepths = Arrays.copyOf(mDepths, capacity);
+            }
+            mIds[mSize] = id;
+            mMagnitudes[mSize] = magnitude;
+            mPlaces[mSize] = place;
+            mTimes[mSize] = time;
+            mUrls[mSize] = url;
+            mLatitudes[mSize] = latitude;
+            mLongitudes[mSize] = longitude;
+            mDepths[mSize] = depth;
+            mSize++;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public String getId(int index) {
+            return mIds[index];
+        }
+
+        public double getMagnitude(int index) {
+            return mMagnitudes[index];
+        }
+
+        public String getPlace(int index) {
+            return mPlaces[index];
+        }
+
+        public long getTime(int index) {
+            return mTimes[index];
+        }
+
+        public String getUrl(int index) {
+            return mUrls[index];
+        }
+
+        /**
+         * Return the latitude of the epicenter, NaN if unknown. Same for the longitude and depth.
+         */
+        public double getLatitude(int index) {
+            return mLatitudes[index];
+        }
+
+        public double getLongitude(int index) {
+            return mLongitudes[index];
+        }
+
+        public double getDepth(int index) {
+            return mDepths[index];
+        }
+    }
+
+    public static final int DEFAULT_CHUNK_BYTES = 1024 * 1024;
+
+    /**
+     * The CSV export has no URL column, the events link to the same page as in GeoJSON
+     */
+    static final String EVENT_PAGE_URL = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Exact powers of ten used by {@link #parseNumber}. */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private final int mThreads;
+    private final int mChunkBytes;
+
+    /**
+     * @param threads    how many chunks are parsed at the same time, e.g. one per core
+     * @param chunkBytes about how much of the file is parsed and written at once
+     */
+    public QuakeCatalogImporter(int threads, int chunkBytes) {
+        mThreads = Math.max(1, threads);
+        mChunkBytes = Math.max(1, chunkBytes);
+    }
+
+    /**
+     * Import the catalog read from the given stream into the sink, and return the number of
+     * events imported. The format is told from the first character: GeoJSON starts with a
+     * brace, CSV with its header line. The stream is not closed.
+     * <p>
+     * If the import fails or is interrupted halfway, the batches written so far stay written.
+     *
+     * @param totalBytes the size of the file, -1 if unknown, only passed on to the listener
+     * @param listener   told of the progress, may be null
+     * @throws InterruptedIOException if the calling thread was interrupted
+     */
+    public int importCatalog(InputStream inputStream, long totalBytes, Sink sink, Listener listener)
+            throws IOException {
+        final Splitter splitter = openSplitter(inputStream, mChunkBytes);
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        // The chunks being parsed, in the order of the file, and where each ends in the file
+        ArrayDeque<Future<Batch>> parsing = new ArrayDeque<>();
+        ArrayDeque<Long> chunkEnds = new ArrayDeque<>();
+        int imported = 0;
+        try {
+            byte[] chunk;
+            while ((chunk = splitter.next()) != null) {
+                final byte[] bytes = chunk;
+                parsing.add(executor.submit(new Callable<Batch>() {
+                    @Override
+                    public Batch call() throws IOException {
+                        return splitter.parse(bytes);
+                    }
+                }));
+                chunkEnds.add(splitter.getBytesRead());
+                // Enough to keep every thread busy while the sink writes the oldest one
+                if (parsing.size() >= 2 * mThreads) {
+                    imported += write(parsing.remove(), sink);
+                    notifyProgress(listener, chunkEnds.remove(), totalBytes, imported);
+                }
+            }
+            while (!parsing.isEmpty()) {
+                imported += write(parsing.remove(), sink);
+                notifyProgress(listener, chunkEnds.remove(), totalBytes, imported);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return imported;
+    }
+
+    private static int write(Future<Batch> parsed, Sink sink) throws IOException {
+        Batch batch;
+        try {
+            batch = parsed.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Problem parsing the earthquake catalog", e.getCause());
+        }
+        if (batch.size() > 0) {
+            sink.write(batch);
+        }
+        return batch.size();
+    }
+
+    private static void notifyProgress(Listener listener, long bytesRead, long totalBytes, int imported) {
+        if (listener != null) {
+            listener.onProgress(bytesRead, totalBytes, imported);
+        }
+    }
+
+    /**
+     * Return the splitter of the format of the stream, from its first character.
+     */
+    private static Splitter openSplitter(InputStream inputStream, int chunkBytes) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(inputStream, 64);
+        byte[] start = new byte[64];
+        int read = 0;
+        int count;
+        while (read < start.length && (count = pushback.read(start, read, start.length - read)) > 0) {
+            read += count;
+        }
+        if (read > 0) {
+            pushback.unread(start, 0, read);
+        }
+        for (int i = 0; i < read; i++) {
+            int b = start[i] & 0xff;
+            // Skip whitespace and the UTF-8 byte order mark
+            if (b == '{') {
+                return new GeoJsonSplitter(pushback, chunkBytes);
+            } else if (b > ' ' && b != 0xef && b != 0xbb && b != 0xbf) {
+                break;
+            }
+        }
+        return new CsvSplitter(pushback, chunkBytes);
+    }
+
+    /**
+     * Cuts the file into chunks of whole events, and parses the chunks.
+     * <p>
+     * The bytes read are kept from the start of the chunk being filled, and scanned once
+     * by the format as they come in, to know where the last complete event ends.
+     */
+    private abstract static class Splitter {
+        private final InputStream mInputStream;
+        private final int mChunkBytes;
+
+        private byte[] mData;
+        // The chunk being filled starts at mStart, its last complete event ends at mLastEnd
+        int mStart;
+        private int mLastEnd;
+        private int mLimit;
+        private long mBytesRead;
+        private boolean mEndOfInput;
+
+        Splitter(InputStream inputStream, int chunkBytes) {
+            mInputStream = inputStream;
+            mChunkBytes = chunkBytes;
+            mData = new byte[Math.max(8192, 2 * chunkBytes)];
+        }
+
+        /**
+         * Scan the new bytes of {@code data}, from {@code from} to {@code to}, and return the
+         * position right after the last event ending among them, -1 if none does.
+         */
+        abstract int scan(byte[] data, int from, int to) throws IOException;
+
+        /**
+         * Return where the last event ends when the input ended at {@code limit}, -1 if
+         * that is where the last complete event ends.
+         */
+        abstract int endOfInput(int limit);
+
+        /**
+         * Parse the events of a chunk. Called on several threads at once.
+         */
+        abstract Batch parse(byte[] chunk) throws IOException;
+
+        long getBytesRead() {
+            return mBytesRead;
+        }
+
+        /**
+         * Return the next chunk of whole events, or null at the end of the input.
+         */
+        byte[] next() throws IOException {
+            while (true) {
+                if (mLastEnd > mStart && mLastEnd - mStart >= mChunkBytes) {
+                    return cut(mLastEnd);
+                }
+                if (mEndOfInput) {
+                    int end = Math.max(mLastEnd, endOfInput(mLimit));
+                    return end > mStart ? cut(end) : null;
+                }
+
+                makeRoom();
+                int read = mInputStream.read(mData, mLimit, mData.length - mLimit);
+                if (read < 0) {
+                    mEndOfInput = true;
+                } else if (read > 0) {
+                    mBytesRead += read;
+                    int end = scan(mData, mLimit, mLimit + read);
+                    mLimit += read;
+                    if (end >= 0) {
+                        mLastEnd = end;
+                    }
+                }
+            }
+        }
+
+        private byte[] cut(int end) {
+            byte[] chunk = Arrays.copyOfRange(mData, mStart, end);
+            mStart = end;
+            return chunk;
+        }
+
+        /**
+         * Make sure there is room to read more, by moving the chunk being filled to the front,
+         * or growing the buffer if a single event doesn't fit.
+         */
+        private void makeRoom() {
+            if (mLimit < mData.length) {
+                return;
+            }
+            if (mStart > 0) {
+                int shift = mStart;
+                System.arraycopy(mData, shift, mData, 0, mLimit - shift);
+                mStart = 0;
+                mLimit -= shift;
+                mLastEnd = Math.max(0, mLastEnd - shift);
+            } else {
+                mData = Arrays.copyOf(mData, mData.length * 2);
+            }
+        }
+    }
+
+    /**
+     * Cuts GeoJSON after the closing brace of a feature, and parses the features of a chunk
+     * with the {@link QuakeJsonParser}, as if they were a whole response.
+     */
+    private static final class GeoJsonSplitter extends Splitter {
+        private static final byte[] FEATURES = "features".getBytes(UTF_8);
+        private static final byte[] CHUNK_PREFIX = "{\"features\":[".getBytes(UTF_8);
+        private static final byte[] CHUNK_SUFFIX = "]}".getBytes(UTF_8);
+
+        // Objects and arrays open around the current byte
+        private int mDepth;
+        private boolean mInString;
+        private boolean mEscaped;
+        // How much of "features" the current string at depth 1 matched, -1 if it didn't
+        private int mKeyMatch;
+        private boolean mAfterFeaturesKey;
+        private boolean mInFeatures;
+        private boolean mFeatureSeen;
+
+        GeoJsonSplitter(InputStream inputStream, int chunkBytes) {
+            super(inputStream, chunkBytes);
+        }
+
+        @Override
+        int scan(byte[] data, int from, int to) {
+            int lastEnd = -1;
+            for (int i = from; i < to; i++) {
+                byte b = data[i];
+                if (mInString) {
+                    if (mEscaped) {
+                        mEscaped = false;
+                    } else if (b == '\\') {
+                        mEscaped = true;
+                    } else if (b == '"') {
+                        mInString = false;
+                        if (mDepth == 1) {
+                            mAfterFeaturesKey = mKeyMatch == FEATURES.length;
+                        }
+                    } else if (mDepth == 1 && mKeyMatch >= 0) {
+                        mKeyMatch = mKeyMatch < FEATURES.length && b == FEATURES[mKeyMatch] ? mKeyMatch + 1 : -1;
+                    }
+                    continue;
+                }
+                switch (b) {
+                    case '"':
+                        mInString = true;
+                        mKeyMatch = 0;
+                        break;
+                    case '[':
+                        if (mDepth == 1 && mAfterFeaturesKey) {
+                            mInFeatures = true;
+                        }
+                        mDepth++;
+                        break;
+                    case '{':
+                        if (mInFeatures && mDepth == 2 && !mFeatureSeen) {
+                            // Everything before the first feature is the header of the collection
+                            mFeatureSeen = true;
+                            mStart = i;
+                        }
+                        mDepth++;
+                        break;
+                    case '}':
+                        mDepth--;
+                        if (mInFeatures && mDepth == 2) {
+                            lastEnd = i + 1;
+                        }
+                        break;
+                    case ']':
+                        mDepth--;
+                        if (mDepth == 1) {
+                            mInFeatures = false;
+                        }
+                        break;
+                    default:
+                        if (b > ' ' && mDepth == 1 && b != ',' && b != ':') {
+                            mAfterFeaturesKey = false;
+                        }
+                        break;
+                }
+            }
+            return lastEnd;
+        }
+
+        @Override
+        int endOfInput(int limit) {
+            // What follows the last feature is the end of the collection
+            return -1;
+        }
+
+        @Override
+        Batch parse(byte[] chunk) throws IOException {
+            final Batch batch = new Batch(chunk.length / 800);
+            InputStream features = new SequenceInputStream(new ByteArrayInputStream(CHUNK_PREFIX),
+                    new SequenceInputStream(new ByteArrayInputStream(chunk), new ByteArrayInputStream(CHUNK_SUFFIX)));
+            QuakeJsonParser.parse(features, new QuakeJsonParser.Handler() {
+                @Override
+                public void onFeature(QuakeJsonParser.Feature feature) {
+                    if (!feature.id.isEmpty()) {
+                        batch.add(feature.id, feature.magnitude, feature.place, feature.time, feature.url,
+                                feature.latitude, feature.longitude, feature.depth);
+                    }
+                }
+            });
+            return batch;
+        }
+    }
+
+    /**
+     * Cuts CSV after a line break, and parses the lines of a chunk with the columns named
+     * by the header line.
+     */
+    private static final class CsvSplitter extends Splitter {
+        private boolean mInQuotes;
+        private boolean mHeaderRead;
+
+        // Index of each column we read, -1 if the file doesn't have it
+        private int mTimeColumn = -1;
+        private int mLatitudeColumn = -1;
+        private int mLongitudeColumn = -1;
+        private int mDepthColumn = -1;
+        private int mMagnitudeColumn = -1;
+        private int mIdColumn = -1;
+        private int mPlaceColumn = -1;
+        private int mColumnCount;
+
+        CsvSplitter(InputStream inputStream, int chunkBytes) {
+            super(inputStream, chunkBytes);
+        }
+
+        @Override
+        int scan(byte[] data, int from, int to) throws IOException {
+            int lastEnd = -1;
+            for (int i = from; i < to; i++) {
+                byte b = data[i];
+                if (b == '"') {
+                    mInQuotes = !mInQuotes;
+                } else if (b == '\n' && !mInQuotes) {
+                    if (!mHeaderRead) {
+                        readHeader(new String(data, mStart, i - mStart, UTF_8));
+                        mStart = i + 1;
+                    } else {
+                        lastEnd = i + 1;
+                    }
+                }
+            }
+            return lastEnd;
+        }
+
+        @Override
+        int endOfInput(int limit) {
+            // The last line may have no line break
+            return mHeaderRead ? limit : -1;
+        }
+
+        private void readHeader(String header) throws IOException {
+            if (header.startsWith("\uFEFF")) {
+                // Byte order mark
+                header = header.substring(1);
+            }
+            String[] names = header.trim().split(",");
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i].replace("\"", "").trim();
+                if ("time".equals(name)) {
+                    mTimeColumn = i;
+                } else if ("latitude".equals(name)) {
+                    mLatitudeColumn = i;
+                } else if ("longitude".equals(name)) {
+                    mLongitudeColumn = i;
+                } else if ("depth".equals(name)) {
+                    mDepthColumn = i;
+                } else if ("mag".equals(name)) {
+                    mMagnitudeColumn = i;
+                } else if ("id".equals(name)) {
+                    mIdColumn = i;
+                } else if ("place".equals(name)) {
+                    mPlaceColumn = i;
+                }
+            }
+            if (mIdColumn < 0 || mTimeColumn < 0) {
+                throw new IOException("Not a USGS earthquake catalog");
+            }
+            mColumnCount = names.length;
+            mHeaderRead = true;
+        }
+
+        @Override
+        Batch parse(byte[] chunk) throws IOException {
+            char[] text = new String(chunk, UTF_8).toCharArray();
+            Batch batch = new Batch(chunk.length / 120);
+            // Where each field of the current line starts and ends
+            int[] starts = new int[mColumnCount];
+            int[] ends = new int[mColumnCount];
+
+            int lineStart = 0;
+            while (lineStart < text.length) {
+                int lineEnd = splitLine(text, lineStart, starts, ends);
+                if (ends[mIdColumn] > starts[mIdColumn]) {
+                    String id = new String(text, starts[mIdColumn], ends[mIdColumn] - starts[mIdColumn]);
+                    batch.add(id,
+                            mMagnitudeColumn < 0 ? 0 : parseNumber(text, starts[mMagnitudeColumn], ends[mMagnitudeColumn], 0),
+                            mPlaceColumn < 0 ? "" : unquote(text, starts[mPlaceColumn], ends[mPlaceColumn]),
+                            parseIsoTime(text, starts[mTimeColumn], ends[mTimeColumn]),
+                            EVENT_PAGE_URL + id,
+                            column(text, mLatitudeColumn, starts, ends),
+                            column(text, mLongitudeColumn, starts, ends),
+                            column(text, mDepthColumn, starts, ends));
+                }
+                lineStart = lineEnd;
+            }
+            return batch;
+        }
+
+        private static double column(char[] text, int column, int[] starts, int[] ends) throws IOException {
+            return column < 0 ? Double.NaN : parseNumber(text, starts[column], ends[column], Double.NaN);
+        }
+
+        /**
+         * Find the fields of the line starting at {@code start}, and return where the next
+         * line starts. Missing fields are empty. Quoted fields keep their quotes.
+         */
+        private static int splitLine(char[] text, int start, int[] starts, int[] ends) {
+            Arrays.fill(starts, start);
+            Arrays.fill(ends, start);
+            int column = 0;
+            int fieldStart = start;
+            boolean inQuotes = false;
+            int i = start;
+            for (; i < text.length; i++) {
+                char c = text[i];
+                if (c == '"') {
+                    inQuotes = !inQuotes;
+                } else if (!inQuotes && (c == ',' || c == '\n' || c == '\r')) {
+                    if (column < starts.length) {
+                        starts[column] = fieldStart;
+                        ends[column] = i;
+                    }
+                    column++;
+                    fieldStart = i + 1;
+                    if (c != ',') {
+                        break;
+                    }
+                }
+            }
+            if (i == text.length && column < starts.length) {
+                // Last line without a line break
+                starts[column] = fieldStart;
+                ends[column] = i;
+            }
+            // Skip the line break, \n or \r\n
+            while (i < text.length && (text[i] == '\r' || text[i] == '\n')) {
+                i++;
+                if (text[i - 1] == '\n') {
+                    break;
+                }
+            }
+            return i;
+        }
+
+        private static String unquote(char[] text, int start, int end) {
+            if (end - start >= 2 && text[start] == '"' && text[end - 1] == '"') {
+                String value = new String(text, start + 1, end - start - 2);
+                return value.indexOf('"') < 0 ? value : value.replace("\"\"", "\"");
+            }
+            return new String(text, start, end - start);
+        }
+    }
+
+    /**
+     * Parse a decimal number like "-12.345", without making a String of it. Numbers with
+     * more than 15 digits, or exponents, go through {@link Double#parseDouble}, the mantissa
+     * would not be exact.
+     *
+     * @param empty the value of an empty field
+     */
+    static double parseNumber(char[] text, int start, int end, double empty) throws IOException {
+        if (start == end) {
+            return empty;
+        }
+        int i = start;
+        boolean negative = text[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            char c = text[i];
+            if (c >= '0' && c <= '9' && digits < 15) {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0 && fractionDigits < POWERS_OF_TEN.length) {
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(text, start, end - start));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed number in earthquake CSV");
+        }
+    }
+
+    /**
+     * Parse a UTC time in the ISO 8601 form of the USGS catalog, "2016-07-01T12:34:56.789Z",
+     * the milliseconds being optional, into milliseconds since the epoch.
+     */
+    static long parseIsoTime(char[] text, int start, int end) throws IOException {
+        if (end - start < 19 || text[start + 4] != '-' || text[start + 7] != '-' || text[start + 10] != 'T'
+                || text[start + 13] != ':' || text[start + 16] != ':') {
+            throw new IOException("Malformed time in earthquake CSV");
+        }
+        int year = digits(text, start, 4);
+        int month = digits(text, start + 5, 2);
+        int day = digits(text, start + 8, 2);
+        int hour = digits(text, start + 11, 2);
+        int minute = digits(text, start + 14, 2);
+        int second = digits(text, start + 17, 2);
+        int millis = 0;
+        int i = start + 19;
+        if (i < end && text[i] == '.') {
+            int scale = 100;
+            for (i++; i < end && text[i] >= '0' && text[i] <= '9'; i++) {
+                millis += (text[i] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        return ((daysFromEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    private static int digits(char[] text, int start, int count) throws IOException {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text[i];
+            if (c < '0' || c > '9') {
+                throw new IOException("Malformed time in earthquake CSV");
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Return the number of days from 1970-01-01 to the given date of the Gregorian calendar.
+     */
+    private static long daysFromEpoch(int year, int month, int day) {
+        // Count years from March, so the leap day is the last day of the year
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+
+/**
+ * Finds what changed between two polls of a USGS summary feed.
+ * <p>
+ * A summary feed lists every event of a rolling period (e.g. the past hour), changed or not.
+ * The detector remembers the {@code updated} time of each event it has seen, and only
+ * reports the events that are new or were updated since. Events that left the period are
+ * forgotten, so memory follows the size of the feed.
+ * <p>
+ * Not thread-safe, meant to be used by a single poller.
+ */
+public final class QuakeChangeDetector {
+
+    private final long mSince;
+    private HashMap<String, Long> mSeen = new HashMap<>();
+
+    /**
+     * @param since the time the list was last brought up to date, events of the first poll
+     *              updated before it are not reported
+     */
+    public QuakeChangeDetector(long since) {
+        mSince = since;
+    }
+
+    /**
+     * Return the events of the given feed that are new or were updated since the previous
+     * call, and have at least the given magnitude.
+     */
+    public QuakeTable detectChanges(QuakeTable feed, double minMagnitude) {
+        QuakeTable changes = new QuakeTable();
+        int size = feed.size();
+        HashMap<String, Long> seen = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String id = feed.getId(i);
+            long updated = feed.getUpdated(i);
+            Long previous = mSeen.get(id);
+            boolean changed = previous == null ? updated > mSince : updated > previous;
+            seen.put(id, previous == null ? updated : Math.max(updated, previous));
+            if (changed && feed.getMagnitude(i) >= minMagnitude) {
+                changes.insert(changes.size(), feed, i);
+            }
+        }
+        mSeen = seen;
+        return changes;
+    }
+}
@@ -0,0 +1,511 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Clusters of earthquakes for every zoom level of a map, kept up to date one event at a time,
+ * so drawing the map only touches the clusters on screen, whatever the number of events.
+ * <p>
+ * Positions are Web Mercator coordinates scaled to the world, from 0 to 1 on both axes, x
+ * growing eastwards and y southwards. At zoom level {@code z} the world is {@code 2^z} map
+ * tiles wide, and each tile is cut into {@link #CELLS_PER_TILE} by {@link #CELLS_PER_TILE}
+ * cells: the events of a cell make one cluster, drawn at their centroid. The cells of a level
+ * are the quarters of the cells of the level above, so the levels form a quadtree:
+ * <ul>
+ * <li>an event is added to, or removed from, one cell per level, {@code MAX_LEVEL + 1} in all;</li>
+ * <li>each cell keeps the count, the centroid and the strongest event of its cluster, so a
+ * removal only looks at the four cells below to find the new strongest event;</li>
+ * <li>a viewport query visits the cells it overlaps at one level, about as many as fit on
+ * screen.</li>
+ * </ul>
+ * Past {@link #MAX_LEVEL} clusters are small enough to show their events one by one.
+ * <p>
+ * Events are added and removed by id, like in the {@link QuakeSpatialIndex}: adding an event
+ * again moves it. Not thread-safe.
+ */
+public final class QuakeClusterIndex {
+
+    /** Deepest level with clusters, its cells are about 10 km wide at the equator */
+    public static final int MAX_LEVEL = 10;
+
+    /** Cells across a map tile, a 256 dp tile has 64 dp cells */
+    public static final int CELLS_PER_TILE = 4;
+
+    /** Web Mercator stops short of the poles, where y would be infinite */
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    /**
+     * Told when clusters changed, after a batch of events was added or removed.
+     */
+    public interface Listener {
+        void onClustersChanged(QuakeClusterIndex index);
+    }
+
+    /**
+     * The clusters found by a query, reused from one query to the next so drawing a frame
+     * doesn't allocate.
+     */
+    public static final class Clusters {
+        private int mSize;
+        private double[] mX = new double[64];
+        private double[] mY = new double[64];
+        private int[] mCounts = new int[64];
+        private int[] mStrongest = new int[64];
+
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Return the x of the cluster centroid. It can be below 0 or above 1, for clusters
+         * of the world copies east or west of the first one.
+         */
+        public double getX(int index) {
+            return mX[index];
+        }
+
+        public double getY(int index) {
+            return mY[index];
+        }
+
+        public int getCount(int index) {
+            return mCounts[index];
+        }
+
+        /**
+         * Return the entry of the strongest event of the cluster, see {@link QuakeClusterIndex#getId(int)}.
+         */
+        public int getStrongest(int index) {
+            return mStrongest[index];
+        }
+
+        private void clear() {
+            mSize = 0;
+        }
+
+        private void add(double x, double y, int count, int strongest) {
+            if (mSize == mX.length) {
+                int capacity = mSize * 2;
+                mX = Arrays.copyOf(mX, capacity);
+                mY = Arrays.copyOf(mY, capacity);
+                mCounts = Arrays.copyOf(mCounts, capacity);
+                mStrongest = Arrays.copyOf(mStrongest, capacity);
+            }
+            mX[mSize] = x;
+            mY[mSize] = y;
+            mCounts[mSize] = count;
+            mStrongest[mSize] = strongest;
+            mSize++;
+        }
+    }
+
+    /**
+     * The non empty cells of a level, in an open addressing hash table keyed by cell
+     * coordinates. Cells that get empty stay in the table, to be filled again.
+     */
+    private static final class Level {
+        private static final long EMPTY = -1;
+
+        final int side;
+        long[] keys = new long[16];
+        int[] counts = new int[16];
+        double[] sumX = new double[16];
+        double[] sumY = new double[16];
+        int[] strongest = new int[16];
+        // First entry of each cell, linked through mNextInCell, only kept on the deepest level
+        int[] heads = new int[16];
+        int used;
+
+        Level(int side) {
+            this.side = side;
+            Arrays.fill(keys, EMPTY);
+        }
+
+        /**
+         * Return the slot of the given cell, -1 if it was never filled.
+         */
+        int find(int column, int row) {
+            long key = key(column, row);
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                if (keys[slot] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        /**
+         * Return the slot of the given cell, making an empty one if there is none.
+         */
+        int findOrAdd(int column, int row) {
+            if ((used + 1) * 4 > keys.length * 3) {
+                grow();
+            }
+            long key = key(column, row);
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            counts[slot] = 0;
+            sumX[slot] = 0;
+            sumY[slot] = 0;
+            strongest[slot] = -1;
+            heads[slot] = -1;
+            used++;
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            double[] oldSumX = sumX;
+            double[] oldSumY = sumY;
+            int[] oldStrongest = strongest;
+            int[] oldHeads = heads;
+            int capacity = oldKeys.length * 2;
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            counts = new int[capacity];
+            sumX = new double[capacity];
+            sumY = new double[capacity];
+            strongest = new int[capacity];
+            heads = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == EMPTY) {
+                    continue;
+                }
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+                sumX[slot] = oldSumX[i];
+                sumY[slot] = oldSumY[i];
+                strongest[slot] = oldStrongest[i];
+                heads[slot] = oldHeads[i];
+            }
+        }
+
+        void clear() {
+            Arrays.fill(keys, EMPTY);
+            used = 0;
+        }
+
+        private static long key(int column, int row) {
+            return ((long) row << 32) | column;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private final Level[] mLevels = new Level[MAX_LEVEL + 1];
+
+    // Entries, numbered like in QuakeSpatialIndex. Removed entries are reused by later events.
+    private int mSize;
+    private String[] mIds = new String[16];
+    private double[] mX = new double[16];
+    private double[] mY = new double[16];
+    private double[] mMagnitudes = new double[16];
+    // Events of the same deepest cell, doubly linked so they are unlinked in constant time
+    private int[] mNextInCell = new int[16];
+    private int[] mPreviousInCell = new int[16];
+    private final HashMap<String, Integer> mEntriesById = new HashMap<>();
+    private int[] mFreeEntries = new int[16];
+    private int mFreeCount;
+
+    private Listener mListener;
+
+    public QuakeClusterIndex() {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            mLevels[level] = new Level(CELLS_PER_TILE << level);
+        }
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Tell the listener that clusters changed. Called once per batch of changes, rather than
+     * once per event.
+     */
+    public void notifyChanged() {
+        if (mListener != null) {
+            mListener.onClustersChanged(this);
+        }
+    }
+
+    /**
+     * Return the number of events in the index.
+     */
+    public int size() {
+        return mEntriesById.size();
+    }
+
+    public String getId(int entry) {
+        return mIds[entry];
+    }
+
+    public double getMagnitude(int entry) {
+        return mMagnitudes[entry];
+    }
+
+    /**
+     * Add every row of the given table that has a location.
+     */
+    public void addAll(QuakeTable quakes) {
+        for (int i = 0; i < quakes.size(); i++) {
+            add(quakes, i);
+        }
+    }
+
+    /**
+     * Add the given row, or move it if its id is already in the index. Rows without a
+     * location are left out.
+     */
+    public void add(QuakeTable quakes, int index) {
+        add(quakes.getId(index), quakes.getLatitude(index), quakes.getLongitude(index),
+                quakes.getMagnitude(index));
+    }
+
+    public void add(String id, double latitude, double longitude, double magnitude) {
+        remove(id);
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return;
+        }
+        int entry = newEntry();
+        mIds[entry] = id;
+        mX[entry] = toX(longitude);
+        mY[entry] = toY(latitude);
+        mMagnitudes[entry] = magnitude;
+        mEntriesById.put(id, entry);
+
+        for (int levelNumber = MAX_LEVEL; levelNumber >= 0; levelNumber--) {
+            Level level = mLevels[levelNumber];
+            int slot = level.findOrAdd(cellOf(mX[entry], level.side), cellOf(mY[entry], level.side));
+            level.counts[slot]++;
+            level.sumX[slot] += mX[entry];
+            level.sumY[slot] += mY[entry];
+            if (level.strongest[slot] < 0 || isStronger(entry, level.strongest[slot])) {
+                level.strongest[slot] = entry;
+            }
+            if (levelNumber == MAX_LEVEL) {
+                linkInCell(level, slot, entry);
+            }
+        }
+    }
+
+    /**
+     * Remove the event with the given id, if it is in the index.
+     */
+    public void remove(String id) {
+        Integer boxedEntry = mEntriesById.remove(id);
+        if (boxedEntry == null) {
+            return;
+        }
+        int entry = boxedEntry;
+        // From the deepest level up, so the new strongest event of a cell is found among
+        // the strongest events of the cells below, which are already up to date
+        for (int levelNumber = MAX_LEVEL; levelNumber >= 0; levelNumber--) {
+            Level level = mLevels[levelNumber];
+            int column = cellOf(mX[entry], level.side);
+            int row = cellOf(mY[entry], level.side);
+            int slot = level.find(column, row);
+            if (--level.counts[slot] == 0) {
+                // Start again from 0, rather than from what rounding errors left
+                level.sumX[slot] = 0;
+                level.sumY[slot] = 0;
+            } else {
+                level.sumX[slot] -= mX[entry];
+                level.sumY[slot] -= mY[entry];
+            }
+            if (levelNumber == MAX_LEVEL) {
+                unlinkFromCell(level, slot, entry);
+                if (level.strongest[slot] == entry) {
+                    level.strongest[slot] = strongestInCell(level.heads[slot]);
+                }
+            } else if (level.strongest[slot] == entry) {
+                level.strongest[slot] = strongestBelow(levelNumber, column, row);
+            }
+        }
+        mIds[entry] = null;
+        freeEntry(entry);
+    }
+
+    public void clear() {
+        for (Level level : mLevels) {
+            level.clear();
+        }
+        Arrays.fill(mIds, 0, mSize, null);
+        mSize = 0;
+        mFreeCount = 0;
+        mEntriesById.clear();
+    }
+
+    /**
+     * Find the clusters a map shows in the given area: one per non empty cell of the given
+     * zoom level, or past {@link #MAX_LEVEL}, one per event.
+     * <p>
+     * The area is in world coordinates, see the class comment. Its x can go past 0 and 1,
+     * for maps showing the world more than once or across the 180th meridian: the clusters
+     * are then found again in the copies of the world, at their x in the copy.
+     *
+     * @param clusters emptied, then filled with the clusters found
+     */
+    public void query(double left, double top, double right, double bottom, int zoom, Clusters clusters) {
+        clusters.clear();
+        Level level = mLevels[Math.max(0, Math.min(zoom, MAX_LEVEL))];
+        int side = level.side;
+        int firstColumn = (int) Math.floor(left * side);
+        int lastColumn = (int) Math.floor(right * side);
+        int firstRow = Math.max(0, (int) Math.floor(top * side));
+        int lastRow = Math.min(side - 1, (int) Math.floor(bottom * side));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int wrappedColumn = ((column % side) + side) % side;
+                int slot = level.find(wrappedColumn, row);
+                if (slot < 0 || level.counts[slot] == 0) {
+                    continue;
+                }
+                // Where this copy of the world starts
+                double offset = Math.floor((double) column / side);
+                if (zoom > MAX_LEVEL) {
+                    for (int entry = level.heads[slot]; entry >= 0; entry = mNextInCell[entry]) {
+                        if (mX[entry] + offset >= left && mX[entry] + offset <= right
+                                && mY[entry] >= top && mY[entry] <= bottom) {
+                            clusters.add(mX[entry] + offset, mY[entry], 1, entry);
+                        }
+                    }
+                } else {
+                    int count = level.counts[slot];
+                    clusters.add(level.sumX[slot] / count + offset, level.sumY[slot] / count, count,
+                            level.strongest[slot]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the x of a longitude, from 0 at 180 degrees west to 1 at 180 degrees east.
+     */
+    public static double toX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    /**
+     * Return the y of a latitude, from 0 at the north edge of the map to 1 at its south edge.
+     */
+    public static double toY(double latitude) {
+        double clamped = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+        double sinLatitude = Math.sin(Math.toRadians(clamped));
+        return 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
+    }
+
+    /**
+     * Return the latitude of a y, see {@link #toY(double)}.
+     */
+    public static double toLatitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+
+    private static int cellOf(double coordinate, int side) {
+        return Math.min(side - 1, (int) (coordinate * side));
+    }
+
+    /**
+     * Return whether the first event is stronger than the second, and so makes a better
+     * marker for their cluster.
+     */
+    private boolean isStronger(int entry, int other) {
+        return mMagnitudes[entry] > mMagnitudes[other];
+    }
+
+    private int strongestInCell(int head) {
+        int strongest = -1;
+        for (int entry = head; entry >= 0; entry = mNextInCell[entry]) {
+            if (strongest < 0 || isStronger(entry, strongest)) {
+                strongest = entry;
+            }
+        }
+        return strongest;
+    }
+
+    /**
+     * Return the strongest event of the four cells below the given one, -1 if they are empty.
+     */
+    private int strongestBelow(int levelNumber, int column, int row) {
+        Level below = mLevels[levelNumber + 1];
+        int strongest = -1;
+        for (int i = 0; i < 4; i++) {
+            int slot = below.find(column * 2 + (i & 1), row * 2 + (i >> 1));
+            if (slot < 0 || below.counts[slot] == 0) {
+                continue;
+            }
+            int candidate = below.strongest[slot];
+            if (strongest < 0 || isStronger(candidate, strongest)) {
+                strongest = candidate;
+            }
+        }
+        return strongest;
+    }
+
+    private void linkInCell(Level level, int slot, int entry) {
+        int head = level.heads[slot];
+        mNextInCell[entry] = head;
+        mPreviousInCell[entry] = -1;
+        if (head >= 0) {
+            mPreviousInCell[head] = entry;
+        }
+        level.heads[slot] = entry;
+    }
+
+    private void unlinkFromCell(Level level, int slot, int entry) {
+        int next = mNextInCell[entry];
+        int previous = mPreviousInCell[entry];
+        if (previous >= 0) {
+            mNextInCell[previous] = next;
+        } else {
+            level.heads[slot] = next;
+        }
+        if (next >= 0) {
+            mPreviousInCell[next] = previous;
+        }
+    }
+
+    private int newEntry() {
+        if (mFreeCount > 0) {
+            return mFreeEntries[--mFreeCount];
+        }
+        if (mSize == mIds.length) {
+            int capacity = mSize + (mSize >> 1);
+            mIds = Arrays.copyOf(mIds, capacity);
+            mX = Arrays.copyOf(mX, capacity);
+            mY = Arrays.copyOf(mY, capacity);
+            mMagnitudes = Arrays.copyOf(mMagnitudes, capacity);
+            mNextInCell = Arrays.copyOf(mNextInCell, capacity);
+            mPreviousInCell = Arrays.copyOf(mPreviousInCell, capacity);
+        }
+        return mSize++;
+    }
+
+    private void freeEntry(int entry) {
+        if (mFreeCount == mFreeEntries.length) {
+            mFreeEntries = Arrays.copyOf(mFreeEntries, mFreeCount * 2);
+        }
+        mFreeEntries[mFreeCount++] = entry;
+    }
+}
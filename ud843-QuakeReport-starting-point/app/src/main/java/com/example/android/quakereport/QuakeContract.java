@@ -0,0 +1,72 @@
+package com.example.android.quakereport;
+
+/**
+ * Table and column names of the on-device earthquake cache.
+ */
+public final class QuakeContract {
+
+    /**
+     * Create a private constructor because no one should ever create a {@link QuakeContract} object.
+     */
+    private QuakeContract() {
+    }
+
+    /**
+     * One row per USGS event, keyed by the event id.
+     */
+    public static final class QuakeEntry {
+
+        public static final String TABLE_NAME = "quakes";
+
+        public static final String COLUMN_EVENT_ID = "event_id";
+        public static final String COLUMN_MAGNITUDE = "magnitude";
+        public static final String COLUMN_PLACE = "place";
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_URL = "url";
+        /** Epicenter in degrees and hypocenter depth in kilometers, NULL if unknown */
+        public static final String COLUMN_LATITUDE = "latitude";
+        public static final String COLUMN_LONGITUDE = "longitude";
+        public static final String COLUMN_DEPTH = "depth";
+        /** When the row was last written, in milliseconds since the epoch */
+        public static final String COLUMN_FETCHED_AT = "fetched_at";
+
+        private QuakeEntry() {
+        }
+    }
+
+    /**
+     * One row per USGS event imported from a catalog export, kept for good unlike the cached
+     * rows, see {@link QuakeArchive}.
+     */
+    public static final class ArchiveEntry {
+
+        public static final String TABLE_NAME = "archive";
+
+        public static final String COLUMN_EVENT_ID = "event_id";
+        public static final String COLUMN_MAGNITUDE = "magnitude";
+        public static final String COLUMN_PLACE = "place";
+        public static final String COLUMN_TIME = "time";
+        public static final String COLUMN_URL = "url";
+        /** Epicenter in degrees and hypocenter depth in kilometers, NULL if unknown */
+        public static final String COLUMN_LATITUDE = "latitude";
+        public static final String COLUMN_LONGITUDE = "longitude";
+        public static final String COLUMN_DEPTH = "depth";
+
+        private ArchiveEntry() {
+        }
+    }
+
+    /**
+     * One row per USGS query URL, remembering when its results were last revalidated.
+     */
+    public static final class SyncEntry {
+
+        public static final String TABLE_NAME = "sync_state";
+
+        public static final String COLUMN_QUERY = "query";
+        public static final String COLUMN_LAST_SYNC = "last_sync";
+
+        private SyncEntry() {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.android.quakereport.QuakeContract.ArchiveEntry;
+import com.example.android.quakereport.QuakeContract.QuakeEntry;
+import com.example.android.quakereport.QuakeContract.SyncEntry;
+
+/**
+ * Creates and upgrades the earthquake database: the cache of downloaded earthquakes and
+ * the archive of imported ones.
+ */
+public class QuakeDbHelper extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "quakes.db";
+    private static final int DATABASE_VERSION = 3;
+
+    private static QuakeDbHelper sInstance;
+
+    /**
+     * Return the single helper of the process, so every caller shares one connection.
+     */
+    public static synchronized QuakeDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QuakeDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private QuakeDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createCacheTables(db);
+        createArchiveTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The cache tables only hold a cache, start over from empty ones
+        db.execSQL("DROP TABLE IF EXISTS " + QuakeEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + SyncEntry.TABLE_NAME);
+        createCacheTables(db);
+        // The archive holds what the user imported, keep it once it exists
+        if (oldVersion < 3) {
+            createArchiveTable(db);
+        }
+    }
+
+    private static void createCacheTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + QuakeEntry.TABLE_NAME + " ("
+                + QuakeEntry.COLUMN_EVENT_ID + " TEXT PRIMARY KEY, "
+                + QuakeEntry.COLUMN_MAGNITUDE + " REAL NOT NULL, "
+                + QuakeEntry.COLUMN_PLACE + " TEXT NOT NULL, "
+                + QuakeEntry.COLUMN_TIME + " INTEGER NOT NULL, "
+                + QuakeEntry.COLUMN_URL + " TEXT NOT NULL, "
+                + QuakeEntry.COLUMN_LATITUDE + " REAL, "
+                + QuakeEntry.COLUMN_LONGITUDE + " REAL, "
+                + QuakeEntry.COLUMN_DEPTH + " REAL, "
+                + QuakeEntry.COLUMN_FETCHED_AT + " INTEGER NOT NULL)");
+
+        // The list is ordered either by time or by magnitude, index both
+        db.execSQL("CREATE INDEX quakes_time ON " + QuakeEntry.TABLE_NAME
+                + " (" + QuakeEntry.COLUMN_TIME + ")");
+        db.execSQL("CREATE INDEX quakes_magnitude ON " + QuakeEntry.TABLE_NAME
+                + " (" + QuakeEntry.COLUMN_MAGNITUDE + ")");
+
+        db.execSQL("CREATE TABLE " + SyncEntry.TABLE_NAME + " ("
+                + SyncEntry.COLUMN_QUERY + " TEXT PRIMARY KEY, "
+                + SyncEntry.COLUMN_LAST_SYNC + " INTEGER NOT NULL)");
+    }
+
+    private static void createArchiveTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ArchiveEntry.TABLE_NAME + " ("
+                + ArchiveEntry.COLUMN_EVENT_ID + " TEXT PRIMARY KEY, "
+                + ArchiveEntry.COLUMN_MAGNITUDE + " REAL NOT NULL, "
+                + ArchiveEntry.COLUMN_PLACE + " TEXT NOT NULL, "
+                + ArchiveEntry.COLUMN_TIME + " INTEGER NOT NULL, "
+                + ArchiveEntry.COLUMN_URL + " TEXT NOT NULL, "
+                + ArchiveEntry.COLUMN_LATITUDE + " REAL, "
+                + ArchiveEntry.COLUMN_LONGITUDE + " REAL, "
+                + ArchiveEntry.COLUMN_DEPTH + " REAL)");
+
+        // Trends are looked at over a time range
+        db.execSQL("CREATE INDEX archive_time ON " + ArchiveEntry.TABLE_NAME
+                + " (" + ArchiveEntry.COLUMN_TIME + ")");
+    }
+}
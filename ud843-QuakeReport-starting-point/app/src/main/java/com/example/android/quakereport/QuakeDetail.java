@@ -0,0 +1,240 @@
+package com.example.android.quakereport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * What the USGS detail of one event says beyond the list: felt reports, intensities, the
+ * PAGER alert, the tsunami flag and how the event was located.
+ * <p>
+ * Only these few fields are kept, the detail responses are mostly the product files
+ * (ShakeMaps, moment tensors...) which the parser skips, see
+ * {@link QuakeJsonParser#parseDetail}. A detail is small enough to cache hundreds of them.
+ * <p>
+ * The fields are set once, by the parser or by {@link #read(DataInputStream)}, and never
+ * change after that.
+ */
+public final class QuakeDetail {
+
+    /**
+     * Bumped whenever the layout of {@link #write} changes, cached details of another
+     * version are ignored
+     */
+    private static final int VERSION = 1;
+
+    String mId = "";
+    String mTitle = "";
+    double mMagnitude;
+    String mMagnitudeType = "";
+    String mPlace = "";
+    long mTime;
+    long mUpdated;
+    String mUrl = "";
+    double mLatitude = Double.NaN;
+    double mLongitude = Double.NaN;
+    double mDepth = Double.NaN;
+    // -1, or NaN, when USGS doesn't say
+    int mFeltReports = -1;
+    double mCommunityIntensity = Double.NaN;
+    double mEstimatedIntensity = Double.NaN;
+    String mAlert = "";
+    boolean mTsunami;
+    int mSignificance;
+    String mStatus = "";
+    String mNetwork = "";
+    int mStations = -1;
+    // When the detail was downloaded, set by the QuakeDetailLoader
+    long mFetchedAt;
+
+    QuakeDetail() {
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * Return the title USGS gives the event, e.g. "M 6.1 - 10km SSW of Town, Country".
+     */
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public double getMagnitude() {
+        return mMagnitude;
+    }
+
+    /**
+     * Return how the magnitude was measured, e.g. "mww" or "ml", empty if unknown.
+     */
+    public String getMagnitudeType() {
+        return mMagnitudeType;
+    }
+
+    public String getPlace() {
+        return mPlace;
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    /**
+     * Return when USGS last changed the event.
+     */
+    public long getUpdated() {
+        return mUpdated;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Return the number of "Did You Feel It?" reports, -1 if there are none.
+     */
+    public int getFeltReports() {
+        return mFeltReports;
+    }
+
+    /**
+     * Return the intensity reported by the people who felt the event, NaN if unknown.
+     */
+    public double getCommunityIntensity() {
+        return mCommunityIntensity;
+    }
+
+    /**
+     * Return the intensity estimated by the ShakeMap, NaN if unknown.
+     */
+    public double getEstimatedIntensity() {
+        return mEstimatedIntensity;
+    }
+
+    /**
+     * Return the PAGER alert level, "green", "yellow", "orange" or "red", empty if none.
+     */
+    public String getAlert() {
+        return mAlert;
+    }
+
+    /**
+     * Return whether the event is in an oceanic region, where the tsunami warning centers
+     * may have published something.
+     */
+    public boolean isTsunami() {
+        return mTsunami;
+    }
+
+    public int getSignificance() {
+        return mSignificance;
+    }
+
+    /**
+     * Return "automatic" or "reviewed" (by a seismologist).
+     */
+    public String getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * Return the network that located the event, e.g. "us" or "ci".
+     */
+    public String getNetwork() {
+        return mNetwork;
+    }
+
+    /**
+     * Return the number of stations used to locate the event, -1 if unknown.
+     */
+    public int getStations() {
+        return mStations;
+    }
+
+    public long getFetchedAt() {
+        return mFetchedAt;
+    }
+
+    /**
+     * Return roughly how many bytes of memory the detail takes, for the size of caches.
+     */
+    public int getSizeEstimate() {
+        int chars = mId.length() + mTitle.length() + mMagnitudeType.length() + mPlace.length()
+                + mUrl.length() + mAlert.length() + mStatus.length() + mNetwork.length();
+        // The object and its fields, then 8 String objects with their char arrays
+        return 120 + 8 * 40 + 2 * chars;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeUTF(mId);
+        out.writeUTF(mTitle);
+        out.writeDouble(mMagnitude);
+        out.writeUTF(mMagnitudeType);
+        out.writeUTF(mPlace);
+        out.writeLong(mTime);
+        out.writeLong(mUpdated);
+        out.writeUTF(mUrl);
+        out.writeDouble(mLatitude);
+        out.writeDouble(mLongitude);
+        out.writeDouble(mDepth);
+        out.writeInt(mFeltReports);
+        out.writeDouble(mCommunityIntensity);
+        out.writeDouble(mEstimatedIntensity);
+        out.writeUTF(mAlert);
+        out.writeBoolean(mTsunami);
+        out.writeInt(mSignificance);
+        out.writeUTF(mStatus);
+        out.writeUTF(mNetwork);
+        out.writeInt(mStations);
+        out.writeLong(mFetchedAt);
+    }
+
+    /**
+     * Read a detail written by {@link #write(DataOutputStream)}.
+     *
+     * @throws IOException if it was written by another version of the app
+     */
+    public static QuakeDetail read(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported detail version: " + version);
+        }
+        QuakeDetail detail = new QuakeDetail();
+        detail.mId = in.readUTF();
+        detail.mTitle = in.readUTF();
+        detail.mMagnitude = in.readDouble();
+        detail.mMagnitudeType = in.readUTF();
+        detail.mPlace = in.readUTF();
+        detail.mTime = in.readLong();
+        detail.mUpdated = in.readLong();
+        detail.mUrl = in.readUTF();
+        detail.mLatitude = in.readDouble();
+        detail.mLongitude = in.readDouble();
+        detail.mDepth = in.readDouble();
+        detail.mFeltReports = in.readInt();
+        detail.mCommunityIntensity = in.readDouble();
+        detail.mEstimatedIntensity = in.readDouble();
+        detail.mAlert = in.readUTF();
+        detail.mTsunami = in.readBoolean();
+        detail.mSignificance = in.readInt();
+        detail.mStatus = in.readUTF();
+        detail.mNetwork = in.readUTF();
+        detail.mStations = in.readInt();
+        detail.mFetchedAt = in.readLong();
+        return detail;
+    }
+}
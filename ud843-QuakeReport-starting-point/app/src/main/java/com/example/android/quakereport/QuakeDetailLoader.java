@@ -0,0 +1,370 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the {@link QuakeDetail} of events, so the detail screen opens without waiting.
+ * <ul>
+ * <li>Details are kept in memory, least recently used first, up to a number of bytes, and
+ * on disk, up to another number of bytes. A detail younger than {@link #MAX_AGE_MILLIS} is
+ * used as is, an older one is shown while a fresh one downloads.</li>
+ * <li>Loads of an event that is already loading wait for the running load, whether it was
+ * started by a screen or by a prefetch.</li>
+ * <li>{@link #prefetch(List)} downloads the details of the rows on screen, one at a time,
+ * behind the loads the user asked for. Each call replaces the rows of the previous one,
+ * so scrolling on doesn't queue up details nobody will open.</li>
+ * </ul>
+ * The loader must only be used on the main thread, callbacks are called there.
+ */
+public final class QuakeDetailLoader {
+
+    private static final String LOG_TAG = QuakeDetailLoader.class.getSimpleName();
+
+    /**
+     * Details older than this are downloaded again, felt reports and reviews keep coming
+     * in for a while after an event
+     */
+    public static final long MAX_AGE_MILLIS = 10 * 60 * 1000;
+
+    /** Memory taken by the cached details, a few hundred of them */
+    private static final int MAX_MEMORY_BYTES = 256 * 1024;
+
+    /** Disk taken by the cached details, trimmed to three quarters of it when exceeded */
+    private static final long MAX_DISK_BYTES = 1024 * 1024;
+
+    private static final String DISK_DIRECTORY = "details";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int LOAD_THREADS = 2;
+
+    /**
+     * Receives the detail of an event, on the main thread.
+     */
+    public interface Callback {
+        /**
+         * Called with the detail, and again with a fresh one if the first was old.
+         */
+        void onDetailLoaded(String id, QuakeDetail detail);
+
+        /**
+         * Called if the detail could not be downloaded and none was cached.
+         */
+        void onDetailFailed(String id);
+    }
+
+    private static QuakeDetailLoader sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final ExecutorService mLoadExecutor = Executors.newFixedThreadPool(LOAD_THREADS);
+    // One prefetch at a time, on its own thread, so prefetches never delay a load
+    private final ExecutorService mPrefetchExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Memory cache by event id, least recently used first
+    private final LinkedHashMap<String, QuakeDetail> mMemory = new LinkedHashMap<>(64, 0.75f, true);
+    private int mMemoryBytes;
+    // Callbacks waiting for the loads running, by event id. Prefetches have none.
+    private final HashMap<String, ArrayList<Callback>> mLoading = new HashMap<>();
+    private final ArrayDeque<String> mPrefetchQueue = new ArrayDeque<>();
+    private boolean mPrefetching;
+
+    private QuakeDetailLoader(Context context) {
+        mContext = context.getApplicationContext();
+        mDirectory = new File(mContext.getCacheDir(), DISK_DIRECTORY);
+    }
+
+    /**
+     * Return the loader shared by the whole app.
+     */
+    public static QuakeDetailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QuakeDetailLoader(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Give the detail of the event to the callback: right away if it is in memory, once
+     * read from disk or downloaded otherwise.
+     */
+    public void load(String id, Callback callback) {
+        QuakeDetail cached = mMemory.get(id);
+        if (cached != null) {
+            callback.onDetailLoaded(id, cached);
+            if (isFresh(cached)) {
+                return;
+            }
+        }
+        ArrayList<Callback> waiting = mLoading.get(id);
+        if (waiting != null) {
+            waiting.add(callback);
+            return;
+        }
+        mPrefetchQueue.remove(id);
+        waiting = new ArrayList<>();
+        waiting.add(callback);
+        mLoading.put(id, waiting);
+        // The disk copy is never newer than the one in memory
+        start(mLoadExecutor, id, cached == null, false);
+    }
+
+    /**
+     * Stop giving the detail of the event to the callback, e.g. when its screen is closed.
+     * The load goes on and caches the detail.
+     */
+    public void cancel(String id, Callback callback) {
+        ArrayList<Callback> waiting = mLoading.get(id);
+        if (waiting != null) {
+            waiting.remove(callback);
+        }
+    }
+
+    /**
+     * Download the details of the given events that are not cached yet, in the given order,
+     * instead of those of the previous call that are not downloaded yet.
+     */
+    public void prefetch(List<String> ids) {
+        mPrefetchQueue.clear();
+        for (String id : ids) {
+            QuakeDetail cached = mMemory.get(id);
+            if (!mLoading.containsKey(id) && (cached == null || !isFresh(cached))) {
+                mPrefetchQueue.add(id);
+            }
+        }
+        startNextPrefetch();
+    }
+
+    private void startNextPrefetch() {
+        if (mPrefetching) {
+            return;
+        }
+        String id = mPrefetchQueue.poll();
+        if (id == null) {
+            return;
+        }
+        mPrefetching = true;
+        mLoading.put(id, new ArrayList<Callback>());
+        start(mPrefetchExecutor, id, !mMemory.containsKey(id), true);
+    }
+
+    private void start(ExecutorService executor, final String id, final boolean readDisk, final boolean prefetch) {
+        final String url = QueryUtils.getBaseUrl(mContext) + QueryUtils.QUERY_PATH
+                + "?format=geojson&eventid=" + id;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                QuakeDetail detail = readDisk ? readFromDisk(id) : null;
+                if (detail != null && !isFresh(detail)) {
+                    // Show the old one while the new one downloads
+                    postLoaded(id, detail, false, false);
+                }
+                if (detail == null || !isFresh(detail)) {
+                    try {
+                        QuakeDetail downloaded = QuakeHttpClient.getInstance().fetchDetail(new URL(url));
+                        downloaded.mFetchedAt = System.currentTimeMillis();
+                        writeToDisk(id, downloaded);
+                        detail = downloaded;
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Problem downloading the detail of " + id, e);
+                        if (detail != null) {
+                            // Already given to the callbacks
+                            postLoaded(id, null, true, prefetch);
+                            return;
+                        }
+                    }
+                }
+                postLoaded(id, detail, true, prefetch);
+            }
+        });
+    }
+
+    /**
+     * Give a detail to the callbacks on the main thread.
+     *
+     * @param detail the detail, null if it could not be loaded
+     * @param done   whether the load is over, or a fresher detail is coming
+     */
+    private void postLoaded(final String id, final QuakeDetail detail, final boolean done, final boolean prefetch) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<Callback> waiting = done ? mLoading.remove(id) : mLoading.get(id);
+                if (detail != null) {
+                    putInMemory(id, detail);
+                }
+                if (waiting != null) {
+                    // A copy, callbacks may cancel themselves
+                    for (Callback callback : new ArrayList<>(waiting)) {
+                        if (detail != null) {
+                            callback.onDetailLoaded(id, detail);
+                        } else if (!mMemory.containsKey(id)) {
+                            callback.onDetailFailed(id);
+                        }
+                    }
+                }
+                if (done && prefetch) {
+                    mPrefetching = false;
+                    startNextPrefetch();
+                }
+            }
+        });
+    }
+
+    private void putInMemory(String id, QuakeDetail detail) {
+        QuakeDetail previous = mMemory.put(id, detail);
+        mMemoryBytes += detail.getSizeEstimate();
+        if (previous != null) {
+            mMemoryBytes -= previous.getSizeEstimate();
+        }
+        Iterator<Map.Entry<String, QuakeDetail>> eldest = mMemory.entrySet().iterator();
+        while (mMemoryBytes > MAX_MEMORY_BYTES && eldest.hasNext()) {
+            mMemoryBytes -= eldest.next().getValue().getSizeEstimate();
+            eldest.remove();
+        }
+    }
+
+    private static boolean isFresh(QuakeDetail detail) {
+        return System.currentTimeMillis() - detail.getFetchedAt() < MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Return the detail cached on disk, null if there is none. Called on a loader thread.
+     */
+    private QuakeDetail readFromDisk(String id) {
+        File file = fileOf(id);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            QuakeDetail detail = QuakeDetail.read(in);
+            // Recently read files are trimmed last
+            file.setLastModified(System.currentTimeMillis());
+            return detail;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem reading the cached detail of " + id, e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Cache the detail on disk, then trim the cache if it got too big. Called on a loader
+     * thread, the files are written under a temporary name then renamed, so a file being
+     * written is never read.
+     */
+    private void writeToDisk(String id, QuakeDetail detail) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+        File file = fileOf(id);
+        File temporary = new File(mDirectory, file.getName() + "." + Thread.currentThread().getId() + TEMPORARY_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            detail.write(out);
+            out.close();
+            out = null;
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Cannot rename " + temporary);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem caching the detail of " + id, e);
+            temporary.delete();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+        trimDisk();
+    }
+
+    /**
+     * Delete the least recently used files until the cache takes three quarters of its
+     * maximum size, if it takes more than its maximum.
+     */
+    private synchronized void trimDisk() {
+        // Not the files other threads are writing
+        File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return !name.endsWith(TEMPORARY_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        final HashMap<File, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            indexes.put(files[i], i);
+        }
+        // Sort on the times read once, they change as other threads read files
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long timeA = lastModified[indexes.get(a)];
+                long timeB = lastModified[indexes.get(b)];
+                return timeA < timeB ? -1 : timeA > timeB ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < files.length && total > MAX_DISK_BYTES * 3 / 4; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File fileOf(String id) {
+        // USGS ids are letters and digits, keep anything else out of the file name
+        return new File(mDirectory, id.replaceAll("[^A-Za-z0-9_-]", "_"));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
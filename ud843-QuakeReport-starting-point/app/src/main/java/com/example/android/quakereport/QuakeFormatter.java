@@ -0,0 +1,99 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Turns earthquake fields into the strings shown in the list.
+ * <p>
+ * The formatters are created once per instance and reused for every row. They are not
+ * thread-safe, so each thread formatting rows needs its own {@link QuakeFormatter}.
+ */
+public final class QuakeFormatter {
+
+    private static final String LOCATION_SEPARATOR = "of";
+
+    /** Number of magnitude colour buckets, see {@link #magnitudeBucket(double)} */
+    public static final int MAGNITUDE_BUCKETS = 10;
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MMM DD, YYYY");
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("h:mm a");
+    private final DecimalFormat mMagnitudeFormat = new DecimalFormat("#.#");
+    private final Date mDate = new Date();
+    private final String mNoOffsetText;
+
+    /**
+     * @param noOffsetText the offset shown for places that have none, e.g. "Near the"
+     */
+    public QuakeFormatter(String noOffsetText) {
+        mNoOffsetText = noOffsetText;
+    }
+
+    /**
+     * Return the offset shown for places that have none.
+     */
+    public String getNoOffsetText() {
+        return mNoOffsetText;
+    }
+
+    /**
+     * Return the formatted magnitude string, showing only one decimal place (i.e. "3.2").
+     */
+    public String formatMagnitude(double magnitude) {
+        return mMagnitudeFormat.format(magnitude);
+    }
+
+    /**
+     * Return the formatted date string (i.e. "Mar 3, 1984") of a time in milliseconds.
+     */
+    public String formatDate(long time) {
+        mDate.setTime(time);
+        return mDateFormat.format(mDate);
+    }
+
+    /**
+     * Return the formatted time string (i.e. "4:30 PM") of a time in milliseconds.
+     */
+    public String formatTime(long time) {
+        mDate.setTime(time);
+        return mTimeFormat.format(mDate);
+    }
+
+    /**
+     * Return the offset part of a place, i.e. "74km NW of" for "74km NW of Rumoi, Japan",
+     * or the no offset text when the place has none.
+     */
+    public String formatLocationOffset(String place) {
+        int split = locationSplit(place);
+        return split < 0 ? mNoOffsetText : place.substring(0, split);
+    }
+
+    /**
+     * Return the primary location of a place, i.e. " Rumoi, Japan" for "74km NW of Rumoi, Japan".
+     */
+    public String formatPrimaryLocation(String place) {
+        int split = locationSplit(place);
+        return split < 0 ? place : place.substring(split);
+    }
+
+    /**
+     * Return the index right after the location separator, or -1 if the place has no offset.
+     */
+    public static int locationSplit(String place) {
+        int index = place.indexOf(LOCATION_SEPARATOR);
+        return index < 0 ? -1 : index + LOCATION_SEPARATOR.length();
+    }
+
+    /**
+     * Return the colour bucket of a magnitude, from 0 (below 2, including negative
+     * magnitudes) to 9 (10 and over). Each bucket has its own circle colour.
+     */
+    public static int magnitudeBucket(double magnitude) {
+        int intMagnitude = (int) magnitude;
+        if (intMagnitude <= 1) {
+            return 0;
+        }
+        return Math.min(intMagnitude, MAGNITUDE_BUCKETS) - 1;
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP layer behind {@link QueryUtils}.
+ * <ul>
+ * <li>Asks for gzip and inflates the response on the fly, GeoJSON compresses very well.</li>
+ * <li>Remembers the {@code ETag} and {@code Last-Modified} validators of recent responses,
+ * together with the earthquakes parsed from them, and sends them back as
+ * {@code If-None-Match}/{@code If-Modified-Since}. A 304 answer then reuses the parsed list
+ * without downloading or parsing anything.</li>
+ * <li>Never calls {@link HttpURLConnection#disconnect()}, and fully consumes every response
+ * before closing it, so the underlying connection goes back to the keep-alive pool and is
+ * reused by the next request to the same host.</li>
+ * </ul>
+ */
+public final class QuakeHttpClient implements FetchScheduler.Transport {
+
+    /** Number of idle connections kept alive per host */
+    private static final int MAX_POOLED_CONNECTIONS = 5;
+
+    /** Number of responses whose validators are remembered */
+    private static final int MAX_VALIDATED_RESPONSES = 16;
+
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+
+    private static QuakeHttpClient sInstance;
+
+    /**
+     * Thrown when the server answers with an error status, so callers can tell a server
+     * error (worth retrying) from a client error (not worth it).
+     */
+    public static class HttpStatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mResponseCode;
+
+        public HttpStatusException(int responseCode) {
+            super("Error response code: " + responseCode);
+            mResponseCode = responseCode;
+        }
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+    }
+
+    /**
+     * Told about each connection as soon as it is opened, e.g. to be able to abort it.
+     */
+    public interface ConnectionCallback {
+        void onConnectionOpened(HttpURLConnection connection);
+    }
+
+    /**
+     * Validators and parsed results by URL, least recently used first.
+     */
+    private final Map<String, ValidatedResponse> mValidatedResponses =
+            new LinkedHashMap<String, ValidatedResponse>(MAX_VALIDATED_RESPONSES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ValidatedResponse> eldest) {
+                    return size() > MAX_VALIDATED_RESPONSES;
+                }
+            };
+
+    private static final class ValidatedResponse {
+        final String eTag;
+        final String lastModified;
+        final QuakeTable earthquakes;
+
+        ValidatedResponse(String eTag, String lastModified, QuakeTable earthquakes) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.earthquakes = earthquakes;
+        }
+    }
+
+    /**
+     * Return the single client of the process, so validators and pooled connections are shared
+     * across loads.
+     */
+    public static synchronized QuakeHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new QuakeHttpClient();
+        }
+        return sInstance;
+    }
+
+    private QuakeHttpClient() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_POOLED_CONNECTIONS));
+    }
+
+    /**
+     * Make a GET request to the given URL and return the earthquakes in the response. When the
+     * server answers that the response did not change since the last request, the earthquakes
+     * parsed back then are returned.
+     */
+    public QuakeTable fetchQuakes(URL url) throws IOException {
+        return fetchQuakes(url, null);
+    }
+
+    /**
+     * Same as {@link #fetchQuakes(URL)}, telling the given callback about the connection once
+     * it has been opened. Calling {@link HttpURLConnection#disconnect()} on it from another
+     * thread aborts the request.
+     */
+    @Override
+    public QuakeTable fetchQuakes(URL url, ConnectionCallback callback) throws IOException {
+        String key = url.toString();
+        ValidatedResponse previous;
+        synchronized (mValidatedResponses) {
+            previous = mValidatedResponses.get(key);
+        }
+
+        if (QuakeMetrics.ENABLED) {
+            // HttpURLConnection doesn't report its lookup, so time our own. The system caches
+            // the answer, the connection's lookup right after is then almost free.
+            long dnsStart = System.nanoTime();
+            try {
+                InetAddress.getAllByName(url.getHost());
+            } catch (IOException e) {
+                // The connection will report it
+            }
+            QuakeMetrics.HTTP_DNS.recordSince(dnsStart);
+        }
+
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        if (callback != null) {
+            callback.onConnectionOpened(urlConnection);
+        }
+        InputStream inputStream = null;
+        try {
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setRequestMethod("GET");
+            // Asking for gzip explicitly means we have to inflate the response ourselves
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            if (previous != null) {
+                if (previous.eTag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", previous.eTag);
+                }
+                if (previous.lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", previous.lastModified);
+                }
+            }
+            long phaseStart = QuakeMetrics.ENABLED ? System.nanoTime() : 0;
+            urlConnection.connect();
+            if (QuakeMetrics.ENABLED) {
+                QuakeMetrics.HTTP_CONNECT.recordSince(phaseStart);
+                phaseStart = System.nanoTime();
+            }
+
+            int responseCode = urlConnection.getResponseCode();
+            if (QuakeMetrics.ENABLED) {
+                QuakeMetrics.HTTP_TTFB.recordSince(phaseStart);
+                phaseStart = System.nanoTime();
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                inputStream = urlConnection.getInputStream();
+                return previous.earthquakes.copy();
+            } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                // Read the error body too, otherwise the connection cannot be reused
+                inputStream = urlConnection.getErrorStream();
+                throw new HttpStatusException(responseCode);
+            }
+
+            inputStream = urlConnection.getInputStream();
+            CountingInputStream countingStream = null;
+            if (QuakeMetrics.ENABLED) {
+                countingStream = new CountingInputStream(inputStream);
+                inputStream = countingStream;
+            }
+            InputStream bodyStream = inputStream;
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                bodyStream = new GZIPInputStream(inputStream);
+            }
+            QuakeTable earthquakes = extractEarthquakes(bodyStream);
+            if (QuakeMetrics.ENABLED) {
+                QuakeMetrics.HTTP_DOWNLOAD.recordSince(phaseStart);
+                QuakeMetrics.HTTP_BYTES.record(countingStream.getCount());
+            }
+
+            String eTag = urlConnection.getHeaderField("ETag");
+            String lastModified = urlConnection.getHeaderField("Last-Modified");
+            if (eTag != null || lastModified != null) {
+                synchronized (mValidatedResponses) {
+                    mValidatedResponses.put(key, new ValidatedResponse(eTag, lastModified,
+                            earthquakes.copy()));
+                }
+            }
+            return earthquakes;
+        } finally {
+            if (inputStream != null) {
+                drainAndClose(inputStream);
+            }
+        }
+    }
+
+    /**
+     * Make a GET request for the detail of one event, see {@link QuakeJsonParser#parseDetail}.
+     * Details are cached by the {@link QuakeDetailLoader}, they are not revalidated here.
+     */
+    public QuakeDetail fetchDetail(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        InputStream inputStream = null;
+        try {
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                inputStream = urlConnection.getErrorStream();
+                throw new HttpStatusException(responseCode);
+            }
+            inputStream = urlConnection.getInputStream();
+            InputStream bodyStream = inputStream;
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                bodyStream = new GZIPInputStream(inputStream);
+            }
+            return QuakeJsonParser.parseDetail(bodyStream);
+        } finally {
+            if (inputStream != null) {
+                drainAndClose(inputStream);
+            }
+        }
+    }
+
+    /**
+     * Return a {@link QuakeTable} filled straight from a JSON response stream.
+     * The response is never held in memory as a whole, see {@link QuakeJsonParser}.
+     */
+    private static QuakeTable extractEarthquakes(InputStream inputStream) throws IOException {
+        QuakeTable earthquakeData = new QuakeTable();
+        long parseStart = QuakeMetrics.ENABLED ? System.nanoTime() : 0;
+        QuakeJsonParser.parse(inputStream, earthquakeData);
+        if (QuakeMetrics.ENABLED) {
+            long elapsed = System.nanoTime() - parseStart;
+            QuakeMetrics.PARSE.record(elapsed);
+            if (elapsed > 0) {
+                QuakeMetrics.PARSE_RATE.record(earthquakeData.size() * 1000000000L / elapsed);
+            }
+        }
+        return earthquakeData;
+    }
+
+    /**
+     * Forget every remembered validator, so the next requests download full responses.
+     */
+    public void clearValidators() {
+        synchronized (mValidatedResponses) {
+            mValidatedResponses.clear();
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, to measure the compressed size of the responses.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Read whatever is left of the response (usually a trailing newline, or the gzip trailer)
+     * and close the stream, which hands the connection back to the keep-alive pool.
+     */
+    private static void drainAndClose(InputStream inputStream) throws IOException {
+        try {
+            byte[] buffer = new byte[1024];
+            while (inputStream.read(buffer) != -1) {
+                // Discard
+            }
+        } catch (IOException e) {
+            // The connection won't be reused, nothing else to do about it
+        } finally {
+            inputStream.close();
+        }
+    }
+}
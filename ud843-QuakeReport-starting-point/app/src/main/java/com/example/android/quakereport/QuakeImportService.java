@@ -0,0 +1,140 @@
+package com.example.android.quakereport;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Imports a USGS catalog export the user picked into the {@link QuakeArchive}, in the
+ * background, with a notification showing the progress and then the outcome.
+ * <p>
+ * The parsing runs on one thread per core, see {@link QuakeCatalogImporter}. Imports the
+ * user starts while one is running wait for it.
+ */
+public class QuakeImportService extends IntentService {
+
+    private static final String LOG_TAG = QuakeImportService.class.getSimpleName();
+
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * The notification is updated at most this often, the system drops faster updates anyway
+     */
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+    public QuakeImportService() {
+        super("QuakeImportService");
+    }
+
+    /**
+     * Import the file with the given content URI, which the service must be able to read.
+     */
+    public static void start(Context context, Uri file) {
+        Intent intent = new Intent(context, QuakeImportService.class);
+        intent.setData(file);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri file = intent.getData();
+        final NotificationManagerCompat notificationManager = NotificationManagerCompat.from(this);
+        final NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.import_title))
+                .setCategory(NotificationCompat.CATEGORY_PROGRESS)
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        notificationManager.notify(NOTIFICATION_ID, builder.build());
+
+        QuakeCatalogImporter importer = new QuakeCatalogImporter(
+                Runtime.getRuntime().availableProcessors(), QuakeCatalogImporter.DEFAULT_CHUNK_BYTES);
+        final long startTime = SystemClock.elapsedRealtime();
+        int imported;
+        InputStream inputStream = null;
+        try {
+            inputStream = getContentResolver().openInputStream(file);
+            if (inputStream == null) {
+                throw new IOException("Cannot open " + file);
+            }
+            imported = importer.importCatalog(inputStream, getLength(file), new QuakeArchive(this),
+                    new QuakeCatalogImporter.Listener() {
+                        private long mLastUpdate;
+
+                        @Override
+                        public void onProgress(long bytesRead, long totalBytes, int eventsImported) {
+                            long now = SystemClock.elapsedRealtime();
+                            if (now - mLastUpdate < PROGRESS_INTERVAL_MILLIS) {
+                                return;
+                            }
+                            mLastUpdate = now;
+                            builder.setContentText(getResources().getQuantityString(
+                                    R.plurals.import_progress, eventsImported, eventsImported));
+                            if (totalBytes > 0) {
+                                // In thousandths, the progress bar takes an int
+                                builder.setProgress(1000, (int) (bytesRead * 1000 / totalBytes), false);
+                            }
+                            notificationManager.notify(NOTIFICATION_ID, builder.build());
+                        }
+                    });
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem importing the earthquake catalog", e);
+            notifyDone(notificationManager, builder, getString(R.string.import_failed));
+            return;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // Nothing left to read anyway
+                }
+            }
+        }
+
+        long elapsedMillis = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        long eventsPerSecond = imported * 1000L / elapsedMillis;
+        Log.i(LOG_TAG, "Imported " + imported + " earthquakes in " + elapsedMillis + " ms, "
+                + eventsPerSecond + " per second");
+        notifyDone(notificationManager, builder, getResources().getQuantityString(
+                R.plurals.import_done, imported, imported, eventsPerSecond));
+    }
+
+    private static void notifyDone(NotificationManagerCompat notificationManager,
+                                   NotificationCompat.Builder builder, String text) {
+        builder.setContentText(text)
+                .setOngoing(false)
+                .setProgress(0, 0, false);
+        notificationManager.notify(NOTIFICATION_ID, builder.build());
+    }
+
+    /**
+     * Return the size of the file, -1 if the provider doesn't know it.
+     */
+    private long getLength(Uri file) {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = getContentResolver().openAssetFileDescriptor(file, "r");
+            return descriptor == null ? -1 : descriptor.getLength();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch (IOException e) {
+                    // Only used to read the size
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.android.quakereport;
+
+/**
+ * Answers earthquake queries from a table that is already loaded, instead of asking USGS again.
+ * <p>
+ * The table is the result of a query (a minimum magnitude and an order), possibly only its
+ * first pages. Any query with the same or a higher minimum magnitude and the same order can
+ * be answered from it: filtering the rows keeps them in order, and as long as enough rows are
+ * left they are exactly the first rows USGS would return. When the table holds every result
+ * of its query, any order can be answered.
+ * <p>
+ * Two indexes, the rows sorted by magnitude and sorted by time, are built on the first query.
+ * A query then binary searches its magnitude threshold or its time range and walks the
+ * matching rows in order, without sorting or scanning the whole table.
+ * <p>
+ * The table must not change once it has been handed to the index.
+ */
+public final class QuakeIndex {
+
+    private final QuakeTable mQuakes;
+    private final String mQueryUrl;
+    private final double mMinMagnitude;
+    private final String mOrderBy;
+    private final boolean mComplete;
+
+    // Row numbers by decreasing magnitude and by decreasing time, built on first use
+    private int[] mByMagnitude;
+    private int[] mByTime;
+
+    /**
+     * @param quakes       the loaded earthquakes, in the order of the query
+     * @param queryUrl     the USGS query they come from, without the paging parameters
+     * @param minMagnitude the minimum magnitude of that query
+     * @param orderBy      the order of that query, a USGS {@code orderby} value
+     * @param complete     whether the table holds every result of the query, or only its first pages
+     */
+    public QuakeIndex(QuakeTable quakes, String queryUrl, double minMagnitude, String orderBy,
+                      boolean complete) {
+        mQuakes = quakes;
+        mQueryUrl = queryUrl;
+        mMinMagnitude = minMagnitude;
+        mOrderBy = orderBy;
+        mComplete = complete;
+    }
+
+    public String getQueryUrl() {
+        return mQueryUrl;
+    }
+
+    /**
+     * Return whether the first {@code limit} results of the given query can be answered
+     * without going to the network.
+     */
+    public boolean covers(double minMagnitude, String orderBy, int limit) {
+        if (minMagnitude < mMinMagnitude) {
+            // Smaller earthquakes were never loaded
+            return false;
+        }
+        if (mComplete) {
+            return true;
+        }
+        if (!mOrderBy.equals(orderBy)) {
+            // The loaded rows are the top of another order, the top of this one may be missing
+            return false;
+        }
+        return count(minMagnitude) >= limit;
+    }
+
+    /**
+     * Return the earthquakes of at least the given magnitude, in the given order, at most
+     * {@code limit} of them. Only meaningful for queries {@link #covers covered} by the index.
+     */
+    public QuakeTable query(double minMagnitude, String orderBy, int limit) {
+        return query(minMagnitude, Long.MIN_VALUE, Long.MAX_VALUE, orderBy, limit);
+    }
+
+    /**
+     * Return the earthquakes of at least the given magnitude that happened between the given
+     * times (inclusive), in the given order, at most {@code limit} of them.
+     */
+    public synchronized QuakeTable query(double minMagnitude, long startTime, long endTime,
+                                         String orderBy, int limit) {
+        buildIndexes();
+        QuakeTable result = new QuakeTable();
+        boolean ascending = orderBy.endsWith("-asc");
+
+        if (orderBy.startsWith("magnitude")) {
+            // Rows [0, end) are at least minMagnitude, filter them on time
+            int end = countAtLeast(mByMagnitude, minMagnitude);
+            for (int i = 0; i < end && result.size() < limit; i++) {
+                int row = mByMagnitude[ascending ? end - 1 - i : i];
+                long time = mQuakes.getTime(row);
+                if (time >= startTime && time <= endTime) {
+                    result.insert(result.size(), mQuakes, row);
+                }
+            }
+        } else {
+            // Rows [start, end) are between the times, filter them on magnitude
+            int start = countAfter(mByTime, endTime);
+            int end = startTime == Long.MIN_VALUE ? mByTime.length : countAfter(mByTime, startTime - 1);
+            for (int i = start; i < end && result.size() < limit; i++) {
+                int row = mByTime[ascending ? end - 1 - (i - start) : i];
+                if (mQuakes.getMagnitude(row) >= minMagnitude) {
+                    result.insert(result.size(), mQuakes, row);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of loaded earthquakes of at least the given magnitude.
+     */
+    public synchronized int count(double minMagnitude) {
+        buildIndexes();
+        return countAtLeast(mByMagnitude, minMagnitude);
+    }
+
+    private void buildIndexes() {
+        if (mByMagnitude != null) {
+            return;
+        }
+        int size = mQuakes.size();
+        double[] magnitudes = new double[size];
+        double[] times = new double[size];
+        for (int i = 0; i < size; i++) {
+            magnitudes[i] = mQuakes.getMagnitude(i);
+            // Millisecond times are far below 2^53, doubles hold them exactly
+            times[i] = mQuakes.getTime(i);
+        }
+        mByMagnitude = sortedRows(magnitudes);
+        mByTime = sortedRows(times);
+    }
+
+    /**
+     * Return the number of rows of a magnitude index whose magnitude is at least the given one.
+     */
+    private int countAtLeast(int[] byMagnitude, double minMagnitude) {
+        int low = 0;
+        int high = byMagnitude.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mQuakes.getMagnitude(byMagnitude[middle]) >= minMagnitude) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the number of rows of a time index that happened after the given time.
+     */
+    private int countAfter(int[] byTime, long time) {
+        int low = 0;
+        int high = byTime.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mQuakes.getTime(byTime[middle]) > time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the row numbers sorted by decreasing key. The sort is stable, rows with the same
+     * key stay in table order.
+     */
+    private static int[] sortedRows(double[] keys) {
+        int size = keys.length;
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        if (size > 1) {
+            mergeSort(rows, new int[size], 0, size, keys);
+        }
+        return rows;
+    }
+
+    private static void mergeSort(int[] rows, int[] scratch, int from, int to, double[] keys) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, scratch, from, middle, keys);
+        mergeSort(rows, scratch, middle, to, keys);
+        if (keys[rows[middle - 1]] >= keys[rows[middle]]) {
+            // Already in order, common for a table loaded in this order
+            return;
+        }
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && keys[scratch[left]] >= keys[scratch[right]])) {
+                rows[i] = scratch[left++];
+            } else {
+                rows[i] = scratch[right++];
+            }
+        }
+    }
+}
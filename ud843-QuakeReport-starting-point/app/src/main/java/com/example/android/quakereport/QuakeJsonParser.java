@@ -0,0 +1,581 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming, pull-based parser for the USGS GeoJSON response.
+ * <p>
+ * Instead of reading the whole response into a String and building a full JSON tree, the
+ * parser pulls tokens straight off the input, reads only the fields we display
+ * ({@code features[].id}, {@code features[].properties.{mag,place,time,updated,url}} and
+ * {@code features[].geometry.coordinates}) and skips every other subtree
+ * without materializing it. Each feature is handed to a {@link Handler} as soon as it
+ * has been read, so nothing but the current feature is kept in memory.
+ * <p>
+ * {@link #parseDetail} reads the single feature of a per-event detail response the same
+ * way, skipping its products, which make most of the response.
+ * <p>
+ * This class has no Android dependencies so it can be exercised on a plain JVM.
+ */
+public final class QuakeJsonParser {
+
+    /**
+     * Receives the features one by one while the response is being read.
+     */
+    public interface Handler {
+        /**
+         * Called once per feature. The {@link Feature} instance is reused for the next
+         * feature, so copy whatever needs to be kept.
+         */
+        void onFeature(Feature feature);
+    }
+
+    /**
+     * Mutable holder for the fields of a single feature. Reused across features so
+     * parsing does not allocate an intermediate object per event.
+     */
+    public static final class Feature {
+        public String id;
+        public double magnitude;
+        public String place;
+        public long time;
+        // When USGS last changed the event, 0 if the response doesn't say
+        public long updated;
+        public String url;
+        // NaN when the feature has no geometry
+        public double latitude;
+        public double longitude;
+        public double depth;
+
+        void reset() {
+            id = "";
+            magnitude = 0;
+            place = "";
+            time = 0;
+            updated = 0;
+            url = "";
+            latitude = Double.NaN;
+            longitude = Double.NaN;
+            depth = Double.NaN;
+        }
+
+        public Quake toQuake() {
+            return new Quake(id, magnitude, place, time, url, latitude, longitude, depth);
+        }
+    }
+
+    /**
+     * Thrown when the response is not the JSON it should be, so callers can tell a broken
+     * response (not worth fetching again) from a broken connection.
+     */
+    public static class MalformedJsonException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Token types returned by peek()
+    private static final int BEGIN_OBJECT = 1;
+    private static final int END_OBJECT = 2;
+    private static final int BEGIN_ARRAY = 3;
+    private static final int END_ARRAY = 4;
+    private static final int STRING = 5;
+    private static final int LITERAL = 6;
+    private static final int END_DOCUMENT = 7;
+
+    /** Exact powers of ten used by the fast path of {@link #nextDouble()}. */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPos;
+    private int mLimit;
+    private final StringBuilder mScratch = new StringBuilder();
+    private final Feature mFeature = new Feature();
+
+    // State of the last number read by readNumber()
+    private boolean mNumberNegative;
+    private long mNumberMantissa;
+    private int mNumberFractionDigits;
+    private boolean mNumberSimple;
+
+    private QuakeJsonParser(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Parse the UTF-8 encoded GeoJSON read from the given stream, calling the handler once
+     * per feature. The stream is not closed.
+     */
+    public static void parse(InputStream inputStream, Handler handler) throws IOException {
+        parse(new InputStreamReader(inputStream, Charset.forName("UTF-8")), handler);
+    }
+
+    /**
+     * Parse the GeoJSON read from the given reader, calling the handler once per feature.
+     * The reader is not closed.
+     */
+    public static void parse(Reader reader, Handler handler) throws IOException {
+        new QuakeJsonParser(reader).readRoot(handler);
+    }
+
+    /**
+     * Parse the UTF-8 encoded detail of one event, the GeoJSON feature USGS returns for an
+     * {@code eventid} query. The stream is not closed.
+     */
+    public static QuakeDetail parseDetail(InputStream inputStream) throws IOException {
+        return new QuakeJsonParser(new InputStreamReader(inputStream, Charset.forName("UTF-8"))).readDetail();
+    }
+
+    private QuakeDetail readDetail() throws IOException {
+        QuakeDetail detail = new QuakeDetail();
+        mFeature.reset();
+        expect(BEGIN_OBJECT);
+        while (peek() != END_OBJECT) {
+            String name = nextString();
+            if ("properties".equals(name)) {
+                readDetailProperties(detail);
+            } else if ("geometry".equals(name) && peek() == BEGIN_OBJECT) {
+                readGeometry(mFeature);
+            } else if ("id".equals(name) && peek() == STRING) {
+                detail.mId = nextString();
+            } else {
+                skipValue();
+            }
+        }
+        expect(END_OBJECT);
+        detail.mLatitude = mFeature.latitude;
+        detail.mLongitude = mFeature.longitude;
+        detail.mDepth = mFeature.depth;
+        return detail;
+    }
+
+    private void readDetailProperties(QuakeDetail detail) throws IOException {
+        expect(BEGIN_OBJECT);
+        while (peek() != END_OBJECT) {
+            String name = nextString();
+            if (peekNull()) {
+                skipValue();
+            } else if ("mag".equals(name)) {
+                detail.mMagnitude = nextDouble();
+            } else if ("magType".equals(name)) {
+                detail.mMagnitudeType = nextString();
+            } else if ("place".equals(name)) {
+                detail.mPlace = nextString();
+            } else if ("time".equals(name)) {
+                detail.mTime = nextLong();
+            } else if ("updated".equals(name)) {
+                detail.mUpdated = nextLong();
+            } else if ("url".equals(name)) {
+                detail.mUrl = nextString();
+            } else if ("title".equals(name)) {
+                detail.mTitle = nextString();
+            } else if ("felt".equals(name)) {
+                detail.mFeltReports = (int) nextLong();
+            } else if ("cdi".equals(name)) {
+                detail.mCommunityIntensity = nextDouble();
+            } else if ("mmi".equals(name)) {
+                detail.mEstimatedIntensity = nextDouble();
+            } else if ("alert".equals(name)) {
+                detail.mAlert = nextString();
+            } else if ("tsunami".equals(name)) {
+                detail.mTsunami = nextLong() != 0;
+            } else if ("sig".equals(name)) {
+                detail.mSignificance = (int) nextLong();
+            } else if ("status".equals(name)) {
+                detail.mStatus = nextString();
+            } else if ("net".equals(name)) {
+                detail.mNetwork = nextString();
+            } else if ("nst".equals(name)) {
+                detail.mStations = (int) nextLong();
+            } else {
+                // Products, contributing sources... by far the bulk of the response
+                skipValue();
+            }
+        }
+        expect(END_OBJECT);
+    }
+
+    private void readRoot(Handler handler) throws IOException {
+        if (peek() == END_DOCUMENT) {
+            return;
+        }
+        expect(BEGIN_OBJECT);
+        while (peek() != END_OBJECT) {
+            String name = nextString();
+            if ("features".equals(name)) {
+                readFeatures(handler);
+            } else {
+                skipValue();
+            }
+        }
+        expect(END_OBJECT);
+    }
+
+    private void readFeatures(Handler handler) throws IOException {
+        expect(BEGIN_ARRAY);
+        while (peek() != END_ARRAY) {
+            mFeature.reset();
+            expect(BEGIN_OBJECT);
+            while (peek() != END_OBJECT) {
+                String name = nextString();
+                if ("properties".equals(name)) {
+                    readProperties(mFeature);
+                } else if ("geometry".equals(name) && peek() == BEGIN_OBJECT) {
+                    readGeometry(mFeature);
+                } else if ("id".equals(name) && peek() == STRING) {
+                    mFeature.id = nextString();
+                } else {
+                    skipValue();
+                }
+            }
+            expect(END_OBJECT);
+            handler.onFeature(mFeature);
+        }
+        expect(END_ARRAY);
+    }
+
+    private void readProperties(Feature feature) throws IOException {
+        expect(BEGIN_OBJECT);
+        while (peek() != END_OBJECT) {
+            String name = nextString();
+            if (peekNull()) {
+                // Leave the default value in place, USGS reports some fields as null
+                skipValue();
+            } else if ("mag".equals(name)) {
+                feature.magnitude = nextDouble();
+            } else if ("place".equals(name)) {
+                feature.place = nextString();
+            } else if ("time".equals(name)) {
+                feature.time = nextLong();
+            } else if ("updated".equals(name)) {
+                feature.updated = nextLong();
+            } else if ("url".equals(name)) {
+                feature.url = nextString();
+            } else {
+                skipValue();
+            }
+        }
+        expect(END_OBJECT);
+    }
+
+    /**
+     * Read the point of a feature, GeoJSON coordinates are [longitude, latitude, depth].
+     */
+    private void readGeometry(Feature feature) throws IOException {
+        expect(BEGIN_OBJECT);
+        while (peek() != END_OBJECT) {
+            String name = nextString();
+            if ("coordinates".equals(name) && peek() == BEGIN_ARRAY) {
+                expect(BEGIN_ARRAY);
+                for (int i = 0; peek() != END_ARRAY; i++) {
+                    if (peek() != LITERAL || peekNull()) {
+                        skipValue();
+                    } else if (i == 0) {
+                        feature.longitude = nextDouble();
+                    } else if (i == 1) {
+                        feature.latitude = nextDouble();
+                    } else if (i == 2) {
+                        feature.depth = nextDouble();
+                    } else {
+                        skipValue();
+                    }
+                }
+                expect(END_ARRAY);
+            } else {
+                skipValue();
+            }
+        }
+        expect(END_OBJECT);
+    }
+
+    /**
+     * Return the type of the next token without consuming it. Commas and colons are treated
+     * as whitespace, the caller already knows whether it expects a name or a value.
+     */
+    private int peek() throws IOException {
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                return END_DOCUMENT;
+            }
+            char c = mBuffer[mPos];
+            switch (c) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                case ',':
+                case ':':
+                    mPos++;
+                    break;
+                case '{':
+                    return BEGIN_OBJECT;
+                case '}':
+                    return END_OBJECT;
+                case '[':
+                    return BEGIN_ARRAY;
+                case ']':
+                    return END_ARRAY;
+                case '"':
+                    return STRING;
+                default:
+                    return LITERAL;
+            }
+        }
+    }
+
+    private void expect(int token) throws IOException {
+        if (peek() != token) {
+            throw syntaxError("Unexpected token");
+        }
+        mPos++;
+    }
+
+    private boolean peekNull() throws IOException {
+        return peek() == LITERAL && mBuffer[mPos] == 'n';
+    }
+
+    /**
+     * Consume the next value, whatever it is, without building any objects for it.
+     */
+    private void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    depth++;
+                    mPos++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    mPos++;
+                    break;
+                case STRING:
+                    skipString();
+                    break;
+                case LITERAL:
+                    skipLiteral();
+                    break;
+                default:
+                    throw syntaxError("Unexpected end of input");
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() throws IOException {
+        mPos++; // opening quote
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                throw syntaxError("Unterminated string");
+            }
+            char c = mBuffer[mPos++];
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                if (mPos == mLimit && !fill()) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                mPos++; // \\uXXXX digits are plain characters, skipping them is fine
+            }
+        }
+    }
+
+    private void skipLiteral() throws IOException {
+        while (mPos < mLimit || fill()) {
+            if (isLiteralEnd(mBuffer[mPos])) {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    private String nextString() throws IOException {
+        if (peek() != STRING) {
+            throw syntaxError("Expected a string");
+        }
+        mPos++; // opening quote
+
+        // Fast path: the whole string is in the buffer and contains no escapes
+        for (int i = mPos; i < mLimit; i++) {
+            char c = mBuffer[i];
+            if (c == '"') {
+                String result = new String(mBuffer, mPos, i - mPos);
+                mPos = i + 1;
+                return result;
+            } else if (c == '\\') {
+                break;
+            }
+        }
+
+        mScratch.setLength(0);
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                throw syntaxError("Unterminated string");
+            }
+            char c = mBuffer[mPos++];
+            if (c == '"') {
+                return mScratch.toString();
+            } else if (c == '\\') {
+                mScratch.append(readEscapeCharacter());
+            } else {
+                mScratch.append(c);
+            }
+        }
+    }
+
+    private char readEscapeCharacter() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        char escaped = mBuffer[mPos++];
+        switch (escaped) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (mPos == mLimit && !fill()) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    int digit = Character.digit(mBuffer[mPos++], 16);
+                    if (digit < 0) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                // \" \\ \/
+                return escaped;
+        }
+    }
+
+    private long nextLong() throws IOException {
+        readNumber();
+        if (mNumberSimple && mNumberFractionDigits == 0) {
+            return mNumberNegative ? -mNumberMantissa : mNumberMantissa;
+        }
+        return (long) numberValue();
+    }
+
+    private double nextDouble() throws IOException {
+        readNumber();
+        return numberValue();
+    }
+
+    /**
+     * Read a number literal. Its digits are accumulated into a long mantissa along the way,
+     * and the raw text is kept in the scratch buffer for the cases the fast path cannot handle.
+     */
+    private void readNumber() throws IOException {
+        if (peek() != LITERAL) {
+            throw syntaxError("Expected a number");
+        }
+        mScratch.setLength(0);
+        mNumberNegative = false;
+        mNumberMantissa = 0;
+        mNumberFractionDigits = 0;
+        mNumberSimple = true;
+
+        int digits = 0;
+        boolean inFraction = false;
+        while (mPos < mLimit || fill()) {
+            char c = mBuffer[mPos];
+            if (isLiteralEnd(c)) {
+                break;
+            }
+            mScratch.append(c);
+            mPos++;
+            if (c >= '0' && c <= '9') {
+                mNumberMantissa = mNumberMantissa * 10 + (c - '0');
+                digits++;
+                if (inFraction) {
+                    mNumberFractionDigits++;
+                }
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else if (c == '-' && mScratch.length() == 1) {
+                mNumberNegative = true;
+            } else {
+                // Exponent or anything unusual
+                mNumberSimple = false;
+            }
+        }
+        if (digits == 0) {
+            throw syntaxError("Expected a number");
+        }
+        if (digits > 15 || mNumberFractionDigits >= POWERS_OF_TEN.length) {
+            mNumberSimple = false;
+        }
+    }
+
+    /**
+     * Magnitudes have only a few significant digits, so they are computed exactly from the
+     * mantissa and a power of ten. Anything else falls back to {@link Double#parseDouble}.
+     */
+    private double numberValue() throws IOException {
+        if (mNumberSimple) {
+            double value = mNumberMantissa / POWERS_OF_TEN[mNumberFractionDigits];
+            return mNumberNegative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(mScratch.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Malformed number");
+        }
+    }
+
+    private static boolean isLiteralEnd(char c) {
+        switch (c) {
+            case ',':
+            case '}':
+            case ']':
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+            case ':':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = mReader.read(mBuffer, 0, mBuffer.length);
+        if (read <= 0) {
+            mPos = 0;
+            mLimit = 0;
+            return false;
+        }
+        mPos = 0;
+        mLimit = read;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new MalformedJsonException(message + " in earthquake JSON response");
+    }
+}
@@ -0,0 +1,341 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+/**
+ * Map of the earthquakes of a {@link QuakeClusterIndex}, drawn as circles in the colours of
+ * the list, on a Web Mercator grid of parallels and meridians. Nearby earthquakes are drawn
+ * as one circle with their number, in the colour of the strongest one, until the map is
+ * zoomed in enough to tell them apart.
+ * <p>
+ * Each frame asks the index for the clusters on screen only, so panning and zooming cost
+ * the same with a hundred earthquakes or fifty thousand.
+ * <p>
+ * Drag to pan, pinch or double tap to zoom. Tapping a cluster zooms into it, tapping an
+ * earthquake tells the {@link OnQuakeClickListener}.
+ */
+public class QuakeMapView extends View {
+
+    /**
+     * Receives taps on the earthquakes of the map.
+     */
+    public interface OnQuakeClickListener {
+        void onQuakeClick(String id);
+    }
+
+    /** Width of a map tile, the world is {@code 2^zoom} tiles wide */
+    private static final float TILE_DP = 256;
+    private static final float MAX_ZOOM = 16;
+    /** Zoom levels gained by tapping a cluster */
+    private static final float CLUSTER_ZOOM_STEP = 2;
+    /** Smallest distance between two meridians, or two parallels, of the grid */
+    private static final float GRID_MIN_SPACING_DP = 64;
+    private static final double[] GRID_STEPS_DEGREES = {0.1, 0.5, 1, 5, 10, 30};
+
+    private static final float MARKER_RADIUS_DP = 6;
+    private static final float CLUSTER_RADIUS_DP = 12;
+    private static final float TOUCH_SLOP_DP = 8;
+
+    private static final String STATE_SUPER = "super";
+    private static final String STATE_CENTER_X = "center_x";
+    private static final String STATE_CENTER_Y = "center_y";
+    private static final String STATE_ZOOM = "zoom";
+
+    private final float mDensity;
+    private final float mTileSize;
+    private final int[] mMagnitudeColors;
+    private final int mOceanColor;
+    private final int mOutsideColor;
+    private final Paint mGridPaint = new Paint();
+    private final Paint mMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mOutlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mCountPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    // Digits of a cluster count, drawn without making a String each frame
+    private final char[] mCountChars = new char[10];
+
+    private final GestureDetector mGestureDetector;
+    private final ScaleGestureDetector mScaleDetector;
+
+    private QuakeClusterIndex mIndex;
+    // The clusters drawn by the last frame, to find what a tap hit
+    private final QuakeClusterIndex.Clusters mClusters = new QuakeClusterIndex.Clusters();
+    private OnQuakeClickListener mClickListener;
+
+    // World point at the center of the view, see QuakeClusterIndex, and zoom level
+    private double mCenterX = 0.5;
+    private double mCenterY = 0.5;
+    private float mZoom = 1;
+
+    public QuakeMapView(Context context) {
+        this(context, null);
+    }
+
+    public QuakeMapView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mDensity = getResources().getDisplayMetrics().density;
+        mTileSize = TILE_DP * mDensity;
+        mMagnitudeColors = QuakeAdapter.resolveMagnitudeColors(context);
+        mOceanColor = ContextCompat.getColor(context, R.color.mapOcean);
+        mOutsideColor = ContextCompat.getColor(context, R.color.colorPrimaryDark);
+
+        mGridPaint.setColor(ContextCompat.getColor(context, R.color.mapGrid));
+        mGridPaint.setStrokeWidth(mDensity);
+        mOutlinePaint.setStyle(Paint.Style.STROKE);
+        mOutlinePaint.setStrokeWidth(1.5f * mDensity);
+        mOutlinePaint.setColor(0xFFFFFFFF);
+        mCountPaint.setColor(0xFFFFFFFF);
+        mCountPaint.setTextAlign(Paint.Align.CENTER);
+        mCountPaint.setTextSize(12 * getResources().getDisplayMetrics().scaledDensity);
+
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                double worldSize = getWorldSize();
+                moveTo(mCenterX + distanceX / worldSize, mCenterY + distanceY / worldSize);
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                zoomAround(e.getX(), e.getY(), mZoom + 1);
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(MotionEvent e) {
+                onTap(e.getX(), e.getY());
+                return true;
+            }
+        });
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                float zoomChange = (float) (Math.log(detector.getScaleFactor()) / Math.log(2));
+                zoomAround(detector.getFocusX(), detector.getFocusY(), mZoom + zoomChange);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Show the clusters of the given index. Call {@link #invalidate()} when they change.
+     */
+    public void setClusterIndex(QuakeClusterIndex index) {
+        mIndex = index;
+        invalidate();
+    }
+
+    public void setOnQuakeClickListener(OnQuakeClickListener listener) {
+        mClickListener = listener;
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        mZoom = Math.max(getMinZoom(), mZoom);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        mScaleDetector.onTouchEvent(event);
+        mGestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long drawStart = QuakeMetrics.ENABLED ? System.nanoTime() : 0;
+
+        double worldSize = getWorldSize();
+        double left = toWorldX(0);
+        double right = toWorldX(getWidth());
+        double top = toWorldY(0);
+        double bottom = toWorldY(getHeight());
+
+        canvas.drawColor(mOutsideColor);
+        mMarkerPaint.setColor(mOceanColor);
+        canvas.drawRect(0, toScreenY(0), getWidth(), toScreenY(1), mMarkerPaint);
+        drawGrid(canvas, worldSize, left, right, top, bottom);
+
+        if (mIndex != null) {
+            // Also the clusters just off screen, whose circles reach into it
+            double margin = CLUSTER_RADIUS_DP * 3 * mDensity / worldSize;
+            mIndex.query(left - margin, top - margin, right + margin, bottom + margin,
+                    (int) Math.floor(mZoom), mClusters);
+            for (int i = 0; i < mClusters.size(); i++) {
+                drawCluster(canvas, i);
+            }
+        }
+
+        if (QuakeMetrics.ENABLED) {
+            QuakeMetrics.MAP_DRAW.recordSince(drawStart);
+        }
+    }
+
+    private void drawGrid(Canvas canvas, double worldSize, double left, double right, double top, double bottom) {
+        // The finest grid whose lines are not too close, the spacing of parallels grows away from the equator
+        double step = GRID_STEPS_DEGREES[GRID_STEPS_DEGREES.length - 1];
+        for (double candidate : GRID_STEPS_DEGREES) {
+            if (candidate / 360 * worldSize >= GRID_MIN_SPACING_DP * mDensity) {
+                step = candidate;
+                break;
+            }
+        }
+
+        float worldTop = Math.max(0, toScreenY(0));
+        float worldBottom = Math.min(getHeight(), toScreenY(1));
+        double westLongitude = left * 360 - 180;
+        double eastLongitude = right * 360 - 180;
+        for (double longitude = Math.ceil(westLongitude / step) * step; longitude <= eastLongitude; longitude += step) {
+            float x = toScreenX(QuakeClusterIndex.toX(longitude));
+            canvas.drawLine(x, worldTop, x, worldBottom, mGridPaint);
+        }
+
+        double southLatitude = QuakeClusterIndex.toLatitude(Math.min(1, bottom));
+        double northLatitude = QuakeClusterIndex.toLatitude(Math.max(0, top));
+        for (double latitude = Math.ceil(southLatitude / step) * step; latitude <= northLatitude; latitude += step) {
+            float y = toScreenY(QuakeClusterIndex.toY(latitude));
+            canvas.drawLine(0, y, getWidth(), y, mGridPaint);
+        }
+    }
+
+    private void drawCluster(Canvas canvas, int i) {
+        float x = toScreenX(mClusters.getX(i));
+        float y = toScreenY(mClusters.getY(i));
+        int count = mClusters.getCount(i);
+        float radius = getRadius(count);
+        double magnitude = mIndex.getMagnitude(mClusters.getStrongest(i));
+
+        mMarkerPaint.setColor(mMagnitudeColors[QuakeFormatter.magnitudeBucket(magnitude)]);
+        canvas.drawCircle(x, y, radius, mMarkerPaint);
+        canvas.drawCircle(x, y, radius, mOutlinePaint);
+        if (count > 1) {
+            int start = formatCount(count);
+            // Center the digits vertically on the circle
+            float baseline = y - (mCountPaint.descent() + mCountPaint.ascent()) / 2;
+            canvas.drawText(mCountChars, start, mCountChars.length - start, x, baseline, mCountPaint);
+        }
+    }
+
+    /**
+     * Write the digits of the count at the end of mCountChars, return where they start.
+     */
+    private int formatCount(int count) {
+        int start = mCountChars.length;
+        do {
+            mCountChars[--start] = (char) ('0' + count % 10);
+            count /= 10;
+        } while (count > 0);
+        return start;
+    }
+
+    /**
+     * Return the radius of the circle of a cluster, growing with the digits of its count.
+     */
+    private float getRadius(int count) {
+        if (count == 1) {
+            return MARKER_RADIUS_DP * mDensity;
+        }
+        return (CLUSTER_RADIUS_DP + 4 * (float) Math.log10(count)) * mDensity;
+    }
+
+    private void onTap(float x, float y) {
+        // The last drawn circle is on top
+        for (int i = mClusters.size() - 1; i >= 0; i--) {
+            float dx = toScreenX(mClusters.getX(i)) - x;
+            float dy = toScreenY(mClusters.getY(i)) - y;
+            float reach = getRadius(mClusters.getCount(i)) + TOUCH_SLOP_DP * mDensity;
+            if (dx * dx + dy * dy > reach * reach) {
+                continue;
+            }
+            if (mClusters.getCount(i) > 1) {
+                mCenterX = mClusters.getX(i);
+                mCenterY = mClusters.getY(i);
+                zoomAround(getWidth() / 2f, getHeight() / 2f, mZoom + CLUSTER_ZOOM_STEP);
+            } else if (mClickListener != null) {
+                mClickListener.onQuakeClick(mIndex.getId(mClusters.getStrongest(i)));
+            }
+            return;
+        }
+    }
+
+    /**
+     * Zoom to the given level, keeping the world point under the given view point in place.
+     */
+    private void zoomAround(float focusX, float focusY, float zoom) {
+        double focusWorldX = toWorldX(focusX);
+        double focusWorldY = toWorldY(focusY);
+        mZoom = Math.max(getMinZoom(), Math.min(MAX_ZOOM, zoom));
+        double worldSize = getWorldSize();
+        moveTo(focusWorldX - (focusX - getWidth() / 2f) / worldSize,
+                focusWorldY - (focusY - getHeight() / 2f) / worldSize);
+    }
+
+    private void moveTo(double centerX, double centerY) {
+        // Around the world east and west, but not past the poles
+        mCenterX = centerX - Math.floor(centerX);
+        mCenterY = Math.max(0, Math.min(1, centerY));
+        invalidate();
+    }
+
+    /**
+     * Return the zoom level at which the world fills the height of the view.
+     */
+    private float getMinZoom() {
+        return Math.max(0, (float) (Math.log(getHeight() / mTileSize) / Math.log(2)));
+    }
+
+    private double getWorldSize() {
+        return mTileSize * Math.pow(2, mZoom);
+    }
+
+    private double toWorldX(float screenX) {
+        return mCenterX + (screenX - getWidth() / 2f) / getWorldSize();
+    }
+
+    private double toWorldY(float screenY) {
+        return mCenterY + (screenY - getHeight() / 2f) / getWorldSize();
+    }
+
+    private float toScreenX(double worldX) {
+        return (float) ((worldX - mCenterX) * getWorldSize() + getWidth() / 2f);
+    }
+
+    private float toScreenY(double worldY) {
+        return (float) ((worldY - mCenterY) * getWorldSize() + getHeight() / 2f);
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        Bundle state = new Bundle();
+        state.putParcelable(STATE_SUPER, super.onSaveInstanceState());
+        state.putDouble(STATE_CENTER_X, mCenterX);
+        state.putDouble(STATE_CENTER_Y, mCenterY);
+        state.putFloat(STATE_ZOOM, mZoom);
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        Bundle bundle = (Bundle) state;
+        mCenterX = bundle.getDouble(STATE_CENTER_X);
+        mCenterY = bundle.getDouble(STATE_CENTER_Y);
+        mZoom = bundle.getFloat(STATE_ZOOM);
+        super.onRestoreInstanceState(bundle.getParcelable(STATE_SUPER));
+    }
+}
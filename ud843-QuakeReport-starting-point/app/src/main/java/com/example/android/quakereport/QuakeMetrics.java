@@ -0,0 +1,229 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Timings and counters of the hot paths of the app: HTTP phases, parsing and binding.
+ * <p>
+ * Every call site is wrapped in {@code if (QuakeMetrics.ENABLED)}. {@link #ENABLED} is a
+ * compile-time constant, false in release builds, so the compiler drops the instrumentation
+ * and release builds pay nothing for it.
+ * <p>
+ * Values go into {@link Histogram}s, which can be dumped to logcat or to a file, and read
+ * back with {@link #getHistogram(String)}.
+ */
+public final class QuakeMetrics {
+
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static final String LOG_TAG = QuakeMetrics.class.getSimpleName();
+
+    /**
+     * Histograms by name, in registration order
+     */
+    private static final LinkedHashMap<String, Histogram> sHistograms = new LinkedHashMap<>();
+
+    /** Host name lookup, in nanoseconds */
+    public static final Histogram HTTP_DNS = register("http.dns_ns");
+    /** Opening the connection (TCP and TLS handshakes), in nanoseconds */
+    public static final Histogram HTTP_CONNECT = register("http.connect_ns");
+    /** From the connection being open to the response headers, in nanoseconds */
+    public static final Histogram HTTP_TTFB = register("http.ttfb_ns");
+    /** From the response headers to the end of the body, in nanoseconds. Includes the parsing,
+     * which happens while the body streams in */
+    public static final Histogram HTTP_DOWNLOAD = register("http.download_ns");
+    /** Bytes read off the network per response, before inflating */
+    public static final Histogram HTTP_BYTES = register("http.bytes");
+    /** Parsing a whole response into a {@link QuakeTable}, in nanoseconds */
+    public static final Histogram PARSE = register("parse.duration_ns");
+    /** Features parsed per second, per response */
+    public static final Histogram PARSE_RATE = register("parse.features_per_sec");
+    /** One {@link QuakeAdapter#onBindViewHolder} call, in nanoseconds */
+    public static final Histogram BIND = register("adapter.bind_ns");
+    /** One {@link QuakeMapView#onDraw} call, in nanoseconds */
+    public static final Histogram MAP_DRAW = register("map.draw_ns");
+
+    /** From asking for a feed to its first delivered result, in nanoseconds */
+    public static final Histogram LOAD = register("feed.first_result_ns");
+
+    /**
+     * Create a private constructor because no one should ever create a {@link QuakeMetrics} object.
+     */
+    private QuakeMetrics() {
+    }
+
+    private static Histogram register(String name) {
+        Histogram histogram = new Histogram(name);
+        synchronized (sHistograms) {
+            sHistograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Return the histogram with the given name, or null if there is none.
+     */
+    public static Histogram getHistogram(String name) {
+        synchronized (sHistograms) {
+            return sHistograms.get(name);
+        }
+    }
+
+    /**
+     * Empty every histogram.
+     */
+    public static void reset() {
+        for (Histogram histogram : histograms()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Write one line per non empty histogram.
+     */
+    public static void dump(PrintWriter writer) {
+        for (Histogram histogram : histograms()) {
+            if (histogram.getCount() > 0) {
+                writer.println(histogram);
+            }
+        }
+        writer.flush();
+    }
+
+    public static void dumpToLog() {
+        StringWriter text = new StringWriter();
+        dump(new PrintWriter(text));
+        for (String line : text.toString().split("\n")) {
+            if (!line.isEmpty()) {
+                Log.d(LOG_TAG, line);
+            }
+        }
+    }
+
+    public static void dumpToFile(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static ArrayList<Histogram> histograms() {
+        synchronized (sHistograms) {
+            return new ArrayList<>(sHistograms.values());
+        }
+    }
+
+    /**
+     * Distribution of non negative values, in power of two buckets: bucket {@code i} counts
+     * the values below {@code 2^i}. Percentiles are therefore accurate to a factor of two,
+     * which is plenty to tell where time goes, and recording a value costs a few instructions.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 64;
+
+        private final String mName;
+        private final long[] mBuckets = new long[BUCKETS];
+        private long mCount;
+        private long mSum;
+        private long mMin = Long.MAX_VALUE;
+        private long mMax;
+
+        Histogram(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public synchronized void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            // Values are below 2^63, so this is at most 63
+            mBuckets[BUCKETS - Long.numberOfLeadingZeros(value)]++;
+            mCount++;
+            mSum += value;
+            if (value < mMin) {
+                mMin = value;
+            }
+            if (value > mMax) {
+                mMax = value;
+            }
+        }
+
+        /**
+         * Record the time elapsed since the given {@link System#nanoTime()}.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        public synchronized long getSum() {
+            return mSum;
+        }
+
+        public synchronized long getMin() {
+            return mCount == 0 ? 0 : mMin;
+        }
+
+        public synchronized long getMax() {
+            return mMax;
+        }
+
+        public synchronized long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * Return an upper bound of the given percentile (between 0 and 100) of the recorded values.
+         */
+        public synchronized long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(mCount * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank && seen > 0) {
+                    long upperBound = (1L << i) - 1;
+                    return Math.max(getMin(), Math.min(mMax, upperBound));
+                }
+            }
+            return mMax;
+        }
+
+        public synchronized void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets[i] = 0;
+            }
+            mCount = 0;
+            mSum = 0;
+            mMin = Long.MAX_VALUE;
+            mMax = 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return mName + " count=" + mCount + " mean=" + getMean() + " min=" + getMin()
+                    + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+                    + " p99=" + getPercentile(99) + " max=" + mMax;
+        }
+    }
+}
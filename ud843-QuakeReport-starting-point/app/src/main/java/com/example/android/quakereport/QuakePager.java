@@ -0,0 +1,233 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads the pages of a USGS query that follow the first one, using the FDSN
+ * {@code offset}/{@code limit} parameters.
+ * <p>
+ * Every page goes through two stages: the fetch stage downloads it (the parser decodes it
+ * while it streams in), then the transform stage prepares its display strings. The stages
+ * run on separate executors, so while page N is transformed page N+1 is already being
+ * downloaded. One page is kept ready ahead of the list, so by the time the user scrolls to
+ * the end it has usually arrived.
+ * <p>
+ * All public methods must be called on the main thread, and the listener is called there too.
+ */
+public class QuakePager {
+
+    /**
+     * Receives the pages in order, on the main thread.
+     */
+    public interface Listener {
+        void onPageLoaded(QuakeTable page);
+    }
+
+    /**
+     * How many pages are fetched ahead of the one the list asked for
+     */
+    private static final int PAGES_AHEAD = 1;
+
+    private final String mQueryUrl;
+    private final int mPageSize;
+    private final Listener mListener;
+    private final QuakeFormatter mFormatter;
+    private final Executor mFetchExecutor;
+    private final Executor mTransformExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // FDSN offsets are 1-based
+    private int mNextOffset;
+    // Pages that went through both stages, in order, waiting to be delivered
+    private final ArrayDeque<QuakeTable> mReadyPages = new ArrayDeque<>();
+    // Pages fetched or being fetched that were not delivered yet, ready ones included
+    private int mPagesAhead;
+    private boolean mFetching;
+    private boolean mPageRequested;
+    // A short page was fetched, there is nothing left to fetch
+    private boolean mLastPageFetched;
+    // A short page was delivered, there is nothing left to deliver
+    private boolean mExhausted;
+    // Read by the stages, so the work of a cancelled pager stops at the next stage
+    private volatile boolean mCancelled;
+    // The request of the page being fetched, touched on the fetch stage and by cancel()
+    private volatile FetchScheduler.Call mCall;
+
+    /**
+     * @param queryUrl          the USGS query without the offset and limit parameters
+     * @param pageSize          the number of events per page
+     * @param loadedCount       the number of events already shown, i.e. the size of the first page
+     * @param formatter         prepares the display strings of the pages, only used on the transform stage
+     * @param fetchExecutor     runs the downloads
+     * @param transformExecutor prepares the pages for display, must run one task at a time so pages stay in order
+     */
+    public QuakePager(String queryUrl, int pageSize, int loadedCount, QuakeFormatter formatter,
+                      Executor fetchExecutor, Executor transformExecutor, Listener listener) {
+        mQueryUrl = queryUrl;
+        mPageSize = pageSize;
+        mFormatter = formatter;
+        mFetchExecutor = fetchExecutor;
+        mTransformExecutor = transformExecutor;
+        mListener = listener;
+        mNextOffset = loadedCount + 1;
+        // A short first page means there is nothing left to load
+        mExhausted = loadedCount < pageSize;
+        mLastPageFetched = mExhausted;
+    }
+
+    /**
+     * Return the URL of the page starting at the given 1-based offset.
+     */
+    public static String buildPageUrl(String queryUrl, int offset, int limit) {
+        Uri.Builder uriBuilder = Uri.parse(queryUrl).buildUpon();
+        uriBuilder.appendQueryParameter("offset", String.valueOf(offset));
+        uriBuilder.appendQueryParameter("limit", String.valueOf(limit));
+        return uriBuilder.toString();
+    }
+
+    /**
+     * Start fetching the next page in the background without delivering it yet.
+     */
+    public void prefetch() {
+        fetchIfNeeded();
+    }
+
+    /**
+     * Deliver the next page to the listener, right away if it has already been prefetched
+     * or as soon as it arrives otherwise. Calling this again while a page is on its way
+     * does nothing.
+     */
+    public void loadNextPage() {
+        if (mExhausted || mCancelled) {
+            return;
+        }
+        mPageRequested = true;
+        if (!mReadyPages.isEmpty()) {
+            deliverReadyPage();
+        } else {
+            fetchIfNeeded();
+        }
+    }
+
+    /**
+     * Return whether every page of the query has been delivered.
+     */
+    public boolean isExhausted() {
+        return mExhausted;
+    }
+
+    /**
+     * Stop delivering pages. The download of the page being fetched (if any) is aborted, and
+     * the pages waiting for the transform stage are skipped.
+     */
+    public void cancel() {
+        mCancelled = true;
+        FetchScheduler.Call call = mCall;
+        if (call != null) {
+            call.cancel();
+        }
+        mReadyPages.clear();
+    }
+
+    /**
+     * Start the download of the next page if there is one and fewer pages than wanted are
+     * on their way. Downloads run one at a time, so pages come back in order.
+     */
+    private void fetchIfNeeded() {
+        int wanted = PAGES_AHEAD + (mPageRequested ? 1 : 0);
+        if (mLastPageFetched || mCancelled || mFetching || mPagesAhead >= wanted) {
+            return;
+        }
+        mFetching = true;
+        mPagesAhead++;
+        final String pageUrl = buildPageUrl(mQueryUrl, mNextOffset, mPageSize);
+        mNextOffset += mPageSize;
+        mFetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    return;
+                }
+                FetchScheduler.Call call = FetchScheduler.getInstance().newCall(pageUrl);
+                mCall = call;
+                QuakeTable fetched;
+                try {
+                    fetched = call.execute();
+                } catch (IOException e) {
+                    if (call.isCancelled()) {
+                        return;
+                    }
+                    Log.e(QueryUtils.LOG_TAG, "Problem retrieving a page of earthquakes", e);
+                    fetched = new QuakeTable();
+                }
+                final QuakeTable page = fetched;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageFetched(page);
+                    }
+                });
+                mTransformExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCancelled) {
+                            return;
+                        }
+                        page.prepareDisplay(mFormatter);
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onPageReady(page);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The download of a page is over, its transform is still to come.
+     */
+    private void onPageFetched(QuakeTable page) {
+        if (mCancelled) {
+            return;
+        }
+        mFetching = false;
+        // A short page (or a failed request, which comes back empty) ends the paging
+        if (page.size() < mPageSize) {
+            mLastPageFetched = true;
+        }
+        // Download the following page while this one is being transformed
+        fetchIfNeeded();
+    }
+
+    private void onPageReady(QuakeTable page) {
+        if (mCancelled) {
+            return;
+        }
+        mReadyPages.add(page);
+        if (mPageRequested) {
+            deliverReadyPage();
+        }
+    }
+
+    private void deliverReadyPage() {
+        QuakeTable page = mReadyPages.poll();
+        mPagesAhead--;
+        mPageRequested = false;
+        mExhausted = page.size() < mPageSize;
+
+        mListener.onPageLoaded(page);
+
+        // Get the following page ready while the user looks at this one
+        fetchIfNeeded();
+    }
+}
@@ -0,0 +1,560 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Owns the earthquakes of the query on screen, outside of any activity, so a new activity
+ * instance (after a rotation, or coming back from the settings) picks them up where the
+ * previous one left them instead of loading them again.
+ * <p>
+ * Loading runs as a pipeline of stages on dedicated executors:
+ * <ul>
+ * <li>the fetch stage reads the cache and downloads responses, which the parser decodes
+ * while they stream in ({@link FetchScheduler}). The first load of a query then fills the
+ * 30 days the cache keeps, in windows fetched in parallel ({@link QuakeWindowFetcher});</li>
+ * <li>the transform stage prepares the display strings and answers queries from loaded
+ * earthquakes;</li>
+ * <li>the results are applied on the main thread.</li>
+ * </ul>
+ * The earthquakes of a query are held by its {@link Feed}. Asking for the feed of the query
+ * that is already loaded returns the same feed, with everything it loaded so far, so
+ * concurrent and repeated requests for a query share one load. Asking for another query
+ * cancels the current feed at every stage, and keeps its earthquakes to answer the new
+ * query from when they cover it (see {@link QuakeIndex}).
+ * <p>
+ * The repository must only be used on the main thread.
+ */
+public final class QuakeRepository {
+
+    private static final String LOG_TAG = QuakeRepository.class.getSimpleName();
+
+    /**
+     * Number of earthquakes in the first page of a query
+     */
+    public static final int PAGE_SIZE = 20;
+
+    /**
+     * Two downloads can run at once, e.g. the revalidation of a query and its next page
+     */
+    private static final int FETCH_THREADS = 2;
+
+    /**
+     * The cache window is filled one day at a time, this many days at once
+     */
+    private static final long CACHE_FILL_WINDOW_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int CACHE_FILL_CONCURRENT_WINDOWS = 4;
+
+    private static QuakeRepository sInstance;
+
+    private final QuakeCache mCache;
+    private final QuakeFormatter mFormatter;
+    private final QuakeAlerts mAlerts;
+    private final ExecutorService mFetchExecutor = Executors.newFixedThreadPool(FETCH_THREADS);
+    // One thread, so results are transformed in the order they were fetched
+    private final ExecutorService mTransformExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private Feed mFeed;
+    // The earthquakes of a previous query to answer the next one from, read on the fetch stage
+    private volatile QuakeIndex mLoadedIndex;
+
+    private QuakeRepository(Context context) {
+        mCache = new QuakeCache(context.getApplicationContext());
+        mFormatter = new QuakeFormatter(context.getString(R.string.no_offset_found));
+        mAlerts = QuakeAlerts.getInstance(context);
+    }
+
+    /**
+     * Return the repository shared by the whole app.
+     */
+    public static QuakeRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QuakeRepository(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the feed of the given query, the current one if it is already loaded, or a new
+     * one that starts loading right away.
+     *
+     * @param queryUrl     the USGS query without the paging parameters, the identity of the feed
+     * @param minMagnitude the minimum magnitude in the query, used to filter the cache
+     * @param orderBy      the order of the query, used to sort the cache
+     * @param cacheTtl     how long the cached results are used without revalidation, in milliseconds
+     */
+    public Feed getFeed(String queryUrl, double minMagnitude, String orderBy, long cacheTtl) {
+        if (mFeed != null && mFeed.mQueryUrl.equals(queryUrl)) {
+            return mFeed;
+        }
+        if (mFeed != null) {
+            mFeed.cancel();
+            if (mFeed.mQuakes != null && !mFeed.mQuakes.isEmpty()) {
+                // The cancelled feed doesn't touch its table anymore, the index can keep it
+                mLoadedIndex = new QuakeIndex(mFeed.mQuakes, mFeed.mQueryUrl, mFeed.mMinMagnitude,
+                        mFeed.mOrderBy, mFeed.isExhausted());
+            }
+        }
+        mFeed = new Feed(queryUrl, minMagnitude, orderBy, cacheTtl);
+        mFeed.start();
+        return mFeed;
+    }
+
+    /**
+     * Return the feed of the current query, null if no query was asked for yet.
+     */
+    public Feed getCurrentFeed() {
+        return mFeed;
+    }
+
+    /**
+     * Give the repository earthquakes loaded earlier, e.g. by a previous launch of the app,
+     * to answer the next query from. Ignored once a query has loaded.
+     */
+    public void setLoadedIndex(QuakeIndex loadedIndex) {
+        if (mFeed == null) {
+            mLoadedIndex = loadedIndex;
+        }
+    }
+
+    /**
+     * Receives what a {@link Feed} loads, on the main thread.
+     */
+    public interface Listener {
+        /**
+         * The earthquakes of the query, to display instead of the previous ones. When they
+         * come from the cache, the revalidated ones are merged in later, see
+         * {@link #onQuakesMerged}.
+         */
+        void onQuakesLoaded(QuakeTable quakes);
+
+        /**
+         * The page after the earthquakes delivered so far.
+         */
+        void onPageLoaded(QuakeTable page);
+
+        /**
+         * Events that were merged into the earthquakes, see {@link QuakeTable#merge}: the
+         * ones a sync found, or the revalidated first page.
+         */
+        void onQuakesMerged(QuakeTable delta, boolean complete);
+    }
+
+    /**
+     * The earthquakes of one query: the first page, the pages loaded after it and the
+     * events merged in by revalidation and syncs. They stay loaded as long as the query is the current one,
+     * whether an activity listens or not.
+     * <p>
+     * The feed keeps the {@link QuakeStats}, the {@link QuakeSearchIndex} and the
+     * {@link QuakeClusterIndex} of its earthquakes up to date as they arrive, touching only
+     * the rows that changed.
+     */
+    public final class Feed {
+
+        private final String mQueryUrl;
+        private final double mMinMagnitude;
+        private final String mOrderBy;
+        private final long mCacheTtl;
+        private final QuakeStats mStats = new QuakeStats(TimeZone.getDefault());
+        private final QuakeSearchIndex mSearchIndex = new QuakeSearchIndex();
+        private final QuakeClusterIndex mClusterIndex = new QuakeClusterIndex();
+
+        // What the feed has loaded so far, null until the first result
+        private QuakeTable mQuakes;
+        private QuakePager mPager;
+        private Listener mListener;
+        // Read by the stages, so the work of a cancelled feed stops at the next stage
+        private volatile boolean mCancelled;
+        // The revalidation request, touched on the fetch stage and by cancel()
+        private volatile FetchScheduler.Call mCall;
+        // The fill of the cache window, touched on the fetch stage and by cancel()
+        private volatile QuakeWindowFetcher mWindowFetcher;
+
+        private Feed(String queryUrl, double minMagnitude, String orderBy, long cacheTtl) {
+            mQueryUrl = queryUrl;
+            mMinMagnitude = minMagnitude;
+            mOrderBy = orderBy;
+            mCacheTtl = cacheTtl;
+        }
+
+        public String getQueryUrl() {
+            return mQueryUrl;
+        }
+
+        public double getMinMagnitude() {
+            return mMinMagnitude;
+        }
+
+        public String getOrderBy() {
+            return mOrderBy;
+        }
+
+        /**
+         * Return the earthquakes loaded so far, null if the first result hasn't arrived yet.
+         * The table belongs to the feed, it must not be changed.
+         */
+        public QuakeTable getQuakes() {
+            return mQuakes;
+        }
+
+        /**
+         * Return the aggregates of the earthquakes loaded so far. Set a listener on them to
+         * hear about the updates, on the main thread.
+         */
+        public QuakeStats getStats() {
+            return mStats;
+        }
+
+        /**
+         * Return the map clusters of the earthquakes loaded so far. Set a listener on them to
+         * hear about the updates, on the main thread.
+         */
+        public QuakeClusterIndex getClusterIndex() {
+            return mClusterIndex;
+        }
+
+        /**
+         * Return the loaded earthquakes whose primary location matches the given words, the
+         * best matches first, see {@link QuakeSearchIndex#search}.
+         */
+        public QuakeTable search(String query, int limit) {
+            QuakeTable results = new QuakeTable();
+            if (mQuakes == null) {
+                return results;
+            }
+            for (String id : mSearchIndex.search(query, limit)) {
+                int index = mQuakes.indexOfId(id);
+                if (index >= 0) {
+                    results.insert(results.size(), mQuakes, index);
+                }
+            }
+            return results;
+        }
+
+        /**
+         * Return whether every result of the query has been loaded.
+         */
+        public boolean isExhausted() {
+            return mPager != null && mPager.isExhausted();
+        }
+
+        /**
+         * Set the listener of the feed, or null to stop listening. A new listener gets what
+         * was loaded so far right away.
+         */
+        public void setListener(Listener listener) {
+            mListener = listener;
+            if (listener != null && mQuakes != null) {
+                listener.onQuakesLoaded(mQuakes.copy());
+            }
+        }
+
+        /**
+         * Load the page after the loaded earthquakes, see {@link QuakePager#loadNextPage()}.
+         */
+        public void loadNextPage() {
+            if (mPager != null) {
+                mPager.loadNextPage();
+            }
+        }
+
+        /**
+         * Merge events added or updated since the earthquakes were loaded, e.g. by a
+         * {@link QuakeSyncer}, see {@link QuakeTable#merge}.
+         */
+        public void mergeQuakes(QuakeTable delta) {
+            if (mQuakes == null || mCancelled) {
+                // Not loaded yet, the first result comes from the cache the syncer wrote to
+                return;
+            }
+            boolean complete = isExhausted();
+            // The rows of updated events are counted and indexed again once merged
+            for (int i = 0; i < delta.size(); i++) {
+                int index = mQuakes.indexOfId(delta.getId(i));
+                if (index >= 0) {
+                    mStats.remove(mQuakes, index);
+                    mSearchIndex.remove(delta.getId(i));
+                    mClusterIndex.remove(delta.getId(i));
+                }
+            }
+            mQuakes.merge(delta, mOrderBy, complete, new QuakeTable.MergeListener() {
+                @Override
+                public void onRowInserted(int position) {
+                    mStats.add(mQuakes, position);
+                    mSearchIndex.add(mQuakes, position);
+                    mClusterIndex.add(mQuakes, position);
+                }
+
+                @Override
+                public void onRowMoved(int fromPosition, int toPosition) {
+                }
+
+                @Override
+                public void onRowChanged(int position) {
+                    mStats.add(mQuakes, position);
+                    mSearchIndex.add(mQuakes, position);
+                    mClusterIndex.add(mQuakes, position);
+                }
+
+                @Override
+                public void onRowRemoved(int position) {
+                    // Left for a later page, already uncounted and unindexed above
+                }
+            });
+            mStats.notifyChanged();
+            mClusterIndex.notifyChanged();
+            if (mListener != null) {
+                mListener.onQuakesMerged(delta, complete);
+            }
+        }
+
+        private void cancel() {
+            mCancelled = true;
+            FetchScheduler.Call call = mCall;
+            if (call != null) {
+                call.cancel();
+            }
+            QuakeWindowFetcher windowFetcher = mWindowFetcher;
+            if (windowFetcher != null) {
+                windowFetcher.cancel();
+            }
+            if (mPager != null) {
+                mPager.cancel();
+            }
+            mListener = null;
+        }
+
+        /**
+         * Serve the first page from the loaded earthquakes or the cache right away, then
+         * revalidate it against USGS in the background when it is older than the time to
+         * live, and merge it into what was loaded by then.
+         */
+        private void start() {
+            mFetchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        return;
+                    }
+                    QuakeTable local = queryLoadedIndex();
+                    if (local != null) {
+                        transform(local);
+                        return;
+                    }
+
+                    long lastSync = mCache.getLastSync(mQueryUrl);
+                    boolean needsRevalidation = System.currentTimeMillis() - lastSync > mCacheTtl;
+                    QuakeTable cached = mCache.query(mMinMagnitude, mOrderBy, PAGE_SIZE);
+                    if (!cached.isEmpty()) {
+                        // Show these now, the revalidation below overlaps their transform
+                        transform(cached);
+                        if (!needsRevalidation) {
+                            return;
+                        }
+                    }
+                    QuakeTable revalidated = revalidate();
+                    if (revalidated != null) {
+                        transform(revalidated);
+                        long revalidatedAt = mCache.getLastSync(mQueryUrl);
+                        if (revalidatedAt > lastSync && !isDelta(lastSync, revalidatedAt)) {
+                            // A full load, nothing older is cached yet
+                            fillCacheWindow(revalidatedAt);
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Answer the query from the earthquakes loaded for the previous one, if they cover it.
+         * They are as fresh as that query: its last sync is carried over to this one, and the
+         * syncer merges what changed since then, instead of a revalidation replacing the rows
+         * loaded past the first page. Return null if the query has to go to the cache and
+         * the network.
+         */
+        private QuakeTable queryLoadedIndex() {
+            QuakeIndex loadedIndex = mLoadedIndex;
+            if (loadedIndex == null || !loadedIndex.covers(mMinMagnitude, mOrderBy, PAGE_SIZE)) {
+                return null;
+            }
+            // Every covered row, the pager goes on from there
+            QuakeTable local = loadedIndex.query(mMinMagnitude, mOrderBy, Integer.MAX_VALUE);
+
+            long loadedSync = mCache.getLastSync(loadedIndex.getQueryUrl());
+            if (loadedSync > mCache.getLastSync(mQueryUrl)) {
+                mCache.setLastSync(mQueryUrl, loadedSync);
+            }
+            return local;
+        }
+
+        /**
+         * Bring the cache up to date with USGS and return its first page, null if the feed
+         * was cancelled in the meantime.
+         */
+        private QuakeTable revalidate() {
+            long lastSync = mCache.getLastSync(mQueryUrl);
+            long now = System.currentTimeMillis();
+
+            String url;
+            if (isDelta(lastSync, now)) {
+                // Only ask for what was added or updated since the last sync
+                url = QuakeSyncer.buildDeltaUrl(mQueryUrl, lastSync, mCache.getMaxRows());
+            } else {
+                url = QuakePager.buildPageUrl(mQueryUrl, 1, PAGE_SIZE);
+            }
+
+            FetchScheduler.Call call = FetchScheduler.getInstance().newCall(url);
+            mCall = call;
+            try {
+                QuakeTable fetched = call.execute();
+                mCache.store(fetched);
+                mCache.setLastSync(mQueryUrl, now);
+                mAlerts.onQuakesArrived(fetched);
+            } catch (IOException e) {
+                if (call.isCancelled()) {
+                    // The result is thrown away anyway
+                    return null;
+                }
+                // Keep serving what we have, the next load will try again
+                Log.e(LOG_TAG, "Problem revalidating the earthquake cache", e);
+            }
+            return mCache.query(mMinMagnitude, mOrderBy, PAGE_SIZE);
+        }
+
+        /**
+         * Return whether a revalidation at the given time only asks for what changed since the
+         * last sync, rather than loading the first page again.
+         */
+        private boolean isDelta(long lastSync, long now) {
+            return lastSync > 0 && now - lastSync < QuakeCache.WINDOW_MILLIS;
+        }
+
+        /**
+         * Fetch the rest of the 30 days the cache keeps, up to the given time, so that the next
+         * queries and launches find them there. Runs on the fetch stage after the first page is
+         * on its way; the list pages past the first page from the network as before.
+         */
+        private void fillCacheWindow(long endTime) {
+            QuakeWindowFetcher windowFetcher = new QuakeWindowFetcher(FetchScheduler.getInstance(),
+                    CACHE_FILL_CONCURRENT_WINDOWS);
+            mWindowFetcher = windowFetcher;
+            if (mCancelled) {
+                // cancel() may have run before the fetcher was set
+                windowFetcher.cancel();
+                return;
+            }
+            try {
+                QuakeTable filled = windowFetcher.fetch(mQueryUrl, endTime - QuakeCache.WINDOW_MILLIS,
+                        endTime, CACHE_FILL_WINDOW_MILLIS, mOrderBy);
+                // The cache keeps the newest of them if they don't all fit
+                mCache.store(filled);
+            } catch (IOException e) {
+                if (!mCancelled) {
+                    // The cache has the first page, the next full load tries again
+                    Log.e(LOG_TAG, "Problem filling the earthquake cache", e);
+                }
+            } finally {
+                windowFetcher.shutdown();
+                mWindowFetcher = null;
+            }
+        }
+
+        /**
+         * Prepare a result for display on the transform stage, then hand it to the main thread.
+         */
+        private void transform(final QuakeTable quakes) {
+            mTransformExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        return;
+                    }
+                    // Format the rows here, so the UI thread only has to display them
+                    quakes.prepareDisplay(mFormatter);
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onResult(quakes);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void onResult(QuakeTable quakes) {
+            if (mCancelled) {
+                return;
+            }
+            if (mQuakes != null) {
+                onRevalidated(quakes);
+                return;
+            }
+            mQuakes = quakes;
+            mStats.clear();
+            mStats.addAll(quakes);
+            mStats.notifyChanged();
+            mSearchIndex.clear();
+            mSearchIndex.addAll(quakes);
+            mClusterIndex.clear();
+            mClusterIndex.addAll(quakes);
+            mClusterIndex.notifyChanged();
+
+            startPager(quakes.size());
+
+            if (mListener != null) {
+                // The listener gets its own table, it is free to change it
+                mListener.onQuakesLoaded(quakes.copy());
+            }
+        }
+
+        /**
+         * Merge the revalidated first page into the earthquakes loaded from the cache, and
+         * the pages the user scrolled in since, instead of starting over from it.
+         */
+        private void onRevalidated(QuakeTable firstPage) {
+            boolean wasExhausted = isExhausted();
+            mergeQuakes(firstPage);
+            if (wasExhausted && firstPage.size() >= PAGE_SIZE) {
+                // The cached page was short but the query has more, page them in after this one
+                startPager(firstPage.size());
+            }
+        }
+
+        /**
+         * Page the rest of the results in as the user scrolls, starting with a prefetch of
+         * the page after the given number of results.
+         */
+        private void startPager(int loadedCount) {
+            if (mPager != null) {
+                mPager.cancel();
+            }
+            mPager = new QuakePager(mQueryUrl, PAGE_SIZE, loadedCount, mFormatter, mFetchExecutor,
+                    mTransformExecutor, new QuakePager.Listener() {
+                @Override
+                public void onPageLoaded(QuakeTable page) {
+                    int start = mQuakes.size();
+                    mQuakes.appendNew(page);
+                    for (int i = start; i < mQuakes.size(); i++) {
+                        mStats.add(mQuakes, i);
+                        mSearchIndex.add(mQuakes, i);
+                        mClusterIndex.add(mQuakes, i);
+                    }
+                    mStats.notifyChanged();
+                    mClusterIndex.notifyChanged();
+                    if (mListener != null) {
+                        mListener.onPageLoaded(page);
+                    }
+                }
+            });
+            mPager.prefetch();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Finds earthquakes by the words of their primary location (" Rumoi, Japan" for
+ * "74km NW of Rumoi, Japan"), as the user types.
+ * <p>
+ * The index is inverted twice over, because primary locations repeat so much:
+ * <ul>
+ * <li>a sorted dictionary maps each word to the distinct locations that have it, so the
+ * words starting with what was typed are one range of the dictionary;</li>
+ * <li>each location keeps its events sorted by decreasing magnitude.</li>
+ * </ul>
+ * A search finds the locations that have a word starting with each typed word, then merges
+ * their sorted events until it has enough. It never looks at the events past the ones it
+ * returns, however many match.
+ * <p>
+ * Events are added and removed one at a time, by id, so the index follows the loaded
+ * earthquakes as pages and syncs arrive. Not thread-safe.
+ */
+public final class QuakeSearchIndex {
+
+    /**
+     * An indexed event, sorted by what makes a better match: magnitude, then recency.
+     */
+    private static final class Entry {
+        final String id;
+        final double magnitude;
+        final long time;
+        final Location location;
+
+        Entry(String id, double magnitude, long time, Location location) {
+            this.id = id;
+            this.magnitude = magnitude;
+            this.time = time;
+            this.location = location;
+        }
+    }
+
+    private static final Comparator<Entry> BEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int byMagnitude = Double.compare(b.magnitude, a.magnitude);
+            if (byMagnitude != 0) {
+                return byMagnitude;
+            }
+            int byTime = a.time < b.time ? 1 : a.time > b.time ? -1 : 0;
+            return byTime != 0 ? byTime : a.id.compareTo(b.id);
+        }
+    };
+
+    /**
+     * A distinct primary location, with its words and its events.
+     */
+    private static final class Location {
+        final String[] words;
+        final TreeSet<Entry> entries = new TreeSet<>(BEST_FIRST);
+
+        Location(String[] words) {
+            this.words = words;
+        }
+    }
+
+    // Locations by text, and by each of their words
+    private final HashMap<String, Location> mLocations = new HashMap<>();
+    private final TreeMap<String, List<Location>> mWords = new TreeMap<>();
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+
+    /**
+     * Index every row of the given table.
+     */
+    public void addAll(QuakeTable quakes) {
+        for (int i = 0; i < quakes.size(); i++) {
+            add(quakes, i);
+        }
+    }
+
+    /**
+     * Index the given row, replacing the event with the same id if it is already indexed.
+     */
+    public void add(QuakeTable quakes, int index) {
+        String id = quakes.getId(index);
+        remove(id);
+
+        String text = quakes.getPlacePrimary(index);
+        Location location = mLocations.get(text);
+        if (location == null) {
+            location = new Location(tokenize(text));
+            mLocations.put(text, location);
+            for (String word : location.words) {
+                List<Location> locations = mWords.get(word);
+                if (locations == null) {
+                    locations = new ArrayList<>(1);
+                    mWords.put(word, locations);
+                }
+                locations.add(location);
+            }
+        }
+        Entry entry = new Entry(id, quakes.getMagnitude(index), quakes.getTime(index), location);
+        location.entries.add(entry);
+        mEntries.put(id, entry);
+    }
+
+    /**
+     * Remove the event with the given id, if it is indexed.
+     */
+    public void remove(String id) {
+        Entry entry = mEntries.remove(id);
+        if (entry != null) {
+            // Locations stay in the dictionary, there are only so many of them
+            entry.location.entries.remove(entry);
+        }
+    }
+
+    public void clear() {
+        mLocations.clear();
+        mWords.clear();
+        mEntries.clear();
+    }
+
+    /**
+     * Return the number of indexed events.
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Return the ids of at most {@code limit} events whose primary location has, for every
+     * word of the query, a word starting with it. Locations where the words of the query
+     * are whole words come first, then the strongest and most recent events.
+     */
+    public List<String> search(String query, int limit) {
+        ArrayList<String> ids = new ArrayList<>();
+        String[] queryWords = tokenize(query);
+        if (queryWords.length == 0 || limit <= 0) {
+            return ids;
+        }
+
+        // Locations matching the first word, with the number of words they match whole
+        HashMap<Location, Integer> candidates = new HashMap<>();
+        for (Map.Entry<String, List<Location>> word : prefixRange(queryWords[0]).entrySet()) {
+            boolean whole = word.getKey().equals(queryWords[0]);
+            for (Location location : word.getValue()) {
+                if (!location.entries.isEmpty()) {
+                    Integer score = candidates.get(location);
+                    candidates.put(location, Math.max(score == null ? 0 : score, whole ? 1 : 0));
+                }
+            }
+        }
+        // Then keep those matching the other words too, they are few by now
+        ArrayList<ArrayList<Location>> byScore = new ArrayList<>();
+        for (Map.Entry<Location, Integer> candidate : candidates.entrySet()) {
+            int score = candidate.getValue();
+            for (int i = 1; i < queryWords.length && score >= 0; i++) {
+                int wordScore = matchWord(candidate.getKey().words, queryWords[i]);
+                score = wordScore < 0 ? -1 : score + wordScore;
+            }
+            if (score >= 0) {
+                while (byScore.size() <= score) {
+                    byScore.add(new ArrayList<Location>());
+                }
+                byScore.get(score).add(candidate.getKey());
+            }
+        }
+
+        for (int score = byScore.size() - 1; score >= 0 && ids.size() < limit; score--) {
+            mergeBest(byScore.get(score), limit, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * Append the best events of the given locations to the ids, until there are {@code limit}.
+     */
+    private static void mergeBest(List<Location> locations, int limit, List<String> ids) {
+        if (locations.isEmpty()) {
+            return;
+        }
+        // The next event of each location, the best of them on top
+        final HashMap<Entry, Iterator<Entry>> iterators = new HashMap<>();
+        PriorityQueue<Entry> heads = new PriorityQueue<>(locations.size(), BEST_FIRST);
+        for (Location location : locations) {
+            Iterator<Entry> iterator = location.entries.iterator();
+            if (iterator.hasNext()) {
+                Entry head = iterator.next();
+                iterators.put(head, iterator);
+                heads.add(head);
+            }
+        }
+        while (ids.size() < limit && !heads.isEmpty()) {
+            Entry best = heads.poll();
+            ids.add(best.id);
+            Iterator<Entry> iterator = iterators.remove(best);
+            if (iterator.hasNext()) {
+                Entry next = iterator.next();
+                iterators.put(next, iterator);
+                heads.add(next);
+            }
+        }
+    }
+
+    /**
+     * Return 1 if the words have the given word, 0 if one of them starts with it, -1 if none does.
+     */
+    private static int matchWord(String[] words, String prefix) {
+        int match = -1;
+        for (String word : words) {
+            if (word.equals(prefix)) {
+                return 1;
+            }
+            if (word.startsWith(prefix)) {
+                match = 0;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Return the words of the dictionary starting with the given prefix.
+     */
+    private SortedMap<String, List<Location>> prefixRange(String prefix) {
+        // Every word starting with the prefix sorts before the prefix followed by the last char
+        return mWords.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    /**
+     * Split a text into lower case words, on anything that is not a letter or a digit.
+     */
+    static String[] tokenize(String text) {
+        ArrayList<String> words = new ArrayList<>();
+        String lowerCase = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lowerCase.length(); i++) {
+            boolean inWord = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(lowerCase.substring(start, i));
+                start = -1;
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+}
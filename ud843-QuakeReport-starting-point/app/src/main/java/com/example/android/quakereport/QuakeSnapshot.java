@@ -0,0 +1,347 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The earthquakes on screen and the query they answer, saved to a binary file so the next
+ * launch can show them before anything is parsed or fetched.
+ * <p>
+ * The file is laid out like a {@link QuakeTable}: a header, then one string table each for
+ * ids and the parts of places and URLs (the distinct strings, UTF-8 encoded back to back,
+ * with their offsets), then one fixed-width column per field. Reading it maps the file and copies
+ * every column with one bulk get, instead of tokenizing JSON value by value.
+ * <p>
+ * All numbers are big-endian, and sections start on 8 byte boundaries:
+ * <pre>
+ * int magic, int version, int rowCount, int flags, long syncedAt, double minMagnitude
+ * string queryUrl, string orderBy             (int byteLength, UTF-8 bytes)
+ * string table ids, offsets, primaries, urlPrefixes, urlSuffixes
+ *                                             (int count, int[count + 1] offsets, UTF-8 bytes)
+ * int[] offsetCodes, int[] primaryCodes, int[] urlPrefixCodes, int[] urlSuffixCodes,
+ * long[] times, double[] magnitudes, double[] latitudes, double[] longitudes, double[] depths
+ * </pre>
+ * An offset code of -1 is a place without offset, a URL suffix code of -1 is the id of the row.
+ */
+public final class QuakeSnapshot {
+
+    // "QKSN"
+    private static final int MAGIC = 0x514B534E;
+
+    /**
+     * Bumped whenever the layout changes, files of another version are ignored
+     */
+    private static final int VERSION = 2;
+
+    private static final int FLAG_COMPLETE = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final QuakeTable mQuakes;
+    private final String mQueryUrl;
+    private final double mMinMagnitude;
+    private final String mOrderBy;
+    private final boolean mComplete;
+    private final long mSyncedAt;
+
+    /**
+     * @param quakes       the earthquakes, in the order of the query
+     * @param queryUrl     the USGS query they come from, without the paging parameters
+     * @param minMagnitude the minimum magnitude of that query
+     * @param orderBy      the order of that query, a USGS {@code orderby} value
+     * @param complete     whether the table holds every result of the query, or only its first pages
+     * @param syncedAt     when the earthquakes were last brought up to date with USGS
+     */
+    public QuakeSnapshot(QuakeTable quakes, String queryUrl, double minMagnitude, String orderBy,
+                         boolean complete, long syncedAt) {
+        mQuakes = quakes;
+        mQueryUrl = queryUrl;
+        mMinMagnitude = minMagnitude;
+        mOrderBy = orderBy;
+        mComplete = complete;
+        mSyncedAt = syncedAt;
+    }
+
+    public QuakeTable getQuakes() {
+        return mQuakes;
+    }
+
+    public String getQueryUrl() {
+        return mQueryUrl;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public String getOrderBy() {
+        return mOrderBy;
+    }
+
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    public long getSyncedAt() {
+        return mSyncedAt;
+    }
+
+    /**
+     * Return a {@link QuakeIndex} answering queries from the snapshot.
+     */
+    public QuakeIndex toIndex() {
+        return new QuakeIndex(mQuakes, mQueryUrl, mMinMagnitude, mOrderBy, mComplete);
+    }
+
+    /**
+     * Write the snapshot to the given file. The file is replaced at once, a reader never
+     * sees a half written snapshot.
+     */
+    public void write(File file) throws IOException {
+        QuakeTable quakes = mQuakes;
+        int size = quakes.size();
+
+        // Only the strings still used by a row, the pools of the table may hold removed ones
+        String[] ids = new String[size];
+        StringPool offsets = new StringPool();
+        StringPool primaries = new StringPool();
+        StringPool urlPrefixes = new StringPool();
+        StringPool urlSuffixes = new StringPool();
+        int[] offsetCodes = new int[size];
+        int[] primaryCodes = new int[size];
+        int[] urlPrefixCodes = new int[size];
+        int[] urlSuffixCodes = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = quakes.getId(i);
+            String offset = quakes.getPlaceOffset(i);
+            offsetCodes[i] = offset == null ? QuakeTable.NO_OFFSET : offsets.encode(offset);
+            primaryCodes[i] = primaries.encode(quakes.getPlacePrimary(i));
+            urlPrefixCodes[i] = urlPrefixes.encode(quakes.getUrlPrefix(i));
+            String urlSuffix = quakes.getUrlSuffix(i);
+            urlSuffixCodes[i] = urlSuffix.equals(ids[i]) ? -1 : urlSuffixes.encode(urlSuffix);
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(mComplete ? FLAG_COMPLETE : 0);
+            out.writeLong(mSyncedAt);
+            out.writeDouble(mMinMagnitude);
+            writeString(out, mQueryUrl);
+            writeString(out, mOrderBy);
+
+            writeStringTable(out, ids, size);
+            writeStringTable(out, offsets);
+            writeStringTable(out, primaries);
+            writeStringTable(out, urlPrefixes);
+            writeStringTable(out, urlSuffixes);
+
+            align(out);
+            writeInts(out, offsetCodes);
+            writeInts(out, primaryCodes);
+            writeInts(out, urlPrefixCodes);
+            writeInts(out, urlSuffixCodes);
+            align(out);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(quakes.getTime(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(quakes.getMagnitude(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(quakes.getLatitude(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(quakes.getLongitude(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(quakes.getDepth(i));
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Read a snapshot written by {@link #write(File)}. Return null if the file was written by
+     * another version of the app.
+     *
+     * @throws IOException if the file is missing, can't be read or is damaged
+     */
+    public static QuakeSnapshot read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            throw new IOException("Damaged snapshot " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a snapshot from the given buffer, which must start with it.
+     */
+    static QuakeSnapshot read(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int size = buffer.getInt();
+        int flags = buffer.getInt();
+        long syncedAt = buffer.getLong();
+        double minMagnitude = buffer.getDouble();
+        String queryUrl = readString(buffer);
+        String orderBy = readString(buffer);
+
+        String[] ids = readStringTable(buffer);
+        StringPool offsets = new StringPool(readStringTable(buffer));
+        StringPool primaries = new StringPool(readStringTable(buffer));
+        StringPool urlPrefixes = new StringPool(readStringTable(buffer));
+        String[] urlSuffixTable = readStringTable(buffer);
+        if (ids.length != size) {
+            throw new IllegalArgumentException("Expected " + size + " ids, found " + ids.length);
+        }
+
+        int[] offsetCodes = new int[size];
+        int[] primaryCodes = new int[size];
+        int[] urlPrefixCodes = new int[size];
+        int[] urlSuffixCodes = new int[size];
+        long[] times = new long[size];
+        double[] magnitudes = new double[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        double[] depths = new double[size];
+        align(buffer);
+        readInts(buffer, offsetCodes);
+        readInts(buffer, primaryCodes);
+        readInts(buffer, urlPrefixCodes);
+        readInts(buffer, urlSuffixCodes);
+        align(buffer);
+        readLongs(buffer, times);
+        readDoubles(buffer, magnitudes);
+        readDoubles(buffer, latitudes);
+        readDoubles(buffer, longitudes);
+        readDoubles(buffer, depths);
+
+        // A code past the end of its string table would only fail when the row is displayed
+        String[] urlSuffixes = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (offsetCodes[i] < QuakeTable.NO_OFFSET || offsetCodes[i] >= offsets.size()
+                    || primaryCodes[i] < 0 || primaryCodes[i] >= primaries.size()
+                    || urlPrefixCodes[i] < 0 || urlPrefixCodes[i] >= urlPrefixes.size()
+                    || urlSuffixCodes[i] < -1 || urlSuffixCodes[i] >= urlSuffixTable.length) {
+                throw new IllegalArgumentException("Bad string code in row " + i);
+            }
+            urlSuffixes[i] = urlSuffixCodes[i] < 0 ? ids[i] : urlSuffixTable[urlSuffixCodes[i]];
+        }
+
+        QuakeTable quakes = new QuakeTable(ids, magnitudes, times, offsets, offsetCodes, primaries,
+                primaryCodes, urlPrefixes, urlPrefixCodes, urlSuffixes, latitudes, longitudes, depths);
+        return new QuakeSnapshot(quakes, queryUrl, minMagnitude, orderBy,
+                (flags & FLAG_COMPLETE) != 0, syncedAt);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeStringTable(DataOutputStream out, StringPool pool) throws IOException {
+        String[] strings = new String[pool.size()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = pool.decode(i);
+        }
+        writeStringTable(out, strings, strings.length);
+    }
+
+    private static void writeStringTable(DataOutputStream out, String[] strings, int count) throws IOException {
+        byte[][] encoded = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            encoded[i] = strings[i].getBytes(UTF_8);
+        }
+        align(out);
+        out.writeInt(count);
+        int offset = 0;
+        out.writeInt(offset);
+        for (int i = 0; i < count; i++) {
+            offset += encoded[i].length;
+            out.writeInt(offset);
+        }
+        for (int i = 0; i < count; i++) {
+            out.write(encoded[i]);
+        }
+    }
+
+    private static String[] readStringTable(ByteBuffer buffer) {
+        align(buffer);
+        int count = buffer.getInt();
+        int[] offsets = new int[count + 1];
+        readInts(buffer, offsets);
+        // One copy out of the mapped file for the whole table, then one String per entry
+        byte[] bytes = new byte[offsets[count]];
+        buffer.get(bytes);
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], UTF_8);
+        }
+        return strings;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void readInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 4);
+    }
+
+    private static void readLongs(ByteBuffer buffer, long[] values) {
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 8);
+    }
+
+    private static void readDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 8);
+    }
+
+    private static void align(DataOutputStream out) throws IOException {
+        while (out.size() % 8 != 0) {
+            out.writeByte(0);
+        }
+    }
+
+    private static void align(ByteBuffer buffer) {
+        buffer.position((buffer.position() + 7) & ~7);
+    }
+}
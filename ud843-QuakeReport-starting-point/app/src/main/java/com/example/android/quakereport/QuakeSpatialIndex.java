@@ -0,0 +1,498 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Grid index of earthquake epicenters, answering "which events are near this point" without
+ * looking at every event.
+ * <p>
+ * The globe is cut into cells of a fixed number of degrees, and every event is filed under
+ * the cell of its epicenter. A query only visits the cells its area overlaps, then checks the
+ * exact great-circle distance of the events in them, so its cost follows the size of the area
+ * and the number of events found, not the number of events indexed.
+ * <p>
+ * Events are added as they load, {@link #addAll(QuakeTable)} can be called for every new page.
+ * Adding an event again (same id) moves it to its new location. Each event gets an entry
+ * number, which the queries return. The index is not thread-safe.
+ */
+public final class QuakeSpatialIndex {
+
+    /** Mean radius of the Earth */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    public static final double DEFAULT_CELL_DEGREES = 1.0;
+
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private final double mCellDegrees;
+    private final int mRows;
+    private final int mColumns;
+    // Entries of each cell, the first mCellSizes[cell] are used
+    private final int[][] mCells;
+    private final int[] mCellSizes;
+    // Query number each cell was last visited by, so no cell is visited twice per query
+    private final int[] mCellVisits;
+    private int mQueryNumber;
+
+    private int mSize;
+    private String[] mIds = new String[16];
+    private double[] mLatitudes = new double[16];
+    private double[] mLongitudes = new double[16];
+    // Cosine of each latitude, which every distance computation needs
+    private double[] mCosLatitudes = new double[16];
+    // Cell of each entry, and its position in that cell, to move it in constant time
+    private int[] mEntryCells = new int[16];
+    private int[] mEntrySlots = new int[16];
+    private final HashMap<String, Integer> mEntriesById = new HashMap<>();
+
+    // Results of the query being run
+    private int[] mResults = new int[16];
+    private int mResultCount;
+
+    public QuakeSpatialIndex() {
+        this(DEFAULT_CELL_DEGREES);
+    }
+
+    /**
+     * @param cellDegrees the size of a grid cell. Smaller cells make small queries faster and
+     *                    cost more memory: the grid has {@code 180 * 360 / cellDegrees^2} cells.
+     */
+    public QuakeSpatialIndex(double cellDegrees) {
+        mCellDegrees = cellDegrees;
+        mRows = (int) Math.ceil(180 / cellDegrees);
+        mColumns = (int) Math.ceil(360 / cellDegrees);
+        mCells = new int[mRows * mColumns][];
+        mCellSizes = new int[mRows * mColumns];
+        mCellVisits = new int[mRows * mColumns];
+    }
+
+    /**
+     * Return the number of events in the index.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public String getId(int entry) {
+        return mIds[checkEntry(entry)];
+    }
+
+    public double getLatitude(int entry) {
+        return mLatitudes[checkEntry(entry)];
+    }
+
+    public double getLongitude(int entry) {
+        return mLongitudes[checkEntry(entry)];
+    }
+
+    /**
+     * Return the entry of the event with the given id, or -1 if it is not in the index.
+     */
+    public int entryOf(String id) {
+        Integer entry = mEntriesById.get(id);
+        return entry == null ? -1 : entry;
+    }
+
+    /**
+     * Add the events of the given table that have a location.
+     */
+    public void addAll(QuakeTable quakes) {
+        for (int i = 0; i < quakes.size(); i++) {
+            add(quakes.getId(i), quakes.getLatitude(i), quakes.getLongitude(i));
+        }
+    }
+
+    /**
+     * Add an event, or move it if its id is already in the index.
+     *
+     * @return the entry of the event, or -1 if it has no location
+     */
+    public int add(String id, double latitude, double longitude) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return -1;
+        }
+        int cell = cellOf(latitude, longitude);
+        Integer existing = mEntriesById.get(id);
+        int entry;
+        if (existing != null) {
+            entry = existing;
+            if (mEntryCells[entry] != cell) {
+                removeFromCell(entry);
+                addToCell(entry, cell);
+            }
+        } else {
+            entry = mSize++;
+            ensureCapacity(mSize);
+            mIds[entry] = id;
+            mEntriesById.put(id, entry);
+            addToCell(entry, cell);
+        }
+        mLatitudes[entry] = latitude;
+        mLongitudes[entry] = longitude;
+        mCosLatitudes[entry] = Math.cos(Math.toRadians(latitude));
+        return entry;
+    }
+
+    /**
+     * Return the entries of the events within the given distance of a point, in no particular order.
+     */
+    public int[] withinRadius(double latitude, double longitude, double radiusKm) {
+        startQuery();
+        double latitudeSpan = radiusKm / KM_PER_DEGREE;
+        double south = latitude - latitudeSpan;
+        double north = latitude + latitudeSpan;
+        double longitudeSpan = longitudeSpan(latitude, radiusKm);
+        if (south <= -90 || north >= 90 || longitudeSpan >= 180) {
+            // The circle goes around a pole, every meridian crosses it
+            visitRadius(Math.max(south, -90), -180, Math.min(north, 90), 180, latitude, longitude, radiusKm);
+        } else {
+            visitRadius(south, longitude - longitudeSpan, north, longitude + longitudeSpan,
+                    latitude, longitude, radiusKm);
+        }
+        return results();
+    }
+
+    /**
+     * Return the entries of the events inside the given box, in no particular order. A box
+     * whose west edge is east of its east edge crosses the 180th meridian, a box 360 degrees
+     * wide or more holds every longitude.
+     */
+    public int[] withinBox(double south, double west, double north, double east) {
+        startQuery();
+        int firstRow = rowOf(south);
+        int lastRow = rowOf(north);
+        boolean allLongitudes = east - west >= 360;
+        boolean crossesAntimeridian = west > east;
+        int firstColumn = columnOf(west);
+        // Columns after the first one
+        int columnCount = columnOf(east) - firstColumn;
+        if (allLongitudes) {
+            columnCount = mColumns - 1;
+        } else if (columnCount < 0 || (crossesAntimeridian && columnCount == 0)) {
+            columnCount += mColumns;
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int i = 0; i <= columnCount && i < mColumns; i++) {
+                int cell = row * mColumns + (firstColumn + i) % mColumns;
+                if (!markVisited(cell)) {
+                    continue;
+                }
+                int[] entries = mCells[cell];
+                for (int j = 0; j < mCellSizes[cell]; j++) {
+                    int entry = entries[j];
+                    double latitude = mLatitudes[entry];
+                    double longitude = mLongitudes[entry];
+                    boolean inLongitude = allLongitudes || (crossesAntimeridian
+                            ? longitude >= west || longitude <= east
+                            : longitude >= west && longitude <= east);
+                    if (inLongitude && latitude >= south && latitude <= north) {
+                        addResult(entry);
+                    }
+                }
+            }
+        }
+        return results();
+    }
+
+    /**
+     * Return the entries of the {@code count} events closest to a point, closest first.
+     * <p>
+     * Cells are visited in rings of growing size around the point, and the search stops as
+     * soon as no cell of the next ring can hold an event closer than the ones already found.
+     */
+    public int[] nearest(double latitude, double longitude, int count) {
+        startQuery();
+        if (count <= 0 || mSize == 0) {
+            return results();
+        }
+        // Max-heap of the best candidates so far, the farthest one on top
+        int[] heapEntries = new int[count];
+        double[] heapDistances = new double[count];
+        int heapSize = 0;
+
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        int centerRow = rowOf(latitude);
+        int centerColumn = columnOf(longitude);
+        int maxRing = Math.max(mRows, mColumns);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (heapSize == count && ringLowerBoundKm(latitude, longitude, centerRow, centerColumn, ring)
+                    > heapDistances[0]) {
+                break;
+            }
+            for (int row = centerRow - ring; row <= centerRow + ring; row++) {
+                if (row < 0 || row >= mRows) {
+                    continue;
+                }
+                boolean edgeRow = row == centerRow - ring || row == centerRow + ring;
+                int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+                for (int offset = -ring; offset <= ring; offset += step) {
+                    int column = ((centerColumn + offset) % mColumns + mColumns) % mColumns;
+                    int cell = row * mColumns + column;
+                    if (!markVisited(cell)) {
+                        continue;
+                    }
+                    int[] entries = mCells[cell];
+                    for (int j = 0; j < mCellSizes[cell]; j++) {
+                        int entry = entries[j];
+                        double distance = distanceKm(entry, latitude, cosLatitude, longitude);
+                        if (heapSize < count) {
+                            heapEntries[heapSize] = entry;
+                            heapDistances[heapSize] = distance;
+                            siftUp(heapEntries, heapDistances, heapSize++);
+                        } else if (distance < heapDistances[0]) {
+                            heapEntries[0] = entry;
+                            heapDistances[0] = distance;
+                            siftDown(heapEntries, heapDistances, heapSize);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Empty the heap from the farthest to the closest
+        int[] nearest = new int[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            nearest[i] = heapEntries[0];
+            heapEntries[0] = heapEntries[i];
+            heapDistances[0] = heapDistances[i];
+            siftDown(heapEntries, heapDistances, i);
+        }
+        return nearest;
+    }
+
+    /**
+     * Return the great-circle distance between two points, in kilometers (haversine formula).
+     */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double latitudeDelta = Math.toRadians(latitude2 - latitude1);
+        double longitudeDelta = Math.toRadians(longitude2 - longitude1);
+        double sinLatitude = Math.sin(latitudeDelta / 2);
+        double sinLongitude = Math.sin(longitudeDelta / 2);
+        double a = sinLatitude * sinLatitude + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2)) * sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Same as {@link #distanceKm(double, double, double, double)} from an entry, reusing the
+     * cosines of both latitudes.
+     */
+    private double distanceKm(int entry, double latitude, double cosLatitude, double longitude) {
+        double sinLatitude = Math.sin(Math.toRadians(mLatitudes[entry] - latitude) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(mLongitudes[entry] - longitude) / 2);
+        double a = sinLatitude * sinLatitude + cosLatitude * mCosLatitudes[entry] * sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private void visitRadius(double south, double west, double north, double east,
+                             double latitude, double longitude, double radiusKm) {
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        int firstRow = rowOf(south);
+        int lastRow = rowOf(north);
+        int firstColumn = (int) Math.floor((west + 180) / mCellDegrees);
+        int lastColumn = (int) Math.floor((east + 180) / mCellDegrees);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn && column < firstColumn + mColumns; column++) {
+                int cell = row * mColumns + (column % mColumns + mColumns) % mColumns;
+                if (!markVisited(cell)) {
+                    continue;
+                }
+                int[] entries = mCells[cell];
+                for (int j = 0; j < mCellSizes[cell]; j++) {
+                    int entry = entries[j];
+                    if (distanceKm(entry, latitude, cosLatitude, longitude) <= radiusKm) {
+                        addResult(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return how far, in degrees of longitude, a circle of the given radius reaches east and
+     * west of its center. 180 or more when the circle contains a pole.
+     */
+    static double longitudeSpan(double latitude, double radiusKm) {
+        double angularRadius = radiusKm / EARTH_RADIUS_KM;
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        double sinSpan = Math.sin(angularRadius) / cosLatitude;
+        if (angularRadius >= Math.PI / 2 || sinSpan >= 1) {
+            return 180;
+        }
+        return Math.toDegrees(Math.asin(sinSpan));
+    }
+
+    /**
+     * Return a distance no event in the cells of the given ring, or of any ring further out,
+     * can be closer than. Those cells lie outside the block of the inner rings, so an event
+     * in them is beyond that block in latitude or in longitude.
+     */
+    private double ringLowerBoundKm(double latitude, double longitude, int centerRow, int centerColumn, int ring) {
+        if (ring == 0) {
+            return 0;
+        }
+        // Edges of the block made of the rings inside this one
+        double south = (centerRow - ring + 1) * mCellDegrees - 90;
+        double north = (centerRow + ring) * mCellDegrees - 90;
+        double west = (centerColumn - ring + 1) * mCellDegrees - 180;
+        double east = (centerColumn + ring) * mCellDegrees - 180;
+
+        double bound = Double.MAX_VALUE;
+        // Beyond the block in latitude: at least the meridian distance
+        if (south > -90) {
+            bound = Math.min(bound, (latitude - south) * KM_PER_DEGREE);
+        }
+        if (north < 90) {
+            bound = Math.min(bound, (north - latitude) * KM_PER_DEGREE);
+        }
+        // Beyond it in longitude, within its latitudes: at least the distance along the most
+        // poleward parallel of the block
+        double longitudeGap = Math.min(longitude - west, east - longitude);
+        if (east - west < 360) {
+            double poleward = Math.max(Math.abs(Math.max(south, -90)), Math.abs(Math.min(north, 90)));
+            double sinHalfGap = Math.sin(Math.toRadians(Math.min(longitudeGap, 180)) / 2);
+            double a = Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(poleward))
+                    * sinHalfGap * sinHalfGap;
+            bound = Math.min(bound, 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a))));
+        }
+        return bound == Double.MAX_VALUE ? Double.MAX_VALUE : Math.max(0, bound);
+    }
+
+    private static void siftUp(int[] entries, double[] distances, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (distances[parent] >= distances[index]) {
+                return;
+            }
+            swap(entries, distances, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] entries, double[] distances, int size) {
+        int index = 0;
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && distances[left] > distances[largest]) {
+                largest = left;
+            }
+            if (right < size && distances[right] > distances[largest]) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swap(entries, distances, index, largest);
+            index = largest;
+        }
+    }
+
+    private static void swap(int[] entries, double[] distances, int i, int j) {
+        int entry = entries[i];
+        entries[i] = entries[j];
+        entries[j] = entry;
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+
+    private int cellOf(double latitude, double longitude) {
+        return rowOf(latitude) * mColumns + columnOf(longitude);
+    }
+
+    private int rowOf(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / mCellDegrees);
+        return Math.max(0, Math.min(mRows - 1, row));
+    }
+
+    private int columnOf(double longitude) {
+        if (longitude == 180) {
+            // The same meridian as -180, but the east edge of the last column: boxes ending
+            // at 180 stop there instead of wrapping around to the first column
+            return mColumns - 1;
+        }
+        int column = (int) Math.floor((longitude + 180) / mCellDegrees) % mColumns;
+        return column < 0 ? column + mColumns : column;
+    }
+
+    private void addToCell(int entry, int cell) {
+        int[] entries = mCells[cell];
+        int size = mCellSizes[cell];
+        if (entries == null) {
+            entries = new int[4];
+            mCells[cell] = entries;
+        } else if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+            mCells[cell] = entries;
+        }
+        entries[size] = entry;
+        mCellSizes[cell] = size + 1;
+        mEntryCells[entry] = cell;
+        mEntrySlots[entry] = size;
+    }
+
+    private void removeFromCell(int entry) {
+        int cell = mEntryCells[entry];
+        int slot = mEntrySlots[entry];
+        int last = --mCellSizes[cell];
+        // Move the last entry of the cell into the freed slot
+        int moved = mCells[cell][last];
+        mCells[cell][slot] = moved;
+        mEntrySlots[moved] = slot;
+    }
+
+    private void startQuery() {
+        mResultCount = 0;
+        mQueryNumber++;
+        if (mQueryNumber == 0) {
+            // Wrapped around, forget the old visits
+            Arrays.fill(mCellVisits, 0);
+            mQueryNumber = 1;
+        }
+    }
+
+    /**
+     * Mark the cell as visited by the current query, return false if it already was.
+     */
+    private boolean markVisited(int cell) {
+        if (mCellVisits[cell] == mQueryNumber) {
+            return false;
+        }
+        mCellVisits[cell] = mQueryNumber;
+        return true;
+    }
+
+    private void addResult(int entry) {
+        if (mResultCount == mResults.length) {
+            mResults = Arrays.copyOf(mResults, mResultCount * 2);
+        }
+        mResults[mResultCount++] = entry;
+    }
+
+    private int[] results() {
+        return Arrays.copyOf(mResults, mResultCount);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length + (mIds.length >> 1));
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mCosLatitudes = Arrays.copyOf(mCosLatitudes, newCapacity);
+        mEntryCells = Arrays.copyOf(mEntryCells, newCapacity);
+        mEntrySlots = Arrays.copyOf(mEntrySlots, newCapacity);
+    }
+
+    private int checkEntry(int entry) {
+        if (entry < 0 || entry >= mSize) {
+            throw new IndexOutOfBoundsException("Entry: " + entry + ", size: " + mSize);
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Aggregates of a set of earthquakes: how many there are per magnitude bucket, per hour
+ * and per day, the strongest magnitude and the rates over the last hours and days.
+ * <p>
+ * The aggregates are counters, updated by {@link #add} and {@link #remove} one event at a
+ * time, so keeping them up to date costs as much as the events that changed, whatever the
+ * number of events. Reading them doesn't scan the events either.
+ * <p>
+ * Not thread-safe.
+ */
+public final class QuakeStats {
+
+    /**
+     * Told when the aggregates changed, after a batch of events was counted.
+     */
+    public interface Listener {
+        void onStatsChanged(QuakeStats stats);
+    }
+
+    public static final long HOUR_MILLIS = 60 * 60 * 1000;
+    public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private final TimeZone mTimeZone;
+
+    private int mCount;
+    // Indexed by QuakeFormatter.magnitudeBucket(), the buckets of the circle colours
+    private final int[] mBucketCounts = new int[QuakeFormatter.MAGNITUDE_BUCKETS];
+    // Number of events of each magnitude, so the strongest one is known after a removal
+    private final TreeMap<Double, Integer> mMagnitudeCounts = new TreeMap<>();
+    // Hours since the epoch, and local days since the epoch
+    private final HashMap<Long, Integer> mHourCounts = new HashMap<>();
+    private final HashMap<Long, Integer> mDayCounts = new HashMap<>();
+
+    private Listener mListener;
+
+    /**
+     * @param timeZone the time zone the days are counted in
+     */
+    public QuakeStats(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Tell the listener that the aggregates changed. Called once per batch of changes,
+     * rather than once per event.
+     */
+    public void notifyChanged() {
+        if (mListener != null) {
+            mListener.onStatsChanged(this);
+        }
+    }
+
+    /**
+     * Count every row of the given table.
+     */
+    public void addAll(QuakeTable quakes) {
+        for (int i = 0; i < quakes.size(); i++) {
+            add(quakes, i);
+        }
+    }
+
+    /**
+     * Count the given row.
+     */
+    public void add(QuakeTable quakes, int index) {
+        update(quakes.getMagnitude(index), quakes.getTime(index), 1);
+    }
+
+    /**
+     * Stop counting the given row, which must have been counted before with the same
+     * magnitude and time, e.g. before replacing it by an update.
+     */
+    public void remove(QuakeTable quakes, int index) {
+        update(quakes.getMagnitude(index), quakes.getTime(index), -1);
+    }
+
+    public void clear() {
+        mCount = 0;
+        for (int i = 0; i < mBucketCounts.length; i++) {
+            mBucketCounts[i] = 0;
+        }
+        mMagnitudeCounts.clear();
+        mHourCounts.clear();
+        mDayCounts.clear();
+    }
+
+    /**
+     * Return the number of events counted.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Return the number of events in the given bucket, see {@link QuakeFormatter#magnitudeBucket(double)}.
+     */
+    public int getBucketCount(int bucket) {
+        return mBucketCounts[bucket];
+    }
+
+    /**
+     * Return the strongest magnitude, NaN if no event is counted.
+     */
+    public double getMaxMagnitude() {
+        return mMagnitudeCounts.isEmpty() ? Double.NaN : mMagnitudeCounts.lastKey();
+    }
+
+    /**
+     * Return the number of events of each of the last {@code hours} hours, the oldest first
+     * and the current hour last.
+     */
+    public int[] getHourlyCounts(long now, int hours) {
+        int[] counts = new int[hours];
+        long currentHour = now / HOUR_MILLIS;
+        for (int i = 0; i < hours; i++) {
+            counts[i] = get(mHourCounts, currentHour - (hours - 1 - i));
+        }
+        return counts;
+    }
+
+    /**
+     * Return the number of events of each of the last {@code days} days, the oldest first
+     * and today last.
+     */
+    public int[] getDailyCounts(long now, int days) {
+        int[] counts = new int[days];
+        long today = dayOf(now);
+        for (int i = 0; i < days; i++) {
+            counts[i] = get(mDayCounts, today - (days - 1 - i));
+        }
+        return counts;
+    }
+
+    /**
+     * Return the average number of events per hour over the given period before now, from
+     * the hourly counts: the period starts at the beginning of an hour, so it covers up to
+     * an hour more than asked for.
+     */
+    public double getRatePerHour(long now, long periodMillis) {
+        int hours = (int) Math.max(1, (periodMillis + HOUR_MILLIS - 1) / HOUR_MILLIS);
+        int count = 0;
+        for (int hourCount : getHourlyCounts(now, hours)) {
+            count += hourCount;
+        }
+        return (double) count / hours;
+    }
+
+    private void update(double magnitude, long time, int delta) {
+        mCount += delta;
+        mBucketCounts[QuakeFormatter.magnitudeBucket(magnitude)] += delta;
+        increment(mMagnitudeCounts, magnitude, delta);
+        increment(mHourCounts, time / HOUR_MILLIS, delta);
+        increment(mDayCounts, dayOf(time), delta);
+    }
+
+    private long dayOf(long time) {
+        long localTime = time + mTimeZone.getOffset(time);
+        long day = localTime / DAY_MILLIS;
+        // Round down, so times before the epoch are counted in the right day too
+        return localTime < 0 && day * DAY_MILLIS != localTime ? day - 1 : day;
+    }
+
+    private static <K> void increment(Map<K, Integer> counts, K key, int delta) {
+        Integer count = counts.get(key);
+        int newCount = (count == null ? 0 : count) + delta;
+        if (newCount == 0) {
+            // Drop empty keys, so the strongest magnitude is the last key
+            counts.remove(key);
+        } else {
+            counts.put(key, newCount);
+        }
+    }
+
+    private static int get(HashMap<Long, Integer> counts, long key) {
+        Integer count = counts.get(key);
+        return count == null ? 0 : count;
+    }
+}
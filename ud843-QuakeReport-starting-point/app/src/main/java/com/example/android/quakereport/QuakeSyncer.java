@@ -0,0 +1,282 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the earthquakes of a query up to date while the list is on screen.
+ * <p>
+ * Every few seconds it asks USGS only for the events added or updated since the last sync
+ * ({@code updatedafter}), stores them in the {@link QuakeCache} and hands them to the
+ * {@link Listener}, which merges them into the list. A sync with nothing new downloads an
+ * empty collection, so the cost of a sync follows the number of new events, not the size
+ * of the list.
+ * <p>
+ * In live mode ({@link #setLiveMode}) it also polls a USGS summary feed, a small file of the
+ * events of the past hour that USGS regenerates every minute, at a much shorter interval.
+ * A {@link QuakeChangeDetector} picks the new and updated events out of it, so the list
+ * follows new earthquakes within seconds while the heavier query runs rarely. The query
+ * still runs now and then: the feed only lists events that happened in the past hour, not
+ * the older ones USGS revises.
+ * <p>
+ * {@link #start()} and {@link #stop()} must be called on the main thread, and the listener
+ * is called there too.
+ */
+public class QuakeSyncer {
+
+    /**
+     * Receives the events that were added or updated since the previous sync, on the main thread.
+     */
+    public interface Listener {
+        void onQuakesSynced(QuakeTable delta);
+    }
+
+    /**
+     * Time between two syncs of the new earthquakes while they are on screen
+     */
+    private static final long SYNC_INTERVAL_MILLIS = 60 * 1000;
+    /**
+     * In live mode, time between two polls of the USGS summary feed, which changes every minute
+     */
+    private static final long LIVE_POLL_INTERVAL_MILLIS = 15 * 1000;
+    /**
+     * In live mode, time between two syncs of the query, which then only has to catch the
+     * revisions of events older than the summary feed
+     */
+    private static final long LIVE_SYNC_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    private final String mQueryUrl;
+    private final long mIntervalMillis;
+    private final QuakeCache mCache;
+    private final QuakeFormatter mFormatter;
+    private final Listener mListener;
+    private final QuakeAlerts mAlerts;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Live mode, set before start()
+    private String mLiveFeedUrl;
+    private double mMinMagnitude;
+    private long mLiveIntervalMillis;
+    // Only used on the syncer's thread
+    private QuakeChangeDetector mChangeDetector;
+
+    private ScheduledExecutorService mExecutor;
+    private volatile boolean mStopped = true;
+    // The request of the sync in progress, touched on the syncer's thread and by stop()
+    private volatile FetchScheduler.Call mCall;
+
+    /**
+     * @param queryUrl       the USGS query without the paging parameters, also the key of its last sync
+     * @param intervalMillis the time between the end of a sync and the start of the next one
+     * @param formatter      prepares the display strings of the synced events, only used on the syncer's thread
+     */
+    public QuakeSyncer(Context context, String queryUrl, long intervalMillis, QuakeFormatter formatter,
+                       Listener listener) {
+        mQueryUrl = queryUrl;
+        mIntervalMillis = intervalMillis;
+        mCache = new QuakeCache(context);
+        mFormatter = formatter;
+        mListener = listener;
+        mAlerts = QuakeAlerts.getInstance(context);
+    }
+
+    /**
+     * Return a syncer merging the new earthquakes of the given feed into it, in live mode if
+     * the user turned it on in the settings. It still has to be started.
+     */
+    public static QuakeSyncer forFeed(Context context, final QuakeRepository.Feed feed) {
+        boolean liveMode = PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(context.getString(R.string.settings_live_key), false);
+        QuakeFormatter formatter = new QuakeFormatter(context.getString(R.string.no_offset_found));
+        QuakeSyncer syncer = new QuakeSyncer(context, feed.getQueryUrl(),
+                liveMode ? LIVE_SYNC_INTERVAL_MILLIS : SYNC_INTERVAL_MILLIS, formatter, new Listener() {
+            @Override
+            public void onQuakesSynced(QuakeTable delta) {
+                // Kept by the feed, so every screen showing it gets them
+                feed.mergeQuakes(delta);
+            }
+        });
+        if (liveMode) {
+            syncer.setLiveMode(QueryUtils.getBaseUrl(context), feed.getMinMagnitude(), LIVE_POLL_INTERVAL_MILLIS);
+        }
+        return syncer;
+    }
+
+    /**
+     * Return the query for the events of the given query that were added or updated after
+     * the given time, at most {@code limit} of them.
+     */
+    public static String buildDeltaUrl(String queryUrl, long updatedAfter, int limit) {
+        Uri.Builder uriBuilder = Uri.parse(queryUrl).buildUpon();
+        uriBuilder.appendQueryParameter("updatedafter", QueryUtils.formatIsoTime(updatedAfter));
+        uriBuilder.appendQueryParameter("limit", String.valueOf(limit));
+        return uriBuilder.toString();
+    }
+
+    /**
+     * Return the smallest USGS summary feed of the past hour that has every event of at least
+     * the given magnitude, on the given server, see {@link QueryUtils#getBaseUrl}.
+     */
+    public static String buildLiveFeedUrl(String baseUrl, double minMagnitude) {
+        String level;
+        if (minMagnitude >= 4.5) {
+            level = "4.5";
+        } else if (minMagnitude >= 2.5) {
+            level = "2.5";
+        } else if (minMagnitude >= 1) {
+            level = "1.0";
+        } else {
+            level = "all";
+        }
+        return baseUrl + QueryUtils.SUMMARY_FEED_PATH + level + "_hour.geojson";
+    }
+
+    /**
+     * Also poll the summary feed of the given server for the events of at least the given
+     * magnitude, every {@code intervalMillis}. Must be called before {@link #start()}.
+     */
+    public void setLiveMode(String baseUrl, double minMagnitude, long intervalMillis) {
+        mLiveFeedUrl = buildLiveFeedUrl(baseUrl, minMagnitude);
+        mMinMagnitude = minMagnitude;
+        mLiveIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Start syncing periodically, the first sync happens one interval from now.
+     */
+    public void start() {
+        if (!mStopped) {
+            return;
+        }
+        mStopped = false;
+        // One thread, so syncs and polls never run at the same time
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, mIntervalMillis, mIntervalMillis, TimeUnit.MILLISECONDS);
+        if (mLiveFeedUrl != null) {
+            mExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            }, mLiveIntervalMillis, mLiveIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop syncing, the sync in progress (if any) is aborted and its result is not delivered.
+     */
+    public void stop() {
+        if (mStopped) {
+            return;
+        }
+        mStopped = true;
+        FetchScheduler.Call call = mCall;
+        if (call != null) {
+            call.cancel();
+        }
+        mExecutor.shutdownNow();
+        mExecutor = null;
+    }
+
+    private void sync() {
+        long lastSync = mCache.getLastSync(mQueryUrl);
+        long now = System.currentTimeMillis();
+        if (lastSync == 0 || now - lastSync >= QuakeCache.WINDOW_MILLIS) {
+            // Nothing to build upon, the feed has to do a full load first
+            return;
+        }
+
+        FetchScheduler.Call call = FetchScheduler.getInstance()
+                .newCall(buildDeltaUrl(mQueryUrl, lastSync, mCache.getMaxRows()));
+        mCall = call;
+        final QuakeTable delta;
+        try {
+            delta = call.execute();
+        } catch (IOException e) {
+            if (!call.isCancelled()) {
+                // The next sync asks for the same events again
+                Log.e(QueryUtils.LOG_TAG, "Problem syncing earthquakes", e);
+            }
+            return;
+        }
+        if (mStopped) {
+            return;
+        }
+        mCache.store(delta);
+        mCache.setLastSync(mQueryUrl, now);
+        deliver(delta);
+    }
+
+    /**
+     * Merge the new and updated events of the summary feed. They are cached, but the last
+     * sync of the query doesn't move: the feed doesn't have the older events USGS revised.
+     */
+    private void poll() {
+        if (mChangeDetector == null) {
+            long lastSync = mCache.getLastSync(mQueryUrl);
+            if (lastSync == 0) {
+                // The list isn't loaded yet, there is nothing to compare the feed with
+                return;
+            }
+            mChangeDetector = new QuakeChangeDetector(lastSync);
+        }
+
+        FetchScheduler.Call call = FetchScheduler.getInstance().newCall(mLiveFeedUrl);
+        mCall = call;
+        QuakeTable feed;
+        try {
+            feed = call.execute();
+        } catch (IOException e) {
+            if (!call.isCancelled()) {
+                Log.e(QueryUtils.LOG_TAG, "Problem polling the live feed", e);
+            }
+            return;
+        }
+        if (mStopped) {
+            return;
+        }
+        QuakeTable changes = mChangeDetector.detectChanges(feed, mMinMagnitude);
+        if (changes.isEmpty()) {
+            // The usual outcome, and a cheap one: often the feed didn't change and came back as a 304
+            return;
+        }
+        mCache.store(changes);
+        deliver(changes);
+    }
+
+    /**
+     * Check the given events against the alert rules, then hand them to the listener, on the
+     * main thread.
+     */
+    private void deliver(final QuakeTable delta) {
+        if (delta.isEmpty()) {
+            return;
+        }
+
+        mAlerts.onQuakesArrived(delta);
+
+        delta.prepareDisplay(mFormatter);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mStopped) {
+                    mListener.onQuakesSynced(delta);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,636 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Columnar container for a list of earthquakes.
+ * <p>
+ * Instead of one {@link Quake} object per event, every field is kept in its own array:
+ * magnitudes and times as primitives, strings as codes into a {@link StringPool} so repeated
+ * strings are stored once. Rows are read by index, which is all a list adapter needs, so no
+ * per-event object has to be created to display the data.
+ * <p>
+ * Whole places and URLs hardly ever repeat, but their parts do, so the parts are pooled:
+ * <ul>
+ * <li>a place is split once, when the row is added, into its offset ("74km NW of") and its
+ * primary location (" Rumoi, Japan"). Both come back from a few hundred distinct strings,
+ * and they are the strings the list shows;</li>
+ * <li>a URL is split after its last '/', into a prefix all the URLs share and a suffix,
+ * which is the event id itself for USGS event pages.</li>
+ * </ul>
+ * {@link #getPlace(int)} and {@link #getUrl(int)} put the parts back together on each call.
+ * <p>
+ * A table is filled straight from the parser (it is a {@link QuakeJsonParser.Handler}).
+ * The strings shown in the list are computed once by {@link #prepareDisplay(QuakeFormatter)},
+ * off the UI thread, so binding a row only has to read them.
+ * Tables are not thread-safe; a table handed over to the UI must only be touched on the
+ * main thread from then on.
+ */
+public final class QuakeTable implements QuakeJsonParser.Handler {
+
+    /**
+     * Told about the rows changed by {@link #merge}, e.g. to animate them.
+     */
+    public interface MergeListener {
+        void onRowInserted(int position);
+
+        void onRowMoved(int fromPosition, int toPosition);
+
+        void onRowChanged(int position);
+
+        void onRowRemoved(int position);
+    }
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Offset code of the places that have no offset
+     */
+    static final int NO_OFFSET = -1;
+
+    private final StringPool mOffsets;
+    private final StringPool mPrimaries;
+    private final StringPool mUrlPrefixes;
+    // The formatted magnitudes, dates and times, which repeat from row to row
+    private final StringPool mTexts = new StringPool();
+
+    private int mSize;
+    private String[] mIds;
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    // NO_OFFSET for places without an offset
+    private int[] mOffsetCodes;
+    private int[] mPrimaryCodes;
+    private int[] mUrlPrefixCodes;
+    // The id of the row itself (the same instance) for the URLs ending with it
+    private String[] mUrlSuffixes;
+    // NaN for events without a location
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private double[] mDepths;
+    // 0 when unknown, only responses carry it
+    private long[] mUpdatedTimes;
+
+    // Display strings of the rows before mPreparedCount, see prepareDisplay()
+    private int mPreparedCount;
+    private String mNoOffsetText;
+    private String[] mMagnitudeTexts;
+    private String[] mDateTexts;
+    private String[] mTimeTexts;
+
+    // Row of each event id, built on first use and dropped when rows move
+    private HashMap<String, Integer> mIdIndex;
+
+    public QuakeTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public QuakeTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mOffsets = new StringPool();
+        mPrimaries = new StringPool();
+        mUrlPrefixes = new StringPool();
+        mIds = new String[capacity];
+        mMagnitudes = new double[capacity];
+        mTimes = new long[capacity];
+        mOffsetCodes = new int[capacity];
+        mPrimaryCodes = new int[capacity];
+        mUrlPrefixCodes = new int[capacity];
+        mUrlSuffixes = new String[capacity];
+        mLatitudes = new double[capacity];
+        mLongitudes = new double[capacity];
+        mDepths = new double[capacity];
+        mUpdatedTimes = new long[capacity];
+        mMagnitudeTexts = new String[capacity];
+        mDateTexts = new String[capacity];
+        mTimeTexts = new String[capacity];
+    }
+
+    /**
+     * Create a table around columns that were read in bulk, e.g. from a {@link QuakeSnapshot}.
+     * The arrays are used as is, not copied, and must all have one element per row.
+     */
+    QuakeTable(String[] ids, double[] magnitudes, long[] times, StringPool offsets, int[] offsetCodes,
+               StringPool primaries, int[] primaryCodes, StringPool urlPrefixes, int[] urlPrefixCodes,
+               String[] urlSuffixes, double[] latitudes, double[] longitudes, double[] depths) {
+        int capacity = Math.max(ids.length, 1);
+        mSize = ids.length;
+        mOffsets = offsets;
+        mPrimaries = primaries;
+        mUrlPrefixes = urlPrefixes;
+        mIds = mSize > 0 ? ids : new String[capacity];
+        mMagnitudes = mSize > 0 ? magnitudes : new double[capacity];
+        mTimes = mSize > 0 ? times : new long[capacity];
+        mOffsetCodes = mSize > 0 ? offsetCodes : new int[capacity];
+        mPrimaryCodes = mSize > 0 ? primaryCodes : new int[capacity];
+        mUrlPrefixCodes = mSize > 0 ? urlPrefixCodes : new int[capacity];
+        mUrlSuffixes = mSize > 0 ? urlSuffixes : new String[capacity];
+        mLatitudes = mSize > 0 ? latitudes : new double[capacity];
+        mLongitudes = mSize > 0 ? longitudes : new double[capacity];
+        mDepths = mSize > 0 ? depths : new double[capacity];
+        mUpdatedTimes = new long[capacity];
+        mMagnitudeTexts = new String[capacity];
+        mDateTexts = new String[capacity];
+        mTimeTexts = new String[capacity];
+    }
+
+    /**
+     * Return a table holding the given earthquakes, in the same order.
+     */
+    public static QuakeTable fromList(List<Quake> earthquakes) {
+        QuakeTable table = new QuakeTable(earthquakes.size());
+        for (Quake quake : earthquakes) {
+            table.add(quake.getId(), quake.getMagnitude(), quake.getLocation(),
+                    quake.getDateTime(), quake.getQuakeWebSite(), quake.getLatitude(),
+                    quake.getLongitude(), quake.getDepth());
+        }
+        return table;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public String getId(int index) {
+        return mIds[checkIndex(index)];
+    }
+
+    public double getMagnitude(int index) {
+        return mMagnitudes[checkIndex(index)];
+    }
+
+    public long getTime(int index) {
+        return mTimes[checkIndex(index)];
+    }
+
+    /**
+     * Return the place of the event, e.g. "74km NW of Rumoi, Japan". The string is put
+     * together on each call, the list should read the display strings instead.
+     */
+    public String getPlace(int index) {
+        String offset = getPlaceOffset(index);
+        String primary = getPlacePrimary(index);
+        return offset == null ? primary : offset + primary;
+    }
+
+    /**
+     * Return the USGS page of the event. The string is put together on each call.
+     */
+    public String getUrl(int index) {
+        return getUrlPrefix(index) + getUrlSuffix(index);
+    }
+
+    /**
+     * Return the offset part of the place, e.g. "74km NW of", null if the place has none.
+     */
+    String getPlaceOffset(int index) {
+        int code = mOffsetCodes[checkIndex(index)];
+        return code == NO_OFFSET ? null : mOffsets.decode(code);
+    }
+
+    /**
+     * Return the primary location of the place, e.g. " Rumoi, Japan", or the whole place if
+     * it has no offset.
+     */
+    String getPlacePrimary(int index) {
+        return mPrimaries.decode(mPrimaryCodes[checkIndex(index)]);
+    }
+
+    /**
+     * Return the URL up to its last '/', included.
+     */
+    String getUrlPrefix(int index) {
+        return mUrlPrefixes.decode(mUrlPrefixCodes[checkIndex(index)]);
+    }
+
+    /**
+     * Return the URL after its last '/', the id of the event for USGS event pages.
+     */
+    String getUrlSuffix(int index) {
+        return mUrlSuffixes[checkIndex(index)];
+    }
+
+    /**
+     * Return whether the given row has the same place and URL as a row of another table,
+     * without putting the strings together.
+     */
+    public boolean hasSamePlaceAndUrl(int index, QuakeTable other, int otherIndex) {
+        String offset = getPlaceOffset(index);
+        String otherOffset = other.getPlaceOffset(otherIndex);
+        return (offset == null ? otherOffset == null : offset.equals(otherOffset))
+                && getPlacePrimary(index).equals(other.getPlacePrimary(otherIndex))
+                && getUrlPrefix(index).equals(other.getUrlPrefix(otherIndex))
+                && getUrlSuffix(index).equals(other.getUrlSuffix(otherIndex));
+    }
+
+    /**
+     * Return the latitude of the epicenter in degrees, NaN if the event has no location.
+     */
+    public double getLatitude(int index) {
+        return mLatitudes[checkIndex(index)];
+    }
+
+    /**
+     * Return the longitude of the epicenter in degrees, NaN if the event has no location.
+     */
+    public double getLongitude(int index) {
+        return mLongitudes[checkIndex(index)];
+    }
+
+    /**
+     * Return the depth of the hypocenter in kilometers, NaN if the event has no location.
+     */
+    public double getDepth(int index) {
+        return mDepths[checkIndex(index)];
+    }
+
+    /**
+     * Return when USGS last changed the event, 0 if unknown (e.g. for rows read from the cache).
+     */
+    public long getUpdated(int index) {
+        return mUpdatedTimes[checkIndex(index)];
+    }
+
+    /**
+     * Return true if the display strings of the given row have been prepared.
+     */
+    public boolean isDisplayPrepared(int index) {
+        return index < mPreparedCount;
+    }
+
+    public String getMagnitudeText(int index) {
+        return mMagnitudeTexts[checkIndex(index)];
+    }
+
+    public String getLocationOffsetText(int index) {
+        String offset = getPlaceOffset(index);
+        return offset == null && isDisplayPrepared(index) ? mNoOffsetText : offset;
+    }
+
+    public String getPrimaryLocationText(int index) {
+        return isDisplayPrepared(index) ? getPlacePrimary(index) : null;
+    }
+
+    public String getDateText(int index) {
+        return mDateTexts[checkIndex(index)];
+    }
+
+    public String getTimeText(int index) {
+        return mTimeTexts[checkIndex(index)];
+    }
+
+    /**
+     * Compute the display strings of every row that does not have them yet. Meant to be
+     * called on a background thread, right after the rows were loaded.
+     */
+    public void prepareDisplay(QuakeFormatter formatter) {
+        prepareDisplay(formatter, mSize);
+    }
+
+    /**
+     * Compute the display strings of the first {@code count} rows, e.g. only the rows of the
+     * first screen when the UI thread has to do it.
+     */
+    public void prepareDisplay(QuakeFormatter formatter, int count) {
+        count = Math.min(count, mSize);
+        // The location strings are the parts of the place, split when the row was added
+        mNoOffsetText = formatter.getNoOffsetText();
+        for (int i = mPreparedCount; i < count; i++) {
+            // Pooled, so the rows of a day share one date string, and so on
+            mMagnitudeTexts[i] = intern(formatter.formatMagnitude(mMagnitudes[i]));
+            mDateTexts[i] = intern(formatter.formatDate(mTimes[i]));
+            mTimeTexts[i] = intern(formatter.formatTime(mTimes[i]));
+        }
+        mPreparedCount = Math.max(mPreparedCount, count);
+    }
+
+    /**
+     * Create a {@link Quake} object for the given row. Only meant for code that needs one
+     * event at a time, lists should read the columns directly.
+     */
+    public Quake getQuake(int index) {
+        return new Quake(getId(index), getMagnitude(index), getPlace(index), getTime(index), getUrl(index),
+                getLatitude(index), getLongitude(index), getDepth(index));
+    }
+
+    /**
+     * Append an event without a location.
+     */
+    public void add(String id, double magnitude, String place, long time, String url) {
+        add(id, magnitude, place, time, url, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    public void add(String id, double magnitude, String place, long time, String url,
+                    double latitude, double longitude, double depth) {
+        ensureCapacity(mSize + 1);
+        if (mIdIndex != null) {
+            mIdIndex.put(id, mSize);
+        }
+        mIds[mSize] = id;
+        mMagnitudes[mSize] = magnitude;
+        mTimes[mSize] = time;
+
+        int split = QuakeFormatter.locationSplit(place);
+        if (split < 0) {
+            mOffsetCodes[mSize] = NO_OFFSET;
+            mPrimaryCodes[mSize] = mPrimaries.encode(place);
+        } else {
+            mOffsetCodes[mSize] = mOffsets.encode(place.substring(0, split));
+            mPrimaryCodes[mSize] = mPrimaries.encode(place.substring(split));
+        }
+
+        int prefixLength = url.lastIndexOf('/') + 1;
+        mUrlPrefixCodes[mSize] = mUrlPrefixes.encode(url.substring(0, prefixLength));
+        if (url.length() - prefixLength == id.length() && url.startsWith(id, prefixLength)) {
+            // No string of its own for the suffix
+            mUrlSuffixes[mSize] = id;
+        } else {
+            mUrlSuffixes[mSize] = url.substring(prefixLength);
+        }
+
+        mLatitudes[mSize] = latitude;
+        mLongitudes[mSize] = longitude;
+        mDepths[mSize] = depth;
+        mUpdatedTimes[mSize] = 0;
+        mSize++;
+    }
+
+    /**
+     * Append every row of the other table to this one.
+     */
+    public void addAll(QuakeTable other) {
+        ensureCapacity(mSize + other.mSize);
+        // The display strings come along, for as long as both tables have them
+        for (int i = 0; i < other.mSize; i++) {
+            insert(mSize, other, i);
+        }
+    }
+
+    /**
+     * Return an independent copy of this table. The strings themselves are shared.
+     */
+    public QuakeTable copy() {
+        QuakeTable copy = new QuakeTable(mSize);
+        copy.addAll(this);
+        return copy;
+    }
+
+    /**
+     * Return the row of the event with the given id, or -1 if the table does not have it.
+     */
+    public int indexOfId(String id) {
+        if (mIdIndex == null) {
+            mIdIndex = new HashMap<>(mSize * 2);
+            for (int i = 0; i < mSize; i++) {
+                mIdIndex.put(mIds[i], i);
+            }
+        }
+        Integer index = mIdIndex.get(id);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Overwrite the given row with a row of another table, display strings included.
+     */
+    public void set(int index, QuakeTable source, int sourceIndex) {
+        checkIndex(index);
+        if (mIdIndex != null) {
+            mIdIndex.remove(mIds[index]);
+            mIdIndex.put(source.mIds[sourceIndex], index);
+        }
+        copyRow(index, source, sourceIndex);
+    }
+
+    /**
+     * Insert a row of another table at the given position, shifting the following rows down.
+     */
+    public void insert(int index, QuakeTable source, int sourceIndex) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+        ensureCapacity(mSize + 1);
+        if (index == mSize && mIdIndex != null) {
+            // Appending, no other row moves
+            mIdIndex.put(source.mIds[sourceIndex], index);
+        } else {
+            mIdIndex = null;
+        }
+        moveRows(index, index + 1, mSize - index);
+        mSize++;
+        if (mPreparedCount >= index) {
+            mPreparedCount++;
+        }
+        copyRow(index, source, sourceIndex);
+    }
+
+    /**
+     * Append the rows of another table whose event is not in this table yet, e.g. a page of
+     * results that synced events pushed down. Return the number of rows appended.
+     */
+    public int appendNew(QuakeTable source) {
+        int start = mSize;
+        for (int i = 0; i < source.mSize; i++) {
+            if (indexOfId(source.mIds[i]) < 0) {
+                insert(mSize, source, i);
+            }
+        }
+        return mSize - start;
+    }
+
+    /**
+     * Merge events that were added or updated since the table was loaded. Known events are
+     * updated in place (and moved if their sort key changed), new ones are inserted where
+     * they belong in the given order.
+     *
+     * @param orderBy  the order of this table, see {@link #insertionIndex}
+     * @param complete whether the table holds every result of its query. If it doesn't, new
+     *                 events sorting after the last row are left for the next page to bring.
+     * @param listener told about every row that changed, may be null
+     */
+    public void merge(QuakeTable delta, String orderBy, boolean complete, MergeListener listener) {
+        // The row of each delta event, -1 if the table doesn't have it. Looked up once, then
+        // kept up to date as rows move, instead of rebuilding the id index for every row.
+        int[] positions = new int[delta.mSize];
+        // The previous delta row of the same event, -1 if none
+        int[] previous = new int[delta.mSize];
+        HashMap<String, Integer> lastOfId = new HashMap<>(delta.mSize * 2);
+        for (int i = 0; i < delta.mSize; i++) {
+            positions[i] = indexOfId(delta.mIds[i]);
+            Integer last = lastOfId.put(delta.mIds[i], i);
+            previous[i] = last == null ? -1 : last;
+        }
+
+        for (int i = 0; i < delta.mSize; i++) {
+            int oldPosition = previous[i] >= 0 ? positions[previous[i]] : positions[i];
+            if (oldPosition >= 0) {
+                remove(oldPosition);
+                shiftPositions(positions, oldPosition, -1);
+            }
+            int newPosition = insertionIndex(delta, i, orderBy);
+            if (newPosition == mSize && !complete) {
+                positions[i] = -1;
+                if (oldPosition >= 0 && listener != null) {
+                    listener.onRowRemoved(oldPosition);
+                }
+                continue;
+            }
+            insert(newPosition, delta, i);
+            shiftPositions(positions, newPosition, 1);
+            positions[i] = newPosition;
+            if (listener == null) {
+                continue;
+            }
+            if (oldPosition < 0) {
+                listener.onRowInserted(newPosition);
+            } else {
+                if (oldPosition != newPosition) {
+                    listener.onRowMoved(oldPosition, newPosition);
+                }
+                listener.onRowChanged(newPosition);
+            }
+        }
+    }
+
+    /**
+     * Remove the given row, shifting the following rows up.
+     */
+    public void remove(int index) {
+        checkIndex(index);
+        moveRows(index + 1, index, mSize - index - 1);
+        mSize--;
+        mIdIndex = null;
+        if (mPreparedCount > index) {
+            mPreparedCount--;
+        }
+    }
+
+    /**
+     * Return where a row of another table goes in this table, assuming this table is sorted
+     * by the given USGS {@code orderby} value ("time", "time-asc", "magnitude" or "magnitude-asc").
+     * Rows that compare equal keep their order, the new row goes after them.
+     */
+    public int insertionIndex(QuakeTable source, int sourceIndex, String orderBy) {
+        boolean byMagnitude = orderBy != null && orderBy.startsWith("magnitude");
+        boolean ascending = orderBy != null && orderBy.endsWith("-asc");
+        double key = byMagnitude ? source.mMagnitudes[sourceIndex] : source.mTimes[sourceIndex];
+
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            double middleKey = byMagnitude ? mMagnitudes[middle] : mTimes[middle];
+            boolean before = ascending ? middleKey <= key : middleKey >= key;
+            if (before) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void onFeature(QuakeJsonParser.Feature feature) {
+        add(feature.id, feature.magnitude, feature.place, feature.time, feature.url,
+                feature.latitude, feature.longitude, feature.depth);
+        mUpdatedTimes[mSize - 1] = feature.updated;
+    }
+
+    /**
+     * Follow a row inserted (by 1) or removed (by -1) at the given position in the positions
+     * of {@link #merge}. The positions of a removed row become -1.
+     */
+    private static void shiftPositions(int[] positions, int position, int by) {
+        for (int i = 0; i < positions.length; i++) {
+            if (positions[i] > position || (positions[i] == position && by > 0)) {
+                positions[i] += by;
+            } else if (positions[i] == position) {
+                positions[i] = -1;
+            }
+        }
+    }
+
+    private void copyRow(int index, QuakeTable source, int sourceIndex) {
+        // Strings are copied as codes of this table's pools, no string is put together
+        mIds[index] = source.mIds[sourceIndex];
+        mMagnitudes[index] = source.mMagnitudes[sourceIndex];
+        mTimes[index] = source.mTimes[sourceIndex];
+        int offsetCode = source.mOffsetCodes[sourceIndex];
+        mOffsetCodes[index] = offsetCode == NO_OFFSET ? NO_OFFSET : mOffsets.encode(source.mOffsets.decode(offsetCode));
+        mPrimaryCodes[index] = mPrimaries.encode(source.mPrimaries.decode(source.mPrimaryCodes[sourceIndex]));
+        mUrlPrefixCodes[index] = mUrlPrefixes.encode(source.mUrlPrefixes.decode(source.mUrlPrefixCodes[sourceIndex]));
+        mUrlSuffixes[index] = source.mUrlSuffixes[sourceIndex];
+        mLatitudes[index] = source.mLatitudes[sourceIndex];
+        mLongitudes[index] = source.mLongitudes[sourceIndex];
+        mDepths[index] = source.mDepths[sourceIndex];
+        mUpdatedTimes[index] = source.mUpdatedTimes[sourceIndex];
+        mMagnitudeTexts[index] = source.mMagnitudeTexts[sourceIndex];
+        mDateTexts[index] = source.mDateTexts[sourceIndex];
+        mTimeTexts[index] = source.mTimeTexts[sourceIndex];
+        if (mNoOffsetText == null) {
+            mNoOffsetText = source.mNoOffsetText;
+        }
+        if (!source.isDisplayPrepared(sourceIndex) && index < mPreparedCount) {
+            // The next prepareDisplay() starts over from this row
+            mPreparedCount = index;
+        }
+    }
+
+    private void moveRows(int from, int to, int count) {
+        if (count <= 0) {
+            return;
+        }
+        System.arraycopy(mIds, from, mIds, to, count);
+        System.arraycopy(mMagnitudes, from, mMagnitudes, to, count);
+        System.arraycopy(mTimes, from, mTimes, to, count);
+        System.arraycopy(mOffsetCodes, from, mOffsetCodes, to, count);
+        System.arraycopy(mPrimaryCodes, from, mPrimaryCodes, to, count);
+        System.arraycopy(mUrlPrefixCodes, from, mUrlPrefixCodes, to, count);
+        System.arraycopy(mUrlSuffixes, from, mUrlSuffixes, to, count);
+        System.arraycopy(mLatitudes, from, mLatitudes, to, count);
+        System.arraycopy(mLongitudes, from, mLongitudes, to, count);
+        System.arraycopy(mDepths, from, mDepths, to, count);
+        System.arraycopy(mUpdatedTimes, from, mUpdatedTimes, to, count);
+        System.arraycopy(mMagnitudeTexts, from, mMagnitudeTexts, to, count);
+        System.arraycopy(mDateTexts, from, mDateTexts, to, count);
+        System.arraycopy(mTimeTexts, from, mTimeTexts, to, count);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length + (mIds.length >> 1));
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mMagnitudes = Arrays.copyOf(mMagnitudes, newCapacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mOffsetCodes = Arrays.copyOf(mOffsetCodes, newCapacity);
+        mPrimaryCodes = Arrays.copyOf(mPrimaryCodes, newCapacity);
+        mUrlPrefixCodes = Arrays.copyOf(mUrlPrefixCodes, newCapacity);
+        mUrlSuffixes = Arrays.copyOf(mUrlSuffixes, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mDepths = Arrays.copyOf(mDepths, newCapacity);
+        mUpdatedTimes = Arrays.copyOf(mUpdatedTimes, newCapacity);
+        mMagnitudeTexts = Arrays.copyOf(mMagnitudeTexts, newCapacity);
+        mDateTexts = Arrays.copyOf(mDateTexts, newCapacity);
+        mTimeTexts = Arrays.copyOf(mTimeTexts, newCapacity);
+    }
+
+    private String intern(String text) {
+        return mTexts.decode(mTexts.encode(text));
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches the earthquakes of a long time range as several smaller queries running at once.
+ * <p>
+ * One query covering months is a single long download, parsed on a single thread, and USGS
+ * rejects queries with more than {@link #USGS_MAX_RESULTS} results anyway. Instead the range
+ * is cut into windows ({@code starttime}/{@code endtime}), fetched and parsed in parallel on a
+ * bounded number of threads, and the sorted results of the windows are merged into one
+ * sorted table, without the events that fall on the boundary of two windows twice.
+ * A window USGS finds too big is split in two and fetched again.
+ * <p>
+ * The {@link QuakeRepository} fills the 30 days of the {@link QuakeCache} this way when a
+ * query is loaded for the first time.
+ */
+public final class QuakeWindowFetcher {
+
+    /** The most results USGS returns for one query */
+    public static final int USGS_MAX_RESULTS = 20000;
+
+    /** Windows are not split below this length */
+    private static final long MIN_WINDOW_MILLIS = 60 * 60 * 1000;
+
+    private final FetchScheduler mScheduler;
+    private final ExecutorService mExecutor;
+
+    // Guarded by this
+    private final ArrayList<FetchScheduler.Call> mCalls = new ArrayList<>();
+    private final ArrayList<Future<QuakeTable>> mFutures = new ArrayList<>();
+    private boolean mCancelled;
+
+    /**
+     * @param maxConcurrentWindows how many windows are fetched at the same time
+     */
+    public QuakeWindowFetcher(FetchScheduler scheduler, int maxConcurrentWindows) {
+        mScheduler = scheduler;
+        mExecutor = Executors.newFixedThreadPool(Math.max(1, maxConcurrentWindows));
+    }
+
+    /**
+     * Return the query for the events of the given query between two times, both included.
+     */
+    public static String buildWindowUrl(String queryUrl, long startTime, long endTime) {
+        // ISO times need no escaping in a query, and without Uri the fetcher also runs in
+        // the JVM tests
+        return queryUrl + (queryUrl.indexOf('?') < 0 ? '?' : '&')
+                + "starttime=" + QueryUtils.formatIsoTime(startTime)
+                + "&endtime=" + QueryUtils.formatIsoTime(endTime);
+    }
+
+    /**
+     * Fetch the earthquakes of the given query between two times, in windows of the given
+     * length, and return them in the order of the query. Blocks until every window is in.
+     *
+     * @param queryUrl     the USGS query, without time range or paging parameters
+     * @param orderBy      the {@code orderby} value of the query, used to merge the windows
+     * @param windowMillis the length of a window
+     * @throws InterruptedIOException if the fetch was cancelled
+     * @throws IOException            if a window could not be fetched
+     */
+    public QuakeTable fetch(final String queryUrl, long startTime, long endTime, long windowMillis,
+                            final String orderBy) throws IOException {
+        windowMillis = Math.max(windowMillis, MIN_WINDOW_MILLIS);
+        ArrayList<Future<QuakeTable>> futures = new ArrayList<>();
+        synchronized (this) {
+            if (mCancelled) {
+                throw new InterruptedIOException("Fetch cancelled");
+            }
+            for (long windowStart = startTime; windowStart < endTime; windowStart += windowMillis) {
+                final long start = windowStart;
+                final long end = Math.min(endTime, windowStart + windowMillis);
+                futures.add(mExecutor.submit(new Callable<QuakeTable>() {
+                    @Override
+                    public QuakeTable call() throws IOException {
+                        return fetchWindow(queryUrl, start, end, orderBy);
+                    }
+                }));
+            }
+            mFutures.addAll(futures);
+        }
+
+        QuakeTable[] windows = new QuakeTable[futures.size()];
+        try {
+            for (int i = 0; i < windows.length; i++) {
+                windows[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            throw new InterruptedIOException("Fetch interrupted");
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Fetch cancelled");
+        } catch (ExecutionException e) {
+            // No point in fetching the other windows, the result is incomplete anyway
+            cancel();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Problem fetching a window", e.getCause());
+        } finally {
+            for (Future<QuakeTable> future : futures) {
+                future.cancel(true);
+            }
+            synchronized (this) {
+                mFutures.removeAll(futures);
+            }
+        }
+        return merge(windows, orderBy);
+    }
+
+    /**
+     * Abort the fetch in progress, {@link #fetch} then throws an {@link InterruptedIOException}.
+     * The fetcher cannot be used afterwards.
+     */
+    public void cancel() {
+        ArrayList<FetchScheduler.Call> calls;
+        ArrayList<Future<QuakeTable>> futures;
+        synchronized (this) {
+            mCancelled = true;
+            calls = new ArrayList<>(mCalls);
+            futures = new ArrayList<>(mFutures);
+        }
+        for (FetchScheduler.Call call : calls) {
+            call.cancel();
+        }
+        // The windows still queued never run, their futures must not keep fetch() waiting
+        for (Future<QuakeTable> future : futures) {
+            future.cancel(true);
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Stop the threads of the fetcher once the fetch in progress, if any, is over.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private QuakeTable fetchWindow(String queryUrl, long startTime, long endTime, String orderBy)
+            throws IOException {
+        FetchScheduler.Call call = mScheduler.newCall(buildWindowUrl(queryUrl, startTime, endTime));
+        synchronized (this) {
+            if (mCancelled) {
+                throw new InterruptedIOException("Fetch cancelled");
+            }
+            mCalls.add(call);
+        }
+        try {
+            return call.execute();
+        } catch (QuakeHttpClient.HttpStatusException e) {
+            // USGS answers 400 to queries with too many results, ask for two halves instead
+            if (e.getResponseCode() != HttpURLConnection.HTTP_BAD_REQUEST
+                    || endTime - startTime < 2 * MIN_WINDOW_MILLIS) {
+                throw e;
+            }
+        } finally {
+            synchronized (this) {
+                mCalls.remove(call);
+            }
+        }
+        long middle = startTime + (endTime - startTime) / 2;
+        QuakeTable[] halves = {
+                fetchWindow(queryUrl, middle, endTime, orderBy),
+                fetchWindow(queryUrl, startTime, middle, orderBy)
+        };
+        // Each half is sorted in the order of the query, the merge needs to know which one
+        return merge(halves, orderBy);
+    }
+
+    /**
+     * Merge tables sorted in the given order into one sorted table, keeping the first row
+     * of every event id. Each step takes the best head row of the tables, so merging
+     * {@code k} tables of {@code n} rows in total costs {@code n log k} comparisons.
+     */
+    static QuakeTable merge(QuakeTable[] tables, String orderBy) {
+        boolean byMagnitude = orderBy != null && orderBy.startsWith("magnitude");
+        boolean ascending = orderBy != null && orderBy.endsWith("-asc");
+
+        int total = 0;
+        // Min-heap of the tables that have rows left, by their head row
+        int[] heap = new int[tables.length];
+        int heapSize = 0;
+        int[] heads = new int[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            total += tables[i].size();
+            if (!tables[i].isEmpty()) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, tables, heads, byMagnitude, ascending);
+            }
+        }
+
+        QuakeTable merged = new QuakeTable(total);
+        HashSet<String> seenIds = new HashSet<>(total * 2);
+        while (heapSize > 0) {
+            int table = heap[0];
+            int row = heads[table]++;
+            if (seenIds.add(tables[table].getId(row))) {
+                merged.insert(merged.size(), tables[table], row);
+            }
+            if (heads[table] == tables[table].size()) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, tables, heads, byMagnitude, ascending);
+        }
+        return merged;
+    }
+
+    /**
+     * Return true if the head row of table {@code a} goes before the one of table {@code b}.
+     * Ties go to the table listed first, so the merge is stable.
+     */
+    private static boolean before(int a, int b, QuakeTable[] tables, int[] heads,
+                                  boolean byMagnitude, boolean ascending) {
+        QuakeTable tableA = tables[a];
+        QuakeTable tableB = tables[b];
+        double keyA = byMagnitude ? tableA.getMagnitude(heads[a]) : tableA.getTime(heads[a]);
+        double keyB = byMagnitude ? tableB.getMagnitude(heads[b]) : tableB.getTime(heads[b]);
+        if (keyA != keyB) {
+            return ascending ? keyA < keyB : keyA > keyB;
+        }
+        return a < b;
+    }
+
+    private static void siftUp(int[] heap, int index, QuakeTable[] tables, int[] heads,
+                               boolean byMagnitude, boolean ascending) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(heap[index], heap[parent], tables, heads, byMagnitude, ascending)) {
+                return;
+            }
+            int swap = heap[index];
+            heap[index] = heap[parent];
+            heap[parent] = swap;
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, QuakeTable[] tables, int[] heads,
+                                 boolean byMagnitude, boolean ascending) {
+        int index = 0;
+        while (true) {
+            int best = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && before(heap[left], heap[best], tables, heads, byMagnitude, ascending)) {
+                best = left;
+            }
+            if (right < size && before(heap[right], heap[best], tables, heads, byMagnitude, ascending)) {
+                best = right;
+            }
+            if (best == index) {
+                return;
+            }
+            int swap = heap[index];
+            heap[index] = heap[best];
+            heap[best] = swap;
+            index = best;
+        }
+    }
+}
@@ -1,20 +1,17 @@
 package com.example.android.quakereport;
 
+import android.content.Context;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
@@ -23,6 +20,11 @@ public final class QueryUtils {
 
     public static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /** Path of the FDSN event query, under the base URL */
+    public static final String QUERY_PATH = "/fdsnws/event/1/query";
+    /** Path of the summary feeds, under the base URL */
+    public static final String SUMMARY_FEED_PATH = "/earthquakes/feed/v1.0/summary/";
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -31,161 +33,108 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
-    public static ArrayList<Quake> fetchQuakeData(String string) {
-
-        Log.v(LOG_TAG, "We are in fetchQuakeData method");
+    public static QuakeTable fetchQuakeData(String string) {
 
-        // 2 seconds delay
+        // Perform HTTP request to the URL and parse the JSON response while it is being received
+        QuakeTable earthquakes = new QuakeTable();
         try {
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        // Create URL object
-        URL url = createUrl(string);
-
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
-        try {
-            jsonResponse = makeHttpRequest(url);
+            earthquakes = requestQuakeData(string);
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Error closing input stream", e);
+            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
         }
 
-        // Extract relevant fields from the JSON response and create an {@link Event} object
-        return QueryUtils.extractEarthquakes(jsonResponse);
+        return earthquakes;
     }
 
     /**
-     * Returns new URL object from the given string URL.
+     * Same as {@link #fetchQuakeData(String)}, but a failed request is reported to the caller
+     * instead of coming back as an empty list. Callers that remember what they fetched
+     * (like the cache) need to tell "no new earthquakes" apart from "no answer".
      */
-    private static URL createUrl(String stringUrl) {
-        URL url = null;
-        try {
-            url = new URL(stringUrl);
-        } catch (MalformedURLException e) {
-            Log.e(LOG_TAG, "Error with creating URL ", e);
-        }
-        return url;
+    public static QuakeTable requestQuakeData(String string) throws IOException {
+        // Perform the HTTP request through the shared scheduler, which retries failures and
+        // joins identical requests that are already running
+        return FetchScheduler.getInstance().newCall(string).execute();
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Return the server every request goes to, without a trailing slash: USGS, unless the
+     * settings point the app to another server, e.g. a stand-in serving recorded responses.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
-        // If the URL is null, then return early.
-        if (url == null) {
-            return jsonResponse;
+    public static String getBaseUrl(Context context) {
+        String defaultUrl = context.getString(R.string.settings_server_url_default);
+        String baseUrl = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.settings_server_url_key), defaultUrl).trim();
+        if (baseUrl.isEmpty()) {
+            baseUrl = defaultUrl;
         }
-
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
-        try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
-            }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies than an IOException
-                // could be thrown.
-                inputStream.close();
-            }
+        while (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
         }
-        return jsonResponse;
+        return baseUrl;
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * Return the given time in the ISO 8601 form the FDSN time parameters take
+     * ({@code starttime}, {@code endtime}, {@code updatedafter}), in UTC.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
-        }
-        return output.toString();
+    public static String formatIsoTime(long time) {
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return isoFormat.format(new Date(time));
     }
 
     /**
-     * Return a list of {@link Quake} objects that has been built up from
-     * parsing a JSON response.
+     * Return a {@link QuakeTable} that has been built up from parsing a JSON response.
      */
-    public static ArrayList<Quake> extractEarthquakes(String jsonString) {
+    public static QuakeTable extractEarthquakes(String jsonString) {
 
-        // Create an empty ArrayList that we can start adding earthquakes to
-        ArrayList<Quake> earthquakeData = new ArrayList<>();
+        // Create an empty table that we can start adding earthquakes to
+        QuakeTable earthquakeData = new QuakeTable();
 
-        // Try to parse the SAMPLE_JSON_RESPONSE. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
+        if (jsonString == null) {
+            return earthquakeData;
+        }
+
+        // If there's a problem with the way the JSON is formatted, an IOException will be thrown.
         // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        // The earthquakes parsed before the error are still returned.
         try {
-
-            JSONObject quakeJsonObject = new JSONObject(jsonString);
-            JSONArray featureJsonArray = quakeJsonObject.getJSONArray("features");
-
-            for (int i = 0; i < featureJsonArray.length(); i++) {
-
-                // For a given earthquake, extract the JSONObject associated with the
-                // key called "properties", which represents a list of all properties
-                // for that earthquake.
-                JSONObject propertiesObject = featureJsonArray.getJSONObject(i).getJSONObject("properties");
-
-                // Could have extracted them all as strings, if we are not going to perform any operations on them
-                // Extract the values for the keys called "mag" "place "time" "url"
-                double mag = propertiesObject.getDouble("mag");
-                String place = propertiesObject.getString("place");
-                long time = propertiesObject.getLong("time");
-                String webSite = propertiesObject.getString("url");
-
-                // Create new Quake object using extracted data
-                // Add the new {@link Earthquake} to the list of earthquakes.
-                Quake quakeData = new Quake(mag, place, time, webSite);
-                earthquakeData.add(quakeData);
-
-                /**
-                 * Following line is equivalent, shorter and more concise
-                 earthquakes.add(new Quake(propertiesObject.getDouble("mag"),
-                 propertiesObject.getString("place"), propertiesObject.getInt("time")));
-                 */
-
-                // TODO: Parse the response given by the SAMPLE_JSON_RESPONSE string and
-                // build up a list of Earthquake objects with the corresponding data.
-            }
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+            QuakeJsonParser.parse(new StringReader(jsonString), earthquakeData);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
         }
 
-        // Return the list of earthquakes
+        // Return the table of earthquakes
         return earthquakeData;
     }
 
+    /**
+     * Save the given snapshot of a result set, so {@link #readSnapshot(File)} can show it
+     * on the next launch. A failure is only logged, the snapshot is an optimization.
+     */
+    public static void writeSnapshot(File file, QuakeSnapshot snapshot) {
+        try {
+            snapshot.write(file);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquake snapshot", e);
+        }
+    }
+
+    /**
+     * Return the snapshot saved by {@link #writeSnapshot(File, QuakeSnapshot)}, or null if
+     * there is none that this version of the app can read.
+     */
+    public static QuakeSnapshot readSnapshot(File file) {
+        try {
+            return QuakeSnapshot.read(file);
+        } catch (FileNotFoundException e) {
+            // First launch
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake snapshot", e);
+            file.delete();
+            return null;
+        }
+    }
 }
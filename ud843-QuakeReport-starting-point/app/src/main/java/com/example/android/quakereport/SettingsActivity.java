@@ -7,6 +7,7 @@ import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.widget.Toast;
 
 import java.util.prefs.PreferenceChangeListener;
 
@@ -30,12 +31,36 @@ public class SettingsActivity extends AppCompatActivity {
 
             Preference orderBy = findPreference(getString(R.string.settings_order_by_key));
             bindPreferenceSummaryToValue(orderBy);
+
+            Preference cacheTtl = findPreference(getString(R.string.settings_cache_ttl_key));
+            bindPreferenceSummaryToValue(cacheTtl);
+
+            Preference alertRules = findPreference(getString(R.string.settings_alert_rules_key));
+            bindPreferenceSummaryToValue(alertRules);
+
+            Preference serverUrl = findPreference(getString(R.string.settings_server_url_key));
+            bindPreferenceSummaryToValue(serverUrl);
         }
 
         @Override
         public boolean onPreferenceChange(Preference preference, Object value) {
             // The code in this method takes care of updating the displayed preference summary after it has been changed
             String stringValue = value.toString();
+            if (preference.getKey().equals(getString(R.string.settings_alert_rules_key))) {
+                try {
+                    QuakeAlertRule.parseAll(stringValue);
+                } catch (IllegalArgumentException e) {
+                    // Refuse the change, so the alerts keep the rules that were saved
+                    Toast.makeText(getActivity(), e.getMessage(), Toast.LENGTH_LONG).show();
+                    return false;
+                }
+            }
+            if (preference.getKey().equals(getString(R.string.settings_server_url_key))
+                    && !stringValue.isEmpty()
+                    && !stringValue.startsWith("http://") && !stringValue.startsWith("https://")) {
+                Toast.makeText(getActivity(), R.string.settings_server_url_invalid, Toast.LENGTH_LONG).show();
+                return false;
+            }
             preference.setSummary(stringValue);
 
             if (preference instanceof ListPreference) {
@@ -0,0 +1,63 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Dictionary encoding for repeated strings: each distinct string is stored once and
+ * referred to by a small int code.
+ */
+public final class StringPool {
+
+    // Built on the first encode() of a pool created from an array
+    private HashMap<String, Integer> mCodes;
+    private String[] mStrings;
+    private int mSize;
+
+    public StringPool() {
+        mCodes = new HashMap<>();
+        mStrings = new String[16];
+    }
+
+    /**
+     * Create a pool holding the given distinct strings, the code of each one being its
+     * index. The array is used as is, not copied.
+     */
+    public StringPool(String[] strings) {
+        mStrings = strings.length > 0 ? strings : new String[16];
+        mSize = strings.length;
+    }
+
+    /**
+     * Return the code of the given string, adding it to the pool if it is not there yet.
+     */
+    public int encode(String string) {
+        if (mCodes == null) {
+            mCodes = new HashMap<>(mSize * 2);
+            for (int i = 0; i < mSize; i++) {
+                mCodes.put(mStrings[i], i);
+            }
+        }
+        Integer code = mCodes.get(string);
+        if (code != null) {
+            return code;
+        }
+        if (mSize == mStrings.length) {
+            mStrings = Arrays.copyOf(mStrings, mSize + (mSize >> 1) + 1);
+        }
+        mStrings[mSize] = string;
+        mCodes.put(string, mSize);
+        return mSize++;
+    }
+
+    public String decode(int code) {
+        return mStrings[code];
+    }
+
+    /**
+     * Return the number of distinct strings in the pool.
+     */
+    public int size() {
+        return mSize;
+    }
+}
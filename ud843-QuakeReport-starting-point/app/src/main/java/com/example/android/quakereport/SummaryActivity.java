@@ -0,0 +1,164 @@
+package com.example.android.quakereport;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Shows the aggregates of the loaded earthquakes ({@link QuakeStats}): how many there are
+ * per magnitude and over the last hours and days, the strongest one and the rates.
+ * <p>
+ * The aggregates are kept by the feed of the current query, so opening the screen doesn't
+ * compute anything. While it is open, the feed goes on syncing and the screen follows.
+ */
+public class SummaryActivity extends AppCompatActivity implements QuakeStats.Listener {
+
+    private static final int HOURS = 24;
+    private static final int DAYS = 30;
+    private static final long WEEK_MILLIS = 7 * QuakeStats.DAY_MILLIS;
+
+    private QuakeRepository.Feed feed;
+    private QuakeSyncer syncer;
+    private QuakeFormatter formatter;
+    private int[] magnitudeColors;
+    private String[] magnitudeLabels;
+    private final SimpleDateFormat hourFormat = new SimpleDateFormat("h a");
+    private final SimpleDateFormat dayFormat = new SimpleDateFormat("MMM d");
+
+    private TextView countView;
+    private TextView maxView;
+    private TextView ratesView;
+    private LinearLayout magnitudeBars;
+    private LinearLayout hourBars;
+    private LinearLayout dayBars;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_summary);
+
+        countView = (TextView) findViewById(R.id.summary_count);
+        maxView = (TextView) findViewById(R.id.summary_max);
+        ratesView = (TextView) findViewById(R.id.summary_rates);
+        magnitudeBars = (LinearLayout) findViewById(R.id.summary_magnitude_bars);
+        hourBars = (LinearLayout) findViewById(R.id.summary_hour_bars);
+        dayBars = (LinearLayout) findViewById(R.id.summary_day_bars);
+
+        formatter = new QuakeFormatter(getString(R.string.no_offset_found));
+        magnitudeColors = QuakeAdapter.resolveMagnitudeColors(this);
+        magnitudeLabels = getResources().getStringArray(R.array.summary_magnitude_labels);
+
+        feed = QuakeRepository.getInstance(this).getCurrentFeed();
+        if (feed == null) {
+            // Opened from the list, which always has a feed, unless the process was restarted here
+            finish();
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (feed == null) {
+            return;
+        }
+        feed.getStats().setListener(this);
+        showStats(feed.getStats());
+
+        // The list is stopped, keep the feed up to date from here
+        syncer = QuakeSyncer.forFeed(this, feed);
+        syncer.start();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (feed == null) {
+            return;
+        }
+        syncer.stop();
+        syncer = null;
+        feed.getStats().setListener(null);
+    }
+
+    @Override
+    public void onStatsChanged(QuakeStats stats) {
+        showStats(stats);
+    }
+
+    private void showStats(QuakeStats stats) {
+        long now = System.currentTimeMillis();
+
+        countView.setText(getResources().getQuantityString(R.plurals.summary_count, stats.getCount(), stats.getCount()));
+        double maxMagnitude = stats.getMaxMagnitude();
+        maxView.setVisibility(Double.isNaN(maxMagnitude) ? View.GONE : View.VISIBLE);
+        if (!Double.isNaN(maxMagnitude)) {
+            maxView.setText(getString(R.string.summary_max, formatter.formatMagnitude(maxMagnitude)));
+        }
+        ratesView.setText(getString(R.string.summary_rates,
+                stats.getRatePerHour(now, QuakeStats.HOUR_MILLIS),
+                stats.getRatePerHour(now, QuakeStats.DAY_MILLIS),
+                stats.getRatePerHour(now, WEEK_MILLIS)));
+
+        int[] bucketCounts = new int[QuakeFormatter.MAGNITUDE_BUCKETS];
+        for (int i = 0; i < bucketCounts.length; i++) {
+            bucketCounts[i] = stats.getBucketCount(i);
+        }
+        showBars(magnitudeBars, magnitudeLabels, bucketCounts, magnitudeColors);
+
+        int[] hourCounts = stats.getHourlyCounts(now, HOURS);
+        String[] hourLabels = new String[HOURS];
+        for (int i = 0; i < HOURS; i++) {
+            hourLabels[i] = hourFormat.format(new Date(now - (HOURS - 1 - i) * QuakeStats.HOUR_MILLIS));
+        }
+        showBars(hourBars, hourLabels, hourCounts, null);
+
+        int[] dayCounts = stats.getDailyCounts(now, DAYS);
+        String[] dayLabels = new String[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            dayLabels[i] = dayFormat.format(new Date(now - (DAYS - 1 - i) * QuakeStats.DAY_MILLIS));
+        }
+        showBars(dayBars, dayLabels, dayCounts, null);
+    }
+
+    /**
+     * Show one bar per count in the given container, reusing the bars already there.
+     *
+     * @param colors the colour of each bar, or null to keep the accent colour
+     */
+    private void showBars(LinearLayout container, String[] labels, int[] counts, int[] colors) {
+        int maxCount = 1;
+        for (int count : counts) {
+            maxCount = Math.max(maxCount, count);
+        }
+
+        LayoutInflater inflater = LayoutInflater.from(this);
+        while (container.getChildCount() < counts.length) {
+            container.addView(inflater.inflate(R.layout.summary_bar, container, false));
+        }
+
+        for (int i = 0; i < counts.length; i++) {
+            View row = container.getChildAt(i);
+            ((TextView) row.findViewById(R.id.bar_label)).setText(labels[i]);
+            ((TextView) row.findViewById(R.id.bar_count)).setText(String.valueOf(counts[i]));
+
+            View bar = row.findViewById(R.id.bar);
+            if (colors != null) {
+                bar.setBackgroundColor(colors[i]);
+            }
+            setWeight(bar, counts[i]);
+            setWeight(row.findViewById(R.id.bar_space), maxCount - counts[i]);
+        }
+    }
+
+    private static void setWeight(View view, float weight) {
+        LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) view.getLayoutParams();
+        params.weight = weight;
+        view.setLayoutParams(params);
+    }
+}
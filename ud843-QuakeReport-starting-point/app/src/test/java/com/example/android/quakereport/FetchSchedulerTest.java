@@ -0,0 +1,367 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Retries, coalescing and cancellation of {@link FetchScheduler}, against a fake transport
+ * that answers each attempt with a table or an error, and can hold an attempt until the test
+ * releases it or the scheduler aborts its connection.
+ */
+public class FetchSchedulerTest {
+
+    private static final String URL = "http://example.com/fdsnws/event/1/query?format=geojson";
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void retriesServerErrorsUntilAnAttemptSucceeds() throws IOException {
+        FakeTransport transport = new FakeTransport(new HttpStatus(503), new HttpStatus(429), table(3));
+        QuakeTable quakes = scheduler(3, transport).newCall(URL).execute();
+        assertEquals(3, quakes.size());
+        assertEquals(3, transport.attempts.get());
+    }
+
+    @Test
+    public void retriesDroppedConnections() throws IOException {
+        FakeTransport transport = new FakeTransport(new IOException("Connection reset"), table(1));
+        assertEquals(1, scheduler(3, transport).newCall(URL).execute().size());
+        assertEquals(2, transport.attempts.get());
+    }
+
+    @Test
+    public void givesUpAfterTheLastAttempt() {
+        FakeTransport transport = new FakeTransport(new HttpStatus(503));
+        try {
+            scheduler(3, transport).newCall(URL).execute();
+            fail("Expected the last error");
+        } catch (IOException e) {
+            assertEquals(503, ((QuakeHttpClient.HttpStatusException) e).getResponseCode());
+        }
+        assertEquals(3, transport.attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        FakeTransport transport = new FakeTransport(new HttpStatus(400), table(1));
+        try {
+            scheduler(3, transport).newCall(URL).execute();
+            fail("Expected the 400");
+        } catch (IOException e) {
+            assertEquals(400, ((QuakeHttpClient.HttpStatusException) e).getResponseCode());
+        }
+        assertEquals(1, transport.attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryMalformedResponses() {
+        FakeTransport transport = new FakeTransport(FakeTransport.MALFORMED, table(1));
+        try {
+            scheduler(3, transport).newCall(URL).execute();
+            fail("Expected the parse error");
+        } catch (IOException e) {
+            assertTrue(e instanceof QuakeJsonParser.MalformedJsonException);
+        }
+        assertEquals(1, transport.attempts.get());
+    }
+
+    @Test
+    public void callsAfterAFetchEndedFetchAgain() throws IOException {
+        FakeTransport transport = new FakeTransport(table(1));
+        FetchScheduler scheduler = scheduler(3, transport);
+        scheduler.newCall(URL).execute();
+        scheduler.newCall(URL).execute();
+        assertEquals(2, transport.attempts.get());
+    }
+
+    @Test
+    public void concurrentCallsShareOneFetchAndGetTheirOwnTables() throws Exception {
+        QuakeTable response = table(2);
+        FakeTransport transport = new FakeTransport(response);
+        transport.hold();
+        FetchScheduler scheduler = scheduler(3, transport);
+
+        CallThread owner = new CallThread(scheduler.newCall(URL));
+        owner.start();
+        transport.awaitAttempt();
+        CallThread joiner = new CallThread(scheduler.newCall(URL));
+        joiner.start();
+        awaitWaiting(joiner);
+        transport.release();
+        owner.finish();
+        joiner.finish();
+
+        assertEquals(1, transport.attempts.get());
+        assertNull(owner.error);
+        assertNull(joiner.error);
+        assertNotSame(response, owner.result);
+        assertNotSame(response, joiner.result);
+        assertNotSame(owner.result, joiner.result);
+        // What one caller does to its table doesn't show in the others
+        owner.result.remove(0);
+        assertEquals(1, owner.result.size());
+        assertEquals(2, joiner.result.size());
+        assertEquals(2, response.size());
+    }
+
+    @Test
+    public void cancellingTheOnlyCallerAbortsTheConnection() throws Exception {
+        FakeTransport transport = new FakeTransport(table(1));
+        transport.hold();
+        FetchScheduler.Call call = scheduler(3, transport).newCall(URL);
+        CallThread caller = new CallThread(call);
+        caller.start();
+        transport.awaitAttempt();
+
+        call.cancel();
+        caller.finish();
+
+        assertTrue(caller.error instanceof InterruptedIOException);
+        assertTrue(transport.isDisconnected());
+        assertEquals(1, transport.attempts.get());
+    }
+
+    @Test
+    public void cancellingOneCallerKeepsTheFetchForTheOthers() throws Exception {
+        FakeTransport transport = new FakeTransport(table(1));
+        transport.hold();
+        FetchScheduler scheduler = scheduler(3, transport);
+        FetchScheduler.Call ownerCall = scheduler.newCall(URL);
+        CallThread owner = new CallThread(ownerCall);
+        owner.start();
+        transport.awaitAttempt();
+        CallThread joiner = new CallThread(scheduler.newCall(URL));
+        joiner.start();
+        awaitWaiting(joiner);
+
+        // The caller running the fetch leaves, the one waiting for it still gets the result
+        ownerCall.cancel();
+        assertFalse(transport.isDisconnected());
+        transport.release();
+        owner.finish();
+        joiner.finish();
+
+        assertTrue(owner.error instanceof InterruptedIOException);
+        assertNull(joiner.error);
+        assertEquals(1, joiner.result.size());
+        assertEquals(1, transport.attempts.get());
+    }
+
+    @Test
+    public void cancellingDuringTheWaitBeforeARetryStopsRetrying() throws Exception {
+        FakeTransport transport = new FakeTransport(new HttpStatus(503), table(1));
+        // A wait the test would notice
+        FetchScheduler scheduler = new FetchScheduler(3, 60000, 60000, transport);
+        FetchScheduler.Call call = scheduler.newCall(URL);
+        CallThread caller = new CallThread(call);
+        caller.start();
+        awaitWaiting(caller);
+        assertEquals(1, transport.attempts.get());
+
+        call.cancel();
+        caller.finish();
+
+        assertTrue(caller.error instanceof InterruptedIOException);
+        assertEquals(1, transport.attempts.get());
+    }
+
+    @Test
+    public void cancelledCallsDoNotStart() throws IOException {
+        FakeTransport transport = new FakeTransport(table(1));
+        FetchScheduler.Call call = scheduler(3, transport).newCall(URL);
+        call.cancel();
+        try {
+            call.execute();
+            fail("Expected the call to be cancelled");
+        } catch (InterruptedIOException e) {
+            assertEquals(0, transport.attempts.get());
+        }
+    }
+
+    @Test
+    public void retryDelayDoublesUpToTheMaximum() {
+        FetchScheduler scheduler = new FetchScheduler(10, 100, 1000, new FakeTransport(table(1)));
+        long[] expected = {100, 200, 400, 800, 1000, 1000};
+        for (int attempt = 1; attempt <= expected.length; attempt++) {
+            for (int i = 0; i < 50; i++) {
+                long delay = scheduler.retryDelayMillis(attempt);
+                // The upper half of the delay is random
+                assertTrue(delay >= expected[attempt - 1] / 2);
+                assertTrue(delay <= expected[attempt - 1]);
+            }
+        }
+        // No overflow far into the retries
+        assertTrue(scheduler.retryDelayMillis(100) <= 1000);
+    }
+
+    private static FetchScheduler scheduler(int maxAttempts, FetchScheduler.Transport transport) {
+        return new FetchScheduler(maxAttempts, 1, 1, transport);
+    }
+
+    private static QuakeTable table(int rows) {
+        QuakeTable table = new QuakeTable();
+        for (int i = 0; i < rows; i++) {
+            table.add("us" + i, 4.5, "10km N of Town, Country", 1467331200000L - i * 60000L,
+                    "https://earthquake.usgs.gov/earthquakes/eventpage/us" + i);
+        }
+        return table;
+    }
+
+    /**
+     * Wait until the thread waits, for a fetch or before a retry.
+     */
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The thread never waited");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Stands for an HTTP error answer in the fake's script.
+     */
+    private static final class HttpStatus {
+        final int code;
+
+        HttpStatus(int code) {
+            this.code = code;
+        }
+    }
+
+    private static final class FakeTransport implements FetchScheduler.Transport {
+
+        static final Object MALFORMED = new Object();
+
+        final AtomicInteger attempts = new AtomicInteger();
+        // One answer per attempt, the last one repeats
+        private final List<Object> mAnswers;
+        private final CountDownLatch mAttemptStarted = new CountDownLatch(1);
+        private final CountDownLatch mReleased = new CountDownLatch(1);
+        private volatile boolean mHeld;
+        private volatile FakeConnection mConnection;
+
+        FakeTransport(Object... answers) {
+            mAnswers = new ArrayList<>(Arrays.asList(answers));
+        }
+
+        /**
+         * Make the attempts wait for {@link #release()}, or for their connection to be aborted.
+         */
+        void hold() {
+            mHeld = true;
+        }
+
+        void release() {
+            mReleased.countDown();
+        }
+
+        void awaitAttempt() throws InterruptedException {
+            assertTrue(mAttemptStarted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        boolean isDisconnected() {
+            return mConnection != null && mConnection.disconnected;
+        }
+
+        @Override
+        public QuakeTable fetchQuakes(URL url, QuakeHttpClient.ConnectionCallback callback) throws IOException {
+            int attempt = attempts.incrementAndGet();
+            FakeConnection connection = new FakeConnection(url);
+            mConnection = connection;
+            callback.onConnectionOpened(connection);
+            mAttemptStarted.countDown();
+            if (mHeld) {
+                try {
+                    while (!mReleased.await(1, TimeUnit.MILLISECONDS)) {
+                        if (connection.disconnected) {
+                            throw new IOException("Socket closed");
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            Object answer = mAnswers.get(Math.min(attempt, mAnswers.size()) - 1);
+            if (answer == MALFORMED) {
+                QuakeJsonParser.parse(new StringReader("{\"features\":[{\"properties\":{\"mag\":"),
+                        new QuakeTable());
+            }
+            if (answer instanceof HttpStatus) {
+                throw new QuakeHttpClient.HttpStatusException(((HttpStatus) answer).code);
+            }
+            if (answer instanceof IOException) {
+                throw (IOException) answer;
+            }
+            return (QuakeTable) answer;
+        }
+    }
+
+    private static final class FakeConnection extends HttpURLConnection {
+
+        volatile boolean disconnected;
+
+        FakeConnection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void disconnect() {
+            disconnected = true;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void connect() {
+        }
+    }
+
+    private static final class CallThread extends Thread {
+
+        private final FetchScheduler.Call mCall;
+        volatile QuakeTable result;
+        volatile IOException error;
+
+        CallThread(FetchScheduler.Call call) {
+            mCall = call;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = mCall.execute();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        void finish() throws InterruptedException {
+            join(TIMEOUT_MILLIS);
+            assertFalse("The call never returned", isAlive());
+        }
+    }
+}
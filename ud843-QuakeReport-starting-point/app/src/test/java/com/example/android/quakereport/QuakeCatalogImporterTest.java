@@ -0,0 +1,148 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link QuakeCatalogImporter}: the same catalog, exported as GeoJSON and as CSV, imported
+ * in chunks of a few sizes down to a single byte, with the awkward parts of real exports:
+ * quotes, braces and commas in places, non-ASCII places, CRLF line ends and a byte order mark.
+ */
+public class QuakeCatalogImporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] BYTE_ORDER_MARK = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+    private static final int EVENT_COUNT = 300;
+    private static final int[] CHUNK_SIZES = {1, 100, 5000, 1024 * 1024};
+    private static final long START_TIME = TestResponses.START_TIME;
+
+    private static final String[] PLACES = {
+            "12km NNW of Ridgecrest, CA",
+            "The \"Big {one}\" [M5+], a 7\" crack",
+            "Back\\slash, Ca\u00f1on, Espa\u00f1a",
+            "Offshore"
+    };
+
+    @Test
+    public void importsGeoJsonInChunksOfAnySize() throws IOException {
+        byte[] geoJson = geoJson();
+        for (int chunkBytes : CHUNK_SIZES) {
+            assertImportsEveryEvent(geoJson, chunkBytes);
+        }
+    }
+
+    @Test
+    public void importsCsvInChunksOfAnySize() throws IOException {
+        byte[] csv = csv();
+        for (int chunkBytes : CHUNK_SIZES) {
+            assertImportsEveryEvent(csv, chunkBytes);
+        }
+    }
+
+    private static void assertImportsEveryEvent(byte[] catalog, int chunkBytes) throws IOException {
+        final List<QuakeCatalogImporter.Batch> batches = new ArrayList<>();
+        QuakeCatalogImporter importer = new QuakeCatalogImporter(3, chunkBytes);
+
+        int imported = importer.importCatalog(new ByteArrayInputStream(catalog), catalog.length,
+                new QuakeCatalogImporter.Sink() {
+                    @Override
+                    public void write(QuakeCatalogImporter.Batch batch) {
+                        batches.add(batch);
+                    }
+                }, null);
+
+        String message = "chunks of " + chunkBytes + " bytes";
+        assertEquals(message, EVENT_COUNT, imported);
+        int event = 0;
+        for (QuakeCatalogImporter.Batch batch : batches) {
+            for (int i = 0; i < batch.size(); i++, event++) {
+                String where = message + ", event " + event;
+                assertEquals(where, id(event), batch.getId(i));
+                assertEquals(where, PLACES[event % PLACES.length], batch.getPlace(i));
+                assertEquals(where, Double.parseDouble(magnitude(event)), batch.getMagnitude(i), 0);
+                assertEquals(where, time(event), batch.getTime(i));
+                assertEquals(where, QuakeCatalogImporter.EVENT_PAGE_URL + id(event), batch.getUrl(i));
+            }
+        }
+        assertEquals(message, EVENT_COUNT, event);
+    }
+
+    /**
+     * Return the catalog as GeoJSON, with a byte order mark and CRLF between the features,
+     * and brackets, braces and the word "features" in the strings around them.
+     */
+    private static byte[] geoJson() throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"title\":\"USGS \\\"features\\\" ")
+                .append("{all} [past day]\",\"count\":").append(EVENT_COUNT).append("},\"features\":[\r\n");
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            if (i > 0) {
+                json.append(",\r\n");
+            }
+            String place = PLACES[i % PLACES.length].replace("\\", "\\\\").replace("\"", "\\\"");
+            json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(magnitude(i))
+                    .append(",\"place\":\"").append(place)
+                    .append("\",\"time\":").append(time(i))
+                    .append(",\"url\":\"").append(QuakeCatalogImporter.EVENT_PAGE_URL).append(id(i))
+                    .append("\",\"title\":\"M ").append(magnitude(i))
+                    .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[-117.6,35.7,8.2]},\"id\":\"")
+                    .append(id(i)).append("\"}");
+        }
+        json.append("\r\n],\"bbox\":[-180,-90,0,180,90,100]}\r\n");
+        return withByteOrderMark(json.toString());
+    }
+
+    /**
+     * Return the catalog as CSV, in the columns of a USGS export, with a byte order mark
+     * and CRLF line ends.
+     */
+    private static byte[] csv() throws IOException {
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder csv = new StringBuilder();
+        csv.append("time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,updated,place,type,")
+                .append("horizontalError,depthError,magError,magNst,status,locationSource,magSource\r\n");
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            String time = isoFormat.format(new Date(time(i)));
+            String place = PLACES[i % PLACES.length];
+            if (place.indexOf(',') >= 0 || place.indexOf('"') >= 0) {
+                place = "\"" + place.replace("\"", "\"\"") + "\"";
+            }
+            csv.append(time).append(",35.7,-117.6,8.2,").append(magnitude(i)).append(",ml,24,57,0.05,0.17,ci,")
+                    .append(id(i)).append(',').append(time).append(',').append(place)
+                    .append(",earthquake,0.24,0.61,0.2,25,reviewed,ci,ci\r\n");
+        }
+        return withByteOrderMark(csv.toString());
+    }
+
+    private static byte[] withByteOrderMark(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(BYTE_ORDER_MARK);
+        bytes.write(text.getBytes(UTF_8));
+        return bytes.toByteArray();
+    }
+
+    private static String id(int event) {
+        return "ci" + (38000000 + event);
+    }
+
+    private static String magnitude(int event) {
+        return String.format(Locale.US, "%.2f", 0.5 + (event % 71) / 10.0);
+    }
+
+    private static long time(int event) {
+        return START_TIME - event * 61001L;
+    }
+}
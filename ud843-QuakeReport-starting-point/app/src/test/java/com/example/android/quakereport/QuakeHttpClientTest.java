@@ -0,0 +1,148 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * What {@link QuakeHttpClient} sends and receives, checked on the wire of a
+ * {@link TestHttpServer}: compressed responses, conditional requests and connection reuse.
+ */
+public class QuakeHttpClientTest {
+
+    private static final String QUERY = "/fdsnws/event/1/query?format=geojson&limit=200";
+    private static final String ETAG = "\"5cf7b0d2\"";
+    private static final String LAST_MODIFIED = "Fri, 01 Jul 2016 00:00:00 GMT";
+
+    private final QuakeHttpClient mClient = QuakeHttpClient.getInstance();
+    private TestHttpServer mServer;
+    private String mResponse;
+
+    @Before
+    public void setUp() throws IOException {
+        mClient.clearValidators();
+        mServer = new TestHttpServer();
+        mResponse = TestResponses.events(200);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void asksForGzipAndInflatesTheResponse() throws IOException {
+        mServer.enqueue(new TestHttpServer.Response(200, mResponse).gzip());
+
+        QuakeTable quakes = mClient.fetchQuakes(mServer.url(QUERY));
+
+        assertEquals(200, quakes.size());
+        assertEquals("us10000", quakes.getId(0));
+        TestHttpServer.Request request = mServer.getRequests().get(0);
+        assertEquals("gzip", request.getHeader("Accept-Encoding"));
+        // GeoJSON compresses very well, far less than a quarter of it goes over the wire
+        assertTrue(request.bodyBytes + " bytes sent", request.bodyBytes < mResponse.length() / 4);
+    }
+
+    @Test
+    public void readsUncompressedResponses() throws IOException {
+        mServer.enqueue(new TestHttpServer.Response(200, mResponse));
+
+        QuakeTable quakes = mClient.fetchQuakes(mServer.url(QUERY));
+
+        assertEquals(200, quakes.size());
+        assertEquals(mResponse.length(), mServer.getRequests().get(0).bodyBytes);
+    }
+
+    @Test
+    public void sendsTheValidatorsBackAndReusesTheParsedResultOn304() throws IOException {
+        mServer.enqueue(new TestHttpServer.Response(200, mResponse).gzip()
+                .header("ETag", ETAG).header("Last-Modified", LAST_MODIFIED));
+        mServer.enqueue(new TestHttpServer.Response(304, ""));
+
+        URL url = mServer.url(QUERY);
+        QuakeTable first = mClient.fetchQuakes(url);
+        // Callers are free to change their table, the remembered result must not follow
+        first.remove(0);
+        QuakeTable second = mClient.fetchQuakes(url);
+
+        List<TestHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertNull(requests.get(0).getHeader("If-None-Match"));
+        assertEquals(ETAG, requests.get(1).getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, requests.get(1).getHeader("If-Modified-Since"));
+        assertEquals(0, requests.get(1).bodyBytes);
+        assertEquals(200, second.size());
+        assertEquals("us10000", second.getId(0));
+    }
+
+    @Test
+    public void sendsNoValidatorsForResponsesThatHadNone() throws IOException {
+        mServer.enqueue(new TestHttpServer.Response(200, mResponse));
+        mServer.enqueue(new TestHttpServer.Response(200, mResponse));
+
+        URL url = mServer.url(QUERY);
+        mClient.fetchQuakes(url);
+        mClient.fetchQuakes(url);
+
+        TestHttpServer.Request second = mServer.getRequests().get(1);
+        assertNull(second.getHeader("If-None-Match"));
+        assertNull(second.getHeader("If-Modified-Since"));
+    }
+
+    @Test
+    public void forgetsTheValidatorsWhenCleared() throws IOException {
+        mServer.enqueue(new TestHttpServer.Response(200, mResponse).header("ETag", ETAG));
+        mServer.enqueue(new TestHttpServer.Response(200, mResponse).header("ETag", ETAG));
+
+        URL url = mServer.url(QUERY);
+        mClient.fetchQuakes(url);
+        mClient.clearValidators();
+        assertEquals(200, mClient.fetchQuakes(url).size());
+
+        assertNull(mServer.getRequests().get(1).getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void throwsTheStatusOfErrorResponses() {
+        mServer.enqueue(new TestHttpServer.Response(404, "Not found"));
+        try {
+            mClient.fetchQuakes(mServer.url(QUERY));
+            fail("Expected the 404");
+        } catch (IOException e) {
+            assertEquals(404, ((QuakeHttpClient.HttpStatusException) e).getResponseCode());
+        }
+    }
+
+    @Test
+    public void reusesOneConnectionForConsecutiveRequests() throws IOException {
+        URL url = mServer.url(QUERY);
+        mServer.enqueue(new TestHttpServer.Response(200, mResponse).gzip().header("ETag", ETAG));
+        mServer.enqueue(new TestHttpServer.Response(304, ""));
+        mServer.enqueue(new TestHttpServer.Response(503, "Service Temporarily Unavailable"));
+        mServer.enqueue(new TestHttpServer.Response(200, mResponse));
+
+        mClient.fetchQuakes(url);
+        mClient.fetchQuakes(url);
+        try {
+            mClient.fetchQuakes(mServer.url(QUERY + "&minmag=4"));
+            fail("Expected the 503");
+        } catch (QuakeHttpClient.HttpStatusException e) {
+            assertEquals(503, e.getResponseCode());
+        }
+        mClient.fetchQuakes(mServer.url(QUERY + "&minmag=5"));
+
+        // Every response, the error one too, was read to the end and the connection kept
+        assertEquals(4, mServer.getRequests().size());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link QuakeSpatialIndex#withinBox}: boxes that touch or cross the 180th meridian, and
+ * the whole world.
+ */
+public class QuakeSpatialIndexTest {
+
+    @Test
+    public void findsEveryEventInTheWholeWorld() {
+        QuakeSpatialIndex index = index("west", 10, -170, "middle", 0, 0, "east", -10, 170);
+
+        assertEquals(list("east", "middle", "west"), ids(index, index.withinBox(-90, -180, 90, 180)));
+        assertEquals(list("east", "middle", "west"), ids(index, index.withinBox(-90, -179.5, 90, 180)));
+        // Wider than the world is still the world
+        assertEquals(list("east", "middle", "west"), ids(index, index.withinBox(-90, -200, 90, 200)));
+    }
+
+    @Test
+    public void findsEventsInBoxesEndingAtTheAntimeridian() {
+        QuakeSpatialIndex index = index("dateline", 0, 180, "east", 0, 179.9, "west", 0, -179.9,
+                "middle", 0, 0);
+
+        assertEquals(list("dateline", "east"), ids(index, index.withinBox(-10, 170, 10, 180)));
+        assertEquals(list("dateline", "east", "middle"), ids(index, index.withinBox(-10, 0, 10, 180)));
+        assertEquals(list("west"), ids(index, index.withinBox(-10, -180, 10, -170)));
+        assertEquals(list("middle", "west"), ids(index, index.withinBox(-10, -180, 10, 0)));
+    }
+
+    @Test
+    public void findsEventsInBoxesCrossingTheAntimeridian() {
+        QuakeSpatialIndex index = index("dateline", 0, 180, "east", 0, 179.9, "west", 0, -179.9,
+                "middle", 0, 0);
+
+        assertEquals(list("dateline", "east", "west"), ids(index, index.withinBox(-10, 170, 10, -170)));
+        assertEquals(list("dateline", "east", "west"), ids(index, index.withinBox(-10, 179.5, 10, -179.5)));
+        assertEquals(list("dateline", "west"), ids(index, index.withinBox(-10, 179.95, 10, -179.5)));
+    }
+
+    @Test
+    public void findsWhatLookingAtEveryEventFinds() {
+        Random random = new Random(42);
+        QuakeSpatialIndex index = new QuakeSpatialIndex(5);
+        for (int i = 0; i < 2000; i++) {
+            // A few events exactly on the edges of the world and of the cells
+            double longitude = i % 20 == 0 ? 180 : i % 20 == 1 ? -180 : i % 20 == 2
+                    ? 5 * (random.nextInt(72) - 36) : random.nextDouble() * 360 - 180;
+            index.add("e" + i, random.nextDouble() * 180 - 90, longitude);
+        }
+        for (int i = 0; i < 500; i++) {
+            double south = random.nextDouble() * 180 - 90;
+            double north = south + random.nextDouble() * (90 - south);
+            double west = i % 5 == 0 ? -180 : random.nextDouble() * 360 - 180;
+            double east = i % 5 == 1 ? 180 : random.nextDouble() * 360 - 180;
+
+            List<String> expected = new ArrayList<>();
+            for (int entry = 0; entry < index.size(); entry++) {
+                double latitude = index.getLatitude(entry);
+                double longitude = index.getLongitude(entry);
+                boolean inLongitude = west > east
+                        ? longitude >= west || longitude <= east
+                        : longitude >= west && longitude <= east;
+                if (inLongitude && latitude >= south && latitude <= north) {
+                    expected.add(index.getId(entry));
+                }
+            }
+            Collections.sort(expected);
+
+            assertEquals("box " + south + ", " + west + ", " + north + ", " + east,
+                    expected, ids(index, index.withinBox(south, west, north, east)));
+        }
+    }
+
+    /**
+     * Return an index of the given ids, latitudes and longitudes.
+     */
+    private static QuakeSpatialIndex index(Object... idsAndLocations) {
+        QuakeSpatialIndex index = new QuakeSpatialIndex();
+        for (int i = 0; i < idsAndLocations.length; i += 3) {
+            index.add((String) idsAndLocations[i], ((Number) idsAndLocations[i + 1]).doubleValue(),
+                    ((Number) idsAndLocations[i + 2]).doubleValue());
+        }
+        return index;
+    }
+
+    /**
+     * Return the sorted ids of the given entries.
+     */
+    private static List<String> ids(QuakeSpatialIndex index, int[] entries) {
+        List<String> ids = new ArrayList<>();
+        for (int entry : entries) {
+            ids.add(index.getId(entry));
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static List<String> list(String... ids) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+}
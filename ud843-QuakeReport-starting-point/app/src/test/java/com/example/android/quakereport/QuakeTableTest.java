@@ -0,0 +1,133 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link QuakeTable#merge}: where merged rows end up, what the listener is told, and the id
+ * index afterwards.
+ */
+public class QuakeTableTest {
+
+    @Test
+    public void insertsNewEventsWhereTheyBelong() {
+        QuakeTable quakes = table("a", 50, "b", 40, "c", 30);
+        List<String> changes = new ArrayList<>();
+
+        quakes.merge(table("d", 60, "e", 35), "time", true, recorder(changes));
+
+        assertEquals(Arrays.asList("d", "a", "b", "e", "c"), ids(quakes));
+        assertEquals(Arrays.asList("inserted 0", "inserted 3"), changes);
+    }
+
+    @Test
+    public void movesUpdatedEventsAndTellsWhereFrom() {
+        QuakeTable quakes = table("a", 50, "b", 40, "c", 30, "d", 20);
+        List<String> changes = new ArrayList<>();
+
+        quakes.merge(table("c", 45, "a", 50), "time", true, recorder(changes));
+
+        assertEquals(Arrays.asList("a", "c", "b", "d"), ids(quakes));
+        assertEquals(45, quakes.getTime(1));
+        assertEquals(Arrays.asList("moved 2 to 1", "changed 1", "changed 0"), changes);
+    }
+
+    @Test
+    public void mergesAnEventListedTwiceOnce() {
+        QuakeTable quakes = table("a", 50, "b", 40);
+        List<String> changes = new ArrayList<>();
+
+        quakes.merge(table("c", 45, "b", 60, "c", 10), "time", true, recorder(changes));
+
+        assertEquals(Arrays.asList("b", "a", "c"), ids(quakes));
+        assertEquals(10, quakes.getTime(2));
+        assertEquals(Arrays.asList("inserted 1", "moved 2 to 0", "changed 0", "changed 2"), changes);
+    }
+
+    @Test
+    public void leavesEventsAfterAnIncompleteTableForTheNextPage() {
+        QuakeTable quakes = table("a", 50, "b", 40);
+        List<String> changes = new ArrayList<>();
+
+        quakes.merge(table("c", 10, "a", 5), "time", false, recorder(changes));
+
+        assertEquals(Arrays.asList("b"), ids(quakes));
+        assertEquals(Arrays.asList("removed 0"), changes);
+    }
+
+    @Test
+    public void findsEveryRowByIdAfterAMerge() {
+        QuakeTable quakes = table("a", 50, "b", 40, "c", 30, "d", 20);
+        quakes.indexOfId("a");
+
+        quakes.merge(table("e", 55, "c", 60, "b", 15, "f", 25), "time", true, null);
+
+        for (int i = 0; i < quakes.size(); i++) {
+            assertEquals(i, quakes.indexOfId(quakes.getId(i)));
+        }
+        assertEquals(-1, quakes.indexOfId("g"));
+    }
+
+    @Test
+    public void keepsTheOrderOfMagnitudes() {
+        QuakeTable quakes = new QuakeTable();
+        quakes.add("a", 6.1, "Place", 1, "https://example.com/a");
+        quakes.add("b", 4.5, "Place", 2, "https://example.com/b");
+        QuakeTable delta = new QuakeTable();
+        delta.add("c", 5.0, "Place", 3, "https://example.com/c");
+        delta.add("a", 3.2, "Place", 1, "https://example.com/a");
+
+        quakes.merge(delta, "magnitude", true, null);
+
+        assertEquals(Arrays.asList("c", "b", "a"), ids(quakes));
+    }
+
+    /**
+     * Return a table of the given ids and times.
+     */
+    private static QuakeTable table(Object... idsAndTimes) {
+        QuakeTable table = new QuakeTable();
+        for (int i = 0; i < idsAndTimes.length; i += 2) {
+            String id = (String) idsAndTimes[i];
+            table.add(id, 4.5, "10km N of Town, Country", (Integer) idsAndTimes[i + 1], "https://example.com/" + id);
+        }
+        return table;
+    }
+
+    private static List<String> ids(QuakeTable table) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < table.size(); i++) {
+            ids.add(table.getId(i));
+        }
+        return ids;
+    }
+
+    private static QuakeTable.MergeListener recorder(final List<String> changes) {
+        return new QuakeTable.MergeListener() {
+            @Override
+            public void onRowInserted(int position) {
+                changes.add("inserted " + position);
+            }
+
+            @Override
+            public void onRowMoved(int fromPosition, int toPosition) {
+                changes.add("moved " + fromPosition + " to " + toPosition);
+            }
+
+            @Override
+            public void onRowChanged(int position) {
+                changes.add("changed " + position);
+            }
+
+            @Override
+            public void onRowRemoved(int position) {
+                changes.add("removed " + position);
+            }
+        };
+    }
+}
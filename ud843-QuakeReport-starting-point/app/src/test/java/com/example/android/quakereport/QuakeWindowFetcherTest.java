@@ -0,0 +1,246 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link QuakeWindowFetcher} against a {@link TestHttpServer} that answers the
+ * {@code starttime}/{@code endtime} queries like USGS, slowly: how many windows run at once
+ * and how long they take, the merge of the windows, the split of windows too big for USGS,
+ * failures and cancellation.
+ */
+public class QuakeWindowFetcherTest {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final long EVENT_INTERVAL_MILLIS = 30 * 60 * 1000;
+    private static final long START_TIME = TestResponses.START_TIME;
+    private static final long END_TIME = START_TIME + 8 * HOUR_MILLIS;
+    private static final long LATENCY_MILLIS = 200;
+
+    private TestHttpServer mServer;
+    private String mQueryUrl;
+    private QuakeWindowFetcher mFetcher;
+
+    @Before
+    public void setUp() throws IOException {
+        QuakeHttpClient.getInstance().clearValidators();
+        mServer = new TestHttpServer();
+        mQueryUrl = mServer.url("/fdsnws/event/1/query?format=geojson&orderby=time").toString();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mFetcher != null) {
+            mFetcher.shutdown();
+        }
+        mServer.close();
+    }
+
+    @Test
+    public void mergesTheWindowsNewestFirstWithoutDuplicates() throws IOException {
+        mServer.setDispatcher(new WindowDispatcher(LATENCY_MILLIS, Long.MAX_VALUE, -1));
+
+        QuakeTable quakes = fetcher(4).fetch(mQueryUrl, START_TIME, END_TIME, HOUR_MILLIS, "time");
+
+        assertEquals(8, mServer.getRequests().size());
+        // An event every half hour, both ends included, the ones on window boundaries once
+        assertEquals(17, quakes.size());
+        for (int i = 0; i < quakes.size(); i++) {
+            assertEquals(END_TIME - i * EVENT_INTERVAL_MILLIS, quakes.getTime(i));
+        }
+    }
+
+    @Test
+    public void fetchesUpToTheLimitOfWindowsAtOnce() throws IOException {
+        mServer.setDispatcher(new WindowDispatcher(LATENCY_MILLIS, Long.MAX_VALUE, -1));
+
+        long serialStart = System.nanoTime();
+        fetcher(1).fetch(mQueryUrl, START_TIME, END_TIME, HOUR_MILLIS, "time");
+        long serialMillis = (System.nanoTime() - serialStart) / 1000000;
+        assertEquals(1, mServer.getMaxConcurrentRequests());
+        mFetcher.shutdown();
+
+        long parallelStart = System.nanoTime();
+        fetcher(4).fetch(mQueryUrl, START_TIME, END_TIME, HOUR_MILLIS, "time");
+        long parallelMillis = (System.nanoTime() - parallelStart) / 1000000;
+        assertEquals(4, mServer.getMaxConcurrentRequests());
+
+        // 8 windows are 8 round trips one at a time, 2 four at a time
+        assertTrue(serialMillis + " ms", serialMillis >= 8 * LATENCY_MILLIS);
+        assertTrue(parallelMillis + " ms", parallelMillis < 4 * LATENCY_MILLIS);
+    }
+
+    @Test
+    public void splitsTheWindowsUsgsFindsTooBig() throws IOException {
+        mServer.setDispatcher(new WindowDispatcher(0, 2 * HOUR_MILLIS, -1));
+
+        QuakeTable quakes = fetcher(4).fetch(mQueryUrl, START_TIME, END_TIME, 8 * HOUR_MILLIS, "time");
+
+        // 8 hours, then 2 windows of 4, then 4 windows of 2 which USGS answers
+        assertEquals(7, mServer.getRequests().size());
+        assertEquals(17, quakes.size());
+        HashSet<String> ids = new HashSet<>();
+        for (int i = 0; i < quakes.size(); i++) {
+            assertTrue(ids.add(quakes.getId(i)));
+        }
+    }
+
+    @Test
+    public void keepsTheOrderOfTheQueryAcrossSplitWindows() throws IOException {
+        mServer.setDispatcher(new WindowDispatcher(0, 2 * HOUR_MILLIS, -1));
+        String queryUrl = mServer.url("/fdsnws/event/1/query?format=geojson&orderby=magnitude").toString();
+
+        QuakeTable quakes = fetcher(4).fetch(queryUrl, START_TIME, END_TIME, 4 * HOUR_MILLIS, "magnitude");
+
+        assertEquals(17, quakes.size());
+        for (int i = 1; i < quakes.size(); i++) {
+            assertTrue("row " + i, quakes.getMagnitude(i - 1) >= quakes.getMagnitude(i));
+        }
+    }
+
+    @Test
+    public void failsWithTheFailureOfAWindow() {
+        mServer.setDispatcher(new WindowDispatcher(0, Long.MAX_VALUE, START_TIME + 3 * HOUR_MILLIS));
+
+        try {
+            fetcher(4).fetch(mQueryUrl, START_TIME, END_TIME, HOUR_MILLIS, "time");
+            fail("Expected the 503");
+        } catch (IOException e) {
+            assertEquals(503, ((QuakeHttpClient.HttpStatusException) e).getResponseCode());
+        }
+    }
+
+    @Test
+    public void cancelStopsWaitingForTheWindows() throws InterruptedException {
+        mServer.setDispatcher(new WindowDispatcher(10 * LATENCY_MILLIS, Long.MAX_VALUE, -1));
+        final QuakeWindowFetcher fetcher = fetcher(2);
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(LATENCY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                fetcher.cancel();
+            }
+        });
+
+        long start = System.nanoTime();
+        canceller.start();
+        try {
+            fetcher.fetch(mQueryUrl, START_TIME, END_TIME, HOUR_MILLIS, "time");
+            fail("Expected the fetch to be cancelled");
+        } catch (InterruptedIOException e) {
+            // Expected
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        canceller.join();
+
+        // Neither the windows on their way nor the ones still queued were waited for
+        assertTrue(millis + " ms", millis < 10 * LATENCY_MILLIS);
+    }
+
+    private QuakeWindowFetcher fetcher(int maxConcurrentWindows) {
+        // One attempt, the failures are the point of some tests
+        mFetcher = new QuakeWindowFetcher(new FetchScheduler(1, 0, 0, QuakeHttpClient.getInstance()),
+                maxConcurrentWindows);
+        return mFetcher;
+    }
+
+    /**
+     * Answers a window with an event every half hour from {@link #START_TIME} that falls in
+     * it, newest or strongest first like the query asks, after the given latency. Windows
+     * longer than the given length get a 400 like queries with too many results do, and the
+     * window starting at the given time a 503.
+     */
+    private static final class WindowDispatcher implements TestHttpServer.Dispatcher {
+
+        private final long mLatencyMillis;
+        private final long mMaxWindowMillis;
+        private final long mFailingStartTime;
+
+        WindowDispatcher(long latencyMillis, long maxWindowMillis, long failingStartTime) {
+            mLatencyMillis = latencyMillis;
+            mMaxWindowMillis = maxWindowMillis;
+            mFailingStartTime = failingStartTime;
+        }
+
+        @Override
+        public TestHttpServer.Response dispatch(TestHttpServer.Request request) {
+            Map<String, String> parameters = parameters(request.getTarget());
+            long startTime = parseTime(parameters.get("starttime"));
+            long endTime = parseTime(parameters.get("endtime"));
+            if (endTime - startTime > mMaxWindowMillis) {
+                return new TestHttpServer.Response(400, "Error 400: Bad Request").delay(mLatencyMillis);
+            }
+            if (startTime == mFailingStartTime) {
+                return new TestHttpServer.Response(503, "Service Unavailable").delay(mLatencyMillis);
+            }
+
+            List<Long> times = new ArrayList<>();
+            for (long time = endTime - (endTime - START_TIME) % EVENT_INTERVAL_MILLIS; time >= startTime;
+                 time -= EVENT_INTERVAL_MILLIS) {
+                times.add(time);
+            }
+            if ("magnitude".equals(parameters.get("orderby"))) {
+                Collections.sort(times, new Comparator<Long>() {
+                    @Override
+                    public int compare(Long a, Long b) {
+                        return Double.compare(magnitude(b), magnitude(a));
+                    }
+                });
+            }
+            List<String> features = new ArrayList<>();
+            for (long time : times) {
+                features.add(TestResponses.feature("us" + (time - START_TIME) / 60000, magnitude(time), time));
+            }
+            String body = TestResponses.collection(features.toArray(new String[features.size()]));
+            return new TestHttpServer.Response(200, body).gzip().delay(mLatencyMillis);
+        }
+
+        private static double magnitude(long time) {
+            return 2.5 + (time - START_TIME) / 60000 % 40 / 10.0;
+        }
+
+        private static Map<String, String> parameters(String target) {
+            Map<String, String> parameters = new HashMap<>();
+            for (String parameter : target.substring(target.indexOf('?') + 1).split("&")) {
+                int equals = parameter.indexOf('=');
+                parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+            }
+            return parameters;
+        }
+
+        private static long parseTime(String isoTime) {
+            SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+            isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            try {
+                return isoFormat.parse(isoTime).getTime();
+            } catch (ParseException e) {
+                throw new IllegalArgumentException(isoTime, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A small HTTP/1.1 server on the loopback interface for the tests of the HTTP layer. It
+ * answers the queued responses in order, or asks a {@link Dispatcher} when requests run
+ * concurrently, keeps connections alive like USGS does, and records what went over the wire:
+ * the requests and their headers, the connections they came on and the body bytes sent back.
+ */
+final class TestHttpServer implements Closeable {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final long RESPONSE_TIMEOUT_SECONDS = 5;
+
+    /**
+     * Answers every request instead of the queue, see {@link #setDispatcher(Dispatcher)}.
+     * Called on the thread of the connection, so concurrently.
+     */
+    interface Dispatcher {
+        Response dispatch(Request request);
+    }
+
+    /**
+     * A response to queue with {@link #enqueue(Response)}.
+     */
+    static final class Response {
+        final int code;
+        final byte[] body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+        boolean gzipIfAccepted;
+        long delayMillis;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body.getBytes(Charset.forName("UTF-8"));
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Compress the body if the request accepts gzip.
+         */
+        Response gzip() {
+            gzipIfAccepted = true;
+            return this;
+        }
+
+        /**
+         * Wait before answering, like a server on the other side of the world.
+         */
+        Response delay(long millis) {
+            delayMillis = millis;
+            return this;
+        }
+    }
+
+    /**
+     * A request the server answered.
+     */
+    static final class Request {
+        final String requestLine;
+        // By lower case name
+        final Map<String, String> headers;
+        // Index of the connection the request came on, from 0
+        final int connection;
+        // Bytes of the response body sent back
+        volatile int bodyBytes;
+
+        Request(String requestLine, Map<String, String> headers, int connection) {
+            this.requestLine = requestLine;
+            this.headers = headers;
+            this.connection = connection;
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        /**
+         * Return the path and query of the request.
+         */
+        String getTarget() {
+            return requestLine.split(" ")[1];
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final BlockingQueue<Response> mResponses = new LinkedBlockingQueue<>();
+    private final List<Request> mRequests = new ArrayList<>();
+    private final List<Socket> mSockets = new ArrayList<>();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mActiveRequests = new AtomicInteger();
+    private final AtomicInteger mMaxActiveRequests = new AtomicInteger();
+    private volatile Dispatcher mDispatcher;
+
+    TestHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    URL url(String pathAndQuery) {
+        try {
+            return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + pathAndQuery);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    void enqueue(Response response) {
+        mResponses.add(response);
+    }
+
+    void setDispatcher(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /**
+     * Return the most requests the server was answering at the same time.
+     */
+    int getMaxConcurrentRequests() {
+        return mMaxActiveRequests.get();
+    }
+
+    List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Closed
+                return;
+            }
+            synchronized (mSockets) {
+                mSockets.add(socket);
+            }
+            final int connection = mConnectionCount.getAndIncrement();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket, connection);
+                    } catch (IOException | InterruptedException e) {
+                        // The client or the test closed the connection
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket, int connection) throws IOException, InterruptedException {
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                socket.close();
+                return;
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+            }
+            Request request = new Request(requestLine, headers, connection);
+            synchronized (mRequests) {
+                mRequests.add(request);
+            }
+            int active = mActiveRequests.incrementAndGet();
+            while (true) {
+                int max = mMaxActiveRequests.get();
+                if (active <= max || mMaxActiveRequests.compareAndSet(max, active)) {
+                    break;
+                }
+            }
+
+            Dispatcher dispatcher = mDispatcher;
+            Response response = dispatcher != null ? dispatcher.dispatch(request)
+                    : mResponses.poll(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (response == null) {
+                response = new Response(500, "No response queued");
+            }
+            if (response.delayMillis > 0) {
+                Thread.sleep(response.delayMillis);
+            }
+            byte[] body = response.body;
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(response.code).append(' ').append(reason(response.code)).append("\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            String acceptEncoding = request.getHeader("Accept-Encoding");
+            if (response.gzipIfAccepted && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                body = gzip(body);
+                head.append("Content-Encoding: gzip\r\n");
+            }
+            if (response.code == 304) {
+                body = new byte[0];
+            } else {
+                head.append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            head.append("\r\n");
+            // Before sending, the client may be done reading before this thread goes on
+            request.bodyBytes = body.length;
+            out.write(head.toString().getBytes(ASCII));
+            out.write(body);
+            out.flush();
+            mActiveRequests.decrementAndGet();
+        }
+    }
+
+    /**
+     * Return the next line without its CRLF, null at the end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String text = new String(line.toByteArray(), ASCII);
+                return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : new String(line.toByteArray(), ASCII);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(data);
+        gzip.close();
+        return compressed.toByteArray();
+    }
+
+    private static String reason(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+}
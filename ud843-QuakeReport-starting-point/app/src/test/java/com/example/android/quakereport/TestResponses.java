@@ -0,0 +1,50 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+
+/**
+ * USGS GeoJSON responses for the tests, with the fields the app reads and a few it skips.
+ */
+final class TestResponses {
+
+    static final long START_TIME = 1467331200000L;
+
+    private TestResponses() {
+    }
+
+    /**
+     * Return a response with the given number of events, one a minute going back from
+     * {@link #START_TIME}.
+     */
+    static String events(int count) {
+        String[] features = new String[count];
+        for (int i = 0; i < count; i++) {
+            features[i] = feature("us" + (10000 + i), 2.5 + (i % 40) / 10.0, START_TIME - i * 60000L);
+        }
+        return collection(features);
+    }
+
+    static String collection(String... features) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":").append(START_TIME)
+                .append(",\"title\":\"USGS Earthquakes\",\"status\":200,\"count\":").append(features.length)
+                .append("},\"features\":[");
+        for (int i = 0; i < features.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(features[i]);
+        }
+        return json.append("]}").toString();
+    }
+
+    static String feature(String id, double magnitude, long time) {
+        return String.format(Locale.US, "{\"type\":\"Feature\",\"properties\":{\"mag\":%.1f,"
+                        + "\"place\":\"%dkm NW of Rumoi, Japan\",\"time\":%d,\"updated\":%d,\"tz\":540,"
+                        + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/%s\",\"felt\":null,"
+                        + "\"cdi\":null,\"mmi\":null,\"alert\":null,\"status\":\"reviewed\",\"tsunami\":0,"
+                        + "\"sig\":96,\"net\":\"us\",\"code\":\"%s\",\"types\":\",origin,phase-data,\"},"
+                        + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[141.6,43.9,35.2]},\"id\":\"%s\"}",
+                magnitude, time % 90 + 5, time, time + 600000, id, id.substring(2), id);
+    }
+}
@@ -0,0 +1,39 @@
+package android.util;
+
+/**
+ * Stand-in for the Android log on a plain JVM, so the app classes that log can run in the
+ * benchmarks and the replay harness. Everything goes to the standard error.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return println("D", tag, msg, null);
+    }
+
+    public static int i(String tag, String msg) {
+        return println("I", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg) {
+        return println("W", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg) {
+        return println("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println("E", tag, msg, tr);
+    }
+
+    private static int println(String priority, String tag, String msg, Throwable tr) {
+        System.err.println(priority + "/" + tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.android.quakereport;
+
+/**
+ * Stand-in for the BuildConfig the Android build generates. The benchmarks measure the
+ * release code, without {@link QuakeMetrics}.
+ */
+public final class BuildConfig {
+
+    public static final boolean DEBUG = false;
+
+    private BuildConfig() {
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeAlertEngine;
+import com.example.android.quakereport.QuakeAlertRule;
+import com.example.android.quakereport.QuakeJsonParser;
+import com.example.android.quakereport.QuakeTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking a batch of 5000 events against a few hundred alert rules: the compiled
+ * {@link QuakeAlertEngine} against checking every rule for every event.
+ * <p>
+ * Most rules watch a site, with radii from a city to a region, the others watch the whole
+ * world for strong earthquakes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class AlertBenchmark {
+
+    private static final int EVENTS = 5000;
+
+    // Just after the newest fixture event
+    private static final long NOW = 1467331200000L + 60 * 1000;
+
+    @Param({"100", "500"})
+    public int ruleCount;
+
+    private QuakeTable mBatch;
+    private List<QuakeAlertRule> mRules;
+    private QuakeAlertEngine mEngine;
+
+    @Setup
+    public void setUp() throws IOException {
+        mBatch = new QuakeTable();
+        QuakeJsonParser.parse(new ByteArrayInputStream(QuakeFixtures.response(EVENTS)), mBatch);
+
+        Random random = new Random(1964);
+        mRules = new ArrayList<>();
+        for (int i = 0; i < ruleCount; i++) {
+            double minMagnitude = 2 + random.nextInt(50) / 10.0;
+            long maxAgeMillis = (6 + random.nextInt(24 * 7)) * 60L * 60 * 1000;
+            if (random.nextInt(10) == 0) {
+                mRules.add(new QuakeAlertRule("global " + i, minMagnitude + 2, Double.NaN, Double.NaN,
+                        Double.NaN, maxAgeMillis));
+            } else {
+                double latitude = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+                double longitude = random.nextDouble() * 360 - 180;
+                double radiusKm = 50 + random.nextInt(950);
+                mRules.add(new QuakeAlertRule("site " + i, minMagnitude, latitude, longitude, radiusKm,
+                        maxAgeMillis));
+            }
+        }
+        mEngine = new QuakeAlertEngine(mRules, Collections.<String>emptyList());
+    }
+
+    @Benchmark
+    public QuakeAlertEngine compile() {
+        return new QuakeAlertEngine(mRules, Collections.<String>emptyList());
+    }
+
+    @Benchmark
+    public int matchCompiled() {
+        int matches = 0;
+        int size = mBatch.size();
+        for (int i = 0; i < size; i++) {
+            if (mEngine.match(mBatch, i, NOW) != null) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int matchEveryRule() {
+        int matches = 0;
+        int size = mBatch.size();
+        for (int i = 0; i < size; i++) {
+            double magnitude = mBatch.getMagnitude(i);
+            long time = mBatch.getTime(i);
+            double latitude = mBatch.getLatitude(i);
+            double longitude = mBatch.getLongitude(i);
+            for (QuakeAlertRule rule : mRules) {
+                if (rule.matches(magnitude, time, latitude, longitude, NOW)) {
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+}
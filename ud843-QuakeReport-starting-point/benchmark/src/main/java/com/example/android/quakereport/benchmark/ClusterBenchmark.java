@@ -0,0 +1,162 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeClusterIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Map clusters of 50k events: what a frame of the map costs at a few zoom levels, against
+ * projecting every event, and what building the clusters and updating them for a sync cost.
+ * <p>
+ * The viewport is a 411 x 731 dp phone screen, centered on events, events are packed along
+ * belts like in {@link SpatialIndexBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ClusterBenchmark {
+
+    private static final int EVENTS = 50000;
+    private static final int SYNC_EVENTS = 100;
+    private static final int VIEWPORTS = 256;
+    private static final double TILE_DP = 256;
+    private static final double SCREEN_WIDTH_DP = 411;
+    private static final double SCREEN_HEIGHT_DP = 731;
+
+    private static final double[][] BELTS = {
+            {38, 142, 6, 4}, {-20, -70, 12, 3}, {36, -120, 4, 4}, {-5, 125, 8, 15},
+            {52, -170, 3, 20}, {19, -155, 1, 1}, {38, 25, 4, 12}, {28, 85, 3, 10}
+    };
+
+    @Param({"2", "6", "10", "14"})
+    public int zoom;
+
+    private String[] mIds;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private double[] mMagnitudes;
+    private double[] mX;
+    private double[] mY;
+    private QuakeClusterIndex mIndex;
+    private final QuakeClusterIndex.Clusters mClusters = new QuakeClusterIndex.Clusters();
+    private final Random mRandom = new Random(1906);
+    private int mViewport;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1906);
+        mIds = new String[EVENTS];
+        mLatitudes = new double[EVENTS];
+        mLongitudes = new double[EVENTS];
+        mMagnitudes = new double[EVENTS];
+        mX = new double[EVENTS];
+        mY = new double[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            mIds[i] = "bm" + i;
+            if (random.nextInt(10) < 8) {
+                double[] belt = BELTS[random.nextInt(BELTS.length)];
+                mLatitudes[i] = Math.max(-85, Math.min(85, belt[0] + random.nextGaussian() * belt[2]));
+                mLongitudes[i] = wrapLongitude(belt[1] + random.nextGaussian() * belt[3]);
+            } else {
+                mLatitudes[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+                mLongitudes[i] = random.nextDouble() * 360 - 180;
+            }
+            mMagnitudes[i] = Math.round(random.nextDouble() * 70) / 10.0;
+            mX[i] = QuakeClusterIndex.toX(mLongitudes[i]);
+            mY[i] = QuakeClusterIndex.toY(mLatitudes[i]);
+        }
+        mIndex = build();
+    }
+
+    /**
+     * Find the clusters of one frame.
+     */
+    @Benchmark
+    public QuakeClusterIndex.Clusters frame() {
+        int event = nextViewportEvent();
+        double halfWidth = SCREEN_WIDTH_DP / 2 / worldSize();
+        double halfHeight = SCREEN_HEIGHT_DP / 2 / worldSize();
+        mIndex.query(mX[event] - halfWidth, mY[event] - halfHeight, mX[event] + halfWidth,
+                mY[event] + halfHeight, zoom, mClusters);
+        return mClusters;
+    }
+
+    /**
+     * Project every event and keep those on screen, what a frame costs without clusters,
+     * before even drawing them.
+     */
+    @Benchmark
+    public void frameLinearScan(Blackhole blackhole) {
+        int event = nextViewportEvent();
+        double worldSize = worldSize();
+        double centerX = mX[event];
+        double centerY = mY[event];
+        int onScreen = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            double x = (QuakeClusterIndex.toX(mLongitudes[i]) - centerX) * worldSize;
+            double y = (QuakeClusterIndex.toY(mLatitudes[i]) - centerY) * worldSize;
+            if (Math.abs(x) <= SCREEN_WIDTH_DP / 2 && Math.abs(y) <= SCREEN_HEIGHT_DP / 2) {
+                onScreen++;
+            }
+        }
+        blackhole.consume(onScreen);
+    }
+
+    /**
+     * Update the clusters for a sync that moved 100 events, a new location and magnitude each.
+     */
+    @Benchmark
+    public QuakeClusterIndex sync() {
+        for (int i = 0; i < SYNC_EVENTS; i++) {
+            int event = mRandom.nextInt(EVENTS);
+            int other = mRandom.nextInt(EVENTS);
+            mIndex.add(mIds[event], mLatitudes[other], mLongitudes[other], mMagnitudes[other]);
+        }
+        return mIndex;
+    }
+
+    @Benchmark
+    public QuakeClusterIndex buildIndex() {
+        return build();
+    }
+
+    private QuakeClusterIndex build() {
+        QuakeClusterIndex index = new QuakeClusterIndex();
+        for (int i = 0; i < EVENTS; i++) {
+            index.add(mIds[i], mLatitudes[i], mLongitudes[i], mMagnitudes[i]);
+        }
+        return index;
+    }
+
+    private double worldSize() {
+        return TILE_DP * (1 << zoom);
+    }
+
+    private int nextViewportEvent() {
+        mViewport = (mViewport + 1) % VIEWPORTS;
+        // The same events every round, spread over the array
+        return (int) ((long) mViewport * EVENTS / VIEWPORTS);
+    }
+
+    private static double wrapLongitude(double longitude) {
+        double wrapped = (longitude + 180) % 360;
+        return (wrapped < 0 ? wrapped + 360 : wrapped) - 180;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeFormatter;
+import com.example.android.quakereport.QuakeJsonParser;
+import com.example.android.quakereport.QuakeTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the fields of a row into the strings of a list item, per row: what
+ * {@link QuakeFormatter} does off the UI thread, what the adapter's getView() used to do on
+ * it, and what binding a prepared row costs now.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class FormatBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private static final String LOCATION_SEPARATOR = "of";
+    private static final String NO_OFFSET_TEXT = "Near the";
+
+    private QuakeTable mTable;
+    private QuakeTable mPreparedTable;
+    private QuakeFormatter mFormatter;
+    private int[] mMagnitudeColors;
+
+    @Setup
+    public void setUp() throws IOException {
+        mTable = new QuakeTable();
+        QuakeJsonParser.parse(new ByteArrayInputStream(QuakeFixtures.response(ROWS)), mTable);
+        mFormatter = new QuakeFormatter(NO_OFFSET_TEXT);
+        mPreparedTable = mTable.copy();
+        mPreparedTable.prepareDisplay(mFormatter);
+        mMagnitudeColors = new int[QuakeFormatter.MAGNITUDE_BUCKETS];
+        for (int i = 0; i < mMagnitudeColors.length; i++) {
+            mMagnitudeColors[i] = 0xFF000000 | (i * 0x1A1A1A);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void formatRow(Blackhole blackhole) {
+        QuakeFormatter formatter = mFormatter;
+        for (int i = 0; i < ROWS; i++) {
+            String place = mTable.getPlace(i);
+            long time = mTable.getTime(i);
+            blackhole.consume(formatter.formatMagnitude(mTable.getMagnitude(i)));
+            blackhole.consume(formatter.formatLocationOffset(place));
+            blackhole.consume(formatter.formatPrimaryLocation(place));
+            blackhole.consume(formatter.formatDate(time));
+            blackhole.consume(formatter.formatTime(time));
+        }
+    }
+
+    /**
+     * The formatting of the old getView(): new formatters for every row, and the place
+     * searched three times.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void formatRowBaseline(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(new DecimalFormat("#.#").format(mTable.getMagnitude(i)));
+
+            String originalLocation = mTable.getPlace(i);
+            if (originalLocation.contains(LOCATION_SEPARATOR)) {
+                blackhole.consume(originalLocation.substring(0, originalLocation.indexOf(LOCATION_SEPARATOR) + 2));
+                blackhole.consume(originalLocation.substring(originalLocation.indexOf(LOCATION_SEPARATOR) + 2));
+            } else {
+                blackhole.consume(NO_OFFSET_TEXT);
+                blackhole.consume(originalLocation);
+            }
+
+            Date dateTimeObject = new Date(mTable.getTime(i));
+            blackhole.consume(new SimpleDateFormat("MMM DD, YYYY").format(dateTimeObject));
+            blackhole.consume(new SimpleDateFormat("h:mm a").format(dateTimeObject));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void locationSplit(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(QuakeFormatter.locationSplit(mTable.getPlace(i)));
+        }
+    }
+
+    /**
+     * What onBindViewHolder() does with a prepared row, minus the views themselves.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void bindPreparedRow(Blackhole blackhole) {
+        QuakeTable table = mPreparedTable;
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(mMagnitudeColors[QuakeFormatter.magnitudeBucket(table.getMagnitude(i))]);
+            blackhole.consume(table.getMagnitudeText(i));
+            blackhole.consume(table.getLocationOffsetText(i));
+            blackhole.consume(table.getPrimaryLocationText(i));
+            blackhole.consume(table.getDateText(i));
+            blackhole.consume(table.getTimeText(i));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeCatalogImporter;
+import com.example.android.quakereport.QuakeJsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Importing a catalog export of 50k events, GeoJSON and CSV, with the chunks parsed on 1 to
+ * 4 threads, against parsing the whole GeoJSON file on one thread. The events go to a sink
+ * that only counts them, so this measures reading and parsing, not SQLite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ImportBenchmark {
+
+    private static final int EVENTS = 50000;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private byte[] mGeoJson;
+    private byte[] mCsv;
+
+    @Setup
+    public void setUp() {
+        mGeoJson = QuakeFixtures.response(EVENTS);
+        mCsv = QuakeFixtures.csv(EVENTS);
+    }
+
+    @Benchmark
+    public int importGeoJson() throws IOException {
+        return importCatalog(mGeoJson);
+    }
+
+    @Benchmark
+    public int importCsv() throws IOException {
+        return importCatalog(mCsv);
+    }
+
+    /**
+     * The whole file through the streaming parser on the calling thread, what the import
+     * would cost without chunks. Doesn't depend on the number of threads.
+     */
+    @Benchmark
+    public int parseGeoJsonWhole() throws IOException {
+        final int[] count = new int[1];
+        QuakeJsonParser.parse(new ByteArrayInputStream(mGeoJson), new QuakeJsonParser.Handler() {
+            @Override
+            public void onFeature(QuakeJsonParser.Feature feature) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    private int importCatalog(byte[] file) throws IOException {
+        QuakeCatalogImporter importer = new QuakeCatalogImporter(threads, QuakeCatalogImporter.DEFAULT_CHUNK_BYTES);
+        return importer.importCatalog(new ByteArrayInputStream(file), file.length, new QuakeCatalogImporter.Sink() {
+            @Override
+            public void write(QuakeCatalogImporter.Batch batch) {
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking the circle colour of a magnitude: the lookup table used by the adapter now, against
+ * the switch of the old getMagCircleColor() (without its per call resource lookup, which
+ * would dwarf both on a device).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MagnitudeColorBenchmark {
+
+    private static final int MAGNITUDES = 1024;
+
+    private final int[] mColors = new int[QuakeFormatter.MAGNITUDE_BUCKETS];
+    private final double[] mMagnitudes = new double[MAGNITUDES];
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < mColors.length; i++) {
+            mColors[i] = 0xFF000000 | (i * 0x1A1A1A);
+        }
+        // Random order, so the branch predictor can't learn the sequence
+        Random random = new Random(42);
+        for (int i = 0; i < MAGNITUDES; i++) {
+            mMagnitudes[i] = random.nextDouble() * 11 - 1;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MAGNITUDES)
+    public void lookupTable(Blackhole blackhole) {
+        for (int i = 0; i < MAGNITUDES; i++) {
+            blackhole.consume(mColors[QuakeFormatter.magnitudeBucket(mMagnitudes[i])]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MAGNITUDES)
+    public void switchBaseline(Blackhole blackhole) {
+        for (int i = 0; i < MAGNITUDES; i++) {
+            blackhole.consume(switchColor(mMagnitudes[i]));
+        }
+    }
+
+    private int switchColor(double magnitude) {
+        int colorIndex;
+        int intMagnitude = (int) magnitude;
+        switch (intMagnitude) {
+            case 0:
+            case 1:
+                colorIndex = 0;
+                break;
+            case 2:
+                colorIndex = 1;
+                break;
+            case 3:
+                colorIndex = 2;
+                break;
+            case 4:
+                colorIndex = 3;
+                break;
+            case 5:
+                colorIndex = 4;
+                break;
+            case 6:
+                colorIndex = 5;
+                break;
+            case 7:
+                colorIndex = 6;
+                break;
+            case 8:
+                colorIndex = 7;
+                break;
+            case 9:
+                colorIndex = 8;
+                break;
+            default:
+                colorIndex = 9;
+                break;
+        }
+        return mColors[colorIndex];
+    }
+}
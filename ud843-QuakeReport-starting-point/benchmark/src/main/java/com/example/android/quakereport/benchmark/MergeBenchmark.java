@@ -0,0 +1,73 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeJsonParser;
+import com.example.android.quakereport.QuakeTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging a sync into the loaded earthquakes with {@link QuakeTable#merge}: the newest
+ * events, which go on top of a list sorted by time, and a tenth as many updates of events
+ * already loaded, for windows of a few sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MergeBenchmark {
+
+    @Param({"2000", "20000"})
+    public int windowSize;
+
+    @Param({"10", "100"})
+    public int deltaSize;
+
+    private QuakeTable mWindow;
+    private QuakeTable mDelta;
+    private QuakeTable mQuakes;
+
+    @Setup
+    public void setUp() throws IOException {
+        QuakeTable all = new QuakeTable();
+        QuakeJsonParser.parse(new ByteArrayInputStream(QuakeFixtures.response(deltaSize + windowSize)), all);
+        mWindow = new QuakeTable(windowSize);
+        mDelta = new QuakeTable(deltaSize + deltaSize / 10);
+        // The fixtures are newest first, the first events are the ones synced
+        for (int i = 0; i < all.size(); i++) {
+            (i < deltaSize ? mDelta : mWindow).insert(i < deltaSize ? i : i - deltaSize, all, i);
+        }
+        for (int i = 0; i < deltaSize / 10; i++) {
+            mDelta.insert(mDelta.size(), mWindow, i * (windowSize / (deltaSize / 10)));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copyWindow() {
+        mQuakes = mWindow.copy();
+        // Built by the first lookup in the app too, when the repository uncounts updated rows
+        mQuakes.indexOfId("");
+    }
+
+    @Benchmark
+    public QuakeTable merge() {
+        mQuakes.merge(mDelta, "time", true, null);
+        return mQuakes;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Quake;
+import com.example.android.quakereport.QuakeJsonParser;
+import com.example.android.quakereport.QuakeTable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a USGS response into the list shown by the app: the streaming parser used by
+ * {@code QueryUtils.extractEarthquakes(InputStream)}, against what the app did before it
+ * (read the whole response into a String, build a {@link JSONObject} tree, then an
+ * {@code ArrayList<Quake>}).
+ * <p>
+ * Run with {@code -prof gc} to compare the memory allocated per response as well. The 100000
+ * feature response is about 110 MB, the forks get a heap big enough for the baseline to
+ * hold it as a String and a JSONObject tree at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class ParseBenchmark {
+
+    @Param({"20", "200", "2000", "10000", "20000", "100000"})
+    public int featureCount;
+
+    private byte[] mResponse;
+
+    @Setup
+    public void setUp() {
+        mResponse = QuakeFixtures.response(featureCount);
+    }
+
+    @Benchmark
+    public QuakeTable streamingParser() throws IOException {
+        QuakeTable earthquakes = new QuakeTable();
+        QuakeJsonParser.parse(new ByteArrayInputStream(mResponse), earthquakes);
+        return earthquakes;
+    }
+
+    @Benchmark
+    public ArrayList<Quake> jsonObjectBaseline() throws IOException, JSONException {
+        String jsonResponse = readFromStream(new ByteArrayInputStream(mResponse));
+
+        ArrayList<Quake> earthquakes = new ArrayList<>();
+        JSONArray features = new JSONObject(jsonResponse).getJSONArray("features");
+        for (int i = 0; i < features.length(); i++) {
+            JSONObject feature = features.getJSONObject(i);
+            JSONObject properties = feature.getJSONObject("properties");
+            earthquakes.add(new Quake(feature.getString("id"), properties.getDouble("mag"),
+                    properties.getString("place"), properties.getLong("time"),
+                    properties.getString("url")));
+        }
+        return earthquakes;
+    }
+
+    /**
+     * The response reading of the old {@code QueryUtils.readFromStream}.
+     */
+    private static String readFromStream(InputStream inputStream) throws IOException {
+        StringBuilder output = new StringBuilder();
+        InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
+        BufferedReader reader = new BufferedReader(inputStreamReader);
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+        return output.toString();
+    }
+}
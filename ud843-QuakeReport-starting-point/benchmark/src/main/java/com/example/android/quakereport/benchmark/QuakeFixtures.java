@@ -0,0 +1,159 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeJsonParser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Builds USGS GeoJSON responses for the benchmarks, with every field of a real
+ * {@code fdsnws/event/1/query?format=geojson} answer, including the null ones, and the
+ * same events as a {@code format=csv} catalog export.
+ * <p>
+ * The content only depends on the number of features: the same seed is used every time,
+ * so runs on different machines and days parse exactly the same bytes without any network.
+ */
+public final class QuakeFixtures {
+
+    private static final long SEED = 20160701L;
+
+    // Mid-2016, like the responses the app was written against
+    static final long START_TIME = 1467331200000L;
+
+    private static final String[] REGIONS = {
+            "Rumoi, Japan", "Anza, CA", "Hawaiian Volcano Observatory, HI", "Tobelo, Indonesia",
+            "Valparaiso, Chile", "Fiji region", "Mid-Atlantic Ridge", "Petrolia, CA",
+            "Ocotillo Wells, CA", "Nikolski, Alaska", "Kermadec Islands, New Zealand",
+            "Ishigaki, Japan", "Pahala, Hawaii", "Cerro Gordo, Mexico", "Akureyri, Iceland"
+    };
+
+    private static final String[] DIRECTIONS = {
+            "N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE", "S", "SSW", "SW", "WSW", "W",
+            "WNW", "NW", "NNW"
+    };
+
+    private static final String[] NETWORKS = {"us", "ci", "nc", "ak", "hv", "uw", "nn"};
+
+    /**
+     * Create a private constructor because no one should ever create a {@link QuakeFixtures} object.
+     */
+    private QuakeFixtures() {
+    }
+
+    /**
+     * Return a response with the given number of features, as UTF-8 bytes.
+     */
+    public static byte[] response(int featureCount) {
+        return responseText(featureCount).getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Return the events of {@link #response(int)} as a CSV catalog export, as UTF-8 bytes.
+     */
+    public static byte[] csv(int featureCount) {
+        final SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final StringBuilder csv = new StringBuilder(featureCount * 200 + 256);
+        csv.append("time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,updated,place,type,")
+                .append("horizontalError,depthError,magError,magNst,status,locationSource,magSource\n");
+        try {
+            QuakeJsonParser.parse(new StringReader(responseText(featureCount)), new QuakeJsonParser.Handler() {
+                @Override
+                public void onFeature(QuakeJsonParser.Feature feature) {
+                    String network = feature.id.substring(0, 2);
+                    csv.append(isoFormat.format(new Date(feature.time))).append(',')
+                            .append(feature.latitude).append(',').append(feature.longitude).append(',')
+                            .append(feature.depth).append(',').append(feature.magnitude).append(',')
+                            .append(feature.magnitude < 4 ? "ml" : "mb").append(",,,,,")
+                            .append(network).append(',').append(feature.id).append(',')
+                            .append(isoFormat.format(new Date(feature.updated))).append(",\"")
+                            .append(feature.place).append("\",earthquake,,,,,reviewed,")
+                            .append(network).append(',').append(network).append('\n');
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return csv.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Return a response with the given number of features.
+     */
+    public static String responseText(int featureCount) {
+        Random random = new Random(SEED);
+        StringBuilder json = new StringBuilder(featureCount * 1100 + 512);
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":")
+                .append(START_TIME)
+                .append(",\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson")
+                .append("&limit=").append(featureCount)
+                .append("\",\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.2\",\"limit\":")
+                .append(featureCount).append(",\"offset\":1,\"count\":").append(featureCount)
+                .append("},\"features\":[");
+
+        long time = START_TIME;
+        for (int i = 0; i < featureCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            time -= 1000 + random.nextInt(600000);
+            appendFeature(json, random, i, time);
+        }
+
+        json.append("],\"bbox\":[-179.9,-60.2,-3.4,179.9,71.3,650.1]}");
+        return json.toString();
+    }
+
+    private static void appendFeature(StringBuilder json, Random random, int index, long time) {
+        String network = NETWORKS[random.nextInt(NETWORKS.length)];
+        String id = network + String.format(Locale.US, "%08d", 10000000 + index);
+        // Mostly small events, like the real feed
+        double magnitude = Math.round(random.nextDouble() * random.nextDouble() * 80) / 10.0;
+        String place;
+        if (random.nextInt(10) == 0) {
+            place = REGIONS[random.nextInt(REGIONS.length)];
+        } else {
+            place = (1 + random.nextInt(300)) + "km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                    + " of " + REGIONS[random.nextInt(REGIONS.length)];
+        }
+        String url = "https://earthquake.usgs.gov/earthquakes/eventpage/" + id;
+        boolean felt = random.nextInt(8) == 0;
+        double longitude = random.nextDouble() * 360 - 180;
+        double latitude = random.nextDouble() * 140 - 70;
+        double depth = random.nextDouble() * 200;
+
+        json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(magnitude)
+                .append(",\"place\":\"").append(place)
+                .append("\",\"time\":").append(time)
+                .append(",\"updated\":").append(time + random.nextInt(3600000))
+                .append(",\"tz\":").append(60 * (random.nextInt(25) - 12))
+                .append(",\"url\":\"").append(url)
+                .append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=")
+                .append(id).append("&format=geojson\",\"felt\":").append(felt ? String.valueOf(random.nextInt(500)) : "null")
+                .append(",\"cdi\":").append(felt ? String.valueOf(random.nextInt(9)) : "null")
+                .append(",\"mmi\":null,\"alert\":null,\"status\":\"")
+                .append(random.nextBoolean() ? "reviewed" : "automatic")
+                .append("\",\"tsunami\":0,\"sig\":").append((int) (magnitude * magnitude * 10))
+                .append(",\"net\":\"").append(network)
+                .append("\",\"code\":\"").append(id.substring(network.length()))
+                .append("\",\"ids\":\",").append(id)
+                .append(",\",\"sources\":\",").append(network)
+                .append(",\",\"types\":\",geoserve,nearby-cities,origin,phase-data,\",\"nst\":")
+                .append(10 + random.nextInt(60))
+                .append(",\"dmin\":").append(random.nextInt(1000) / 1000.0)
+                .append(",\"rms\":").append(random.nextInt(200) / 100.0)
+                .append(",\"gap\":").append(random.nextInt(300))
+                .append(",\"magType\":\"").append(magnitude < 4 ? "ml" : "mb")
+                .append("\",\"type\":\"earthquake\",\"title\":\"M ").append(magnitude)
+                .append(" - ").append(place)
+                .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(longitude).append(',').append(latitude).append(',').append(depth)
+                .append("]},\"id\":\"").append(id).append("\"}");
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.FetchScheduler;
+import com.example.android.quakereport.QuakeFormatter;
+import com.example.android.quakereport.QuakeHttpClient;
+import com.example.android.quakereport.QuakeTable;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a trace of app requests against a server, through the same loader as the app
+ * ({@link FetchScheduler} and {@link QuakeHttpClient}, with their retries, joined requests,
+ * gzip and conditional requests), prepares each result for display, and reports the
+ * latency percentiles and the throughput.
+ * <p>
+ * A trace is a text file with one request per line: the time it is sent, in milliseconds
+ * from the start, and its path and query, e.g.
+ * {@code 1500 /fdsnws/event/1/query?format=geojson&minmag=2.5&orderby=time&limit=20&offset=21}.
+ * Without a trace, one is made up from app sessions: a first page, a few pages of scrolling,
+ * syncs every minute, and the live feed every 10 seconds for some of them.
+ * <p>
+ * Requests are sent when the trace says, whether the earlier ones are done or not, and
+ * their latency counts from then: a slow server makes the next requests late rather than
+ * fewer. Run with "gradlew :benchmark:replay -Pargs='--sessions 100 --latency 200'".
+ * Options:
+ * <ul>
+ * <li>{@code --server URL}: replay against a running server, e.g. USGS itself, rather than
+ * a {@link StandInServer} started in-process with the catalog and {@link StandInServer.Conditions}
+ * options;</li>
+ * <li>{@code --trace FILE}, or {@code --sessions N} (default 50) and {@code --seed S} to make
+ * one up, {@code --save-trace FILE} to keep it;</li>
+ * <li>{@code --threads N}: loader threads (default 4);</li>
+ * <li>{@code --speed X}: replay X times faster than the trace (default 1).</li>
+ * </ul>
+ */
+public final class ReplayHarness {
+
+    /**
+     * A request of the trace.
+     */
+    private static final class Request {
+        final long timeMillis;
+        final String path;
+
+        Request(long timeMillis, String path) {
+            this.timeMillis = timeMillis;
+            this.path = path;
+        }
+    }
+
+    private static final String QUERY = StandInServer.QUERY_PATH + "?format=geojson";
+    private static final double[] MIN_MAGNITUDES = {0, 1, 2.5, 4.5};
+    private static final String[] ORDER_BYS = {"time", "magnitude"};
+    private static final int PAGE_SIZE = 20;
+    private static final long SYNC_INTERVAL_MILLIS = 60 * 1000;
+    private static final long LIVE_POLL_INTERVAL_MILLIS = 10 * 1000;
+
+    private ReplayHarness() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = StandInServer.parseOptions(args);
+
+        StandInServer server = null;
+        String baseUrl = options.get("server");
+        if (baseUrl == null) {
+            server = new StandInServer(StandInServer.loadFixture(options),
+                    StandInServer.Conditions.fromOptions(options), 0);
+            server.start();
+            baseUrl = server.getBaseUrl();
+        }
+
+        List<Request> trace;
+        if (options.containsKey("trace")) {
+            trace = readTrace(options.get("trace"));
+        } else {
+            trace = makeTrace((int) StandInServer.longOption(options, "sessions", 50),
+                    StandInServer.longOption(options, "seed", 1906));
+        }
+        if (options.containsKey("save-trace")) {
+            writeTrace(trace, options.get("save-trace"));
+        }
+        double speed = options.containsKey("speed") ? Double.parseDouble(options.get("speed")) : 1;
+        int threads = (int) StandInServer.longOption(options, "threads", 4);
+
+        try {
+            replay(trace, baseUrl, threads, speed);
+        } finally {
+            if (server != null) {
+                System.out.println("Server: " + server.getStats());
+                server.stop();
+            }
+        }
+    }
+
+    private static void replay(List<Request> trace, String baseUrl, int threads, double speed)
+            throws InterruptedException {
+        final FetchScheduler scheduler = new FetchScheduler(FetchScheduler.DEFAULT_MAX_ATTEMPTS,
+                FetchScheduler.DEFAULT_BASE_DELAY_MILLIS, FetchScheduler.DEFAULT_MAX_DELAY_MILLIS,
+                QuakeHttpClient.getInstance());
+        final QuakeFormatter formatter = new QuakeFormatter("Near the");
+        final long[] latencies = new long[trace.size()];
+        final int[] events = new int[trace.size()];
+        final boolean[] failed = new boolean[trace.size()];
+
+        ExecutorService loader = Executors.newFixedThreadPool(threads);
+        final long start = System.nanoTime();
+        for (int i = 0; i < trace.size(); i++) {
+            final int index = i;
+            final String url = baseUrl + trace.get(i).path;
+            final long due = start + (long) (trace.get(i).timeMillis * 1000000 / speed);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            loader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        QuakeTable quakes = scheduler.newCall(url).execute();
+                        // What the list does before showing them
+                        quakes.prepareDisplay(formatter);
+                        events[index] = quakes.size();
+                    } catch (IOException e) {
+                        failed[index] = true;
+                    }
+                    latencies[index] = System.nanoTime() - due;
+                }
+            });
+        }
+        loader.shutdown();
+        loader.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        int failures = 0;
+        long totalEvents = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            failures += failed[i] ? 1 : 0;
+            totalEvents += events[i];
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format(Locale.US, "Replayed %d requests in %.1f s against %s",
+                trace.size(), seconds, baseUrl));
+        System.out.println(String.format(Locale.US, "  throughput: %.1f requests/s, %.0f earthquakes/s",
+                trace.size() / seconds, totalEvents / seconds));
+        System.out.println(String.format(Locale.US, "  latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f",
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 100)));
+        System.out.println("  failed after retries: " + failures);
+    }
+
+    /**
+     * Return the given percentile of sorted nanoseconds, in milliseconds.
+     */
+    private static double percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    /**
+     * Make up the requests of app sessions starting every few seconds, see the class comment.
+     */
+    private static List<Request> makeTrace(int sessions, long seed) {
+        Random random = new Random(seed);
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // Syncs ask for what changed since shortly before the newest fixture event
+        String updatedAfter = isoFormat.format(new Date(QuakeFixtures.START_TIME - 10 * 60 * 1000));
+
+        List<Request> trace = new ArrayList<>();
+        long sessionStart = 0;
+        for (int i = 0; i < sessions; i++) {
+            sessionStart += 500 + random.nextInt(4000);
+            String query = QUERY + "&minmag=" + MIN_MAGNITUDES[random.nextInt(MIN_MAGNITUDES.length)]
+                    + "&orderby=" + ORDER_BYS[random.nextInt(ORDER_BYS.length)];
+            long sessionLength = 20 * 1000 + random.nextInt(160 * 1000);
+
+            long time = sessionStart;
+            int pages = 1 + random.nextInt(5);
+            for (int page = 0; page < pages; page++) {
+                trace.add(new Request(time, query + "&limit=" + PAGE_SIZE + "&offset=" + (page * PAGE_SIZE + 1)));
+                time += 800 + random.nextInt(2000);
+            }
+            for (time = sessionStart + SYNC_INTERVAL_MILLIS; time < sessionStart + sessionLength;
+                 time += SYNC_INTERVAL_MILLIS) {
+                trace.add(new Request(time, query + "&updatedafter=" + updatedAfter + "&limit=100"));
+            }
+            if (random.nextInt(3) == 0) {
+                for (time = sessionStart + LIVE_POLL_INTERVAL_MILLIS; time < sessionStart + sessionLength;
+                     time += LIVE_POLL_INTERVAL_MILLIS) {
+                    trace.add(new Request(time, StandInServer.SUMMARY_FEED_PATH + "2.5_hour.geojson"));
+                }
+            }
+        }
+        sort(trace);
+        return trace;
+    }
+
+    private static void sort(List<Request> trace) {
+        Collections.sort(trace, new Comparator<Request>() {
+            @Override
+            public int compare(Request a, Request b) {
+                return a.timeMillis < b.timeMillis ? -1 : a.timeMillis > b.timeMillis ? 1 : 0;
+            }
+        });
+    }
+
+    private static List<Request> readTrace(String fileName) throws IOException {
+        List<Request> trace = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName),
+                Charset.forName("UTF-8")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    throw new IOException("Bad trace line: " + line);
+                }
+                trace.add(new Request(Long.parseLong(line.substring(0, space)), line.substring(space + 1).trim()));
+            }
+        } finally {
+            reader.close();
+        }
+        sort(trace);
+        return trace;
+    }
+
+    private static void writeTrace(List<Request> trace, String fileName) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName),
+                Charset.forName("UTF-8")));
+        try {
+            for (Request request : trace) {
+                writer.println(request.timeMillis + " " + request.path);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeJsonParser;
+import com.example.android.quakereport.QuakeSearchIndex;
+import com.example.android.quakereport.QuakeTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searching 100k earthquakes by place as the user types: the {@link QuakeSearchIndex}
+ * against scanning every place for the query, the way a filter over the list would.
+ * <p>
+ * The queries are keystrokes of the same search, from one letter, which matches the most
+ * places, to two words.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class SearchBenchmark {
+
+    private static final int EVENTS = 100000;
+    private static final int LIMIT = 100;
+
+    @Param({"j", "ja", "japan", "rumoi ja", "new zealand"})
+    public String query;
+
+    private QuakeTable mQuakes;
+    private QuakeSearchIndex mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        mQuakes = new QuakeTable();
+        QuakeJsonParser.parse(new ByteArrayInputStream(QuakeFixtures.response(EVENTS)), mQuakes);
+        mIndex = build();
+    }
+
+    @Benchmark
+    public QuakeSearchIndex build() {
+        QuakeSearchIndex index = new QuakeSearchIndex();
+        index.addAll(mQuakes);
+        return index;
+    }
+
+    @Benchmark
+    public List<String> searchIndex() {
+        return mIndex.search(query, LIMIT);
+    }
+
+    /**
+     * The first matches in list order, without any ranking, which would only cost more.
+     */
+    @Benchmark
+    public List<String> searchScan() {
+        List<String> ids = new ArrayList<>();
+        String lowerCaseQuery = query.toLowerCase(Locale.ROOT);
+        int size = mQuakes.size();
+        for (int i = 0; i < size && ids.size() < LIMIT; i++) {
+            if (mQuakes.getPlace(i).toLowerCase(Locale.ROOT).contains(lowerCaseQuery)) {
+                ids.add(mQuakes.getId(i));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeJsonParser;
+import com.example.android.quakereport.QuakeSnapshot;
+import com.example.android.quakereport.QuakeTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start: loading the last result set from its {@link QuakeSnapshot} file, against
+ * parsing the same earthquakes from a GeoJSON file with the streaming parser.
+ * <p>
+ * Both read from a file in the temporary directory, which the OS has in its page cache
+ * after the first iteration, like the app's cache directory on a second launch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class SnapshotBenchmark {
+
+    @Param({"2000", "50000"})
+    public int featureCount;
+
+    private File mJsonFile;
+    private File mSnapshotFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] response = QuakeFixtures.response(featureCount);
+        mJsonFile = File.createTempFile("quakes", ".json");
+        FileOutputStream out = new FileOutputStream(mJsonFile);
+        try {
+            out.write(response);
+        } finally {
+            out.close();
+        }
+
+        QuakeTable quakes = new QuakeTable();
+        QuakeJsonParser.parse(new ByteArrayInputStream(response), quakes);
+        mSnapshotFile = File.createTempFile("quakes", ".snapshot");
+        new QuakeSnapshot(quakes, "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson",
+                0, "time", true, System.currentTimeMillis()).write(mSnapshotFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mJsonFile.delete();
+        mSnapshotFile.delete();
+    }
+
+    @Benchmark
+    public QuakeTable readSnapshot() throws IOException {
+        return QuakeSnapshot.read(mSnapshotFile).getQuakes();
+    }
+
+    @Benchmark
+    public QuakeTable parseJson() throws IOException {
+        QuakeTable quakes = new QuakeTable();
+        InputStream in = new FileInputStream(mJsonFile);
+        try {
+            QuakeJsonParser.parse(in, quakes);
+        } finally {
+            in.close();
+        }
+        return quakes;
+    }
+}
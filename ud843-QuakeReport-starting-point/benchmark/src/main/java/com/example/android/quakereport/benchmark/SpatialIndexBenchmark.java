@@ -0,0 +1,150 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeSpatialIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Region queries over 100k events: building the grid, radius, box and nearest-N queries,
+ * against checking the distance of every event.
+ * <p>
+ * Like real seismicity, most synthetic events are packed along a few belts, the rest are
+ * spread over the globe.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class SpatialIndexBenchmark {
+
+    private static final int EVENTS = 100000;
+    private static final int QUERY_POINTS = 256;
+
+    // Belts of events: latitude, longitude, then the latitude and longitude spread
+    private static final double[][] BELTS = {
+            {38, 142, 6, 4}, {-20, -70, 12, 3}, {36, -120, 4, 4}, {-5, 125, 8, 15},
+            {52, -170, 3, 20}, {19, -155, 1, 1}, {38, 25, 4, 12}, {28, 85, 3, 10}
+    };
+
+    @Param({"1.0", "5.0"})
+    public double cellDegrees;
+
+    private String[] mIds;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private double[] mQueryLatitudes;
+    private double[] mQueryLongitudes;
+    private QuakeSpatialIndex mIndex;
+    private int mQuery;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1906);
+        mIds = new String[EVENTS];
+        mLatitudes = new double[EVENTS];
+        mLongitudes = new double[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            mIds[i] = "bm" + i;
+            if (random.nextInt(10) < 8) {
+                double[] belt = BELTS[random.nextInt(BELTS.length)];
+                mLatitudes[i] = Math.max(-90, Math.min(90, belt[0] + random.nextGaussian() * belt[2]));
+                mLongitudes[i] = wrapLongitude(belt[1] + random.nextGaussian() * belt[3]);
+            } else {
+                mLatitudes[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+                mLongitudes[i] = random.nextDouble() * 360 - 180;
+            }
+        }
+        mQueryLatitudes = new double[QUERY_POINTS];
+        mQueryLongitudes = new double[QUERY_POINTS];
+        for (int i = 0; i < QUERY_POINTS; i++) {
+            // Query around events, like sites placed where earthquakes happen
+            int event = random.nextInt(EVENTS);
+            mQueryLatitudes[i] = mLatitudes[event];
+            mQueryLongitudes[i] = mLongitudes[event];
+        }
+        mIndex = build();
+    }
+
+    @Benchmark
+    public QuakeSpatialIndex buildIndex() {
+        return build();
+    }
+
+    @Benchmark
+    public int[] radius100Km() {
+        int query = nextQuery();
+        return mIndex.withinRadius(mQueryLatitudes[query], mQueryLongitudes[query], 100);
+    }
+
+    @Benchmark
+    public int[] radius1000Km() {
+        int query = nextQuery();
+        return mIndex.withinRadius(mQueryLatitudes[query], mQueryLongitudes[query], 1000);
+    }
+
+    @Benchmark
+    public int[] box10Degrees() {
+        int query = nextQuery();
+        double latitude = mQueryLatitudes[query];
+        double longitude = mQueryLongitudes[query];
+        return mIndex.withinBox(latitude - 5, wrapLongitude(longitude - 5), latitude + 5,
+                wrapLongitude(longitude + 5));
+    }
+
+    @Benchmark
+    public int[] nearest10() {
+        int query = nextQuery();
+        return mIndex.nearest(mQueryLatitudes[query], mQueryLongitudes[query], 10);
+    }
+
+    /**
+     * The distance of every event, what answering a radius query costs without an index.
+     */
+    @Benchmark
+    public void radius100KmLinearScan(Blackhole blackhole) {
+        int query = nextQuery();
+        double latitude = mQueryLatitudes[query];
+        double longitude = mQueryLongitudes[query];
+        int found = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            if (QuakeSpatialIndex.distanceKm(latitude, longitude, mLatitudes[i], mLongitudes[i]) <= 100) {
+                found++;
+            }
+        }
+        blackhole.consume(found);
+    }
+
+    private QuakeSpatialIndex build() {
+        QuakeSpatialIndex index = new QuakeSpatialIndex(cellDegrees);
+        for (int i = 0; i < EVENTS; i++) {
+            index.add(mIds[i], mLatitudes[i], mLongitudes[i]);
+        }
+        return index;
+    }
+
+    private int nextQuery() {
+        mQuery = (mQuery + 1) % QUERY_POINTS;
+        return mQuery;
+    }
+
+    private static double wrapLongitude(double longitude) {
+        double wrapped = (longitude + 180) % 360;
+        return (wrapped < 0 ? wrapped + 360 : wrapped) - 180;
+    }
+}
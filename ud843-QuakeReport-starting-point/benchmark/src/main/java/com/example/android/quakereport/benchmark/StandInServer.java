@@ -0,0 +1,538 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.QuakeJsonParser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the USGS servers, answering the requests of the app from a fixed
+ * catalog, so fetching, parsing and rendering can be measured the same way every time, and
+ * under network conditions chosen on purpose.
+ * <p>
+ * It answers the FDSN event query ({@code /fdsnws/event/1/query}, GeoJSON only, with
+ * {@code minmag}, {@code orderby}, {@code starttime}, {@code endtime}, {@code updatedafter},
+ * {@code limit} and {@code offset}, or {@code eventid} for the detail of one event) and the
+ * summary feeds of the past hour, like USGS does: gzip when asked for, an {@code ETag} and a
+ * 304 when it matches, and a 400 for queries with more than 20000 results and no limit. The catalog is {@link QuakeFixtures} or a recorded
+ * GeoJSON response, whose features are served byte for byte.
+ * <p>
+ * The {@link Conditions} add latency, a bandwidth cap and failed requests.
+ * <p>
+ * Run on its own with "gradlew :benchmark:standInServer -Pargs='--port 8080 --latency 300'",
+ * and point the app to it in the settings (http://10.0.2.2:8080 from the emulator), or start
+ * it in-process, like the {@link ReplayHarness} does.
+ */
+public final class StandInServer {
+
+    /**
+     * The network conditions the server simulates.
+     */
+    public static final class Conditions {
+        /** Delay before the response headers, in milliseconds */
+        public long latencyMillis;
+        /** Up to this much more delay, picked at random for each request */
+        public long jitterMillis;
+        /** How fast the body is sent, 0 for as fast as possible */
+        public long bytesPerSecond;
+        /** Fraction of the requests answered with a 503, between 0 and 1 */
+        public double errorRate;
+        /** Whether responses are compressed for the clients that ask for it */
+        public boolean gzip = true;
+
+        /**
+         * Read the conditions from the options {@code --latency}, {@code --jitter},
+         * {@code --bandwidth} (bytes per second), {@code --error-rate} and {@code --no-gzip}.
+         */
+        public static Conditions fromOptions(Map<String, String> options) {
+            Conditions conditions = new Conditions();
+            conditions.latencyMillis = longOption(options, "latency", 0);
+            conditions.jitterMillis = longOption(options, "jitter", 0);
+            conditions.bytesPerSecond = longOption(options, "bandwidth", 0);
+            conditions.errorRate = options.containsKey("error-rate")
+                    ? Double.parseDouble(options.get("error-rate")) : 0;
+            conditions.gzip = !options.containsKey("no-gzip");
+            return conditions;
+        }
+
+        @Override
+        public String toString() {
+            return "latency " + latencyMillis + "+" + jitterMillis + " ms, "
+                    + (bytesPerSecond > 0 ? bytesPerSecond + " B/s" : "unlimited bandwidth")
+                    + ", error rate " + errorRate + (gzip ? ", gzip" : "");
+        }
+    }
+
+    /**
+     * A feature of the catalog, with its raw JSON and the fields the queries filter on.
+     */
+    private static final class Event {
+        final String json;
+        final String id;
+        final double magnitude;
+        final long time;
+        final long updated;
+
+        Event(String json, String id, double magnitude, long time, long updated) {
+            this.json = json;
+            this.id = id;
+            this.magnitude = magnitude;
+            this.time = time;
+            this.updated = updated;
+        }
+    }
+
+    public static final String QUERY_PATH = "/fdsnws/event/1/query";
+    public static final String SUMMARY_FEED_PATH = "/earthquakes/feed/v1.0/summary/";
+
+    private static final int USGS_MAX_RESULTS = 20000;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Comparator<Event> NEWEST_FIRST = new Comparator<Event>() {
+        @Override
+        public int compare(Event a, Event b) {
+            return a.time < b.time ? 1 : a.time > b.time ? -1 : 0;
+        }
+    };
+
+    private static final Comparator<Event> STRONGEST_FIRST = new Comparator<Event>() {
+        @Override
+        public int compare(Event a, Event b) {
+            return Double.compare(b.magnitude, a.magnitude);
+        }
+    };
+
+    // Newest first
+    private final List<Event> mCatalog;
+    private final Conditions mConditions;
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Random mRandom = new Random();
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    private final AtomicInteger mErrors = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    /**
+     * @param catalog a GeoJSON response, the features the server answers with
+     * @param port    the port to listen on, 0 for any free one
+     */
+    public StandInServer(String catalog, Conditions conditions, int port) throws IOException {
+        mCatalog = loadCatalog(catalog);
+        mConditions = conditions;
+        mServer = HttpServer.create(new InetSocketAddress(port), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        // Requests wait for their latency on their own thread, they don't hold up the others
+        mServer.setExecutor(mExecutor);
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Return the URL the app takes as its server, e.g. "http://localhost:8080".
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + mServer.getAddress().getPort();
+    }
+
+    public int getCatalogSize() {
+        return mCatalog.size();
+    }
+
+    /**
+     * Return what was served so far: requests, 304 answers, simulated errors and bytes.
+     */
+    public String getStats() {
+        return mRequests.get() + " requests, " + mNotModified.get() + " not modified, "
+                + mErrors.get() + " failed on purpose, " + mBytesSent.get() / 1024 + " KB sent";
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+        drain(exchange.getRequestBody());
+
+        long delay = mConditions.latencyMillis;
+        if (mConditions.jitterMillis > 0) {
+            delay += (long) (nextDouble() * mConditions.jitterMillis);
+        }
+        sleep(delay);
+
+        if (nextDouble() < mConditions.errorRate) {
+            mErrors.incrementAndGet();
+            send(exchange, 503, "Service Temporarily Unavailable".getBytes(UTF_8), "text/plain");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        byte[] body;
+        if (path.equals(QUERY_PATH) && parameters.containsKey("eventid")) {
+            // The detail of one event is the feature alone, not a collection
+            Event event = find(parameters.get("eventid"));
+            if (event == null) {
+                send(exchange, 404, "Not found".getBytes(UTF_8), "text/plain");
+                return;
+            }
+            body = event.json.getBytes(UTF_8);
+        } else if (path.equals(QUERY_PATH)) {
+            if (!"geojson".equals(parameters.get("format"))) {
+                send(exchange, 400, "Only format=geojson is served".getBytes(UTF_8), "text/plain");
+                return;
+            }
+            List<Event> events;
+            try {
+                events = query(parameters);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, e.getMessage().getBytes(UTF_8), "text/plain");
+                return;
+            }
+            body = toGeoJson(events, exchange.getRequestURI().toString());
+        } else if (path.startsWith(SUMMARY_FEED_PATH) && path.endsWith("_hour.geojson")) {
+            String level = path.substring(SUMMARY_FEED_PATH.length(), path.length() - "_hour.geojson".length());
+            List<Event> events = pastHour("all".equals(level) ? Double.NEGATIVE_INFINITY : Double.parseDouble(level));
+            body = toGeoJson(events, exchange.getRequestURI().toString());
+        } else {
+            send(exchange, 404, "Not found".getBytes(UTF_8), "text/plain");
+            return;
+        }
+
+        String eTag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        exchange.getResponseHeaders().set("ETag", eTag);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            mNotModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        send(exchange, 200, body, "application/json");
+    }
+
+    private Event find(String id) {
+        for (Event event : mCatalog) {
+            if (event.id.equals(id)) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the events of an FDSN query, in its order and page.
+     *
+     * @throws IllegalArgumentException if USGS would answer 400
+     */
+    private List<Event> query(Map<String, String> parameters) {
+        double minMagnitude = parameters.containsKey("minmag")
+                ? Double.parseDouble(parameters.get("minmag")) : Double.NEGATIVE_INFINITY;
+        long startTime = parameters.containsKey("starttime") ? parseTime(parameters.get("starttime")) : Long.MIN_VALUE;
+        long endTime = parameters.containsKey("endtime") ? parseTime(parameters.get("endtime")) : Long.MAX_VALUE;
+        long updatedAfter = parameters.containsKey("updatedafter")
+                ? parseTime(parameters.get("updatedafter")) : Long.MIN_VALUE;
+
+        List<Event> events = new ArrayList<>();
+        for (Event event : mCatalog) {
+            if (event.magnitude >= minMagnitude && event.time >= startTime && event.time <= endTime
+                    && event.updated > updatedAfter) {
+                events.add(event);
+            }
+        }
+
+        String orderBy = parameters.containsKey("orderby") ? parameters.get("orderby") : "time";
+        if ("time-asc".equals(orderBy)) {
+            Collections.reverse(events);
+        } else if ("magnitude".equals(orderBy)) {
+            Collections.sort(events, STRONGEST_FIRST);
+        } else if ("magnitude-asc".equals(orderBy)) {
+            Collections.sort(events, Collections.reverseOrder(STRONGEST_FIRST));
+        }
+
+        if (!parameters.containsKey("limit")) {
+            if (events.size() > USGS_MAX_RESULTS) {
+                throw new IllegalArgumentException("Too many results, " + events.size() + " > " + USGS_MAX_RESULTS);
+            }
+            return events;
+        }
+        int limit = Integer.parseInt(parameters.get("limit"));
+        int offset = parameters.containsKey("offset") ? Integer.parseInt(parameters.get("offset")) : 1;
+        int from = Math.min(events.size(), Math.max(0, offset - 1));
+        return events.subList(from, Math.min(events.size(), from + limit));
+    }
+
+    /**
+     * Return the events of the hour before the newest event of the catalog: the catalog
+     * doesn't move on with the clock, its newest event stands for "now".
+     */
+    private List<Event> pastHour(double minMagnitude) {
+        List<Event> events = new ArrayList<>();
+        if (mCatalog.isEmpty()) {
+            return events;
+        }
+        long since = mCatalog.get(0).time - HOUR_MILLIS;
+        for (Event event : mCatalog) {
+            if (event.time < since) {
+                break;
+            }
+            if (event.magnitude >= minMagnitude) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private static byte[] toGeoJson(List<Event> events, String url) {
+        StringBuilder json = new StringBuilder(events.size() * 1100 + 256);
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":")
+                .append(System.currentTimeMillis())
+                .append(",\"url\":\"").append(url.replace("\"", "%22"))
+                .append("\",\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.2\",\"count\":")
+                .append(events.size()).append("},\"features\":[");
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(events.get(i).json);
+        }
+        json.append("]}");
+        return json.toString().getBytes(UTF_8);
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body, String contentType) throws IOException {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (mConditions.gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(body);
+            gzip.close();
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+
+        // Send the body in slices of 20 ms of bandwidth, or at once without a cap
+        OutputStream out = exchange.getResponseBody();
+        int slice = mConditions.bytesPerSecond > 0
+                ? (int) Math.max(1, mConditions.bytesPerSecond / 50) : body.length;
+        for (int offset = 0; offset < body.length; offset += slice) {
+            int count = Math.min(slice, body.length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            mBytesSent.addAndGet(count);
+            if (mConditions.bytesPerSecond > 0) {
+                sleep(count * 1000L / mConditions.bytesPerSecond);
+            }
+        }
+        out.close();
+    }
+
+    private synchronized double nextDouble() {
+        return mRandom.nextDouble();
+    }
+
+    /**
+     * Cut a GeoJSON response into its features, keeping the JSON of each as it is.
+     */
+    private static List<Event> loadCatalog(String geoJson) throws IOException {
+        final List<double[]> fields = new ArrayList<>();
+        final List<String> ids = new ArrayList<>();
+        QuakeJsonParser.parse(new StringReader(geoJson), new QuakeJsonParser.Handler() {
+            @Override
+            public void onFeature(QuakeJsonParser.Feature feature) {
+                fields.add(new double[]{feature.magnitude, feature.time, feature.updated});
+                ids.add(feature.id);
+            }
+        });
+
+        // The features are the objects right inside the "features" array
+        List<Event> events = new ArrayList<>(fields.size());
+        int start = geoJson.indexOf("\"features\"");
+        start = start < 0 ? -1 : geoJson.indexOf('[', start);
+        int depth = 0;
+        int featureStart = -1;
+        boolean inString = false;
+        for (int i = start + 1; start >= 0 && i < geoJson.length() && depth >= 0; i++) {
+            char c = geoJson.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                if (depth == 0) {
+                    featureStart = i;
+                }
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 0) {
+                    double[] feature = fields.get(events.size());
+                    events.add(new Event(geoJson.substring(featureStart, i + 1), ids.get(events.size()),
+                            feature[0], (long) feature[1], (long) feature[2]));
+                }
+            }
+        }
+        Collections.sort(events, NEWEST_FIRST);
+        return events;
+    }
+
+    /**
+     * Parse the times of the FDSN parameters, with or without milliseconds, in UTC.
+     */
+    private static long parseTime(String text) {
+        String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"};
+        for (String pattern : patterns) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            try {
+                return format.parse(text).getTime();
+            } catch (ParseException e) {
+                // Try the next one
+            }
+        }
+        throw new IllegalArgumentException("Bad time " + text);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (inputStream.read(buffer) >= 0) {
+            // Requests are GETs, there is nothing to read
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read {@code --name value} options, and {@code --name} flags with an empty value.
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "");
+            }
+        }
+        return options;
+    }
+
+    static long longOption(Map<String, String> options, String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+
+    /**
+     * Return the catalog of the options: the GeoJSON file of {@code --fixture}, or
+     * {@code --events} (default 5000) events of {@link QuakeFixtures}.
+     */
+    static String loadFixture(Map<String, String> options) throws IOException {
+        if (options.containsKey("fixture")) {
+            File file = new File(options.get("fixture"));
+            Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8);
+            try {
+                StringBuilder text = new StringBuilder((int) file.length());
+                char[] buffer = new char[8192];
+                int read;
+                while ((read = reader.read(buffer)) >= 0) {
+                    text.append(buffer, 0, read);
+                }
+                return text.toString();
+            } finally {
+                reader.close();
+            }
+        }
+        return QuakeFixtures.responseText((int) longOption(options, "events", 5000));
+    }
+
+    /**
+     * Serve until killed. Options: {@code --port} (default 8080), the catalog options of
+     * {@link #loadFixture} and the {@link Conditions}.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        Conditions conditions = Conditions.fromOptions(options);
+        StandInServer server = new StandInServer(loadFixture(options), conditions,
+                (int) longOption(options, "port", 8080));
+        server.start();
+        System.out.println("Serving " + server.getCatalogSize() + " earthquakes on " + server.getBaseUrl()
+                + ", " + conditions);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Quake;
+import com.example.android.quakereport.QuakeFormatter;
+import com.example.android.quakereport.QuakeJsonParser;
+import com.example.android.quakereport.QuakeTable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how much heap loaded earthquakes keep: a {@link QuakeTable} against a list of
+ * {@link Quake} objects holding the same strings, first as parsed, then ready to display.
+ * Run with "gradlew :benchmark:footprint", or with -Pargs=20000 for another number of events.
+ * <p>
+ * The heap is measured after a few full GCs, so only what the data keeps alive counts,
+ * not the garbage parsing made. Run it with a serial collector for steady numbers.
+ */
+public final class TableFootprint {
+
+    private static final int DEFAULT_EVENTS = 50000;
+
+    private TableFootprint() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EVENTS;
+        byte[] response = QuakeFixtures.response(events);
+        QuakeFormatter formatter = new QuakeFormatter("Near the");
+
+        // Once to load the classes and warm up, so they don't count
+        load(response, formatter);
+        loadList(response, formatter);
+
+        System.out.println(events + " events as parsed");
+        measureTable(response, null);
+        measureList(response, null);
+        System.out.println(events + " events ready to display");
+        measureTable(response, formatter);
+        measureList(response, formatter);
+    }
+
+    private static void measureTable(byte[] response, QuakeFormatter formatter) throws IOException {
+        long before = usedHeap();
+        QuakeTable table = load(response, formatter);
+        long bytes = usedHeap() - before;
+        System.out.println("  QuakeTable:  " + bytes / 1024 + " KB, " + bytes / table.size() + " bytes per event");
+    }
+
+    private static void measureList(byte[] response, QuakeFormatter formatter) throws IOException {
+        long before = usedHeap();
+        List<Object> list = loadList(response, formatter);
+        long bytes = usedHeap() - before;
+        int events = formatter == null ? list.size() : list.size() / 6;
+        System.out.println("  List<Quake>: " + bytes / 1024 + " KB, " + bytes / events + " bytes per event");
+    }
+
+    /**
+     * Load the response in a table, with the display strings if a formatter is given.
+     */
+    private static QuakeTable load(byte[] response, QuakeFormatter formatter) throws IOException {
+        QuakeTable table = new QuakeTable();
+        QuakeJsonParser.parse(new ByteArrayInputStream(response), table);
+        if (formatter != null) {
+            table.prepareDisplay(formatter);
+        }
+        return table;
+    }
+
+    /**
+     * Every event as a {@link Quake}, like the list held before the table. With a formatter,
+     * each one is followed by its five display strings, like the adapter held them.
+     */
+    private static List<Object> loadList(byte[] response, final QuakeFormatter formatter) throws IOException {
+        final List<Object> list = new ArrayList<>();
+        QuakeJsonParser.parse(new ByteArrayInputStream(response), new QuakeJsonParser.Handler() {
+            @Override
+            public void onFeature(QuakeJsonParser.Feature feature) {
+                list.add(feature.toQuake());
+                if (formatter == null) {
+                    return;
+                }
+                list.add(formatter.formatMagnitude(feature.magnitude));
+                list.add(formatter.formatLocationOffset(feature.place));
+                list.add(formatter.formatPrimaryLocation(feature.place));
+                list.add(formatter.formatDate(feature.time));
+                list.add(formatter.formatTime(feature.time));
+            }
+        });
+        return list;
+    }
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}